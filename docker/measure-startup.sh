@@ -0,0 +1,127 @@
+#!/usr/bin/env bash
+#
+# Time from JVM launch to the first accepted POST /incoming (HTTP 200), per startup mode:
+#   default             java -jar
+#   faststart           Spring AOT + the faststart profile (lazy MongoDB beans, sinks and exporter)
+#   faststart-unpacked  faststart on the unpacked war, without a CDS archive
+#   faststart-cds       faststart-unpacked with an AppCDS archive from a training run
+# faststart-unpacked separates what the archive saves from what leaving the nested jars saves.
+#
+# The faststart modes need a war built with AOT processing:
+#   mvn -Pfaststart -DskipTests package
+#   docker/measure-startup.sh target/spanlink-demo-0.0.1-SNAPSHOT.war [mode...]
+#
+# Environment: RUNS (per mode, default 5), PORT (default 8080), APP_ARGS (extra application
+# arguments, e.g. "--spring.data.mongodb.uri=mongodb://localhost:27017/spanlink-demo"),
+# JAVA_OPTS, WORK_DIR (logs and the CDS archive, default target/startup).
+# MongoDB does not have to be reachable: /incoming takes requests before the first write.
+
+set -euo pipefail
+
+WAR=$(cd "$(dirname "${1:?usage: $0 <war> [default|faststart|faststart-unpacked|faststart-cds ...]}")" && pwd)/$(basename "$1")
+shift
+MODES=("$@")
+[ ${#MODES[@]} -eq 0 ] && MODES=(default faststart faststart-unpacked faststart-cds)
+RUNS=${RUNS:-5}
+PORT=${PORT:-8080}
+APP_ARGS=${APP_ARGS:-}
+JAVA_OPTS=${JAVA_OPTS:-}
+WORK_DIR=${WORK_DIR:-target/startup}
+MAIN_CLASS=com.example.spanlink_demo.SpanlinkDemoApplication
+
+mkdir -p "$WORK_DIR"
+WORK_DIR=$(cd "$WORK_DIR" && pwd)
+
+# Prints the milliseconds until POST /incoming answers 200, or fails if the process exits first
+wait_for_first_request() {
+    local pid=$1 start=$2 probe=0
+    until [ "$(curl -s -o /dev/null -w '%{http_code}' --max-time 5 -X POST \
+            -H "x-request-id: startup-probe-$pid-$probe" "http://localhost:$PORT/incoming")" = 200 ]; do
+        kill -0 "$pid" 2>/dev/null || return 1
+        probe=$((probe + 1))
+        sleep 0.01
+    done
+    echo $(( ($(date +%s%N) - start) / 1000000 ))
+}
+
+stop() {
+    kill "$1" 2>/dev/null || true
+    wait "$1" 2>/dev/null || true
+}
+
+# The war's classes as a jar next to its libraries: CDS only archives classes loaded from jars
+# on the class path, not from the nested jars of an executable war
+cds_classpath() {
+    local dir=$WORK_DIR/cds
+    if [ ! -f "$dir/classes.jar" ] || [ "$WAR" -nt "$dir/classes.jar" ]; then
+        rm -rf "$dir" && mkdir -p "$dir/war"
+        (cd "$dir/war" && jar xf "$WAR")
+        jar cf "$dir/classes.jar" -C "$dir/war/WEB-INF/classes" .
+        rm -f "$dir/app.jsa"
+    fi
+    local classpath=$dir/classes.jar jar
+    for jar in "$dir"/war/WEB-INF/lib/*.jar "$dir"/war/WEB-INF/lib-provided/*.jar; do
+        case "$jar" in *spring-boot-jarmode*) continue ;; esac
+        classpath=$classpath:$jar
+    done
+    echo "$classpath"
+}
+
+# Training run: startup plus some traffic, the archive is written when the JVM exits
+cds_archive() {
+    local classpath=$1 archive=$WORK_DIR/cds/app.jsa
+    [ -f "$archive" ] && return 0
+    echo "Training run for $archive"
+    # shellcheck disable=SC2086
+    java $JAVA_OPTS -XX:ArchiveClassesAtExit="$archive" -Dspring.aot.enabled=true -cp "$classpath" "$MAIN_CLASS" \
+        --spring.profiles.active=faststart --server.port="$PORT" $APP_ARGS > "$WORK_DIR/cds-training.log" 2>&1 &
+    local pid=$!
+    wait_for_first_request "$pid" "$(date +%s%N)" > /dev/null || { echo "Training run failed, see $WORK_DIR/cds-training.log"; exit 1; }
+    for i in $(seq 200); do
+        curl -s -o /dev/null -X POST -H "x-request-id: cds-training-$i" "http://localhost:$PORT/incoming"
+    done
+    stop "$pid"
+}
+
+measure() {
+    local mode=$1 times=() run start pid elapsed
+    local command
+    case "$mode" in
+        default)
+            command="java $JAVA_OPTS -jar $WAR --server.port=$PORT $APP_ARGS" ;;
+        faststart)
+            command="java $JAVA_OPTS -Dspring.aot.enabled=true -jar $WAR --spring.profiles.active=faststart --server.port=$PORT $APP_ARGS" ;;
+        faststart-unpacked)
+            command="java $JAVA_OPTS -Dspring.aot.enabled=true -cp $(cds_classpath) $MAIN_CLASS --spring.profiles.active=faststart --server.port=$PORT $APP_ARGS" ;;
+        faststart-cds)
+            local classpath
+            classpath=$(cds_classpath)
+            cds_archive "$classpath"
+            command="java $JAVA_OPTS -XX:SharedArchiveFile=$WORK_DIR/cds/app.jsa -Dspring.aot.enabled=true -cp $classpath $MAIN_CLASS --spring.profiles.active=faststart --server.port=$PORT $APP_ARGS" ;;
+        *)
+            echo "Unknown mode: $mode"; exit 1 ;;
+    esac
+    for run in $(seq "$RUNS"); do
+        start=$(date +%s%N)
+        $command > "$WORK_DIR/$mode-$run.log" 2>&1 &
+        pid=$!
+        if ! elapsed=$(wait_for_first_request "$pid" "$start"); then
+            echo "$mode: exited before accepting a request, see $WORK_DIR/$mode-$run.log"
+            exit 1
+        fi
+        stop "$pid"
+        times+=("$elapsed")
+        echo "$mode run $run: first request accepted after ${elapsed}ms"
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk -v mode="$mode" \
+        '{ t[NR] = $1 } END { printf "%-19s min %6dms  median %6dms  max %6dms\n", mode, t[1], t[int((NR + 1) / 2)], t[NR] }' \
+        >> "$WORK_DIR/summary.txt"
+}
+
+: > "$WORK_DIR/summary.txt"
+for mode in "${MODES[@]}"; do
+    measure "$mode"
+done
+echo
+echo "Time to first accepted request ($RUNS runs per mode):"
+cat "$WORK_DIR/summary.txt"
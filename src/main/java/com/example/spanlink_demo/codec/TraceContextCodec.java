@@ -0,0 +1,351 @@
+package com.example.spanlink_demo.codec;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.TraceStateBuilder;
+
+/**
+ * W3C Trace Context codec for {@code traceparent} and {@code tracestate}.
+ *
+ * <p>Formats straight from {@link SpanContext} into a reusable per-thread buffer (or a caller
+ * supplied one) and parses straight into a {@link SpanContext}, without the propagator API's
+ * {@code Context} wrapping, carrier maps and setter/getter lambdas.
+ *
+ * @see <a href="https://www.w3.org/TR/trace-context/">W3C Trace Context</a>
+ */
+public final class TraceContextCodec {
+
+    /** Length of a version 00 {@code traceparent}: {@code 00-<32 hex>-<16 hex>-<2 hex>}. */
+    public static final int TRACEPARENT_LENGTH = 55;
+
+    private static final int TRACE_ID_OFFSET = 3;
+    private static final int SPAN_ID_OFFSET = 36;
+    private static final int FLAGS_OFFSET = 53;
+    private static final int TRACE_ID_HEX_LENGTH = 32;
+    private static final int SPAN_ID_HEX_LENGTH = 16;
+    private static final int MAX_TRACESTATE_MEMBERS = 32;
+    private static final int MAX_TRACESTATE_LENGTH = 512;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<char[]> TRACEPARENT_BUFFER =
+            ThreadLocal.withInitial(() -> new char[TRACEPARENT_LENGTH]);
+    private static final ThreadLocal<StringBuilder> TRACESTATE_BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(MAX_TRACESTATE_LENGTH));
+
+    private TraceContextCodec() {
+    }
+
+    /**
+     * Writes the {@code traceparent} of {@code spanContext} into {@code dest} at {@code offset}.
+     * Allocates nothing.
+     *
+     * @return number of chars written ({@link #TRACEPARENT_LENGTH})
+     */
+    public static int formatTraceparent(SpanContext spanContext, char[] dest, int offset) {
+        dest[offset] = '0';
+        dest[offset + 1] = '0';
+        dest[offset + 2] = '-';
+        spanContext.getTraceId().getChars(0, TRACE_ID_HEX_LENGTH, dest, offset + TRACE_ID_OFFSET);
+        dest[offset + SPAN_ID_OFFSET - 1] = '-';
+        spanContext.getSpanId().getChars(0, SPAN_ID_HEX_LENGTH, dest, offset + SPAN_ID_OFFSET);
+        dest[offset + FLAGS_OFFSET - 1] = '-';
+        byte flags = spanContext.getTraceFlags().asByte();
+        dest[offset + FLAGS_OFFSET] = HEX[(flags >> 4) & 0xf];
+        dest[offset + FLAGS_OFFSET + 1] = HEX[flags & 0xf];
+        return TRACEPARENT_LENGTH;
+    }
+
+    /**
+     * @return the {@code traceparent} of {@code spanContext}; the result string is the only allocation
+     */
+    public static String formatTraceparent(SpanContext spanContext) {
+        char[] buffer = TRACEPARENT_BUFFER.get();
+        formatTraceparent(spanContext, buffer, 0);
+        return new String(buffer, 0, TRACEPARENT_LENGTH);
+    }
+
+    /**
+     * Rebuilds a {@code traceparent} from stored hex IDs and a flags byte.
+     */
+    public static String formatTraceparent(String traceId, String spanId, byte flags) {
+        char[] buffer = TRACEPARENT_BUFFER.get();
+        buffer[0] = '0';
+        buffer[1] = '0';
+        buffer[2] = '-';
+        traceId.getChars(0, TRACE_ID_HEX_LENGTH, buffer, TRACE_ID_OFFSET);
+        buffer[SPAN_ID_OFFSET - 1] = '-';
+        spanId.getChars(0, SPAN_ID_HEX_LENGTH, buffer, SPAN_ID_OFFSET);
+        buffer[FLAGS_OFFSET - 1] = '-';
+        buffer[FLAGS_OFFSET] = HEX[(flags >> 4) & 0xf];
+        buffer[FLAGS_OFFSET + 1] = HEX[flags & 0xf];
+        return new String(buffer, 0, TRACEPARENT_LENGTH);
+    }
+
+    /**
+     * Rebuilds a {@code traceparent} from IDs held as longs (trace ID as high and low halves).
+     */
+    public static String formatTraceparent(long traceIdHigh, long traceIdLow, long spanId, byte flags) {
+        char[] buffer = TRACEPARENT_BUFFER.get();
+        buffer[0] = '0';
+        buffer[1] = '0';
+        buffer[2] = '-';
+        writeHex(traceIdHigh, buffer, TRACE_ID_OFFSET);
+        writeHex(traceIdLow, buffer, TRACE_ID_OFFSET + 16);
+        buffer[SPAN_ID_OFFSET - 1] = '-';
+        writeHex(spanId, buffer, SPAN_ID_OFFSET);
+        buffer[FLAGS_OFFSET - 1] = '-';
+        buffer[FLAGS_OFFSET] = HEX[(flags >> 4) & 0xf];
+        buffer[FLAGS_OFFSET + 1] = HEX[flags & 0xf];
+        return new String(buffer, 0, TRACEPARENT_LENGTH);
+    }
+
+    /**
+     * @return the 32 char hex trace ID of a trace ID held as high and low halves
+     */
+    public static String formatTraceId(long high, long low) {
+        char[] buffer = TRACEPARENT_BUFFER.get();
+        writeHex(high, buffer, 0);
+        writeHex(low, buffer, 16);
+        return new String(buffer, 0, TRACE_ID_HEX_LENGTH);
+    }
+
+    /**
+     * @return the 16 char hex span ID of a span ID held as a long
+     */
+    public static String formatSpanId(long spanId) {
+        char[] buffer = TRACEPARENT_BUFFER.get();
+        writeHex(spanId, buffer, 0);
+        return new String(buffer, 0, SPAN_ID_HEX_LENGTH);
+    }
+
+    /**
+     * Reads 16 lowercase hex chars of {@code id} at {@code offset} as a long, e.g. a span ID or
+     * one half of a trace ID. The chars are not validated; IDs of a {@link SpanContext} always are.
+     */
+    public static long parseHexLong(CharSequence id, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            value = (value << 4) | (hexValue(id.charAt(i)) & 0xf);
+        }
+        return value;
+    }
+
+    private static void writeHex(long value, char[] dest, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            dest[offset + i] = HEX[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * @return the W3C {@code tracestate} header value, or {@code null} if the trace state is empty
+     */
+    public static String formatTracestate(TraceState traceState) {
+        if (traceState.isEmpty()) {
+            return null;
+        }
+        StringBuilder buffer = TRACESTATE_BUFFER.get();
+        buffer.setLength(0);
+        traceState.forEach((key, value) -> {
+            if (buffer.length() > 0) {
+                buffer.append(',');
+            }
+            buffer.append(key).append('=').append(value);
+        });
+        return buffer.toString();
+    }
+
+    /**
+     * Parses and validates a {@code traceparent} (and optional {@code tracestate}).
+     *
+     * @return the remote span context, or {@link SpanContext#getInvalid()} if {@code traceparent}
+     *         is malformed; a malformed {@code tracestate} is dropped on its own
+     */
+    public static SpanContext parse(CharSequence traceparent, CharSequence tracestate) {
+        if (!isValidTraceparent(traceparent)) {
+            return SpanContext.getInvalid();
+        }
+        String value = traceparent.toString();
+        String traceId = value.substring(TRACE_ID_OFFSET, TRACE_ID_OFFSET + TRACE_ID_HEX_LENGTH);
+        String spanId = value.substring(SPAN_ID_OFFSET, SPAN_ID_OFFSET + SPAN_ID_HEX_LENGTH);
+        byte flags = (byte) ((hexValue(value.charAt(FLAGS_OFFSET)) << 4) | hexValue(value.charAt(FLAGS_OFFSET + 1)));
+        return SpanContext.createFromRemoteParent(traceId, spanId, TraceFlags.fromByte(flags), parseTracestate(tracestate));
+    }
+
+    /**
+     * Validates a {@code traceparent} against the W3C grammar: version, lowercase hex fields,
+     * non-zero trace and span IDs, and the rules for versions newer than {@code 00}.
+     */
+    public static boolean isValidTraceparent(CharSequence traceparent) {
+        if (traceparent == null || traceparent.length() < TRACEPARENT_LENGTH) {
+            return false;
+        }
+        int v0 = hexValue(traceparent.charAt(0));
+        int v1 = hexValue(traceparent.charAt(1));
+        if (v0 < 0 || v1 < 0 || (v0 == 0xf && v1 == 0xf)) {
+            return false;
+        }
+        boolean version00 = v0 == 0 && v1 == 0;
+        if (version00 && traceparent.length() != TRACEPARENT_LENGTH) {
+            return false;
+        }
+        // Future versions may append fields, separated by '-'
+        if (!version00 && traceparent.length() > TRACEPARENT_LENGTH && traceparent.charAt(TRACEPARENT_LENGTH) != '-') {
+            return false;
+        }
+        if (traceparent.charAt(2) != '-'
+                || traceparent.charAt(SPAN_ID_OFFSET - 1) != '-'
+                || traceparent.charAt(FLAGS_OFFSET - 1) != '-') {
+            return false;
+        }
+        return isNonZeroHex(traceparent, TRACE_ID_OFFSET, TRACE_ID_HEX_LENGTH)
+                && isNonZeroHex(traceparent, SPAN_ID_OFFSET, SPAN_ID_HEX_LENGTH)
+                && hexValue(traceparent.charAt(FLAGS_OFFSET)) >= 0
+                && hexValue(traceparent.charAt(FLAGS_OFFSET + 1)) >= 0;
+    }
+
+    /**
+     * Parses a W3C {@code tracestate}. Any invalid member invalidates the whole header, which
+     * then yields the empty trace state.
+     */
+    public static TraceState parseTracestate(CharSequence tracestate) {
+        if (tracestate == null || tracestate.length() == 0) {
+            return TraceState.getDefault();
+        }
+        if (tracestate.length() > MAX_TRACESTATE_LENGTH) {
+            return TraceState.getDefault();
+        }
+        TraceStateBuilder builder = TraceState.builder();
+        int members = 0;
+        int length = tracestate.length();
+        int start = 0;
+        while (start <= length) {
+            int end = indexOf(tracestate, ',', start);
+            int memberStart = skipWhitespace(tracestate, start, end);
+            int memberEnd = trimWhitespace(tracestate, memberStart, end);
+            // Empty list members are allowed and ignored
+            if (memberStart < memberEnd) {
+                int equals = indexOf(tracestate, '=', memberStart);
+                if (equals <= memberStart || equals >= memberEnd - 1
+                        || !isValidKey(tracestate, memberStart, equals)
+                        || !isValidValue(tracestate, equals + 1, memberEnd)) {
+                    return TraceState.getDefault();
+                }
+                if (++members > MAX_TRACESTATE_MEMBERS) {
+                    return TraceState.getDefault();
+                }
+                builder.put(tracestate.subSequence(memberStart, equals).toString(),
+                        tracestate.subSequence(equals + 1, memberEnd).toString());
+            }
+            start = end + 1;
+        }
+        // Members were appended left to right, but the builder puts the newest first
+        return reverse(builder.build());
+    }
+
+    private static TraceState reverse(TraceState parsed) {
+        if (parsed.size() < 2) {
+            return parsed;
+        }
+        TraceStateBuilder reversed = TraceState.builder();
+        parsed.forEach(reversed::put);
+        return reversed.build();
+    }
+
+    private static boolean isValidKey(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > 256) {
+            return false;
+        }
+        int at = -1;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+                continue;
+            }
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-' || c == '*' || c == '/';
+            if (!allowed) {
+                return false;
+            }
+        }
+        if (at < 0) {
+            char first = s.charAt(start);
+            return first >= 'a' && first <= 'z';
+        }
+        // Multi-tenant key: tenant (<= 241 chars) @ system (<= 14 chars, starting with a letter)
+        int tenantLength = at - start;
+        int systemLength = end - at - 1;
+        return tenantLength > 0 && tenantLength <= 241
+                && systemLength > 0 && systemLength <= 14
+                && s.charAt(at + 1) >= 'a' && s.charAt(at + 1) <= 'z';
+    }
+
+    private static boolean isValidValue(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > 256 || s.charAt(end - 1) == ' ') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == ',' || c == '=') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNonZeroHex(CharSequence s, int offset, int length) {
+        boolean nonZero = false;
+        for (int i = offset; i < offset + length; i++) {
+            int value = hexValue(s.charAt(i));
+            if (value < 0) {
+                return false;
+            }
+            nonZero |= value != 0;
+        }
+        return nonZero;
+    }
+
+    /**
+     * @return the value of a lowercase hex digit, or -1
+     */
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static int skipWhitespace(CharSequence s, int from, int to) {
+        while (from < to && (s.charAt(from) == ' ' || s.charAt(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimWhitespace(CharSequence s, int from, int to) {
+        while (to > from && (s.charAt(to - 1) == ' ' || s.charAt(to - 1) == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
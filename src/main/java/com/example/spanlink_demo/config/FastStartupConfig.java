@@ -0,0 +1,86 @@
+package com.example.spanlink_demo.config;
+
+import com.example.spanlink_demo.controller.LookupController;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.repository.ReactiveAggregatedContextRepository;
+import com.example.spanlink_demo.sink.MongoContextSink;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Fast startup ({@code startup.lazy.enabled=true}, see {@code application-faststart.properties}).
+ *
+ * <p>With {@code spring.main.lazy-initialization=true} this keeps every bean eager except the
+ * MongoDB ones: the driver, Spring Data's mapping context and repositories (made lazy here, as
+ * they opt out of lazy initialization), the MongoDB context sink and the lookup API. Those are
+ * created once the context sinks are, after startup (see
+ * {@link com.example.spanlink_demo.sink.ContextSinks}), or by the first lookup. Features that
+ * need MongoDB at startup (bulk write mode, distributed aggregation, the change stream consumer)
+ * still create it eagerly when enabled.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "startup.lazy.enabled", havingValue = "true")
+public class FastStartupConfig {
+
+    private static final String[] DEFERRED_PACKAGES = {"com.mongodb.", "org.springframework.data.mongodb."};
+
+    private static final Class<?>[] DEFERRED_TYPES = {
+            AggregatedContextRepository.class,
+            ReactiveAggregatedContextRepository.class,
+            MongoContextSink.class,
+            LookupController.class
+    };
+
+    /*
+     *  -- NOTE --
+     *  Static: the filters are read by a bean factory post-processor, before this configuration
+     *  class is instantiated
+     */
+    @Bean
+    static LazyInitializationExcludeFilter eagerUnlessMongo() {
+        return (beanName, beanDefinition, beanType) -> !isDeferred(beanType);
+    }
+
+    /*
+     *  -- NOTE --
+     *  spring.main.lazy-initialization leaves bean definitions alone that set lazy-init
+     *  themselves, and Spring Data sets it to false on every repository: without this the
+     *  repositories, and with them both MongoDB clients, are still created at startup
+     */
+    @Bean
+    static BeanFactoryPostProcessor deferMongoRepositories() {
+        return beanFactory -> {
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                if (beanFactory.getBeanDefinition(beanName) instanceof AbstractBeanDefinition definition
+                        && Boolean.FALSE.equals(definition.getLazyInit())
+                        && isDeferred(beanFactory.getType(beanName, false))) {
+                    definition.setLazyInit(true);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true if beans of {@code beanType} are left to be created on first use
+     */
+    static boolean isDeferred(Class<?> beanType) {
+        if (beanType == null) {
+            return false;
+        }
+        for (String prefix : DEFERRED_PACKAGES) {
+            if (beanType.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (Class<?> type : DEFERRED_TYPES) {
+            if (type.isAssignableFrom(beanType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.spanlink_demo.config;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Span exporter created on the first export instead of with the tracer provider
+ * ({@code startup.lazy.enabled=true}): opening the NDJSON file and starting its writer thread, or
+ * loading a console exporter, then happens after startup, on the thread exporting the first spans.
+ */
+class LazySpanExporter implements SpanExporter {
+
+    private final Supplier<SpanExporter> factory;
+    private volatile SpanExporter delegate;
+
+    LazySpanExporter(Supplier<SpanExporter> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        return delegate().export(spans);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        SpanExporter exporter = delegate;
+        return exporter != null ? exporter.flush() : CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        // Never created: nothing to shut down, and no reason to create it now
+        SpanExporter exporter = delegate;
+        return exporter != null ? exporter.shutdown() : CompletableResultCode.ofSuccess();
+    }
+
+    boolean isCreated() {
+        return delegate != null;
+    }
+
+    private SpanExporter delegate() {
+        SpanExporter exporter = delegate;
+        if (exporter == null) {
+            synchronized (this) {
+                exporter = delegate;
+                if (exporter == null) {
+                    exporter = factory.get();
+                    delegate = exporter;
+                }
+            }
+        }
+        return exporter;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.spanlink_demo.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Span exporter that appends one JSON object per span (NDJSON) to a local file.
+ *
+ * <p>{@link #export} only queues the spans; a single writer thread serializes them and
+ * flushes the file after each drained batch. Spans that do not fit in the queue are dropped
+ * and counted rather than blocking the caller.
+ */
+public class NdjsonSpanExporter implements SpanExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonSpanExporter.class);
+
+    private static final int DRAIN_BATCH_SIZE = 512;
+
+    private final Path path;
+    private final BlockingQueue<SpanData> queue;
+    private final Queue<CompletableResultCode> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private final JsonGenerator generator;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong writtenSpans = new AtomicLong();
+    private final AtomicLong droppedSpans = new AtomicLong();
+    private final AtomicLong failedSpans = new AtomicLong();
+
+    public NdjsonSpanExporter(Path path, int queueCapacity) {
+        this.path = path;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            this.generator = new JsonFactory().createGenerator(writer);
+            // Lines are separated explicitly after each span
+            this.generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open span export file " + path, e);
+        }
+        this.writerThread = new Thread(this::run, "ndjson-span-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        logger.info("NDJSON span exporter started. File: {}, Queue capacity: {}", path.toAbsolutePath(), queueCapacity);
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+        if (!running) {
+            return CompletableResultCode.ofFailure();
+        }
+        for (SpanData span : spans) {
+            if (!queue.offer(span)) {
+                droppedSpans.incrementAndGet();
+            }
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    /**
+     * @return a result completed by the writer thread once everything queued so far is on disk
+     */
+    @Override
+    public CompletableResultCode flush() {
+        CompletableResultCode result = new CompletableResultCode();
+        pendingFlushes.add(result);
+        if (!writerThread.isAlive()) {
+            completePendingFlushes();
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            generator.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close span export file {}", path, e);
+            return CompletableResultCode.ofFailure();
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    public long getWrittenSpans() {
+        return writtenSpans.get();
+    }
+
+    /**
+     * @return spans dropped because the exporter queue was full
+     */
+    public long getDroppedSpans() {
+        return droppedSpans.get();
+    }
+
+    public long getFailedSpans() {
+        return failedSpans.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<SpanData> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                SpanData first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, DRAIN_BATCH_SIZE - 1);
+                    write(batch);
+                }
+                if (queue.isEmpty()) {
+                    completePendingFlushes();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        completePendingFlushes();
+    }
+
+    private void write(List<SpanData> batch) {
+        try {
+            for (SpanData span : batch) {
+                writeSpan(span);
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+            writtenSpans.addAndGet(batch.size());
+        } catch (IOException | RuntimeException e) {
+            failedSpans.addAndGet(batch.size());
+            logger.error("Failed to write {} span(s) to {}", batch.size(), path, e);
+        }
+    }
+
+    private void writeSpan(SpanData span) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("traceId", span.getTraceId());
+        generator.writeStringField("spanId", span.getSpanId());
+        if (span.getParentSpanContext().isValid()) {
+            generator.writeStringField("parentSpanId", span.getParentSpanId());
+        }
+        generator.writeStringField("name", span.getName());
+        generator.writeStringField("kind", span.getKind().name());
+        generator.writeNumberField("startEpochNanos", span.getStartEpochNanos());
+        generator.writeNumberField("endEpochNanos", span.getEndEpochNanos());
+        generator.writeStringField("status", span.getStatus().getStatusCode().name());
+        writeAttributes("attributes", span.getAttributes());
+        if (!span.getLinks().isEmpty()) {
+            generator.writeArrayFieldStart("links");
+            for (LinkData link : span.getLinks()) {
+                generator.writeStartObject();
+                generator.writeStringField("traceId", link.getSpanContext().getTraceId());
+                generator.writeStringField("spanId", link.getSpanContext().getSpanId());
+                writeAttributes("attributes", link.getAttributes());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeAttributes(String fieldName, Attributes attributes) throws IOException {
+        if (attributes.isEmpty()) {
+            return;
+        }
+        generator.writeObjectFieldStart(fieldName);
+        for (var entry : attributes.asMap().entrySet()) {
+            generator.writeFieldName(entry.getKey().getKey());
+            writeValue(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeValue(AttributeKey<?> key, Object value) throws IOException {
+        switch (key.getType()) {
+            case BOOLEAN -> generator.writeBoolean((Boolean) value);
+            case LONG -> generator.writeNumber((Long) value);
+            case DOUBLE -> generator.writeNumber((Double) value);
+            case STRING -> generator.writeString((String) value);
+            default -> {
+                // Array types
+                generator.writeStartArray();
+                for (Object element : (List<?>) value) {
+                    if (element instanceof Boolean b) {
+                        generator.writeBoolean(b);
+                    } else if (element instanceof Long l) {
+                        generator.writeNumber(l);
+                    } else if (element instanceof Double d) {
+                        generator.writeNumber(d);
+                    } else {
+                        generator.writeString(String.valueOf(element));
+                    }
+                }
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    private void completePendingFlushes() {
+        CompletableResultCode pending;
+        while ((pending = pendingFlushes.poll()) != null) {
+            pending.succeed();
+        }
+    }
+}
@@ -8,18 +8,77 @@ import io.opentelemetry.exporter.logging.LoggingSpanExporter;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
 import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+
 @Configuration
 public class OpenTelemetryConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(OpenTelemetryConfig.class);
+
+    // batch | simple
+    @Value("${tracing.export.processor:batch}")
+    private String processor;
+
+    // logging | ndjson | none
+    @Value("${tracing.export.exporter:logging}")
+    private String exporter;
+
+    @Value("${tracing.export.batch.max-queue-size:2048}")
+    private int maxQueueSize;
+
+    @Value("${tracing.export.batch.max-export-batch-size:512}")
+    private int maxExportBatchSize;
+
+    @Value("${tracing.export.batch.schedule-delay.millis:1000}")
+    private long scheduleDelayMillis;
+
+    @Value("${tracing.export.batch.exporter-timeout.millis:30000}")
+    private long exporterTimeoutMillis;
+
+    @Value("${tracing.export.ndjson.path:logs/spans.ndjson}")
+    private String ndjsonPath;
+
+    @Value("${tracing.export.ndjson.queue.capacity:8192}")
+    private int ndjsonQueueCapacity;
+
+    // Links and attributes beyond these limits are dropped by the SDK; see aggregation.fan-in.*
+    @Value("${tracing.span-limits.max-links:128}")
+    private int maxLinks;
+
+    @Value("${tracing.span-limits.max-attributes:128}")
+    private int maxAttributes;
+
+    // true = the exporter is created on the first export instead of at startup
+    @Value("${startup.lazy.enabled:false}")
+    private boolean lazyStartup;
+
+    @Bean
+    public SpanExportStats spanExportStats() {
+        return new SpanExportStats();
+    }
+
     @Bean
-    public OpenTelemetry openTelemetry() {
+    public OpenTelemetry openTelemetry(SpanExportStats spanExportStats) {
         SdkTracerProvider sdkTracerProvider = SdkTracerProvider.builder()
-                .addSpanProcessor(SimpleSpanProcessor.create(LoggingSpanExporter.create()))
+                .addSpanProcessor(spanProcessor(spanExporter(spanExportStats), spanExportStats))
                 .setResource(Resource.getDefault())
+                .setSpanLimits(SpanLimits.builder()
+                        .setMaxNumberOfLinks(maxLinks)
+                        .setMaxNumberOfAttributes(maxAttributes)
+                        .build())
                 .build();
 
         return OpenTelemetrySdk.builder()
@@ -32,5 +91,45 @@ public class OpenTelemetryConfig {
     public Tracer tracer(OpenTelemetry openTelemetry) {
         return openTelemetry.getTracer("spanlink-demo");
     }
-}
 
+    private SpanProcessor spanProcessor(SpanExporter spanExporter, SpanExportStats spanExportStats) {
+        switch (processor.trim().toLowerCase(Locale.ROOT)) {
+            case "simple":
+                /* -- NOTE -- Exports synchronously on the thread that ends the span -- */
+                logger.info("Span export: simple processor, exporter: {}", exporter);
+                return SimpleSpanProcessor.create(spanExporter);
+            case "batch":
+                logger.info("Span export: batch processor, exporter: {}, Max queue size: {}, Max export batch size: {}, Schedule delay: {}ms",
+                        exporter, maxQueueSize, maxExportBatchSize, scheduleDelayMillis);
+                return BatchSpanProcessor.builder(spanExporter)
+                        .setMaxQueueSize(maxQueueSize)
+                        .setMaxExportBatchSize(maxExportBatchSize)
+                        .setScheduleDelay(Duration.ofMillis(scheduleDelayMillis))
+                        .setExporterTimeout(Duration.ofMillis(exporterTimeoutMillis))
+                        .setMeterProvider(spanExportStats.getMeterProvider())
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown tracing.export.processor: " + processor);
+        }
+    }
+
+    private SpanExporter spanExporter(SpanExportStats spanExportStats) {
+        /* -- NOTE -- With the batch processor the first export runs on its worker thread, off the startup path -- */
+        return lazyStartup ? new LazySpanExporter(() -> newSpanExporter(spanExportStats)) : newSpanExporter(spanExportStats);
+    }
+
+    private SpanExporter newSpanExporter(SpanExportStats spanExportStats) {
+        switch (exporter.trim().toLowerCase(Locale.ROOT)) {
+            case "logging":
+                return LoggingSpanExporter.create();
+            case "ndjson":
+                NdjsonSpanExporter ndjsonExporter = new NdjsonSpanExporter(Path.of(ndjsonPath), ndjsonQueueCapacity);
+                spanExportStats.setNdjsonExporter(ndjsonExporter);
+                return ndjsonExporter;
+            case "none":
+                return SpanExporter.composite();
+            default:
+                throw new IllegalArgumentException("Unknown tracing.export.exporter: " + exporter);
+        }
+    }
+}
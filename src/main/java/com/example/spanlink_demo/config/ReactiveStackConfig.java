@@ -0,0 +1,25 @@
+package com.example.spanlink_demo.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Reactive stack ({@code spring.main.web-application-type=reactive}).
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveStackConfig {
+
+    /*
+     *  -- NOTE --
+     *  Tomcat is on the classpath for the servlet stack and would otherwise be picked for
+     *  WebFlux as well; Reactor Netty serves the reactive stack from a small, fixed set of
+     *  event loop threads
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
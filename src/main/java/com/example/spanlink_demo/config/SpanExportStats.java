@@ -0,0 +1,117 @@
+package com.example.spanlink_demo.config;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+
+/**
+ * Span export counters read from the metrics the {@code BatchSpanProcessor} reports about itself:
+ * {@code processedSpans} (split by {@code dropped=true|false}) and the {@code queueSize} gauge.
+ *
+ * <p>Metrics are collected on demand when a getter is called; nothing is exported anywhere.
+ * With the simple span processor all counters stay at zero. Spans the NDJSON exporter drops
+ * behind the processor are counted separately, see {@link #getExporterDroppedSpans()}.
+ */
+public class SpanExportStats implements MetricReader {
+
+    private static final String PROCESSED_SPANS = "processedSpans";
+    private static final String QUEUE_SIZE = "queueSize";
+    private static final AttributeKey<Boolean> DROPPED = AttributeKey.booleanKey("dropped");
+
+    private final SdkMeterProvider meterProvider;
+    private volatile CollectionRegistration registration = CollectionRegistration.noop();
+    private volatile NdjsonSpanExporter ndjsonExporter; // null until created, and with other exporters
+
+    public SpanExportStats() {
+        this.meterProvider = SdkMeterProvider.builder().registerMetricReader(this).build();
+    }
+
+    /**
+     * @return the meter provider to hand to the span processor
+     */
+    public MeterProvider getMeterProvider() {
+        return meterProvider;
+    }
+
+    /**
+     * @return spans dropped because the span processor queue was full
+     */
+    public long getDroppedSpans() {
+        return processedSpans(true);
+    }
+
+    /**
+     * @return spans handed to the exporter
+     */
+    public long getExportedSpans() {
+        return processedSpans(false);
+    }
+
+    /**
+     * @return spans the NDJSON exporter dropped because its own queue was full, 0 with other exporters
+     */
+    public long getExporterDroppedSpans() {
+        NdjsonSpanExporter exporter = ndjsonExporter;
+        return exporter != null ? exporter.getDroppedSpans() : 0;
+    }
+
+    void setNdjsonExporter(NdjsonSpanExporter ndjsonExporter) {
+        this.ndjsonExporter = ndjsonExporter;
+    }
+
+    /**
+     * @return spans currently waiting in the span processor queue
+     */
+    public long getQueueSize() {
+        for (MetricData metric : registration.collectAllMetrics()) {
+            if (QUEUE_SIZE.equals(metric.getName())) {
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    return point.getValue();
+                }
+            }
+        }
+        return 0;
+    }
+
+    private long processedSpans(boolean dropped) {
+        long total = 0;
+        for (MetricData metric : registration.collectAllMetrics()) {
+            if (PROCESSED_SPANS.equals(metric.getName())) {
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    if (Boolean.valueOf(dropped).equals(point.getAttributes().get(DROPPED))) {
+                        total += point.getValue();
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void register(CollectionRegistration registration) {
+        this.registration = registration;
+    }
+
+    @Override
+    public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        registration = CollectionRegistration.noop();
+        return CompletableResultCode.ofSuccess();
+    }
+}
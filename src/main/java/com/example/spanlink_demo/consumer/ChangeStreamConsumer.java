@@ -0,0 +1,322 @@
+package com.example.spanlink_demo.consumer;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.service.WorkerThreads;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Downstream side of the span links: tails {@code aggregated_contexts} and, for every new
+ * document, starts a {@code downstream-process} span linked to each request span of the batch,
+ * rebuilt from {@code pendingSpanContexts} (either storage schema).
+ *
+ * <p>A reader thread takes changes from the {@link ChangeStreamSource} in batches of up to
+ * {@code batch-size} and splits every batch across the worker pool. Up to
+ * {@code max-in-flight-batches} batches are processed while the next ones are read. Resume
+ * tokens are saved in stream order, once a batch and every batch before it are done, so a
+ * restart never skips a document; it may process the last unsaved batches again.
+ *
+ * <p>Lag is measured when the downstream span starts: from the document timestamp (written by
+ * the aggregator) and from the first request of the batch (end to end).
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.change-stream.enabled", havingValue = "true")
+public class ChangeStreamConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeStreamConsumer.class);
+
+    private final Tracer tracer;
+    private final ChangeStreamSource source;
+    private final ResumeTokenStore tokenStore;
+    private final int batchSize;
+    private final int workerCount;
+    private final int maxInFlightBatches;
+    private final long retryBackoffMillis;
+    private final ExecutorService workers;
+    private final Semaphore inFlightBatches;
+    private final Thread readerThread;
+    private volatile boolean running = true;
+
+    // Completes when every dispatched batch is done and its token saved; reader thread only
+    private CompletableFuture<Void> checkpoint = CompletableFuture.completedFuture(null);
+
+    private final AtomicLong consumedDocuments = new AtomicLong();
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final AtomicLong linkedSpanContexts = new AtomicLong();
+    private final AtomicLong invalidSpanContexts = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong savedTokens = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final LongAccumulator maxLagMillis = new LongAccumulator(Math::max, 0L);
+    private volatile long lastLagMillis;
+    private volatile long lastEndToEndMillis;
+
+    public ChangeStreamConsumer(Tracer tracer,
+                                ChangeStreamSource source,
+                                ResumeTokenStore tokenStore,
+                                @Value("${consumer.change-stream.batch-size:500}") int batchSize,
+                                @Value("${consumer.change-stream.workers:4}") int workers,
+                                @Value("${consumer.change-stream.max-in-flight-batches:4}") int maxInFlightBatches,
+                                @Value("${consumer.change-stream.retry-backoff.millis:1000}") long retryBackoffMillis,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.tracer = tracer;
+        this.source = source;
+        this.tokenStore = tokenStore;
+        this.batchSize = batchSize;
+        this.workerCount = workers;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.workers = Executors.newFixedThreadPool(workers, WorkerThreads.factory("change-stream-worker-", virtualThreads));
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        this.readerThread = WorkerThreads.newThread("change-stream-reader", virtualThreads, this::run);
+    }
+
+    @PostConstruct
+    public void start() {
+        readerThread.start();
+        logger.info("Change stream consumer started. Batch size: {}, Workers: {}, Max in-flight batches: {}",
+                batchSize, workerCount, maxInFlightBatches);
+    }
+
+    /**
+     * Stops reading, lets the dispatched batches finish and saves their resume token.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        readerThread.interrupt();
+        try {
+            readerThread.join(TimeUnit.SECONDS.toMillis(10));
+            checkpoint.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Change stream consumer stopped before its last checkpoint", e);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    public long getConsumedDocuments() {
+        return consumedDocuments.get();
+    }
+
+    public long getFailedDocuments() {
+        return failedDocuments.get();
+    }
+
+    public long getLinkedSpanContexts() {
+        return linkedSpanContexts.get();
+    }
+
+    /**
+     * Stored span contexts that could not be decoded and were not linked.
+     */
+    public long getInvalidSpanContexts() {
+        return invalidSpanContexts.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getSavedTokens() {
+        return savedTokens.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * Milliseconds from the document timestamp to the start of its downstream span, for the last document.
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    public long getTotalLagMillis() {
+        return totalLagMillis.get();
+    }
+
+    /**
+     * Milliseconds from the first request of the batch to the start of its downstream span, for the last document.
+     */
+    public long getLastEndToEndMillis() {
+        return lastEndToEndMillis;
+    }
+
+    /**
+     * Batches dispatched to the workers whose resume token is not saved yet.
+     */
+    public int getInFlightBatches() {
+        return maxInFlightBatches - inFlightBatches.availablePermits();
+    }
+
+    private void run() {
+        BsonDocument resumeToken = null;
+        boolean tokenLoaded = false;
+        while (running) {
+            if (!tokenLoaded) {
+                try {
+                    resumeToken = tokenStore.load();
+                    tokenLoaded = true;
+                    logger.info("Change stream consumer reading. Resume token: {}",
+                            resumeToken != null ? resumeToken.toJson() : "none, starting from now");
+                } catch (RuntimeException e) {
+                    if (!backOff("Failed to load change stream resume token", e)) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            try (ChangeStreamSource.Cursor cursor = source.open(resumeToken)) {
+                while (running) {
+                    List<ContextChange> batch = cursor.nextBatch(batchSize);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    dispatch(batch);
+                    // Dispatched batches finish in this process, so a reconnect continues after them
+                    resumeToken = batch.get(batch.size() - 1).getResumeToken();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                reconnects.incrementAndGet();
+                if (!backOff("Change stream failed", e)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the consumer is stopping and the reader should exit
+     */
+    private boolean backOff(String message, RuntimeException e) {
+        if (!running) {
+            return false;
+        }
+        logger.warn("{}, retrying in {}ms", message, retryBackoffMillis, e);
+        try {
+            Thread.sleep(retryBackoffMillis);
+            return true;
+        } catch (InterruptedException interrupted) {
+            return false;
+        }
+    }
+
+    private void dispatch(List<ContextChange> batch) throws InterruptedException {
+        inFlightBatches.acquire();
+        batches.incrementAndGet();
+
+        int chunks = Math.min(workerCount, batch.size());
+        int chunkSize = (batch.size() + chunks - 1) / chunks;
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[chunks];
+        for (int i = 0; i < chunks; i++) {
+            List<ContextChange> chunk = batch.subList(i * chunkSize, Math.min(batch.size(), (i + 1) * chunkSize));
+            tasks[i] = CompletableFuture.runAsync(() -> chunk.forEach(this::process), workers);
+        }
+
+        /*
+         *  -- NOTE --
+         *  Batches may finish out of order; chaining every checkpoint on the previous one saves
+         *  resume tokens in stream order, so a saved token never gets ahead of unfinished work
+         */
+        BsonDocument resumeToken = batch.get(batch.size() - 1).getResumeToken();
+        checkpoint = checkpoint
+                .thenCombine(CompletableFuture.allOf(tasks), (previous, done) -> null)
+                .thenRun(() -> saveToken(resumeToken))
+                .whenComplete((result, error) -> inFlightBatches.release());
+    }
+
+    private void process(ContextChange change) {
+        AggregatedContextDocument document = change.getDocument();
+        try {
+            SpanBuilder spanBuilder = tracer.spanBuilder("downstream-process").setSpanKind(SpanKind.CONSUMER);
+            int links = 0;
+            List<AggregatedContextDocument.SpanContextData> stored = document.getPendingSpanContexts();
+            if (stored != null) {
+                for (AggregatedContextDocument.SpanContextData data : stored) {
+                    SpanContext spanContext = data.toSpanContext();
+                    if (spanContext.isValid()) {
+                        spanBuilder.addLink(spanContext);
+                        links++;
+                    } else {
+                        invalidSpanContexts.incrementAndGet();
+                    }
+                }
+            }
+            Span span = spanBuilder.startSpan();
+
+            long now = System.currentTimeMillis();
+            long lag = lagMillis(document.getTimestamp(), now);
+            long endToEnd = lagMillis(document.getFirstRequestTimestamp(), now);
+            span.setAttribute("aggregation.key", String.valueOf(document.getAggregationKey()));
+            span.setAttribute("aggregated.document.id", String.valueOf(document.getId()));
+            span.setAttribute("master.trace.id", String.valueOf(document.getMasterTraceId()));
+            span.setAttribute("trigger.reason", String.valueOf(document.getTriggerReason()));
+            span.setAttribute("linked.spans.count", links);
+            span.setAttribute("consumer.lag.millis", lag);
+            span.setAttribute("end.to.end.millis", endToEnd);
+            if (document.getPendingRequestIds() != null) {
+                span.setAttribute("x-request-id.all", String.join(",", document.getPendingRequestIds()));
+            }
+            span.end();
+
+            consumedDocuments.incrementAndGet();
+            linkedSpanContexts.addAndGet(links);
+            lastLagMillis = lag;
+            lastEndToEndMillis = endToEnd;
+            totalLagMillis.addAndGet(lag);
+            maxLagMillis.accumulate(lag);
+            logger.debug("Downstream span started. Document ID: {}, Master Trace ID: {}, Linked spans: {}, Lag: {}ms",
+                    document.getId(), document.getMasterTraceId(), links, lag);
+        } catch (RuntimeException e) {
+            // One bad document must not hold back the checkpoint of its batch
+            failedDocuments.incrementAndGet();
+            logger.error("Failed to process aggregated context. Document ID: {}", document.getId(), e);
+        }
+    }
+
+    private void saveToken(BsonDocument resumeToken) {
+        try {
+            tokenStore.save(resumeToken);
+            savedTokens.incrementAndGet();
+        } catch (RuntimeException e) {
+            // The next checkpoint saves a later token; a restart meanwhile reprocesses a little more
+            logger.warn("Failed to save change stream resume token", e);
+        }
+    }
+
+    private static long lagMillis(Instant from, long nowMillis) {
+        return from != null ? Math.max(0, nowMillis - from.toEpochMilli()) : 0;
+    }
+}
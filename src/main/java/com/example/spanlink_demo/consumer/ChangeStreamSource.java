@@ -0,0 +1,31 @@
+package com.example.spanlink_demo.consumer;
+
+import org.bson.BsonDocument;
+
+import java.util.List;
+
+/**
+ * Where {@link ChangeStreamConsumer} reads new {@code aggregated_contexts} documents from:
+ * the MongoDB change stream in the application, an in-process stand-in in tests.
+ */
+public interface ChangeStreamSource {
+
+    /**
+     * Opens the stream right after {@code resumeToken}, or at the current time if it is {@code null}.
+     */
+    Cursor open(BsonDocument resumeToken);
+
+    interface Cursor extends AutoCloseable {
+
+        /**
+         * Returns the changes available now, up to {@code maxBatch}, waiting a bounded time
+         * (the source's await time) if there are none.
+         *
+         * @return the next changes in stream order, empty if none arrived in time
+         */
+        List<ContextChange> nextBatch(int maxBatch);
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.spanlink_demo.consumer;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import org.bson.BsonDocument;
+
+/**
+ * One {@code aggregated_contexts} document read from the change stream, with the resume token
+ * that restarts the stream right after it.
+ */
+public final class ContextChange {
+
+    private final BsonDocument resumeToken;
+    private final AggregatedContextDocument document;
+
+    public ContextChange(BsonDocument resumeToken, AggregatedContextDocument document) {
+        this.resumeToken = resumeToken;
+        this.document = document;
+    }
+
+    public BsonDocument getResumeToken() {
+        return resumeToken;
+    }
+
+    public AggregatedContextDocument getDocument() {
+        return document;
+    }
+}
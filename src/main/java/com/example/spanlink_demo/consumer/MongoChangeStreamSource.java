@@ -0,0 +1,109 @@
+package com.example.spanlink_demo.consumer;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change stream of {@code aggregated_contexts} inserts. Needs a replica set (a single-node
+ * {@code rs0} is enough, see {@code docker/mongo-init-replica.sh}).
+ *
+ * <p>Each {@code getMore} returns up to {@code batch-size} events and waits at most
+ * {@code max-await.millis} when there are none, so a batch is whatever the server has ready.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.change-stream.enabled", havingValue = "true")
+public class MongoChangeStreamSource implements ChangeStreamSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoChangeStreamSource.class);
+
+    /** The resume token is older than the oplog window. */
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+    private final int batchSize;
+    private final long maxAwaitMillis;
+
+    public MongoChangeStreamSource(MongoTemplate mongoTemplate,
+                                   @Value("${consumer.change-stream.collection:aggregated_contexts}") String collection,
+                                   @Value("${consumer.change-stream.batch-size:500}") int batchSize,
+                                   @Value("${consumer.change-stream.max-await.millis:1000}") long maxAwaitMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.maxAwaitMillis = maxAwaitMillis;
+    }
+
+    @Override
+    public Cursor open(BsonDocument resumeToken) {
+        try {
+            return new MongoCursor(watch(resumeToken));
+        } catch (MongoServerException e) {
+            if (resumeToken == null || e.getCode() != CHANGE_STREAM_HISTORY_LOST) {
+                throw e;
+            }
+            // Changes between the token and now are gone; resuming is impossible
+            logger.error("Resume token is no longer in the oplog, restarting the change stream of {} from now. Changes since the last checkpoint are skipped",
+                    collection, e);
+            return new MongoCursor(watch(null));
+        }
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> watch(BsonDocument resumeToken) {
+        var stream = mongoTemplate.getCollection(collection)
+                .watch(List.of(Aggregates.match(Filters.eq("operationType", "insert"))))
+                .batchSize(batchSize)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+        return stream.cursor();
+    }
+
+    private final class MongoCursor implements Cursor {
+
+        private final MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+        private MongoCursor(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public List<ContextChange> nextBatch(int maxBatch) {
+            List<ContextChange> batch = new ArrayList<>();
+            // tryNext waits up to max-await for a getMore; after that, take only what is already fetched
+            ChangeStreamDocument<Document> event = cursor.tryNext();
+            while (event != null) {
+                AggregatedContextDocument document =
+                        mongoTemplate.getConverter().read(AggregatedContextDocument.class, event.getFullDocument());
+                batch.add(new ContextChange(event.getResumeToken(), document));
+                if (batch.size() >= maxBatch || cursor.available() == 0) {
+                    break;
+                }
+                event = cursor.tryNext();
+            }
+            return batch;
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+}
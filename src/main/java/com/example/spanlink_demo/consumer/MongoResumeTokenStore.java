@@ -0,0 +1,47 @@
+package com.example.spanlink_demo.consumer;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the resume token in {@code change_stream_resume_tokens}, one document per consumer name:
+ * <pre>
+ * { _id: "spanlink-consumer", token: { _data: "..." }, updatedAt: ISODate(...) }
+ * </pre>
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.change-stream.enabled", havingValue = "true")
+public class MongoResumeTokenStore implements ResumeTokenStore {
+
+    private final MongoCollection<BsonDocument> tokens;
+    private final BsonString consumerName;
+
+    public MongoResumeTokenStore(MongoTemplate mongoTemplate,
+                                 @Value("${consumer.change-stream.token-collection:change_stream_resume_tokens}") String tokenCollection,
+                                 @Value("${consumer.change-stream.name:spanlink-consumer}") String consumerName) {
+        this.tokens = mongoTemplate.getDb().getCollection(tokenCollection, BsonDocument.class);
+        this.consumerName = new BsonString(consumerName);
+    }
+
+    @Override
+    public BsonDocument load() {
+        BsonDocument saved = tokens.find(Filters.eq("_id", consumerName)).first();
+        return saved != null && saved.isDocument("token") ? saved.getDocument("token") : null;
+    }
+
+    @Override
+    public void save(BsonDocument resumeToken) {
+        BsonDocument checkpoint = new BsonDocument("_id", consumerName)
+                .append("token", resumeToken)
+                .append("updatedAt", new BsonDateTime(System.currentTimeMillis()));
+        tokens.replaceOne(Filters.eq("_id", consumerName), checkpoint, new ReplaceOptions().upsert(true));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.spanlink_demo.consumer;
+
+import org.bson.BsonDocument;
+
+/**
+ * Durable position of {@link ChangeStreamConsumer} in the change stream.
+ */
+public interface ResumeTokenStore {
+
+    /**
+     * @return the last saved resume token, or {@code null} if the consumer never checkpointed
+     */
+    BsonDocument load();
+
+    /**
+     * Saves the token of the last change whose processing (and every change before it) completed.
+     */
+    void save(BsonDocument resumeToken);
+}
@@ -0,0 +1,59 @@
+package com.example.spanlink_demo.controller;
+
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.EffectiveTrigger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Current trigger values of the aggregation windows:
+ * <pre>
+ * GET /aggregation/triggers
+ * </pre>
+ * With {@code aggregation.trigger.mode=adaptive} these change at runtime; the response also
+ * reports the arrival rate of each window and the persist latency the policy is reacting to.
+ */
+@RestController
+@RequestMapping("/aggregation")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AggregationStatusController {
+
+    private final AggregationService aggregationService;
+
+    public AggregationStatusController(AggregationService aggregationService) {
+        this.aggregationService = aggregationService;
+    }
+
+    @GetMapping("/triggers")
+    public ResponseEntity<?> triggers() {
+        boolean adaptive = aggregationService.isAdaptiveTriggers();
+        List<Map<String, Object>> windows = new ArrayList<>();
+        for (EffectiveTrigger trigger : aggregationService.getEffectiveTriggers()) {
+            Map<String, Object> window = new LinkedHashMap<>();
+            window.put("aggregationKey", trigger.getAggregationKey());
+            window.put("count", trigger.getCount());
+            window.put("intervalMillis", trigger.getIntervalMillis());
+            window.put("pendingCount", trigger.getPendingCount());
+            if (adaptive) {
+                window.put("arrivalRate", Math.round(trigger.getArrivalRate() * 10) / 10.0);
+            }
+            windows.add(window);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("mode", adaptive ? "adaptive" : "static");
+        if (adaptive) {
+            response.put("persistLatencyMillis", aggregationService.getPersistLatencyMillis());
+        }
+        response.put("windows", windows);
+        return ResponseEntity.ok(response);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.spanlink_demo.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull reader for {@code POST /incoming/batch} bodies. Reads one item at a time straight from
+ * the request stream, so the body is never buffered as a whole.
+ *
+ * <p>Accepts either a JSON array of items or NDJSON (one item object per line):
+ * <pre>
+ * {"requestId": "req-1", "traceparent": "00-...-...-01", "tracestate": "vendor=value"}
+ * </pre>
+ * {@code x-request-id} is accepted as an alias of {@code requestId}; unknown fields are ignored.
+ */
+class IncomingBatchReader implements Closeable {
+
+    private final JsonParser parser;
+    private boolean inArray;
+    private int index;
+
+    IncomingBatchReader(JsonFactory jsonFactory, InputStream body) throws IOException {
+        this.parser = jsonFactory.createParser(body);
+    }
+
+    /**
+     * @return the next item, or {@code null} at the end of the body
+     * @throws JsonParseException if the body is not a JSON array or a sequence of JSON objects
+     */
+    Item next() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY && !inArray && index == 0) {
+            inArray = true;
+            token = parser.nextToken();
+        }
+        if (token == null || (inArray && token == JsonToken.END_ARRAY)) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected an item object but found " + token);
+        }
+
+        Item item = new Item(index++);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_STRING) {
+                switch (field) {
+                    case "requestId", "x-request-id" -> item.requestId = parser.getText();
+                    case "traceparent" -> item.traceparent = parser.getText();
+                    case "tracestate" -> item.tracestate = parser.getText();
+                    default -> {
+                        // Ignored
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    static final class Item {
+
+        final int index;
+        String requestId;
+        String traceparent;
+        String tracestate;
+
+        private Item(int index) {
+            this.index = index;
+        }
+    }
+}
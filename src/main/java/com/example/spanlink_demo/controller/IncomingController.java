@@ -1,6 +1,11 @@
 package com.example.spanlink_demo.controller;
 
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.logging.RequestLogSampler;
 import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.RequestDeduplicator;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.SpanKind;
@@ -8,33 +13,68 @@ import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/incoming")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class IncomingController {
 
     private static final Logger log = LoggerFactory.getLogger(IncomingController.class);
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private final Tracer tracer;
     private final AggregationService aggregationService;
+    private final String aggregationKeyHeader;
+    private final int batchChunkSize;
+    private final int batchMaxItems;
+    private final RequestLogSampler requestLog; // null = log every request
+    private final RequestDeduplicator deduplicator; // null unless aggregation.dedup.enabled=true
 
     /*
      *  -- NOTE --
      *  Inject tracer dependency
+     *  aggregation.key.header selects the header that keys aggregation windows (empty = one global window)
+     *  logging.request.mode decides which requests get a log line
+     *  aggregation.dedup.enabled acknowledges retried x-request-id values without aggregating them
      */
-    public IncomingController(Tracer tracer, AggregationService aggregationService) {
+    public IncomingController(Tracer tracer,
+                              AggregationService aggregationService,
+                              @Value("${aggregation.key.header:}") String aggregationKeyHeader,
+                              @Value("${aggregation.batch.chunk-size:500}") int batchChunkSize,
+                              @Value("${aggregation.batch.max-items:10000}") int batchMaxItems,
+                              ObjectProvider<RequestLogSampler> requestLog,
+                              ObjectProvider<RequestDeduplicator> deduplicator) {
         this.tracer = tracer;
         this.aggregationService = aggregationService;
+        this.aggregationKeyHeader = aggregationKeyHeader;
+        this.batchChunkSize = batchChunkSize;
+        this.batchMaxItems = batchMaxItems;
+        this.requestLog = requestLog.getIfAvailable();
+        this.deduplicator = deduplicator.getIfAvailable();
     }
 
     @PostMapping
     public ResponseEntity<?> handleIncoming(
             @RequestHeader(name = "x-request-id", required = false) String requestId,
+            @RequestHeader HttpHeaders headers,
             @RequestBody(required = false) String body) {
 
         // 1) Validate required header
@@ -45,6 +85,14 @@ public class IncomingController {
             ));
         }
 
+        // A retry of a request seen within the dedup window: no span, no link, no MongoDB bytes
+        if (deduplicator != null && !deduplicator.firstSeen(requestId)) {
+            return ResponseEntity.ok(Map.of(
+                    "status", "duplicate",
+                    "timestamp", Instant.now().toString()
+            ));
+        }
+
         /*
         *  -- NOTE --
         *  Start span when requests go to /incoming
@@ -72,10 +120,16 @@ public class IncomingController {
             // Log requestId together with traceId
             SpanContext ctx = span.getSpanContext();
             String traceId = ctx.getTraceId();
-            log.info("Received HTTP POST request at /incoming endpoint. x-request-id={} traceId={}", requestId, traceId);
+            if (requestLog == null || requestLog.shouldLog()) {
+                log.info("Received HTTP POST request at /incoming endpoint. x-request-id={} traceId={}", requestId, traceId);
+            }
 
             // Process required logic for every incoming request
-            aggregationService.recordIncomingRequest(ctx, requestId);
+            String aggregationKey = aggregationKeyHeader.isEmpty() ? null : headers.getFirst(aggregationKeyHeader);
+            if (aggregationKey != null) {
+                span.setAttribute("aggregation.key", aggregationKey);
+            }
+            aggregationService.recordIncomingRequest(ctx, requestId, aggregationKey);
 
             return ResponseEntity.ok(Map.of(
                     "status", "received",
@@ -85,4 +139,156 @@ public class IncomingController {
             span.end();
         }
     }
+
+    /**
+     * Batch variant of {@link #handleIncoming}: many request contexts per HTTP call, as a JSON array
+     * or NDJSON. The body is parsed incrementally and recorded in chunks of
+     * {@code aggregation.batch.chunk-size}; the response reports acceptance per item. Reading stops
+     * at {@code aggregation.batch.max-items} or at a malformed item, without reading the rest.
+     *
+     * <p>Items read before that are already recorded, so the call is then answered with 200,
+     * status {@code partially_received} and {@code resume-from-index}, the index of the first item
+     * not read: a client that resent the whole body would record the first items twice. Only a
+     * call that recorded nothing is answered with 413 or 400.
+     *
+     * <p>An item with a {@code traceparent} is linked to that upstream span; an item without one
+     * is linked to the SERVER span of the batch call.
+     */
+    @PostMapping(path = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<?> handleIncomingBatch(@RequestHeader HttpHeaders headers, InputStream body) {
+
+        /*
+        *  -- NOTE --
+        *  One SERVER span per batch call instead of one per x-request-id
+        */
+        Span span = tracer.spanBuilder("handleIncomingBatchMethod")
+                .setSpanKind(SpanKind.SERVER)
+                .startSpan();
+
+        try (Scope scope = span.makeCurrent(); IncomingBatchReader reader = new IncomingBatchReader(JSON_FACTORY, body)) {
+            span.setAttribute("http.method", "POST");
+            span.setAttribute("http.route", "/incoming/batch");
+            span.setAttribute("request.timestamp", Instant.now().toString());
+
+            String aggregationKey = aggregationKeyHeader.isEmpty() ? null : headers.getFirst(aggregationKeyHeader);
+            if (aggregationKey != null) {
+                span.setAttribute("aggregation.key", aggregationKey);
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            List<SpanContext> chunkContexts = new ArrayList<>(batchChunkSize);
+            List<String> chunkRequestIds = new ArrayList<>(batchChunkSize);
+            int accepted = 0;
+            int duplicates = 0;
+            String parseError = null;
+            boolean tooLarge = false;
+
+            try {
+                IncomingBatchReader.Item item;
+                while ((item = reader.next()) != null) {
+                    if (item.index >= batchMaxItems) {
+                        tooLarge = true;
+                        break;
+                    }
+                    String error = validate(item);
+                    if (error != null) {
+                        results.add(result(item, false, error));
+                        continue;
+                    }
+                    if (deduplicator != null && !deduplicator.firstSeen(item.requestId)) {
+                        results.add(result(item, "duplicate", null));
+                        duplicates++;
+                        continue;
+                    }
+                    chunkContexts.add(item.traceparent != null
+                            ? TraceContextCodec.parse(item.traceparent, item.tracestate)
+                            : span.getSpanContext());
+                    chunkRequestIds.add(item.requestId);
+                    results.add(result(item, true, null));
+                    accepted++;
+
+                    if (chunkContexts.size() >= batchChunkSize) {
+                        // The window copies the chunk into its slots, so the lists can be reused
+                        aggregationService.recordIncomingRequests(chunkContexts, chunkRequestIds, aggregationKey);
+                        chunkContexts.clear();
+                        chunkRequestIds.clear();
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                // Items read so far are still recorded; the rest of the body is not
+                parseError = "Malformed batch body: " + e.getOriginalMessage();
+            }
+            if (tooLarge) {
+                parseError = "Batch exceeds " + batchMaxItems + " items, the rest of the body was not read";
+            }
+            aggregationService.recordIncomingRequests(chunkContexts, chunkRequestIds, aggregationKey);
+
+            int rejected = results.size() - accepted - duplicates;
+            span.setAttribute("batch.size", results.size());
+            span.setAttribute("batch.accepted", accepted);
+            span.setAttribute("batch.rejected", rejected);
+            span.setAttribute("batch.duplicates", duplicates);
+            log.info("Received HTTP POST request at /incoming/batch endpoint. items={} accepted={} rejected={} duplicates={} traceId={}",
+                    results.size(), accepted, rejected, duplicates, span.getSpanContext().getTraceId());
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("status", parseError == null ? "received" : "partially_received");
+            response.put("accepted", accepted);
+            response.put("rejected", rejected);
+            if (deduplicator != null) {
+                response.put("duplicates", duplicates);
+            }
+            if (parseError != null) {
+                response.put("error", parseError);
+                // Items are numbered from 0 in the order read, so this is the first one not read
+                response.put("resume-from-index", results.size());
+            }
+            response.put("timestamp", Instant.now().toString());
+            response.put("items", results);
+            if (tooLarge) {
+                span.setAttribute("batch.truncated", true);
+            }
+            if (parseError == null || accepted > 0) {
+                return ResponseEntity.ok(response);
+            }
+            return tooLarge
+                    ? ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(response)
+                    : ResponseEntity.badRequest().body(response);
+        } catch (IOException e) {
+            span.setAttribute("error", true);
+            log.warn("Failed to read /incoming/batch body", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                    "error", "Failed to read batch body"
+            ));
+        } finally {
+            span.end();
+        }
+    }
+
+    private String validate(IncomingBatchReader.Item item) {
+        if (item.requestId == null || item.requestId.isBlank()) {
+            return "Missing requestId";
+        }
+        if (item.traceparent != null && !TraceContextCodec.isValidTraceparent(item.traceparent)) {
+            return "Invalid traceparent";
+        }
+        return null;
+    }
+
+    private static Map<String, Object> result(IncomingBatchReader.Item item, boolean accepted, String error) {
+        return result(item, accepted ? "accepted" : "rejected", error);
+    }
+
+    private static Map<String, Object> result(IncomingBatchReader.Item item, String status, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", item.index);
+        if (item.requestId != null) {
+            result.put("x-request-id", item.requestId);
+        }
+        result.put("status", status);
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
 }
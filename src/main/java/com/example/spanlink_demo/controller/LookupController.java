@@ -0,0 +1,161 @@
+package com.example.spanlink_demo.controller;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.service.RecentBatchCache;
+import io.opentelemetry.api.trace.TraceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers "which aggregated action did this request end up in?" from {@code aggregated_contexts}:
+ * <pre>
+ * GET /aggregated-contexts?requestId=&lt;x-request-id&gt;
+ * GET /aggregated-contexts?traceId=&lt;request or aggregated-action trace ID&gt;
+ * </pre>
+ * Both lookups use an index (see {@code AggregatedContextIndexes}) and return a summary of each
+ * matching batch, newest first, without its request IDs and span contexts.
+ *
+ * <p>A request ID flushed in the last few minutes is answered from the {@link RecentBatchCache}
+ * without MongoDB: the response then has {@code "source": "cache"} and only the latest batch of
+ * that request, without its document ID.
+ *
+ * <p>Only available with the MongoDB context sink ({@code aggregation.sink.mongo.enabled}).
+ */
+@RestController
+@RequestMapping("/aggregated-contexts")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "aggregation.sink.mongo.enabled", havingValue = "true", matchIfMissing = true)
+public class LookupController {
+
+    private static final Logger log = LoggerFactory.getLogger(LookupController.class);
+
+    private final AggregatedContextRepository repository;
+    private final RecentBatchCache recentBatches; // null if aggregation.lookup.cache.enabled=false
+    private final int maxResults;
+
+    public LookupController(AggregatedContextRepository repository,
+                            ObjectProvider<RecentBatchCache> recentBatches,
+                            @Value("${aggregation.lookup.max-results:100}") int maxResults) {
+        this.repository = repository;
+        this.recentBatches = recentBatches.getIfAvailable();
+        this.maxResults = maxResults;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> lookup(
+            @RequestParam(name = "requestId", required = false) String requestId,
+            @RequestParam(name = "traceId", required = false) String traceId,
+            @RequestParam(name = "limit", required = false) Integer limit) {
+
+        boolean byRequestId = requestId != null && !requestId.isBlank();
+        boolean byTraceId = traceId != null && !traceId.isBlank();
+        if (byRequestId == byTraceId) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "error", "Exactly one of requestId or traceId is required"
+            ));
+        }
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "error", "limit must be positive"
+            ));
+        }
+        Limit resultLimit = Limit.of(limit != null ? Math.min(limit, maxResults) : maxResults);
+
+        long start = System.nanoTime();
+        List<AggregatedContextDocument> documents;
+        String query;
+        if (byRequestId) {
+            query = "x-request-id=" + requestId;
+            RecentBatchCache.Entry cached = recentBatches != null ? recentBatches.get(requestId) : null;
+            if (cached != null) {
+                log.info("Aggregated context lookup. {} served from cache", query);
+                return ResponseEntity.ok(response("cache", List.of(summary(cached))));
+            }
+            documents = repository.findSummariesByRequestId(requestId, resultLimit);
+        } else {
+            String normalized = traceId.toLowerCase(Locale.ROOT);
+            if (!TraceId.isValid(normalized)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                        "error", "Invalid traceId"
+                ));
+            }
+            query = "traceId=" + normalized;
+            documents = repository.findSummariesByTraceId(normalized, HexFormat.of().parseHex(normalized), resultLimit);
+        }
+        long tookMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Aggregated context lookup. {} results={} took={}ms", query, documents.size(), tookMillis);
+
+        List<Map<String, Object>> results = new ArrayList<>(documents.size());
+        for (AggregatedContextDocument document : documents) {
+            results.add(summary(document));
+        }
+        return ResponseEntity.ok(response("mongodb", results));
+    }
+
+    /**
+     * Hit, miss and eviction counts of the near-cache.
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<?> cacheStats() {
+        if (recentBatches == null) {
+            return ResponseEntity.ok(Map.of("enabled", false));
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", true);
+        stats.put("hits", recentBatches.getHits());
+        stats.put("misses", recentBatches.getMisses());
+        stats.put("evictions", recentBatches.getEvictions());
+        stats.put("size", recentBatches.getSize());
+        stats.put("maxEntries", recentBatches.getMaxEntries());
+        return ResponseEntity.ok(stats);
+    }
+
+    private static Map<String, Object> response(String source, List<Map<String, Object>> results) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("source", source);
+        response.put("count", results.size());
+        response.put("results", results);
+        return response;
+    }
+
+    private static Map<String, Object> summary(AggregatedContextDocument document) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("id", document.getId());
+        summary.put("aggregationKey", document.getAggregationKey());
+        summary.put("triggerReason", document.getTriggerReason());
+        summary.put("masterTraceId", document.getMasterTraceId());
+        summary.put("timestamp", document.getTimestamp() != null ? document.getTimestamp().toString() : null);
+        summary.put("firstRequestTimestamp",
+                document.getFirstRequestTimestamp() != null ? document.getFirstRequestTimestamp().toString() : null);
+        return summary;
+    }
+
+    private static Map<String, Object> summary(RecentBatchCache.Entry entry) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("aggregationKey", entry.getAggregationKey());
+        summary.put("triggerReason", entry.getTriggerReason());
+        summary.put("masterTraceId", entry.getMasterTraceId());
+        summary.put("timestamp", entry.getFlushedAt().toString());
+        summary.put("firstRequestTimestamp",
+                entry.getFirstRequestTimestamp() != null ? entry.getFirstRequestTimestamp().toString() : null);
+        return summary;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.spanlink_demo.controller;
+
+import com.example.spanlink_demo.service.ReactiveAggregationPipeline;
+import com.example.spanlink_demo.service.RequestDeduplicator;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * WebFlux counterpart of {@link IncomingController}, active with
+ * {@code spring.main.web-application-type=reactive}. Requests feed the
+ * {@link ReactiveAggregationPipeline}; a full pipeline buffer is answered with 503.
+ */
+@RestController
+@RequestMapping("/incoming")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveIncomingController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveIncomingController.class);
+
+    private final Tracer tracer;
+    private final ReactiveAggregationPipeline aggregationPipeline;
+    private final RequestDeduplicator deduplicator; // null unless aggregation.dedup.enabled=true
+
+    public ReactiveIncomingController(Tracer tracer, ReactiveAggregationPipeline aggregationPipeline,
+                                      ObjectProvider<RequestDeduplicator> deduplicator) {
+        this.tracer = tracer;
+        this.aggregationPipeline = aggregationPipeline;
+        this.deduplicator = deduplicator.getIfAvailable();
+    }
+
+    @PostMapping
+    public Mono<ResponseEntity<Map<String, String>>> handleIncoming(
+            @RequestHeader(name = "x-request-id", required = false) String requestId) {
+
+        // 1) Validate required header
+        if (requestId == null || requestId.isBlank()) {
+            return Mono.just(ResponseEntity.badRequest().body(Map.of(
+                    "error", "Missing required header: x-request-id"
+            )));
+        }
+
+        // A retry of a request seen within the dedup window: no span, no link, no MongoDB bytes
+        if (deduplicator != null && !deduplicator.firstSeen(requestId)) {
+            return Mono.just(ResponseEntity.ok(Map.of(
+                    "status", "duplicate",
+                    "timestamp", Instant.now().toString()
+            )));
+        }
+
+        /*
+        *  -- NOTE --
+        *  Same SERVER span as the servlet controller; nothing here blocks, so the span
+        *  is ended before the response is written
+        */
+        Span span = tracer.spanBuilder("handleIncomingMethod")
+                .setSpanKind(SpanKind.SERVER)
+                .startSpan();
+        try {
+            span.setAttribute("x-request-id", requestId);
+            span.setAttribute("http.method", "POST");
+            span.setAttribute("http.route", "/incoming");
+            span.setAttribute("request.timestamp", Instant.now().toString());
+
+            SpanContext ctx = span.getSpanContext();
+            log.info("Received HTTP POST request at /incoming endpoint. x-request-id={} traceId={}", requestId, ctx.getTraceId());
+
+            if (!aggregationPipeline.offer(ctx, requestId)) {
+                span.setAttribute("aggregation.rejected", true);
+                return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+                        "error", "Aggregation buffer full, retry later"
+                )));
+            }
+            return Mono.just(ResponseEntity.ok(Map.of(
+                    "status", "received",
+                    "timestamp", Instant.now().toString()
+            )));
+        } finally {
+            span.end();
+        }
+    }
+}
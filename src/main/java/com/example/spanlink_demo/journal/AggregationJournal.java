@@ -0,0 +1,592 @@
+package com.example.spanlink_demo.journal;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceId;
+import io.opentelemetry.api.trace.TraceState;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped write-ahead journal for requests that are aggregated but not yet
+ * persisted to MongoDB.
+ *
+ * <p>Every accepted request is appended as an {@code ACCEPTED} record before the request is
+ * acknowledged; once MongoDB confirms the write of a batch, a {@code FLUSHED} record lists the
+ * sequences of its requests. The sequence of a record is its byte position in the journal, so a
+ * single CAS on the write position both reserves the space and numbers the record, and appends
+ * from many request threads never take a lock.
+ *
+ * <p>The journal is split into fixed-size segment files. A segment is deleted once it is full,
+ * every request recorded in it is flushed, and every segment its {@code FLUSHED} records refer to
+ * is deleted, so a {@code FLUSHED} record never goes before the records it refers to. A batch that
+ * is never released only keeps its own segment, and the few after it holding {@code FLUSHED}
+ * records of that segment; {@code aggregation.journal.head.pinned} tells how long that has lasted.
+ *
+ * <p>Records are {@code [int length][int crc32c][payload]}. The length is written first and the
+ * checksum last, so a record torn by a crash is detected and skipped. A slot reserved by a thread
+ * that never got to write it reads as zeros; recovery looks for the next valid record behind it
+ * instead of stopping there. Writes land in the page
+ * cache and survive a process crash; {@code force-interval.millis} bounds what a power loss
+ * can take.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.journal.enabled", havingValue = "true")
+public class AggregationJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregationJournal.class);
+
+    private static final byte ACCEPTED = 1;
+    private static final byte FLUSHED = 2;
+    private static final int HEADER_LENGTH = 8;
+    /** Length value marking the unused tail of a segment. */
+    private static final int SKIP = -1;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long PINNED_WARN_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final AtomicLong position;
+    private final long firstSegmentIndex;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock releaseLock = new ReentrantLock();
+    private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+    private final Thread forceThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong flushedEntries = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+    private volatile long recoveredEntries;
+    private volatile long lastRecoveryMillis;
+    // Full segment at the head that still holds unflushed requests, and since when
+    private long pinnedSegment = -1;
+    private volatile long pinnedSinceNanos;
+    private boolean pinnedWarned;
+
+    @Autowired
+    public AggregationJournal(@Value("${aggregation.journal.dir:journal}") String directory,
+                              @Value("${aggregation.journal.segment-size.mb:64}") int segmentSizeMb,
+                              @Value("${aggregation.journal.force-interval.millis:0}") long forceIntervalMillis) {
+        this(Path.of(directory), segmentSizeMb * 1024 * 1024, forceIntervalMillis);
+    }
+
+    public AggregationJournal(Path directory, int segmentSize, long forceIntervalMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal directory " + directory, e);
+        }
+        // New records go after any segment left by a previous run; recover() reads those
+        List<Long> existing = existingSegmentIndexes();
+        this.firstSegmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+        this.position = new AtomicLong(firstSegmentIndex * segmentSize);
+        if (forceIntervalMillis > 0) {
+            this.forceThread = new Thread(() -> forceLoop(forceIntervalMillis), "journal-force");
+            this.forceThread.setDaemon(true);
+            this.forceThread.start();
+        } else {
+            this.forceThread = null;
+        }
+        logger.info("Aggregation journal opened. Directory: {}, Segment size: {} bytes, Segments to recover: {}, Force interval: {}ms",
+                directory.toAbsolutePath(), segmentSize, existing.size(), forceIntervalMillis);
+    }
+
+    /**
+     * Reads the segments left by a previous run and returns the requests that were never flushed,
+     * in journal order. They are appended again under new sequences before the old segments are
+     * deleted, so they stay journaled until they are flushed. Call once, before replaying.
+     */
+    public List<Entry> recover() {
+        long start = System.nanoTime();
+        // Payloads of unflushed ACCEPTED records, decoded only once the FLUSHED records are applied
+        Map<Long, ByteBuffer> pending = new LinkedHashMap<>();
+        List<Long> old = existingSegmentIndexes().stream().filter(index -> index < firstSegmentIndex).toList();
+        for (long index : old) {
+            readSegment(index, pending);
+        }
+
+        List<Entry> recovered = new ArrayList<>(pending.size());
+        for (ByteBuffer payload : pending.values()) {
+            // Copied as is, no need to encode the request again
+            long sequence = write(payload.duplicate(), true, Long.MAX_VALUE);
+            recovered.add(decode(sequence, payload));
+        }
+        for (long index : old) {
+            delete(segmentPath(index));
+        }
+
+        recoveredEntries = recovered.size();
+        lastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Aggregation journal recovered. Segments read: {}, Unflushed requests: {}, Recovery time: {}ms",
+                old.size(), recovered.size(), lastRecoveryMillis);
+        return recovered;
+    }
+
+    /**
+     * Journals one accepted request.
+     *
+     * @return the journal sequence of the request
+     */
+    public long append(String aggregationKey, SpanContext spanContext, String requestId) {
+        String tracestate = TraceContextCodec.formatTracestate(spanContext.getTraceState());
+        ByteBuffer payload = scratch(64 + length(aggregationKey) + length(requestId) + length(tracestate));
+        payload.put(ACCEPTED);
+        putString(payload, aggregationKey);
+        putString(payload, requestId);
+        payload.put(spanContext.getTraceIdBytes());
+        payload.put(spanContext.getSpanIdBytes());
+        payload.put(spanContext.getTraceFlags().asByte());
+        payload.put((byte) (spanContext.isRemote() ? 1 : 0));
+        putString(payload, tracestate);
+        payload.flip();
+        return write(payload, true, Long.MAX_VALUE);
+    }
+
+    /**
+     * Journals a chunk of accepted requests.
+     *
+     * @return the journal sequence of every request, in order
+     */
+    public long[] appendAll(String aggregationKey, List<SpanContext> spanContexts, List<String> requestIds) {
+        long[] sequences = new long[spanContexts.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = append(aggregationKey, spanContexts.get(i), requestIds.get(i));
+        }
+        return sequences;
+    }
+
+    /**
+     * Records that the requests at {@code sequences} are persisted, then deletes the segments
+     * that no longer hold anything unflushed.
+     */
+    public void markFlushed(long[] sequences) {
+        ByteBuffer payload = scratch(5 + sequences.length * Long.BYTES);
+        payload.put(FLUSHED);
+        payload.putInt(sequences.length);
+        long oldest = Long.MAX_VALUE;
+        for (long sequence : sequences) {
+            payload.putLong(sequence);
+            oldest = Math.min(oldest, sequence);
+        }
+        payload.flip();
+        write(payload, false, oldest / segmentSize);
+
+        for (long sequence : sequences) {
+            Segment segment = segments.get(sequence / segmentSize);
+            if (segment != null) {
+                segment.unflushed.decrementAndGet();
+            }
+        }
+        flushedEntries.addAndGet(sequences.length);
+        deleteFlushed();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return requests journaled but not yet flushed
+     */
+    public long getUnflushedEntries() {
+        long unflushed = 0;
+        for (Segment segment : segments.values()) {
+            unflushed += segment.unflushed.get();
+        }
+        return unflushed;
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    public long getFlushedEntries() {
+        return flushedEntries.get();
+    }
+
+    public long getDeletedSegments() {
+        return deletedSegments.get();
+    }
+
+    public long getRecoveredEntries() {
+        return recoveredEntries;
+    }
+
+    public long getLastRecoveryMillis() {
+        return lastRecoveryMillis;
+    }
+
+    /**
+     * @return how long the oldest segment has been full while still holding unflushed requests,
+     *         0 if it is not
+     */
+    public long getHeadPinnedMillis() {
+        long since = pinnedSinceNanos;
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (forceThread != null) {
+            forceThread.interrupt();
+        }
+        // Records written after this (late MongoDB confirmations) still land in the page cache
+        forceAll();
+    }
+
+    /**
+     * @param referencedSegment oldest segment a {@code FLUSHED} record refers to, {@code Long.MAX_VALUE} otherwise
+     */
+    private long write(ByteBuffer payload, boolean accepted, long referencedSegment) {
+        int length = HEADER_LENGTH + payload.remaining();
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds the segment size");
+        }
+        long start;
+        long current;
+        do {
+            current = position.get();
+            start = current;
+            int offset = (int) (current % segmentSize);
+            if (offset + length > segmentSize) {
+                // Does not fit: skip the rest of this segment
+                start = current - offset + segmentSize;
+            }
+        } while (!position.compareAndSet(current, start + length));
+
+        if (start != current) {
+            Segment skipped = segment(current / segmentSize);
+            int offset = (int) (current % segmentSize);
+            if (segmentSize - offset >= Integer.BYTES) {
+                skipped.buffer.putInt(offset, SKIP);
+            }
+            skipped.written.addAndGet(segmentSize - offset);
+        }
+
+        Segment segment = segment(start / segmentSize);
+        int offset = (int) (start % segmentSize);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        segment.buffer.putInt(offset, length);
+        segment.buffer.put(offset + HEADER_LENGTH, payload, payload.position(), payload.remaining());
+        segment.buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+        // Counted before the bytes, so a full segment never looks deletable too early
+        if (accepted) {
+            segment.unflushed.incrementAndGet();
+        }
+        segment.oldestReferenced.accumulateAndGet(referencedSegment, Math::min);
+        segment.written.addAndGet(length);
+        appendedRecords.incrementAndGet();
+        return start;
+    }
+
+    private Segment segment(long index) {
+        Segment segment = segments.get(index);
+        return segment != null ? segment : segments.computeIfAbsent(index, this::openSegment);
+    }
+
+    private Segment openSegment(long index) {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(index).toFile(), "rw")) {
+            file.setLength(segmentSize);
+            return new Segment(file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal segment " + index, e);
+        }
+    }
+
+    private void deleteFlushed() {
+        if (!releaseLock.tryLock()) {
+            // Another flush worker is already at it
+            return;
+        }
+        try {
+            // In order, so deleting a segment lets the ones referring to it go in the same pass
+            for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+                long index = entry.getKey();
+                Segment segment = entry.getValue();
+                if (segment.written.get() < segmentSize || segment.unflushed.get() > 0) {
+                    continue;
+                }
+                long referenced = Math.min(segment.oldestReferenced.get(), index);
+                if (!segments.subMap(referenced, index).isEmpty()) {
+                    // Its FLUSHED records still cover requests in an older segment
+                    continue;
+                }
+                segments.remove(index);
+                delete(segmentPath(index));
+                deletedSegments.incrementAndGet();
+            }
+            checkPinnedHead();
+        } finally {
+            releaseLock.unlock();
+        }
+    }
+
+    private void checkPinnedHead() {
+        Map.Entry<Long, Segment> head = segments.firstEntry();
+        if (head == null || head.getValue().written.get() < segmentSize) {
+            pinnedSegment = -1;
+            pinnedSinceNanos = 0;
+            return;
+        }
+        long now = System.nanoTime();
+        if (head.getKey() != pinnedSegment) {
+            pinnedSegment = head.getKey();
+            pinnedSinceNanos = now;
+            pinnedWarned = false;
+        } else if (!pinnedWarned && now - pinnedSinceNanos > PINNED_WARN_NANOS) {
+            pinnedWarned = true;
+            logger.warn("Journal segment {} has been full for {}s with {} requests never flushed, it stays on disk until they are",
+                    pinnedSegment, TimeUnit.NANOSECONDS.toSeconds(now - pinnedSinceNanos), head.getValue().unflushed.get());
+        }
+    }
+
+    private void readSegment(long index, Map<Long, ByteBuffer> pending) {
+        try (FileChannel channel = FileChannel.open(segmentPath(index))) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long base = index * segmentSize;
+            int offset = 0;
+            while (offset + HEADER_LENGTH <= buffer.limit()) {
+                int length = buffer.getInt(offset);
+                if (length == SKIP) {
+                    // The unused tail
+                    break;
+                }
+                if (length == 0) {
+                    // The end of the written part, or a slot whose writer crashed before writing
+                    // it while later records made it to the page cache
+                    int next = nextRecord(buffer, offset + 1);
+                    if (next < 0) {
+                        break;
+                    }
+                    logger.warn("Unwritten journal slot in segment {} at offset {}, {} bytes skipped", index, offset, next - offset);
+                    offset = next;
+                    continue;
+                }
+                if (length < HEADER_LENGTH + 1 || offset + length > buffer.limit()) {
+                    logger.warn("Corrupt journal record in segment {} at offset {}, skipping the rest of the segment", index, offset);
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(offset + HEADER_LENGTH, length - HEADER_LENGTH);
+                if (isValid(buffer, offset, length)) {
+                    readRecord(base + offset, payload, pending);
+                } else {
+                    // Torn by a crash while it was being written
+                    logger.warn("Torn journal record in segment {} at offset {}, skipped", index, offset);
+                }
+                offset += length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read journal segment " + index, e);
+        }
+    }
+
+    /**
+     * @return offset of the first complete record at or after {@code from}, -1 if there is none
+     */
+    private static int nextRecord(ByteBuffer buffer, int from) {
+        for (int offset = from; offset + HEADER_LENGTH < buffer.limit(); offset++) {
+            int length = buffer.getInt(offset);
+            if (length > HEADER_LENGTH && offset + length <= buffer.limit() && isValid(buffer, offset, length)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int offset, int length) {
+        byte type = buffer.get(offset + HEADER_LENGTH);
+        if (type != ACCEPTED && type != FLUSHED) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + HEADER_LENGTH, length - HEADER_LENGTH));
+        return (int) crc.getValue() == buffer.getInt(offset + Integer.BYTES);
+    }
+
+    private static void readRecord(long sequence, ByteBuffer payload, Map<Long, ByteBuffer> pending) {
+        byte type = payload.get(0);
+        if (type == ACCEPTED) {
+            pending.put(sequence, payload);
+        } else if (type == FLUSHED) {
+            int count = payload.getInt(1);
+            for (int i = 0; i < count; i++) {
+                pending.remove(payload.getLong(5 + i * Long.BYTES));
+            }
+        }
+    }
+
+    private static Entry decode(long sequence, ByteBuffer record) {
+        ByteBuffer payload = record.duplicate();
+        payload.get(); // ACCEPTED
+        String aggregationKey = getString(payload);
+        String requestId = getString(payload);
+        byte[] traceId = new byte[16];
+        byte[] spanId = new byte[8];
+        payload.get(traceId).get(spanId);
+        TraceFlags flags = TraceFlags.fromByte(payload.get());
+        boolean remote = payload.get() == 1;
+        TraceState traceState = TraceContextCodec.parseTracestate(getString(payload));
+        SpanContext spanContext = remote
+                ? SpanContext.createFromRemoteParent(TraceId.fromBytes(traceId), SpanId.fromBytes(spanId), flags, traceState)
+                : SpanContext.create(TraceId.fromBytes(traceId), SpanId.fromBytes(spanId), flags, traceState);
+        return new Entry(sequence, aggregationKey, requestId, spanContext);
+    }
+
+    private ByteBuffer scratch(int capacity) {
+        ByteBuffer buffer = scratch.get();
+        if (buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            scratch.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static int length(String value) {
+        // UTF-8 takes at most 3 bytes per char
+        return value == null ? 0 : value.length() * 3;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Long> existingSegmentIndexes() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list journal directory " + directory, e);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete journal segment {}", path, e);
+        }
+    }
+
+    private void forceLoop(long intervalMillis) {
+        while (running) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            forceAll();
+        }
+    }
+
+    private void forceAll() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * A request recovered from the journal.
+     */
+    public static final class Entry {
+
+        private final long sequence;
+        private final String aggregationKey;
+        private final String requestId;
+        private final SpanContext spanContext;
+
+        Entry(long sequence, String aggregationKey, String requestId, SpanContext spanContext) {
+            this.sequence = sequence;
+            this.aggregationKey = aggregationKey;
+            this.requestId = requestId;
+            this.spanContext = spanContext;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getAggregationKey() {
+            return aggregationKey;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public SpanContext getSpanContext() {
+            return spanContext;
+        }
+    }
+
+    private static final class Segment {
+
+        private final MappedByteBuffer buffer;
+        // Bytes accounted for: records and the skipped tail; the segment is full at segmentSize
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicInteger unflushed = new AtomicInteger();
+        // Oldest segment its FLUSHED records refer to
+        private final AtomicLong oldestReferenced = new AtomicLong(Long.MAX_VALUE);
+
+        private Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.spanlink_demo.logging;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+
+/**
+ * Metrics of the logging path: per-request log lines suppressed by the {@link RequestLogSampler},
+ * and the drops and depth of the root logger's {@link RingBufferAppender}.
+ */
+@Component
+public class LoggingMetrics implements MeterBinder {
+
+    private final RequestLogSampler requestLog;
+
+    public LoggingMetrics(RequestLogSampler requestLog) {
+        this.requestLog = requestLog;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("logging.request.suppressed", requestLog, RequestLogSampler::getSuppressed)
+                .description("Per-request log lines not written (logging.request.mode)")
+                .tag("mode", requestLog.getMode())
+                .register(registry);
+
+        RingBufferAppender appender = rootRingBufferAppender();
+        if (appender != null && appender.isAsync()) {
+            FunctionCounter.builder("logging.async.dropped", appender, RingBufferAppender::getDropped)
+                    .description("Log events dropped because the ring buffer was full")
+                    .register(registry);
+            Gauge.builder("logging.async.queue.depth", appender, RingBufferAppender::getQueueDepth)
+                    .description("Log events waiting for the writer thread")
+                    .register(registry);
+        }
+    }
+
+    private static RingBufferAppender rootRingBufferAppender() {
+        ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+        if (!(factory instanceof LoggerContext context)) {
+            return null;
+        }
+        Iterator<Appender<ILoggingEvent>> appenders = context.getLogger(Logger.ROOT_LOGGER_NAME).iteratorForAppenders();
+        while (appenders.hasNext()) {
+            if (appenders.next() instanceof RingBufferAppender ringBuffer) {
+                return ringBuffer;
+            }
+        }
+        return null;
+    }
+}
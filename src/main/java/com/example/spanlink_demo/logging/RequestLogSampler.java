@@ -0,0 +1,91 @@
+package com.example.spanlink_demo.logging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a per-request log line is written ({@code logging.request.mode}):
+ * <ul>
+ *   <li>{@code all}: every request is logged</li>
+ *   <li>{@code sampled}: one request in {@code logging.request.sample-every} is logged, and at most
+ *       {@code logging.request.max-per-second} of them</li>
+ *   <li>{@code off}: no per-request log lines</li>
+ * </ul>
+ * Per-batch log lines (seals, flushes, MongoDB writes) are not affected. The sampling draw is
+ * thread-local, so only sampled requests touch the shared per-second counter.
+ */
+@Component
+public class RequestLogSampler {
+
+    private enum Mode {
+        ALL, SAMPLED, OFF
+    }
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final Mode mode;
+    private final int sampleEvery;
+    private final int maxPerSecond;
+    private final LongAdder suppressed = new LongAdder();
+
+    private final AtomicInteger loggedThisSecond = new AtomicInteger();
+    private volatile long currentSecond = Long.MIN_VALUE;
+
+    public RequestLogSampler(@Value("${logging.request.mode:all}") String mode,
+                             @Value("${logging.request.sample-every:100}") int sampleEvery,
+                             @Value("${logging.request.max-per-second:100}") int maxPerSecond) {
+        try {
+            this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown logging.request.mode: " + mode + " (all | sampled | off)");
+        }
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    public boolean shouldLog() {
+        return shouldLog(System.nanoTime());
+    }
+
+    boolean shouldLog(long nowNanos) {
+        if (mode == Mode.ALL) {
+            return true;
+        }
+        if (mode == Mode.OFF
+                || (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+                || !withinRate(nowNanos)) {
+            suppressed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean withinRate(long nowNanos) {
+        if (maxPerSecond <= 0) {
+            return true;
+        }
+        long second = Math.floorDiv(nowNanos, NANOS_PER_SECOND);
+        if (second != currentSecond) {
+            // Racing resets only let a few extra lines through at the turn of a second
+            currentSecond = second;
+            loggedThisSecond.set(0);
+        }
+        return loggedThisSecond.incrementAndGet() <= maxPerSecond;
+    }
+
+    /**
+     * Per-request log lines not written.
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public String getMode() {
+        return mode.name().toLowerCase(Locale.ROOT);
+    }
+}
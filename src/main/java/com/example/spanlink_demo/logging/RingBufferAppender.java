@@ -0,0 +1,205 @@
+package com.example.spanlink_demo.logging;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking logback appender: events go onto a bounded ring buffer and one writer thread
+ * passes them to the attached appenders (the JSON console appender in {@code logback-spring.xml}).
+ * A logging thread never waits: when the buffer is full the event is dropped and counted
+ * ({@code logging.async.dropped} in the metrics).
+ *
+ * <p>The message is formatted by the writer thread, so only the thread name and MDC are captured
+ * on the logging thread. Log arguments must therefore not change after the call; the strings,
+ * numbers and immutable lists logged in this application don't.
+ *
+ * <p>With {@code async=false} events are passed through on the logging thread, which is the
+ * synchronous console logging this appender replaces.
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+
+    public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+    /** Events handed to the attached appenders per wakeup of the writer thread. */
+    private static final int DRAIN_BATCH = 256;
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private final LongAdder dropped = new LongAdder();
+
+    private boolean async = true;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int maxFlushTimeMillis = 1000;
+
+    private ArrayBlockingQueue<ILoggingEvent> queue;
+    private Thread writer;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (!appenders.iteratorForAppenders().hasNext()) {
+            addError("No appender attached to " + getName());
+            return;
+        }
+        if (async) {
+            if (queueSize < 1) {
+                addError("Invalid queue size " + queueSize);
+                return;
+            }
+            queue = new ArrayBlockingQueue<>(queueSize);
+            writer = new Thread(this::drain, "logback-ring-buffer-" + getName());
+            writer.setDaemon(true);
+            writer.start();
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join(maxFlushTimeMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writer.isAlive()) {
+                addWarn("Writer thread did not flush " + queue.size() + " event(s) in " + maxFlushTimeMillis + "ms");
+            }
+            writer = null;
+        }
+        long droppedEvents = dropped.sum();
+        if (droppedEvents > 0) {
+            addWarn(droppedEvents + " event(s) dropped because the ring buffer of " + getName() + " was full");
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!async) {
+            appenders.appendLoopOnAppenders(event);
+            return;
+        }
+        // State of the logging thread the writer thread cannot recover
+        event.getThreadName();
+        event.getMDCPropertyMap();
+        if (!queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        List<ILoggingEvent> batch = new ArrayList<>(DRAIN_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, DRAIN_BATCH - 1);
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            // stop(): flush what is left
+        }
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<ILoggingEvent> batch) {
+        for (ILoggingEvent event : batch) {
+            appenders.appendLoopOnAppenders(event);
+        }
+        batch.clear();
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxFlushTimeMillis() {
+        return maxFlushTimeMillis;
+    }
+
+    /**
+     * How long {@link #stop()} waits for the writer thread to flush the buffer.
+     */
+    public void setMaxFlushTimeMillis(int maxFlushTimeMillis) {
+        this.maxFlushTimeMillis = maxFlushTimeMillis;
+    }
+
+    /**
+     * Events dropped because the buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Events waiting for the writer thread, 0 when not async.
+     */
+    public int getQueueDepth() {
+        ArrayBlockingQueue<ILoggingEvent> q = queue;
+        return q != null ? q.size() : 0;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
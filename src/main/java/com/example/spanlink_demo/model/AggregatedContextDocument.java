@@ -1,7 +1,13 @@
 package com.example.spanlink_demo.model;
 
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceId;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.Instant;
 import java.util.List;
@@ -12,19 +18,22 @@ public class AggregatedContextDocument {
     @Id
     private String id;
 
+    private String aggregationKey; // Key of the aggregation window (e.g. tenant or channel)
     private String triggerReason;
     private List<String> pendingRequestIds;
     private List<SpanContextData> pendingSpanContexts;
     private String masterTraceId;
     private Instant timestamp;
     private Instant firstRequestTimestamp; // Timestamp of the first request in the batch
+    private List<FanInSpanData> fanInSpans; // Spans carrying the links of a fanned-in batch, null if linked directly
 
     public AggregatedContextDocument() {
     }
 
-    public AggregatedContextDocument(String triggerReason, List<String> pendingRequestIds,
+    public AggregatedContextDocument(String aggregationKey, String triggerReason, List<String> pendingRequestIds,
                                      List<SpanContextData> pendingSpanContexts, String masterTraceId,
                                      Instant firstRequestTimestamp) {
+        this.aggregationKey = aggregationKey;
         this.triggerReason = triggerReason;
         this.pendingRequestIds = pendingRequestIds;
         this.pendingSpanContexts = pendingSpanContexts;
@@ -42,6 +51,14 @@ public class AggregatedContextDocument {
         this.id = id;
     }
 
+    public String getAggregationKey() {
+        return aggregationKey;
+    }
+
+    public void setAggregationKey(String aggregationKey) {
+        this.aggregationKey = aggregationKey;
+    }
+
     public String getTriggerReason() {
         return triggerReason;
     }
@@ -90,8 +107,90 @@ public class AggregatedContextDocument {
         this.firstRequestTimestamp = firstRequestTimestamp;
     }
 
+    public List<FanInSpanData> getFanInSpans() {
+        return fanInSpans;
+    }
+
+    public void setFanInSpans(List<FanInSpanData> fanInSpans) {
+        this.fanInSpans = fanInSpans;
+    }
+
+    /**
+     * One {@code aggregated-fan-in} span of a batch too large to link from the master span:
+     * the span covers {@code pendingSpanContexts[offset, offset + count)}. Linked spans carry
+     * the links of that range; the others only group fan-in spans below them.
+     */
+    public static class FanInSpanData {
+        private String spanId;
+        private String parentSpanId;
+        private int offset;
+        private int count;
+        private boolean linked;
+
+        public FanInSpanData() {
+        }
+
+        public FanInSpanData(String spanId, String parentSpanId, int offset, int count, boolean linked) {
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.offset = offset;
+            this.count = count;
+            this.linked = linked;
+        }
+
+        public String getSpanId() {
+            return spanId;
+        }
+
+        public void setSpanId(String spanId) {
+            this.spanId = spanId;
+        }
+
+        public String getParentSpanId() {
+            return parentSpanId;
+        }
+
+        public void setParentSpanId(String parentSpanId) {
+            this.parentSpanId = parentSpanId;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public void setOffset(int offset) {
+            this.offset = offset;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public boolean isLinked() {
+            return linked;
+        }
+
+        public void setLinked(boolean linked) {
+            this.linked = linked;
+        }
+    }
+
     /**
-     * Nested class to store span context data
+     * Nested class to store span context data.
+     *
+     * <p>Two storage schemas coexist in the collection:
+     * <ul>
+     *   <li>string (default): hex {@code traceId}/{@code spanId}, decimal {@code traceFlags}
+     *       and the full {@code traceparent}</li>
+     *   <li>compact: {@code tid} BinData(16), {@code sid} BinData(8) and {@code f} flags,
+     *       with no stored traceparent</li>
+     * </ul>
+     * The getters accept either schema; for compact entries the hex IDs and the traceparent
+     * are rebuilt on read.
      */
     public static class SpanContextData {
         private String traceId;
@@ -100,6 +199,14 @@ public class AggregatedContextDocument {
         private String traceState;
         private String traceparent; // W3C traceparent header value for context propagation
 
+        // Compact schema
+        @Field("tid")
+        private byte[] traceIdBytes;
+        @Field("sid")
+        private byte[] spanIdBytes;
+        @Field("f")
+        private Integer flags;
+
         public SpanContextData() {
         }
 
@@ -111,8 +218,57 @@ public class AggregatedContextDocument {
             this.traceparent = traceparent;
         }
 
+        /**
+         * Creates an entry in the compact schema.
+         */
+        public static SpanContextData compact(SpanContext spanContext) {
+            return compact(spanContext.getTraceIdBytes(), spanContext.getSpanIdBytes(),
+                    spanContext.getTraceFlags().asByte(), TraceContextCodec.formatTracestate(spanContext.getTraceState()));
+        }
+
+        /**
+         * Creates an entry in the compact schema from raw IDs; the arrays are kept, not copied.
+         *
+         * @param traceState W3C {@code tracestate} value, {@code null} if empty
+         */
+        public static SpanContextData compact(byte[] traceIdBytes, byte[] spanIdBytes, byte flags, String traceState) {
+            SpanContextData data = new SpanContextData();
+            data.traceIdBytes = traceIdBytes;
+            data.spanIdBytes = spanIdBytes;
+            data.flags = flags & 0xff;
+            data.traceState = traceState;
+            return data;
+        }
+
+        /**
+         * Decodes this entry back into a remote {@link SpanContext}, e.g. to add it as a link
+         * on a downstream span. Works for both schemas.
+         *
+         * @return the span context, or {@link SpanContext#getInvalid()} if the entry is malformed
+         */
+        public SpanContext toSpanContext() {
+            if (traceIdBytes != null && spanIdBytes != null && flags != null) {
+                return SpanContext.createFromRemoteParent(
+                        TraceId.fromBytes(traceIdBytes),
+                        SpanId.fromBytes(spanIdBytes),
+                        TraceFlags.fromByte(flags.byteValue()),
+                        TraceContextCodec.parseTracestate(traceState));
+            }
+            return TraceContextCodec.parse(getTraceparent(), traceState);
+        }
+
+        /**
+         * @return true if this entry was written in the compact schema
+         */
+        public boolean isCompact() {
+            return traceIdBytes != null;
+        }
+
         // Getters and Setters
         public String getTraceId() {
+            if (traceId == null && traceIdBytes != null) {
+                return TraceId.fromBytes(traceIdBytes);
+            }
             return traceId;
         }
 
@@ -121,6 +277,9 @@ public class AggregatedContextDocument {
         }
 
         public String getSpanId() {
+            if (spanId == null && spanIdBytes != null) {
+                return SpanId.fromBytes(spanIdBytes);
+            }
             return spanId;
         }
 
@@ -129,6 +288,9 @@ public class AggregatedContextDocument {
         }
 
         public String getTraceFlags() {
+            if (traceFlags == null && flags != null) {
+                return String.valueOf(flags.byteValue());
+            }
             return traceFlags;
         }
 
@@ -145,12 +307,39 @@ public class AggregatedContextDocument {
         }
 
         public String getTraceparent() {
+            if (traceparent == null && traceIdBytes != null) {
+                // Rebuilt lazily for compact entries: version-traceId-spanId-flags
+                return TraceContextCodec.formatTraceparent(getTraceId(), getSpanId(), flags.byteValue());
+            }
             return traceparent;
         }
 
         public void setTraceparent(String traceparent) {
             this.traceparent = traceparent;
         }
+
+        public byte[] getTraceIdBytes() {
+            return traceIdBytes;
+        }
+
+        public void setTraceIdBytes(byte[] traceIdBytes) {
+            this.traceIdBytes = traceIdBytes;
+        }
+
+        public byte[] getSpanIdBytes() {
+            return spanIdBytes;
+        }
+
+        public void setSpanIdBytes(byte[] spanIdBytes) {
+            this.spanIdBytes = spanIdBytes;
+        }
+
+        public Integer getFlags() {
+            return flags;
+        }
+
+        public void setFlags(Integer flags) {
+            this.flags = flags;
+        }
     }
 }
-
@@ -0,0 +1,138 @@
+package com.example.spanlink_demo.repository;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.service.WorkerThreads;
+import com.mongodb.MongoServerException;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Indexes backing the lookups of {@link AggregatedContextRepository}:
+ * <ul>
+ *   <li>{@code pendingRequestIds} (multikey): batch of an x-request-id</li>
+ *   <li>{@code pendingSpanContexts.traceId} and {@code pendingSpanContexts.tid} (multikey):
+ *       batch of a request trace ID, string and compact schema</li>
+ *   <li>{@code masterTraceId}: batch of an aggregated-action trace ID</li>
+ *   <li>{@code timestamp}: sort order of the lookups, and the TTL when
+ *       {@code aggregation.mongo.ttl.days} is set</li>
+ * </ul>
+ * Built in the background at startup, so a slow or unreachable MongoDB does not hold up the
+ * application; existing indexes are left as they are, except for the TTL, which is updated in place.
+ * The {@link MongoTemplate} is only looked up on that thread, and with {@code startup.lazy.enabled}
+ * the thread starts once the application is ready: the MongoDB client is not created during
+ * startup for the indexes' sake, nor does it compete with startup for the CPU.
+ */
+@Component
+@ConditionalOnProperty(name = {"aggregation.mongo.indexes.enabled", "aggregation.sink.mongo.enabled"},
+        havingValue = "true", matchIfMissing = true)
+public class AggregatedContextIndexes {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregatedContextIndexes.class);
+
+    static final String TIMESTAMP_INDEX = "timestamp_1";
+
+    /** An index with the same name exists with other options (e.g. another TTL). */
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+    private final Supplier<MongoTemplate> mongoTemplate;
+    private final long ttlDays;
+    private final boolean virtualThreads;
+    private final boolean lazyStartup;
+
+    @Autowired
+    public AggregatedContextIndexes(ObjectProvider<MongoTemplate> mongoTemplate,
+                                    @Value("${aggregation.mongo.ttl.days:0}") long ttlDays,
+                                    @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                    @Value("${startup.lazy.enabled:false}") boolean lazyStartup) {
+        this.mongoTemplate = mongoTemplate::getObject;
+        this.ttlDays = ttlDays;
+        this.virtualThreads = virtualThreads;
+        this.lazyStartup = lazyStartup;
+    }
+
+    public AggregatedContextIndexes(MongoTemplate mongoTemplate, long ttlDays, boolean virtualThreads) {
+        this.mongoTemplate = () -> mongoTemplate;
+        this.ttlDays = ttlDays;
+        this.virtualThreads = virtualThreads;
+        this.lazyStartup = false;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!lazyStartup) {
+            start();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startAfterStartup() {
+        if (lazyStartup) {
+            start();
+        }
+    }
+
+    private void start() {
+        WorkerThreads.newThread("mongo-index-builder", virtualThreads, () -> {
+            try {
+                ensureIndexes();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to create aggregated_contexts indexes, lookups fall back to collection scans", e);
+            }
+        }).start();
+    }
+
+    /**
+     * Creates the missing indexes and brings the TTL of the timestamp index in line with
+     * {@code aggregation.mongo.ttl.days}.
+     */
+    public void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.get().indexOps(AggregatedContextDocument.class);
+        indexOps.createIndex(new Index().on("pendingRequestIds", Sort.Direction.ASC));
+        indexOps.createIndex(new Index().on("pendingSpanContexts.traceId", Sort.Direction.ASC));
+        indexOps.createIndex(new Index().on("pendingSpanContexts.tid", Sort.Direction.ASC));
+        indexOps.createIndex(new Index().on("masterTraceId", Sort.Direction.ASC));
+        ensureTimestampIndex(indexOps);
+        logger.info("aggregated_contexts indexes ready. TTL: {}", ttlDays > 0 ? ttlDays + " days" : "none");
+    }
+
+    private void ensureTimestampIndex(IndexOperations indexOps) {
+        Index timestamp = new Index().on("timestamp", Sort.Direction.ASC).named(TIMESTAMP_INDEX);
+        if (ttlDays > 0) {
+            timestamp.expire(Duration.ofDays(ttlDays));
+        }
+        try {
+            indexOps.createIndex(timestamp);
+        } catch (DataAccessException e) {
+            if (!(e.getCause() instanceof MongoServerException server) || server.getCode() != INDEX_OPTIONS_CONFLICT) {
+                throw e;
+            }
+            if (ttlDays <= 0) {
+                // collMod cannot turn a TTL index back into a plain one
+                logger.warn("{} still has a TTL; drop the index to keep aggregated contexts forever", TIMESTAMP_INDEX);
+                return;
+            }
+            // Only the TTL differs: change it without rebuilding the index
+            MongoTemplate template = mongoTemplate.get();
+            template.executeCommand(new Document("collMod", template.getCollectionName(AggregatedContextDocument.class))
+                    .append("index", new Document("name", TIMESTAMP_INDEX)
+                            .append("expireAfterSeconds", Duration.ofDays(ttlDays).toSeconds())));
+        }
+    }
+}
@@ -1,10 +1,35 @@
 package com.example.spanlink_demo.repository;
 
 import com.example.spanlink_demo.model.AggregatedContextDocument;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface AggregatedContextRepository extends MongoRepository<AggregatedContextDocument, String> {
-}
 
+    /*
+     *  -- NOTE --
+     *  Lookups return the batch summary only; pendingRequestIds and pendingSpanContexts can hold
+     *  thousands of entries per document and are left on the server
+     *  Indexes are created by AggregatedContextIndexes
+     */
+    String SUMMARY_FIELDS = "{ 'aggregationKey': 1, 'triggerReason': 1, 'masterTraceId': 1, 'timestamp': 1, 'firstRequestTimestamp': 1 }";
+
+    /**
+     * Batches containing {@code requestId}, newest first.
+     */
+    @Query(value = "{ 'pendingRequestIds': ?0 }", fields = SUMMARY_FIELDS, sort = "{ 'timestamp': -1 }")
+    List<AggregatedContextDocument> findSummariesByRequestId(String requestId, Limit limit);
+
+    /**
+     * Batches whose aggregated-action trace is {@code traceId} or which contain a request of
+     * that trace, newest first. {@code traceIdBytes} matches entries in the compact schema.
+     */
+    @Query(value = "{ '$or': [ { 'masterTraceId': ?0 }, { 'pendingSpanContexts.traceId': ?0 }, { 'pendingSpanContexts.tid': ?1 } ] }",
+            fields = SUMMARY_FIELDS, sort = "{ 'timestamp': -1 }")
+    List<AggregatedContextDocument> findSummariesByTraceId(String traceId, byte[] traceIdBytes, Limit limit);
+}
@@ -0,0 +1,12 @@
+package com.example.spanlink_demo.repository;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Non-blocking access to {@code aggregated_contexts}, used by the reactive stack.
+ */
+@Repository
+public interface ReactiveAggregatedContextRepository extends ReactiveMongoRepository<AggregatedContextDocument, String> {
+}
@@ -0,0 +1,184 @@
+package com.example.spanlink_demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Trigger count and interval of every aggregation window, tuned from the MongoDB persist
+ * latency and the arrival rate of each window ({@code aggregation.trigger.mode=adaptive}).
+ *
+ * <p>Every {@code adjust-interval.millis}, with the persist latency smoothed over the flushed batches:
+ * <ul>
+ *   <li>above {@code target-latency.millis} (MongoDB is falling behind), the count and the interval
+ *       of every window double, so the same requests take fewer, larger writes</li>
+ *   <li>at or below the target, the count drops by one and the interval halves, so batches go
+ *       out sooner while MongoDB keeps up</li>
+ *   <li>the count never exceeds what the window receives in {@code interval.max.millis}: a
+ *       window that cannot fill a batch in that time gets the minimum count</li>
+ * </ul>
+ * Both values stay within {@code count.min}..{@code count.max} and
+ * {@code interval.min.millis}..{@code interval.max.millis}. A new count applies from the next
+ * batch of a window, a new interval from the next time its timer fires.
+ */
+class AdaptiveTriggerPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveTriggerPolicy.class);
+
+    /** Weight of the newest sample in the smoothed persist latency. */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final int minCount;
+    private final int maxCount;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long targetLatencyNanos;
+    private final long adjustIntervalMillis;
+    private final List<Trigger> triggers = new CopyOnWriteArrayList<>();
+
+    private double smoothedLatencyNanos; // guarded by this; 0 until the first batch is persisted
+    private long lastAdjustNanos = System.nanoTime(); // guarded by this
+
+    AdaptiveTriggerPolicy(int minCount, int maxCount, long minIntervalMillis, long maxIntervalMillis,
+                          long targetLatencyMillis, long adjustIntervalMillis) {
+        this.minCount = Math.max(1, minCount);
+        this.maxCount = Math.max(this.minCount, maxCount);
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.adjustIntervalMillis = adjustIntervalMillis;
+    }
+
+    /**
+     * Adjusts the triggers every {@code adjust-interval.millis} on {@code timer}, until it is closed.
+     */
+    void start(TimingWheelTimer timer) {
+        timer.schedule(() -> {
+            adjust(System.nanoTime());
+            start(timer);
+        }, adjustIntervalMillis);
+    }
+
+    /**
+     * Trigger of a new window, starting from its configured values brought within the bounds.
+     */
+    Trigger newTrigger(String key, int initialCount, long initialIntervalMillis) {
+        Trigger trigger = new Trigger(key, clamp(initialCount, minCount, maxCount),
+                clamp(initialIntervalMillis, minIntervalMillis, maxIntervalMillis));
+        triggers.add(trigger);
+        return trigger;
+    }
+
+    /**
+     * Stops adjusting the trigger of a window that was dropped.
+     */
+    void removeTrigger(Trigger trigger) {
+        triggers.remove(trigger);
+    }
+
+    /**
+     * Called once a batch is persisted (or failed), with the time MongoDB took for it.
+     */
+    synchronized void recordPersistLatency(long nanos) {
+        smoothedLatencyNanos = smoothedLatencyNanos == 0
+                ? nanos
+                : smoothedLatencyNanos + LATENCY_SMOOTHING * (nanos - smoothedLatencyNanos);
+    }
+
+    synchronized long getPersistLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) smoothedLatencyNanos);
+    }
+
+    List<Trigger> getTriggers() {
+        return new ArrayList<>(triggers);
+    }
+
+    void adjust(long nowNanos) {
+        double elapsedSeconds;
+        long latencyNanos;
+        synchronized (this) {
+            elapsedSeconds = (nowNanos - lastAdjustNanos) / 1e9;
+            lastAdjustNanos = nowNanos;
+            latencyNanos = (long) smoothedLatencyNanos;
+        }
+        if (elapsedSeconds <= 0) {
+            return;
+        }
+        boolean congested = latencyNanos > targetLatencyNanos;
+
+        for (Trigger trigger : triggers) {
+            double rate = trigger.arrivals.sumThenReset() / elapsedSeconds;
+            int count = trigger.count;
+            long interval = trigger.intervalMillis;
+
+            int nextCount = congested ? (int) Math.min((long) count * 2, maxCount) : count - 1;
+            // A count the window cannot fill within the longest interval only delays its batches
+            long fillable = (long) (rate * maxIntervalMillis / 1000);
+            nextCount = (int) clamp(Math.min(nextCount, fillable), minCount, maxCount);
+            long nextInterval = clamp(congested ? interval * 2 : interval / 2, minIntervalMillis, maxIntervalMillis);
+
+            trigger.arrivalRate = rate;
+            if (nextCount != count || nextInterval != interval) {
+                trigger.count = nextCount;
+                trigger.intervalMillis = nextInterval;
+                logger.info("Adaptive trigger adjusted. Aggregation key: {}, Count: {} -> {}, Interval: {}ms -> {}ms, Arrival rate: {}/s, Persist latency: {}ms",
+                        trigger.key, count, nextCount, interval, nextInterval, Math.round(rate),
+                        TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            }
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Effective trigger of one window; read by the window, written by {@link #adjust}.
+     */
+    static final class Trigger {
+
+        private final String key;
+        private final LongAdder arrivals = new LongAdder();
+        private volatile int count;
+        private volatile long intervalMillis;
+        private volatile double arrivalRate;
+
+        private Trigger(String key, int count, long intervalMillis) {
+            this.key = key;
+            this.count = count;
+            this.intervalMillis = intervalMillis;
+        }
+
+        void recordArrivals(int requests) {
+            arrivals.add(requests);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        /**
+         * Requests per second over the last adjustment period.
+         */
+        double getArrivalRate() {
+            return arrivalRate;
+        }
+    }
+}
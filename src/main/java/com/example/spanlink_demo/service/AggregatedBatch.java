@@ -0,0 +1,96 @@
+package com.example.spanlink_demo.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A sealed aggregation batch. Once sealed it is no longer touched by the ingest path
+ * and is handed to the flush pipeline as-is.
+ */
+public class AggregatedBatch {
+
+    private final String aggregationKey;
+    private final String triggerReason;
+    private final List<SpanContext> spanContexts;
+    private final List<String> requestIds;
+    private final Instant firstRequestTimestamp;
+    private final long[] journalSequences;
+
+    public AggregatedBatch(String triggerReason,
+                           List<SpanContext> spanContexts,
+                           List<String> requestIds,
+                           Instant firstRequestTimestamp) {
+        this(null, triggerReason, spanContexts, requestIds, firstRequestTimestamp);
+    }
+
+    public AggregatedBatch(String aggregationKey,
+                           String triggerReason,
+                           List<SpanContext> spanContexts,
+                           List<String> requestIds,
+                           Instant firstRequestTimestamp) {
+        this(aggregationKey, triggerReason, spanContexts, requestIds, firstRequestTimestamp, null);
+    }
+
+    /**
+     * @param journalSequences journal sequence of every request in the batch, {@code null} without a journal
+     */
+    public AggregatedBatch(String aggregationKey,
+                           String triggerReason,
+                           List<SpanContext> spanContexts,
+                           List<String> requestIds,
+                           Instant firstRequestTimestamp,
+                           long[] journalSequences) {
+        this.aggregationKey = aggregationKey;
+        this.triggerReason = triggerReason;
+        this.spanContexts = spanContexts;
+        this.requestIds = requestIds;
+        this.firstRequestTimestamp = firstRequestTimestamp;
+        this.journalSequences = journalSequences;
+    }
+
+    /**
+     * Key of the aggregation window the batch was sealed in, or {@code null} if unkeyed.
+     */
+    public String getAggregationKey() {
+        return aggregationKey;
+    }
+
+    public String getTriggerReason() {
+        return triggerReason;
+    }
+
+    public List<SpanContext> getSpanContexts() {
+        return spanContexts;
+    }
+
+    public List<String> getRequestIds() {
+        return requestIds;
+    }
+
+    public Instant getFirstRequestTimestamp() {
+        return firstRequestTimestamp;
+    }
+
+    /**
+     * Journal sequences of the requests in this batch, or {@code null} if they were not journaled.
+     */
+    public long[] getJournalSequences() {
+        return journalSequences;
+    }
+
+    public int size() {
+        return spanContexts.size();
+    }
+
+    /**
+     * Hands span context storage of an {@link AggregationBuffer} back for reuse, once the batch's
+     * document and span links are built. The span contexts must not be read afterwards.
+     */
+    public void release() {
+        if (spanContexts instanceof SpanContextArray columns) {
+            columns.release();
+        }
+    }
+}
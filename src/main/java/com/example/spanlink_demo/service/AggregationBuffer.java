@@ -0,0 +1,366 @@
+package com.example.spanlink_demo.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongFunction;
+
+/**
+ * Lock-free aggregation buffer shared by all ingest threads.
+ *
+ * <p>The buffer is a sequence of generations. Each generation is a fixed-size slot array
+ * sized to the count threshold. A producer claims a slot with a single fetch-and-add and
+ * writes into it without any lock. The producer that claims the last slot owns the
+ * count-based seal; the time trigger closes a generation by pushing the claim counter
+ * past the capacity. Either way exactly one thread seals a generation, installs a fresh
+ * one, waits for in-flight writers of the old one and turns it into an
+ * {@link AggregatedBatch}.
+ *
+ * <p>Span contexts are stored as primitive columns ({@link SpanContextArray}) that become the
+ * sealed batch's span context list as they are. Once the batch is persisted its columns come
+ * back to the buffer and are reused by a later generation of the same capacity, so a steady
+ * stream of windows allocates no span context storage.
+ *
+ * <p>There is no lock to measure; the equivalents are counted instead: producers that had to
+ * wait for a seal before claiming a slot (and for how long), and how long each seal took.
+ */
+public class AggregationBuffer {
+
+    public static final String COUNT_THRESHOLD = "count_threshold";
+    public static final String TIME_INTERVAL = "time_interval";
+    public static final String SHUTDOWN = "shutdown";
+
+    /** Busy-spins before yielding while a seal is in progress (keeps oversubscribed hosts fair). */
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private static final Runnable NO_TIMER = () -> { };
+
+    /** Journal sequence of a request that was not journaled. */
+    public static final long NOT_JOURNALED = -1L;
+
+    private final String aggregationKey;
+    private final IntSupplier capacitySupplier;
+    private final LongFunction<Runnable> onWindowOpened;
+    private final AtomicLong generations = new AtomicLong();
+    private volatile Generation current;
+    // Columns of a persisted batch, waiting for the next generation
+    private final AtomicReference<SpanContextArray> spareColumns = new AtomicReference<>();
+
+    // Contention statistics, only touched when a producer has to wait and once per seal
+    private final LongAdder claimWaits = new LongAdder();
+    private final LongAdder claimWaitNanos = new LongAdder();
+    private final LongAdder seals = new LongAdder();
+    private final LongAdder sealNanos = new LongAdder();
+
+    /**
+     * @param capacitySupplier count threshold, read every time a new generation is opened
+     */
+    public AggregationBuffer(IntSupplier capacitySupplier) {
+        this(null, capacitySupplier, generation -> NO_TIMER);
+    }
+
+    /**
+     * @param aggregationKey   key stamped on every sealed batch, may be {@code null}
+     * @param capacitySupplier count threshold, read every time a new generation is opened
+     * @param onWindowOpened   called by the first producer of a generation (typically to arm
+     *                         the time trigger); the returned action runs when that generation
+     *                         is sealed (typically to cancel the timer)
+     */
+    public AggregationBuffer(String aggregationKey, IntSupplier capacitySupplier, LongFunction<Runnable> onWindowOpened) {
+        this.aggregationKey = aggregationKey;
+        this.capacitySupplier = capacitySupplier;
+        this.onWindowOpened = onWindowOpened;
+        this.current = newGeneration();
+    }
+
+    /**
+     * Adds one request context.
+     *
+     * @return the sealed batch if this request filled the window, otherwise {@code null}
+     */
+    public AggregatedBatch add(SpanContext spanContext, String requestId) {
+        return add(spanContext, requestId, NOT_JOURNALED);
+    }
+
+    /**
+     * Adds one request context that was written to the journal at {@code journalSequence}.
+     *
+     * @return the sealed batch if this request filled the window, otherwise {@code null}
+     */
+    public AggregatedBatch add(SpanContext spanContext, String requestId, long journalSequence) {
+        long waitStart = 0L;
+        for (int attempt = 0; ; attempt++) {
+            Generation gen = current;
+            // Cheap read first so producers waiting on a seal do not hammer the counter
+            if (gen.claimed.get() >= gen.capacity) {
+                waitStart = waitStart != 0L ? waitStart : System.nanoTime();
+                backoff(attempt);
+                continue;
+            }
+            int idx = gen.claimed.getAndIncrement();
+            if (idx >= gen.capacity) {
+                waitStart = waitStart != 0L ? waitStart : System.nanoTime();
+                backoff(attempt);
+                continue;
+            }
+            if (waitStart != 0L) {
+                recordClaimWait(waitStart);
+            }
+
+            gen.spanContexts.store(idx, spanContext);
+            gen.requestIds[idx] = requestId;
+            gen.journalSequences[idx] = journalSequence;
+            if (idx == 0) {
+                // Start the timer on the first request
+                gen.firstRequestTimestamp = Instant.now();
+                gen.firstArrivalMillis = System.currentTimeMillis();
+                gen.onSealed = onWindowOpened.apply(gen.sequence);
+            }
+            gen.published.incrementAndGet();
+
+            // Count-based trigger: the producer of the last slot owns the seal
+            if (idx == gen.capacity - 1) {
+                return seal(gen, gen.capacity, COUNT_THRESHOLD);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds a chunk of request contexts, claiming a run of slots per window with one CAS instead
+     * of one fetch-and-add per request. A chunk larger than the room left in the open window
+     * fills and seals it and continues in the next one.
+     *
+     * @return the batches sealed by this chunk, in order; empty if no window was filled
+     */
+    public List<AggregatedBatch> addAll(List<SpanContext> spanContexts, List<String> requestIds) {
+        return addAll(spanContexts, requestIds, null);
+    }
+
+    /**
+     * Same as {@link #addAll(List, List)} for requests written to the journal.
+     *
+     * @param journalSequences journal sequence of every request, {@code null} if not journaled
+     */
+    public List<AggregatedBatch> addAll(List<SpanContext> spanContexts, List<String> requestIds, long[] journalSequences) {
+        List<AggregatedBatch> sealed = new ArrayList<>(0);
+        int total = spanContexts.size();
+        int offset = 0;
+        long waitStart = 0L;
+        for (int attempt = 0; offset < total; attempt++) {
+            Generation gen = current;
+            int start = gen.claimed.get();
+            if (start >= gen.capacity) {
+                waitStart = waitStart != 0L ? waitStart : System.nanoTime();
+                backoff(attempt);
+                continue;
+            }
+            int take = Math.min(total - offset, gen.capacity - start);
+            if (!gen.claimed.compareAndSet(start, start + take)) {
+                // Lost the slot run to another producer or the time trigger
+                continue;
+            }
+            if (waitStart != 0L) {
+                recordClaimWait(waitStart);
+                waitStart = 0L;
+            }
+
+            for (int i = 0; i < take; i++) {
+                gen.spanContexts.store(start + i, spanContexts.get(offset + i));
+                gen.requestIds[start + i] = requestIds.get(offset + i);
+                gen.journalSequences[start + i] = journalSequences != null ? journalSequences[offset + i] : NOT_JOURNALED;
+            }
+            if (start == 0) {
+                gen.firstRequestTimestamp = Instant.now();
+                gen.firstArrivalMillis = System.currentTimeMillis();
+                gen.onSealed = onWindowOpened.apply(gen.sequence);
+            }
+            gen.published.addAndGet(take);
+            offset += take;
+            attempt = -1;
+
+            if (start + take == gen.capacity) {
+                sealed.add(seal(gen, gen.capacity, COUNT_THRESHOLD));
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * Seals the current window if its first request is at least {@code intervalMillis} old.
+     *
+     * @return the sealed batch, or {@code null} if nothing was due
+     */
+    public AggregatedBatch sealIfExpired(long nowMillis, long intervalMillis) {
+        Generation gen = current;
+        long firstArrival = gen.firstArrivalMillis;
+        if (firstArrival == 0L || nowMillis - firstArrival < intervalMillis) {
+            return null;
+        }
+        return close(gen, TIME_INTERVAL);
+    }
+
+    /**
+     * Seals the current window whatever its age, e.g. to flush it on shutdown.
+     *
+     * @return the sealed batch, or {@code null} if the window was empty
+     */
+    public AggregatedBatch sealPending(String reason) {
+        Generation gen = current;
+        if (gen.claimed.get() == 0) {
+            return null;
+        }
+        return close(gen, reason);
+    }
+
+    /**
+     * Number of requests in the open window.
+     */
+    public int pendingCount() {
+        Generation gen = current;
+        return Math.min(gen.claimed.get(), gen.capacity);
+    }
+
+    /**
+     * Arrival time of the first request in the open window, or 0 if the window is empty.
+     */
+    public long firstArrivalMillis() {
+        return current.firstArrivalMillis;
+    }
+
+    /**
+     * Sequence number of the open window; it changes every time a window is sealed.
+     */
+    public long currentGeneration() {
+        return current.sequence;
+    }
+
+    /**
+     * Claims that found the window full and waited for its seal to open the next one.
+     */
+    public long getClaimWaits() {
+        return claimWaits.sum();
+    }
+
+    public long getClaimWaitNanos() {
+        return claimWaitNanos.sum();
+    }
+
+    public long getSeals() {
+        return seals.sum();
+    }
+
+    /**
+     * Time spent sealing windows: waiting for in-flight producers and building the batch.
+     */
+    public long getSealNanos() {
+        return sealNanos.sum();
+    }
+
+    private void recordClaimWait(long waitStartNanos) {
+        claimWaits.increment();
+        claimWaitNanos.add(System.nanoTime() - waitStartNanos);
+    }
+
+    private AggregatedBatch close(Generation gen, String reason) {
+        int claimed = gen.claimed.getAndSet(gen.capacity);
+        if (claimed >= gen.capacity) {
+            // The count trigger got there first
+            return null;
+        }
+        return seal(gen, claimed, reason);
+    }
+
+    private AggregatedBatch seal(Generation gen, int size, String reason) {
+        long start = System.nanoTime();
+        // Only the owner of a closed generation gets here, so a plain volatile write is enough
+        current = newGeneration();
+        for (int attempt = 0; gen.published.get() < size; attempt++) {
+            backoff(attempt);
+        }
+        gen.onSealed.run();
+        AggregatedBatch batch = gen.toBatch(aggregationKey, size, reason, this::recycle);
+        seals.increment();
+        sealNanos.add(System.nanoTime() - start);
+        return batch;
+    }
+
+    private static void backoff(int attempt) {
+        if (attempt < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    private Generation newGeneration() {
+        int capacity = Math.max(1, capacitySupplier.getAsInt());
+        SpanContextArray columns = spareColumns.getAndSet(null);
+        if (columns == null || columns.capacity() != capacity) {
+            // None released yet, or the count threshold changed since
+            columns = new SpanContextArray(capacity);
+        }
+        return new Generation(generations.getAndIncrement(), capacity, columns);
+    }
+
+    private void recycle(SpanContextArray columns) {
+        // One spare is enough: a generation takes it when the one before is sealed
+        spareColumns.compareAndSet(null, columns);
+    }
+
+    private static final class Generation {
+
+        private final long sequence;
+        private final int capacity;
+        private final SpanContextArray spanContexts;
+        private final String[] requestIds;
+        private final long[] journalSequences;
+        private final AtomicInteger claimed = new AtomicInteger();
+        private final AtomicInteger published = new AtomicInteger();
+        private volatile long firstArrivalMillis;
+        private volatile Instant firstRequestTimestamp;
+        // Written by the first producer before it publishes, read by the sealer afterwards
+        private Runnable onSealed = NO_TIMER;
+
+        private Generation(long sequence, int capacity, SpanContextArray spanContexts) {
+            this.sequence = sequence;
+            this.capacity = capacity;
+            this.spanContexts = spanContexts;
+            this.requestIds = new String[capacity];
+            this.journalSequences = new long[capacity];
+        }
+
+        private AggregatedBatch toBatch(String aggregationKey, int size, String reason, Consumer<SpanContextArray> recycler) {
+            spanContexts.seal(size, recycler);
+            boolean blankIds = false;
+            boolean journaled = false;
+            for (int i = 0; i < size; i++) {
+                String requestId = requestIds[i];
+                blankIds |= requestId == null || requestId.isBlank();
+                journaled |= journalSequences[i] != NOT_JOURNALED;
+            }
+            // The slot arrays are not reused, so the batch takes them without a copy
+            List<String> ids = Arrays.asList(requestIds).subList(0, size);
+            if (blankIds) {
+                ids = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    String requestId = requestIds[i];
+                    if (requestId != null && !requestId.isBlank()) {
+                        ids.add(requestId);
+                    }
+                }
+            }
+            long[] sequences = journaled ? Arrays.copyOf(journalSequences, size) : null;
+            return new AggregatedBatch(aggregationKey, reason, spanContexts, ids, firstRequestTimestamp, sequences);
+        }
+    }
+}
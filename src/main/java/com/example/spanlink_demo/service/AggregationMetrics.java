@@ -0,0 +1,305 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.config.SpanExportStats;
+import com.example.spanlink_demo.consumer.ChangeStreamConsumer;
+import com.example.spanlink_demo.journal.AggregationJournal;
+import com.example.spanlink_demo.sink.ContextSink;
+import com.example.spanlink_demo.sink.ContextSinks;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer metrics of the aggregation and persistence path, scraped from
+ * {@code /actuator/prometheus}:
+ * <ul>
+ *   <li>{@code aggregation.pending.requests}, {@code aggregation.windows.open},
+ *       {@code aggregation.flush.queue.depth}: gauges read at scrape time</li>
+ *   <li>{@code aggregation.flush.dropped}, {@code aggregation.flush.overflows}: sealed batches the
+ *       flush queue turned away, and those of them the aggregation timer dropped rather than
+ *       block or flush on its own thread</li>
+ *   <li>{@code aggregation.windows.overflowed}, {@code aggregation.windows.evicted}: requests sent
+ *       to the default window for want of a free window, and idle windows dropped</li>
+ *   <li>{@code aggregation.buffer.claim.wait}, {@code aggregation.buffer.seal}: the lock-free
+ *       buffer's counterparts of lock wait and hold time (producers waiting for a window to be
+ *       sealed, and the seals themselves)</li>
+ *   <li>{@code aggregation.batch.size}: histogram of sealed batch sizes by {@code trigger.reason}</li>
+ *   <li>{@code aggregation.trigger.action}, {@code aggregation.mongo.save}: latency of the flush
+ *       action and of {@code saveAggregatedContext} (the enqueue, in bulk write mode)</li>
+ *   <li>{@code aggregation.mongo.write.failures}: batches whose save threw, and documents the bulk
+ *       writer gave up on</li>
+ *   <li>{@code aggregation.mongo.bulk}, {@code aggregation.mongo.bulk.documents},
+ *       {@code aggregation.mongo.bulk.retried}, {@code aggregation.mongo.bulk.max},
+ *       {@code aggregation.mongo.bulk.queue.depth}: in bulk write mode, bulk inserts and their
+ *       latency, documents written and retried one by one, the largest bulk and slowest insert
+ *       so far, and documents waiting for the writer</li>
+ *   <li>{@code aggregation.end.to.end}: first request of a batch to MongoDB acknowledging it</li>
+ *   <li>{@code aggregation.dedup.checked}, {@code aggregation.dedup.duplicates},
+ *       {@code aggregation.dedup.false.positive.rate}: with {@code aggregation.dedup.enabled=true},
+ *       request IDs checked, retries dropped, and the false-positive rate of the filters as filled
+ *       (tag {@code source=estimated}) next to the configured budget ({@code source=budget})</li>
+ *   <li>{@code aggregation.sink.written}, {@code aggregation.sink.failures},
+ *       {@code aggregation.sink.overflows}, {@code aggregation.sink.queue.depth}: per context sink
+ *       (tag {@code sink}), documents acknowledged, failed and missed for a full queue, and
+ *       documents queued when several sinks are enabled</li>
+ *   <li>{@code aggregation.journal.head.pinned}: with {@code aggregation.journal.enabled=true}, how
+ *       long the oldest journal segment has been full with requests still unflushed</li>
+ *   <li>{@code tracing.export.spans.exported}, {@code tracing.export.spans.dropped},
+ *       {@code tracing.export.queue.size}: spans the batch span processor handed to the exporter,
+ *       spans dropped by the processor ({@code stage=processor}) or by the NDJSON exporter
+ *       ({@code stage=exporter}) because a queue was full, and spans waiting for the processor</li>
+ *   <li>{@code changestream.consumer.lag}, {@code changestream.consumer.lag.max},
+ *       {@code changestream.consumer.end.to.end}, {@code changestream.consumer.documents}: with
+ *       {@code consumer.change-stream.enabled=true}, document timestamp to downstream span for the
+ *       last document and the worst so far, first request to downstream span for the last
+ *       document, and documents processed or failed (tag {@code outcome})</li>
+ * </ul>
+ * Nothing is recorded on the request threads themselves: the buffer statistics are plain
+ * counters summed at scrape time, and the timers are recorded by the flush workers with
+ * meters resolved up front.
+ */
+@Component
+public class AggregationMetrics {
+
+    private static final double[] BATCH_SIZE_BUCKETS = {1, 3, 10, 30, 100, 300, 1_000, 3_000, 10_000};
+
+    private final MeterRegistry registry;
+    private final Map<String, DistributionSummary> batchSizes = new ConcurrentHashMap<>();
+    private final Timer triggerAction;
+    private final Timer save;
+    private final Timer endToEnd;
+    private final Counter saveFailures;
+
+    public AggregationMetrics(MeterRegistry registry,
+                              FlushPipeline flushPipeline,
+                              ObjectProvider<BulkContextWriter> bulkWriter,
+                              ObjectProvider<RequestDeduplicator> deduplicator,
+                              ObjectProvider<ContextSinks> contextSinks,
+                              ObjectProvider<AggregationJournal> journal,
+                              ObjectProvider<ChangeStreamConsumer> changeStreamConsumer,
+                              ObjectProvider<SpanExportStats> spanExportStats) {
+        this.registry = registry;
+        for (String reason : new String[]{AggregationBuffer.COUNT_THRESHOLD, AggregationBuffer.TIME_INTERVAL, AggregationBuffer.SHUTDOWN}) {
+            batchSize(reason);
+        }
+        BulkContextWriter writer = bulkWriter.getIfAvailable();
+        this.triggerAction = Timer.builder("aggregation.trigger.action")
+                .description("Flush action of a sealed batch: aggregated-action span and MongoDB save")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.save = Timer.builder("aggregation.mongo.save")
+                .description("saveAggregatedContext call")
+                .tag("mode", writer != null ? "bulk" : "direct")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.endToEnd = Timer.builder("aggregation.end.to.end")
+                .description("First request of a batch to the batch persisted in MongoDB")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(registry);
+        this.saveFailures = Counter.builder("aggregation.mongo.write.failures")
+                .description("Batches whose MongoDB save failed")
+                .tag("stage", "save")
+                .register(registry);
+        if (writer != null) {
+            FunctionCounter.builder("aggregation.mongo.write.failures", writer, BulkContextWriter::getFailedDocuments)
+                    .description("Documents the bulk writer could not insert: rejected again when retried, or in a bulk that failed as a whole")
+                    .tag("stage", "bulk")
+                    .register(registry);
+            FunctionTimer.builder("aggregation.mongo.bulk", writer,
+                            BulkContextWriter::getBulkCount, BulkContextWriter::getTotalBulkNanos, TimeUnit.NANOSECONDS)
+                    .description("Bulk inserts sent by the bulk writer")
+                    .register(registry);
+            FunctionCounter.builder("aggregation.mongo.bulk.documents", writer, BulkContextWriter::getDocumentCount)
+                    .description("Documents sent in bulk inserts")
+                    .register(registry);
+            FunctionCounter.builder("aggregation.mongo.bulk.retried", writer, BulkContextWriter::getRetriedDocuments)
+                    .description("Documents rejected by a bulk insert and retried one by one")
+                    .register(registry);
+            Gauge.builder("aggregation.mongo.bulk.max", writer, BulkContextWriter::getMaxBulkSizeSeen)
+                    .description("Largest bulk insert so far")
+                    .tag("stat", "size")
+                    .baseUnit("documents")
+                    .register(registry);
+            Gauge.builder("aggregation.mongo.bulk.max", writer, w -> TimeUnit.NANOSECONDS.toMillis(w.getMaxBulkNanos()))
+                    .description("Slowest bulk insert so far")
+                    .tag("stat", "latency")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("aggregation.mongo.bulk.queue.depth", writer, BulkContextWriter::getQueueDepth)
+                    .description("Documents waiting for the bulk writer")
+                    .register(registry);
+        }
+        Gauge.builder("aggregation.flush.queue.depth", flushPipeline, FlushPipeline::getQueueDepth)
+                .description("Sealed batches waiting for a flush worker")
+                .register(registry);
+        FunctionCounter.builder("aggregation.flush.dropped", flushPipeline, FlushPipeline::getDroppedBatches)
+                .description("Sealed batches dropped because the flush queue was full")
+                .register(registry);
+        FunctionCounter.builder("aggregation.flush.overflows", flushPipeline, FlushPipeline::getOverflowedBatches)
+                .description("Batches sealed by the aggregation timer and dropped because the flush queue was full")
+                .register(registry);
+        RequestDeduplicator dedup = deduplicator.getIfAvailable();
+        if (dedup != null) {
+            FunctionCounter.builder("aggregation.dedup.checked", dedup, RequestDeduplicator::getChecked)
+                    .description("x-request-id values checked for retries")
+                    .register(registry);
+            FunctionCounter.builder("aggregation.dedup.duplicates", dedup, RequestDeduplicator::getDuplicates)
+                    .description("Requests acknowledged as retries without being aggregated, false positives included")
+                    .register(registry);
+            Gauge.builder("aggregation.dedup.false.positive.rate", dedup, RequestDeduplicator::getEstimatedFalsePositiveRate)
+                    .description("Probability that a new x-request-id is taken for a retry, from the bits set")
+                    .tag("source", "estimated")
+                    .register(registry);
+            Gauge.builder("aggregation.dedup.false.positive.rate", dedup, RequestDeduplicator::getConfiguredFalsePositiveRate)
+                    .description("Configured false-positive rate (aggregation.dedup.false-positive-rate) the filters are sized for")
+                    .tag("source", "budget")
+                    .register(registry);
+        }
+        AggregationJournal aggregationJournal = journal.getIfAvailable();
+        if (aggregationJournal != null) {
+            Gauge.builder("aggregation.journal.head.pinned", aggregationJournal, AggregationJournal::getHeadPinnedMillis)
+                    .description("Time the oldest journal segment has been full with requests never flushed, 0 if none")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+        }
+        SpanExportStats exportStats = spanExportStats.getIfAvailable();
+        if (exportStats != null) {
+            Gauge.builder("tracing.export.spans.exported", exportStats, SpanExportStats::getExportedSpans)
+                    .description("Spans the batch span processor handed to the exporter")
+                    .register(registry);
+            Gauge.builder("tracing.export.spans.dropped", exportStats, SpanExportStats::getDroppedSpans)
+                    .description("Spans the batch span processor dropped because its queue was full")
+                    .tag("stage", "processor")
+                    .register(registry);
+            Gauge.builder("tracing.export.spans.dropped", exportStats, SpanExportStats::getExporterDroppedSpans)
+                    .description("Spans the NDJSON exporter dropped because its queue was full")
+                    .tag("stage", "exporter")
+                    .register(registry);
+            Gauge.builder("tracing.export.queue.size", exportStats, SpanExportStats::getQueueSize)
+                    .description("Spans waiting in the batch span processor queue")
+                    .register(registry);
+        }
+        ChangeStreamConsumer consumer = changeStreamConsumer.getIfAvailable();
+        if (consumer != null) {
+            Gauge.builder("changestream.consumer.lag", consumer, ChangeStreamConsumer::getLastLagMillis)
+                    .description("Document timestamp to the start of its downstream span, last document")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("changestream.consumer.lag.max", consumer, ChangeStreamConsumer::getMaxLagMillis)
+                    .description("Document timestamp to the start of its downstream span, worst so far")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            Gauge.builder("changestream.consumer.end.to.end", consumer, ChangeStreamConsumer::getLastEndToEndMillis)
+                    .description("First request of the batch to the start of its downstream span, last document")
+                    .baseUnit("milliseconds")
+                    .register(registry);
+            FunctionCounter.builder("changestream.consumer.documents", consumer, ChangeStreamConsumer::getConsumedDocuments)
+                    .description("Documents the change stream consumer processed")
+                    .tag("outcome", "processed")
+                    .register(registry);
+            FunctionCounter.builder("changestream.consumer.documents", consumer, ChangeStreamConsumer::getFailedDocuments)
+                    .description("Documents the change stream consumer processed")
+                    .tag("outcome", "failed")
+                    .register(registry);
+        }
+        ContextSinks sinks = contextSinks.getIfAvailable();
+        if (sinks != null) {
+            // With startup.lazy.enabled the sinks, and so their meters, only exist after startup
+            sinks.onReady(() -> bindSinks(sinks));
+        }
+    }
+
+    private void bindSinks(ContextSinks sinks) {
+        for (ContextSink sink : sinks.getSinks()) {
+            FunctionCounter.builder("aggregation.sink.written", sinks, s -> s.getWritten(sink))
+                    .description("Documents the context sink has acknowledged")
+                    .tag("sink", sink.getName())
+                    .register(registry);
+            FunctionCounter.builder("aggregation.sink.failures", sinks, s -> s.getFailed(sink))
+                    .description("Documents the context sink failed to write")
+                    .tag("sink", sink.getName())
+                    .register(registry);
+            FunctionCounter.builder("aggregation.sink.overflows", sinks, s -> s.getOverflowed(sink))
+                    .description("Documents the context sink missed because its queue stayed full")
+                    .tag("sink", sink.getName())
+                    .register(registry);
+            Gauge.builder("aggregation.sink.queue.depth", sinks, s -> s.getQueueDepth(sink))
+                    .description("Documents waiting for the context sink, 0 with a single sink")
+                    .tag("sink", sink.getName())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Registers the gauges read from the aggregation windows.
+     */
+    void bind(AggregationService aggregationService) {
+        Gauge.builder("aggregation.pending.requests", aggregationService, AggregationService::getPendingCount)
+                .description("Requests in open aggregation windows")
+                .register(registry);
+        Gauge.builder("aggregation.windows.open", aggregationService, AggregationService::getOpenWindowCount)
+                .description("Open aggregation windows")
+                .register(registry);
+        FunctionCounter.builder("aggregation.windows.overflowed", aggregationService, AggregationService::getOverflowedKeyCount)
+                .description("Requests aggregated into the default window because aggregation.key.max-windows was reached")
+                .register(registry);
+        FunctionCounter.builder("aggregation.windows.evicted", aggregationService, AggregationService::getEvictedWindowCount)
+                .description("Windows dropped after a whole trigger interval without requests")
+                .register(registry);
+        FunctionTimer.builder("aggregation.buffer.claim.wait", aggregationService,
+                        AggregationService::getClaimWaits, AggregationService::getClaimWaitNanos, TimeUnit.NANOSECONDS)
+                .description("Requests that waited for a full window to be sealed before claiming a slot")
+                .register(registry);
+        FunctionTimer.builder("aggregation.buffer.seal", aggregationService,
+                        AggregationService::getSeals, AggregationService::getSealNanos, TimeUnit.NANOSECONDS)
+                .description("Sealing a window: waiting for in-flight producers and building the batch")
+                .register(registry);
+    }
+
+    void recordBatch(AggregatedBatch batch) {
+        batchSize(batch.getTriggerReason()).record(batch.size());
+    }
+
+    void recordTriggerAction(long nanos) {
+        triggerAction.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordSave(long nanos) {
+        save.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordSaveFailure() {
+        saveFailures.increment();
+    }
+
+    void recordPersisted(AggregatedBatch batch) {
+        if (batch.getFirstRequestTimestamp() != null) {
+            endToEnd.record(System.currentTimeMillis() - batch.getFirstRequestTimestamp().toEpochMilli(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private DistributionSummary batchSize(String reason) {
+        DistributionSummary summary = batchSizes.get(reason);
+        if (summary != null) {
+            return summary;
+        }
+        return batchSizes.computeIfAbsent(reason, r -> DistributionSummary.builder("aggregation.batch.size")
+                .description("Requests per sealed batch")
+                .baseUnit("requests")
+                .tag("trigger.reason", r)
+                .serviceLevelObjectives(BATCH_SIZE_BUCKETS)
+                .register(registry));
+    }
+}
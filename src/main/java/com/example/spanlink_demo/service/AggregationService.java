@@ -1,244 +1,686 @@
 package com.example.spanlink_demo.service;
 
+import com.example.spanlink_demo.journal.AggregationJournal;
+import com.example.spanlink_demo.logging.RequestLogSampler;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.SpanKind;
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class AggregationService {
 
     private static final Logger logger = LoggerFactory.getLogger(AggregationService.class);
 
+    // Trace IDs and x-request-ids listed in the INFO line and as x-request-id-N span attributes;
+    // the full lists go to DEBUG and x-request-id.all
+    private static final int LISTED_IDS = 3;
+
+    /** Window used when keyed aggregation is off or the request carries no key. */
+    public static final String DEFAULT_AGGREGATION_KEY = "default";
+
     @Value("${aggregation.trigger.count:3}")
     private int triggerCount;
 
     @Value("${aggregation.trigger.interval.seconds:10}")
     private long triggerIntervalSeconds;
 
-    private final AtomicInteger requestCount = new AtomicInteger(0);
-    private final ReentrantLock lock = new ReentrantLock();
-    private final List<SpanContext> pendingSpanContexts = new ArrayList<>();
+    @Value("${aggregation.key.max-windows:10000}")
+    private int maxWindows;
 
-    /**
-     * Rolling buffer of the x-request-id values associated with the pending requests.
-     * At most 3 items are kept.
-     */
-    private final List<String> pendingRequestIds = new ArrayList<>();
+    @Value("${aggregation.timer.tick.millis:1}")
+    private long timerTickMillis;
+
+    @Value("${aggregation.timer.wheel-size:512}")
+    private int timerWheelSize;
+
+    // static = configured trigger values | adaptive = tuned at runtime, see AdaptiveTriggerPolicy
+    @Value("${aggregation.trigger.mode:static}")
+    private String triggerMode;
+
+    @Value("${aggregation.adaptive.count.min:3}")
+    private int adaptiveMinCount;
+
+    @Value("${aggregation.adaptive.count.max:500}")
+    private int adaptiveMaxCount;
+
+    @Value("${aggregation.adaptive.interval.min.millis:50}")
+    private long adaptiveMinIntervalMillis;
+
+    @Value("${aggregation.adaptive.interval.max.millis:10000}")
+    private long adaptiveMaxIntervalMillis;
+
+    @Value("${aggregation.adaptive.target-latency.millis:100}")
+    private long adaptiveTargetLatencyMillis;
+
+    @Value("${aggregation.adaptive.adjust-interval.millis:1000}")
+    private long adaptiveAdjustIntervalMillis;
+
+    // Batches larger than this are linked through a tree of fan-in spans, see LinkFanIn
+    @Value("${aggregation.fan-in.max-links-per-span:128}")
+    private int fanInMaxLinksPerSpan;
+
+    @Value("${aggregation.fan-in.max-children:64}")
+    private int fanInMaxChildren;
 
-    private volatile Long lastResetTime = null; // null means no timer started yet
-    private volatile Instant firstRequestTimestamp = null; // Timestamp of the first request in the current batch
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Context sinks are created once the application is ready, see ContextSinks
+    @Value("${startup.lazy.enabled:false}")
+    private boolean lazyStartup;
+
+    /*
+     *  -- NOTE --
+     *  One open window per aggregation key. Each window keeps its pending span contexts and
+     *  x-request-id values in a lock-free buffer, so ingest threads never block each other.
+     *  Time-interval triggers are timing wheel timeouts armed by the first request of a window.
+     *  The window of a key that took no request for a whole interval is dropped, so
+     *  aggregation.key.max-windows bounds the keys in use rather than every key ever seen.
+     */
+    private final ConcurrentHashMap<String, AggregationWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicLong overflowedKeys = new AtomicLong();
+    private final AtomicLong evictedWindows = new AtomicLong();
+    private TimingWheelTimer timer;
+    private AdaptiveTriggerPolicy adaptiveTriggers; // null unless aggregation.trigger.mode=adaptive
+    private LinkFanIn linkFanIn;
+    private final ConcurrentHashMap<String, AdaptiveTriggerPolicy.Trigger> windowTriggers = new ConcurrentHashMap<>();
 
     private final Tracer tracer;
     private final MongoContextService mongoContextService;
+    private final FlushPipeline flushPipeline;
+    private final Environment environment;
+    private final AggregationJournal journal; // null unless aggregation.journal.enabled=true
+    private final RecentBatchCache recentBatches; // null if aggregation.lookup.cache.enabled=false
+    private final AggregationMetrics metrics; // null without a MeterRegistry (benchmarks)
+    private final RequestLogSampler requestLog; // null = log every request
+    private final DistributedAggregation distributed; // null unless aggregation.distributed.enabled=true
 
     @Autowired
-    public AggregationService(Tracer tracer, MongoContextService mongoContextService) {
+    public AggregationService(Tracer tracer,
+                              MongoContextService mongoContextService,
+                              FlushPipeline flushPipeline,
+                              Environment environment,
+                              ObjectProvider<AggregationJournal> journal,
+                              ObjectProvider<RecentBatchCache> recentBatches,
+                              ObjectProvider<AggregationMetrics> metrics,
+                              ObjectProvider<RequestLogSampler> requestLog,
+                              ObjectProvider<DistributedAggregation> distributed) {
         this.tracer = tracer;
         this.mongoContextService = mongoContextService;
-        // Schedule periodic check every second
-        scheduler.scheduleAtFixedRate(this::checkTimeTrigger, 1, 1, TimeUnit.SECONDS);
+        this.flushPipeline = flushPipeline;
+        this.environment = environment;
+        this.journal = journal.getIfAvailable();
+        this.recentBatches = recentBatches.getIfAvailable();
+        this.metrics = metrics.getIfAvailable();
+        this.requestLog = requestLog.getIfAvailable();
+        this.distributed = distributed.getIfAvailable();
+    }
+
+    @PostConstruct
+    public void init() {
+        // Created once the trigger properties have been injected
+        timer = new TimingWheelTimer("aggregation-timer", timerTickMillis, timerWheelSize);
+        linkFanIn = new LinkFanIn(fanInMaxLinksPerSpan, fanInMaxChildren);
+        if ("adaptive".equalsIgnoreCase(triggerMode)) {
+            adaptiveTriggers = new AdaptiveTriggerPolicy(adaptiveMinCount, adaptiveMaxCount,
+                    adaptiveMinIntervalMillis, adaptiveMaxIntervalMillis,
+                    adaptiveTargetLatencyMillis, adaptiveAdjustIntervalMillis);
+            adaptiveTriggers.start(timer);
+            logger.info("Adaptive triggers enabled. Count: {}..{}, Interval: {}..{}ms, Target persist latency: {}ms",
+                    adaptiveMinCount, adaptiveMaxCount, adaptiveMinIntervalMillis, adaptiveMaxIntervalMillis,
+                    adaptiveTargetLatencyMillis);
+        }
+        windows.put(DEFAULT_AGGREGATION_KEY, newWindow(DEFAULT_AGGREGATION_KEY));
+        if (metrics != null) {
+            metrics.bind(this);
+        }
+        if (distributed != null) {
+            distributed.start(this::persist);
+        }
+        if (journal != null && !lazyStartup) {
+            replay(journal.recover());
+        }
+    }
+
+    /**
+     * With {@code startup.lazy.enabled=true} the journal is replayed once the application is
+     * ready: until the context sinks exist, replayed batches beyond the flush queue capacity would
+     * block startup for good. Requests accepted meanwhile are journaled in new segments, which
+     * {@link AggregationJournal#recover()} does not read.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayAfterStartup() {
+        if (journal != null && lazyStartup) {
+            replay(journal.recover());
+        }
     }
 
+    /**
+     * Seals every open window and waits for the flush workers, so requests still pending are
+     * written to MongoDB before the application context goes away.
+     */
     @PreDestroy
     public void shutdown() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
+        timer.close();
+        if (distributed != null) {
+            // Batches sealed below are still contributed; time-based sealing passes to another instance
+            distributed.stop();
+        }
+        int sealed = 0;
+        for (AggregationWindow window : windows.values()) {
+            AggregatedBatch batch = window.sealPending(AggregationBuffer.SHUTDOWN);
+            if (batch != null) {
+                flushPipeline.submit(batch, this::triggerAction);
+                sealed++;
             }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
         }
+        /*
+         *  -- NOTE --
+         *  Drain the flush pipeline here, while MongoDB and the journal are still available
+         *  (they are destroyed after this bean); anything left unflushed is replayed from the journal
+         */
+        flushPipeline.shutdown();
+        logger.info("Aggregation stopped. Windows sealed on shutdown: {}", sealed);
     }
 
     /**
-     * Called by the controller once per incoming request.
+     * Called by the controller once per incoming request, aggregating into the default window.
      *
      * @param spanContext span context of the incoming request span
      * @param requestId   x-request-id header value (already validated in controller)
      */
     public void recordIncomingRequest(SpanContext spanContext, String requestId) {
-        lock.lock();
-        try {
+        recordIncomingRequest(spanContext, requestId, null);
+    }
+
+    /**
+     * Called by the controller once per incoming request.
+     *
+     * @param spanContext    span context of the incoming request span
+     * @param requestId      x-request-id header value (already validated in controller)
+     * @param aggregationKey value of the aggregation key header, {@code null} for the default window
+     */
+    public void recordIncomingRequest(SpanContext spanContext, String requestId, String aggregationKey) {
+        /*
+        *  -- NOTE --
+        *  add span context and request ID of every request to the window of its aggregation key
+        *  write log for every request, or the sample of them selected by logging.request.mode
+        */
+        AggregationWindow window = windowFor(aggregationKey);
+        // Journaled before the request is acknowledged
+        long journalSequence = journal != null
+                ? journal.append(aggregationKey, spanContext, requestId)
+                : AggregationBuffer.NOT_JOURNALED;
+        AggregatedBatch sealed = window.add(spanContext, requestId, journalSequence);
+        recordArrivals(window, 1);
+
+        // The log event carries its own timestamp
+        if (requestLog == null || requestLog.shouldLog()) {
+            logger.info(
+                    "Incoming request recorded. Trace ID: {}, x-request-id: {}, Aggregation key: {}, Pending count: {}",
+                    spanContext.getTraceId(),
+                    requestId,
+                    window.getKey(),
+                    sealed != null ? sealed.size() : window.pendingCount()
+            );
+        }
+
+        // Count-based trigger
+        if (sealed != null) {
             /*
             *  -- NOTE --
-            *  create pendingSpanContexts list object to store span context for every request, and pendingRequestIds list object
-            *  write log for every request
+            *  the batch is sealed when criteria fulfilled, triggerAction runs on a flush worker
             */
-            int count = requestCount.incrementAndGet();
-            pendingSpanContexts.add(spanContext);
-
-            if (requestId != null && !requestId.isBlank()) {
-                pendingRequestIds.add(requestId);
-                // Keep all request IDs
-                if (pendingRequestIds.size() > triggerCount) {
-                    pendingRequestIds.remove(0);
-                }
+            flushPipeline.submit(sealed, this::triggerAction);
+        }
+    }
+
+    /**
+     * Called by the batch endpoint once per chunk of requests: the whole chunk goes into the
+     * window of {@code aggregationKey} in one operation, with one log line for the chunk.
+     *
+     * @param spanContexts   span contexts to link, one per request
+     * @param requestIds     x-request-id values, same order and size as {@code spanContexts}
+     * @param aggregationKey value of the aggregation key header, {@code null} for the default window
+     */
+    public void recordIncomingRequests(List<SpanContext> spanContexts, List<String> requestIds, String aggregationKey) {
+        if (spanContexts.isEmpty()) {
+            return;
+        }
+        AggregationWindow window = windowFor(aggregationKey);
+        long[] journalSequences = journal != null ? journal.appendAll(aggregationKey, spanContexts, requestIds) : null;
+        List<AggregatedBatch> sealed = window.addAll(spanContexts, requestIds, journalSequences);
+        recordArrivals(window, spanContexts.size());
+
+        logger.info(
+                "Incoming requests recorded. Count: {}, Aggregation key: {}, Sealed batches: {}, Pending count: {}",
+                spanContexts.size(),
+                window.getKey(),
+                sealed.size(),
+                window.pendingCount()
+        );
+
+        for (AggregatedBatch batch : sealed) {
+            flushPipeline.submit(batch, this::triggerAction);
+        }
+    }
+
+    /**
+     * Number of open aggregation windows, including the default one.
+     */
+    public int getOpenWindowCount() {
+        return windows.size();
+    }
+
+    /**
+     * Requests in all open windows.
+     */
+    public int getPendingCount() {
+        int pending = 0;
+        for (AggregationWindow window : windows.values()) {
+            pending += window.pendingCount();
+        }
+        return pending;
+    }
+
+    /**
+     * Claims, over all windows, that waited for a full window to be sealed; see {@link AggregationBuffer}.
+     */
+    public long getClaimWaits() {
+        long waits = 0;
+        for (AggregationWindow window : windows.values()) {
+            waits += window.buffer().getClaimWaits();
+        }
+        return waits;
+    }
+
+    public long getClaimWaitNanos() {
+        long nanos = 0;
+        for (AggregationWindow window : windows.values()) {
+            nanos += window.buffer().getClaimWaitNanos();
+        }
+        return nanos;
+    }
+
+    public long getSeals() {
+        long seals = 0;
+        for (AggregationWindow window : windows.values()) {
+            seals += window.buffer().getSeals();
+        }
+        return seals;
+    }
+
+    public long getSealNanos() {
+        long nanos = 0;
+        for (AggregationWindow window : windows.values()) {
+            nanos += window.buffer().getSealNanos();
+        }
+        return nanos;
+    }
+
+    /**
+     * Requests that were aggregated into the default window because
+     * {@code aggregation.key.max-windows} was reached.
+     */
+    public long getOverflowedKeyCount() {
+        return overflowedKeys.get();
+    }
+
+    /**
+     * Windows dropped after a whole interval without requests.
+     */
+    public long getEvictedWindowCount() {
+        return evictedWindows.get();
+    }
+
+    /**
+     * Effective count and interval trigger of every open window; in adaptive mode these are the
+     * values currently chosen by the policy.
+     */
+    public List<EffectiveTrigger> getEffectiveTriggers() {
+        List<EffectiveTrigger> triggers = new ArrayList<>(windows.size());
+        for (AggregationWindow window : windows.values()) {
+            AdaptiveTriggerPolicy.Trigger adaptive = windowTriggers.get(window.getKey());
+            triggers.add(new EffectiveTrigger(window.getKey(), window.triggerCount(), window.intervalMillis(),
+                    adaptive != null ? adaptive.getArrivalRate() : -1, window.pendingCount()));
+        }
+        return triggers;
+    }
+
+    /**
+     * @return whether the triggers are tuned at runtime ({@code aggregation.trigger.mode=adaptive})
+     */
+    public boolean isAdaptiveTriggers() {
+        return adaptiveTriggers != null;
+    }
+
+    /**
+     * Smoothed time MongoDB takes to persist a batch, as seen by the adaptive triggers; -1 in static mode.
+     */
+    public long getPersistLatencyMillis() {
+        return adaptiveTriggers != null ? adaptiveTriggers.getPersistLatencyMillis() : -1;
+    }
+
+    private void recordArrivals(AggregationWindow window, int requests) {
+        if (adaptiveTriggers != null) {
+            AdaptiveTriggerPolicy.Trigger trigger = windowTriggers.get(window.getKey());
+            if (trigger != null) {
+                trigger.recordArrivals(requests);
             }
+        }
+    }
 
-            // Start the timer on the first request
-            if (lastResetTime == null) {
-                lastResetTime = System.currentTimeMillis();
-                firstRequestTimestamp = Instant.now(); // Capture timestamp of the first request
+    /*
+     *  -- NOTE --
+     *  Unflushed requests from the journal go back through the windows of their keys, so they are
+     *  aggregated and flushed like new requests; they keep their journal entries until then
+     */
+    private void replay(List<AggregationJournal.Entry> entries) {
+        for (AggregationJournal.Entry entry : entries) {
+            AggregatedBatch sealed = windowFor(entry.getAggregationKey())
+                    .add(entry.getSpanContext(), entry.getRequestId(), entry.getSequence());
+            if (sealed != null) {
+                flushPipeline.submit(sealed, this::triggerAction);
             }
+        }
+        if (!entries.isEmpty()) {
+            logger.info("Replayed unflushed requests from the aggregation journal. Count: {}", entries.size());
+        }
+    }
 
-            String traceId = spanContext.getTraceId();
-            logger.info(
-                    "Incoming request recorded. Trace ID: {}, x-request-id(s): {}, Total count: {}, Timestamp: {}",
-                    traceId,
-                    String.join(", ", pendingRequestIds),
-                    count,
-                    Instant.now()
-            );
+    private AggregationWindow windowFor(String aggregationKey) {
+        if (aggregationKey == null || aggregationKey.isBlank()) {
+            return windows.get(DEFAULT_AGGREGATION_KEY);
+        }
+        AggregationWindow window = windows.get(aggregationKey);
+        if (window != null) {
+            return window;
+        }
+        if (windows.size() >= maxWindows) {
+            // Bound memory against unbounded key cardinality
+            overflowedKeys.incrementAndGet();
+            return windows.get(DEFAULT_AGGREGATION_KEY);
+        }
+        return windows.computeIfAbsent(aggregationKey, this::newWindow);
+    }
 
-            // Count-based trigger
-            if (count >= triggerCount) {
-                /*
-                *  -- NOTE --
-                *  call triggerAction when criteria fulfilled
-                *  Send context arraylist and request ID arraylist
-                */
-                triggerAction(
-                        "count_threshold",
-                        new ArrayList<>(pendingSpanContexts),
-                        new ArrayList<>(pendingRequestIds),
-                        firstRequestTimestamp
-                );
-                reset();
-            }
-        } finally {
-            lock.unlock();
+    /*
+     *  -- NOTE --
+     *  Per-key triggers can be overridden, e.g.
+     *  aggregation.window.<key>.trigger.count=50
+     *  aggregation.window.<key>.trigger.interval.millis=250
+     *  In adaptive mode these are the starting values of the window
+     */
+    private AggregationWindow newWindow(String key) {
+        int count = environment.getProperty("aggregation.window." + key + ".trigger.count",
+                Integer.class, triggerCount);
+        long intervalMillis = environment.getProperty("aggregation.window." + key + ".trigger.interval.millis",
+                Long.class, triggerIntervalSeconds * 1000);
+        boolean evictable = !DEFAULT_AGGREGATION_KEY.equals(key);
+        if (adaptiveTriggers != null) {
+            AdaptiveTriggerPolicy.Trigger trigger = adaptiveTriggers.newTrigger(key, count, intervalMillis);
+            windowTriggers.put(key, trigger);
+            return new AggregationWindow(key, trigger::getCount, trigger::getIntervalMillis, timer,
+                    sealed -> flushPipeline.trySubmit(sealed, this::triggerAction),
+                    evictable ? window -> evict(window, trigger) : null);
+        }
+        return new AggregationWindow(key, () -> count, () -> intervalMillis, timer,
+                sealed -> flushPipeline.trySubmit(sealed, this::triggerAction),
+                evictable ? window -> evict(window, null) : null);
+    }
+
+    /*
+     *  -- NOTE --
+     *  A request that got hold of the window just before it is dropped arms the window's
+     *  interval trigger as usual and is flushed with it; the next request of the key opens a new window
+     */
+    private void evict(AggregationWindow window, AdaptiveTriggerPolicy.Trigger trigger) {
+        if (!windows.remove(window.getKey(), window)) {
+            return;
+        }
+        if (trigger != null) {
+            // Only this window's trigger: a new window of the key may have registered its own
+            windowTriggers.remove(window.getKey(), trigger);
+            adaptiveTriggers.removeTrigger(trigger);
         }
+        evictedWindows.incrementAndGet();
+        logger.debug("Idle aggregation window dropped. Aggregation key: {}", window.getKey());
     }
 
-    private void checkTimeTrigger() {
-        lock.lock();
+    /**
+     * Flush action for a sealed batch: creates the linked aggregated-action span and writes to MongoDB.
+     * In distributed mode the batch is added to the shared batch of its key instead, which is
+     * persisted the same way once sealed. Runs on a flush worker thread.
+     */
+    public void triggerAction(AggregatedBatch batch) {
         try {
-            // Only check if timer has started (first request received) and there are pending requests
-            if (lastResetTime != null && !pendingSpanContexts.isEmpty()) {
-                long currentTime = System.currentTimeMillis();
-                long elapsed = currentTime - lastResetTime;
-
-                if (elapsed >= triggerIntervalSeconds * 1000) {
-                    triggerAction(
-                            "time_interval",
-                            new ArrayList<>(pendingSpanContexts),
-                            new ArrayList<>(pendingRequestIds),
-                            firstRequestTimestamp
-                    );
-                    reset();
-                }
+            if (distributed != null) {
+                distributed.contribute(batch, journalRelease(batch));
+                return;
             }
+            persist(batch, null);
         } finally {
-            lock.unlock();
+            // Links and document are built by now; the window's span context columns can be reused
+            batch.release();
         }
     }
 
-    private void triggerAction(String reason,
-                               List<SpanContext> spanContexts,
-                               List<String> requestIds,
-                               Instant firstRequestTimestamp) {
-
-        // Create a span builder and add links for all pending spans
-        /*
-        *  -- NOTE --
-        *  Start span for outgoing action. In real case this will be writing trace context (as trace parent) to document and calling MongoDB.
-        */
-        var spanBuilder = tracer.spanBuilder("aggregated-action")
-                .setSpanKind(SpanKind.INTERNAL);
-        /*
-        *  -- NOTE --
-        *  IMPORTANT!
-        *  Call addLink and input trace context as parameter, and start as usual
-        *  Perform .addLink() before .startSpan()
-        */
-        for (SpanContext ctx : spanContexts) {
-            spanBuilder.addLink(ctx);
+    /**
+     * Creates the linked aggregated-action span for a batch and writes it to MongoDB.
+     *
+     * @param afterPersisted run once MongoDB has the batch, in addition to the usual bookkeeping; may be {@code null}
+     */
+    private void persist(AggregatedBatch batch, Runnable afterPersisted) {
+        long actionStart = System.nanoTime();
+        if (metrics != null) {
+            metrics.recordBatch(batch);
         }
+        String reason = batch.getTriggerReason();
+        List<SpanContext> spanContexts = batch.getSpanContexts();
+        List<String> requestIds = batch.getRequestIds();
+        Instant firstRequestTimestamp = batch.getFirstRequestTimestamp();
 
-        // Create a new span that links to all incoming request spans
-        Span aggregatedSpan = spanBuilder.startSpan();
+        // Create a new span that links to all incoming request spans, directly or through fan-in spans
+        Span aggregatedSpan = startAggregatedActionSpan(tracer, batch, linkFanIn);
 
         try (Scope scope = aggregatedSpan.makeCurrent()) {
-            aggregatedSpan.setAttribute("trigger.reason", reason);
-            aggregatedSpan.setAttribute("trigger.count", spanContexts.size());
-            aggregatedSpan.setAttribute("trigger.timestamp", Instant.now().toString());
-            aggregatedSpan.setAttribute("first.request.timestamp", firstRequestTimestamp != null ? firstRequestTimestamp.toString() : "unknown");
-
-            // ----- x-request-id attributes (1..3 & combined) -----
-            aggregatedSpan.setAttribute("x-request-id.count", requestIds.size());
-            for (int i = 0; i < requestIds.size(); i++) {
-                aggregatedSpan.setAttribute("x-request-id-" + (i + 1), requestIds.get(i));
-            }
-            aggregatedSpan.setAttribute("x-request-id.all", String.join(",", requestIds));
-
+            List<AggregatedContextDocument.FanInSpanData> fanInSpans = linkFanIn.fanIn(tracer, aggregatedSpan, batch);
             // Get master trace ID (from the aggregated span)
             String masterTraceId = aggregatedSpan.getSpanContext().getTraceId();
-
-            // Collect trace IDs from all linked spans
-            List<String> linkedTraceIds = new ArrayList<>();
-            for (SpanContext ctx : spanContexts) {
-                linkedTraceIds.add(ctx.getTraceId());
+            if (adaptiveTriggers != null) {
+                AdaptiveTriggerPolicy.Trigger trigger = windowTriggers.get(batch.getAggregationKey());
+                if (trigger != null) {
+                    aggregatedSpan.setAttribute("trigger.effective.count", trigger.getCount());
+                    aggregatedSpan.setAttribute("trigger.effective.interval.millis", trigger.getIntervalMillis());
+                }
             }
 
-            logger.info(
-                    "Action triggered. Master Trace ID: {}, Linked Trace IDs: {}, x-request-id(s): {}, Reason: {}, Linked spans count: {}, Timestamp: {}",
-                    masterTraceId,
-                    linkedTraceIds,
-                    requestIds,
-                    reason,
-                    spanContexts.size(),
-                    Instant.now()
-            );
-
             /*
              *  -- NOTE --
              *  Write pendingRequestIds and pendingSpanContexts to MongoDB for downstream context propagation
              */
+            long persistStart = System.nanoTime();
             try {
                 mongoContextService.saveAggregatedContext(
+                        batch.getAggregationKey(),
                         reason,
                         spanContexts,
                         requestIds,
                         masterTraceId,
-                        firstRequestTimestamp
+                        firstRequestTimestamp,
+                        fanInSpans.isEmpty() ? null : fanInSpans,
+                        onPersisted(batch, masterTraceId, persistStart, afterPersisted)
                 );
+                if (metrics != null) {
+                    metrics.recordSave(System.nanoTime() - persistStart);
+                }
                 aggregatedSpan.setAttribute("mongo.write.success", true);
-                logger.info("Successfully wrote aggregated context to MongoDB for downstream processing");
+                if (mongoContextService.isWriteBehind()) {
+                    aggregatedSpan.setAttribute("mongo.write.mode", "bulk");
+                    logger.info("Queued aggregated context for MongoDB bulk write for downstream processing");
+                } else {
+                    logger.info("Successfully wrote aggregated context to MongoDB for downstream processing");
+                }
             } catch (Exception e) {
                 aggregatedSpan.setAttribute("mongo.write.success", false);
                 aggregatedSpan.setAttribute("mongo.write.error", e.getMessage());
                 logger.error("Failed to write aggregated context to MongoDB", e);
+                if (metrics != null) {
+                    metrics.recordSaveFailure();
+                }
+                if (adaptiveTriggers != null) {
+                    // A failed write (often a timeout) counts as a slow one
+                    adaptiveTriggers.recordPersistLatency(System.nanoTime() - persistStart);
+                }
             }
         } finally {
             aggregatedSpan.end();
+            if (metrics != null) {
+                metrics.recordTriggerAction(System.nanoTime() - actionStart);
+            }
+        }
+    }
+
+    /**
+     * @return the action run once MongoDB has the batch: releases its journal entries, caches it
+     * for lookups, feeds the persist latency to the adaptive triggers, records the end-to-end delay
+     * and runs {@code afterPersisted}; {@code null} if there is nothing to do
+     */
+    private Runnable onPersisted(AggregatedBatch batch, String masterTraceId, long persistStartNanos,
+                                 Runnable afterPersisted) {
+        Runnable journalRelease = journalRelease(batch);
+        if (recentBatches == null && adaptiveTriggers == null && metrics == null && afterPersisted == null) {
+            return journalRelease;
+        }
+        return () -> {
+            if (recentBatches != null) {
+                // Lookups of these x-request-id values are answered without MongoDB for a while; only
+                // once MongoDB has the batch, so a lookup never sees a batch a failed bulk lost
+                recentBatches.put(batch, masterTraceId);
+            }
+            if (adaptiveTriggers != null) {
+                adaptiveTriggers.recordPersistLatency(System.nanoTime() - persistStartNanos);
+            }
+            if (metrics != null) {
+                metrics.recordPersisted(batch);
+            }
+            if (journalRelease != null) {
+                journalRelease.run();
+            }
+            if (afterPersisted != null) {
+                afterPersisted.run();
+            }
+        };
+    }
+
+    /**
+     * @return the action recording the batch as flushed in the journal, or {@code null} without one
+     */
+    private Runnable journalRelease(AggregatedBatch batch) {
+        long[] journalSequences = batch.getJournalSequences();
+        if (journal == null || journalSequences == null) {
+            return null;
         }
+        return () -> journal.markFlushed(journalSequences);
     }
 
-    private void reset() {
-        requestCount.set(0);
-        pendingSpanContexts.clear();
-        pendingRequestIds.clear();
-        lastResetTime = null; // Reset timer - will start again on next request
-        firstRequestTimestamp = null; // Reset first request timestamp
+    /**
+     * Starts the aggregated-action span for a sealed batch, linked to every request span of the batch
+     * unless {@code fanIn} spreads the links over fan-in spans (see {@link LinkFanIn#fanIn}).
+     * Shared by the servlet flush workers and the reactive pipeline; the caller ends the span.
+     *
+     * @param fanIn {@code null} to always link from the aggregated-action span
+     */
+    static Span startAggregatedActionSpan(Tracer tracer, AggregatedBatch batch, LinkFanIn fanIn) {
+        String reason = batch.getTriggerReason();
+        List<SpanContext> spanContexts = batch.getSpanContexts();
+        List<String> requestIds = batch.getRequestIds();
+        Instant firstRequestTimestamp = batch.getFirstRequestTimestamp();
+        boolean linksDirectly = fanIn == null || fanIn.linksDirectly(spanContexts.size());
+
+        // Create a span builder and add links for all pending spans
+        /*
+        *  -- NOTE --
+        *  Start span for outgoing action. In real case this will be writing trace context (as trace parent) to document and calling MongoDB.
+        */
+        var spanBuilder = tracer.spanBuilder("aggregated-action")
+                .setSpanKind(SpanKind.INTERNAL);
+        /*
+        *  -- NOTE --
+        *  IMPORTANT!
+        *  Call addLink and input trace context as parameter, and start as usual
+        *  Perform .addLink() before .startSpan()
+        *  Beyond aggregation.fan-in.max-links-per-span the links go on aggregated-fan-in child spans instead
+        */
+        if (linksDirectly) {
+            for (SpanContext ctx : spanContexts) {
+                spanBuilder.addLink(ctx);
+            }
+        }
+        // Trace IDs of the linked spans for the log lines below: the first few, all of them at DEBUG
+        boolean debug = logger.isDebugEnabled();
+        int listed = debug ? spanContexts.size() : Math.min(LISTED_IDS, spanContexts.size());
+        List<String> linkedTraceIds = new ArrayList<>(listed);
+        for (int i = 0; i < listed; i++) {
+            // Read the trace ID without building a SpanContext
+            linkedTraceIds.add(spanContexts instanceof SpanContextArray columns
+                    ? columns.traceId(i)
+                    : spanContexts.get(i).getTraceId());
+        }
+
+        // Create a new span that links to all incoming request spans
+        Span aggregatedSpan = spanBuilder.startSpan();
+
+        aggregatedSpan.setAttribute("trigger.reason", reason);
+        aggregatedSpan.setAttribute("aggregation.key", batch.getAggregationKey());
+        aggregatedSpan.setAttribute("trigger.count", spanContexts.size());
+        aggregatedSpan.setAttribute("trigger.timestamp", Instant.now().toString());
+        aggregatedSpan.setAttribute("first.request.timestamp", firstRequestTimestamp != null ? firstRequestTimestamp.toString() : "unknown");
+        aggregatedSpan.setAttribute("fan-in", !linksDirectly);
+
+        // ----- x-request-id attributes (1..3 & combined) -----
+        aggregatedSpan.setAttribute("x-request-id.count", requestIds.size());
+        if (linksDirectly) {
+            // Each fan-in span carries the ids of its own requests otherwise. One attribute per
+            // request would run into tracing.span-limits.max-attributes, so only the first few
+            for (int i = 0; i < Math.min(LISTED_IDS, requestIds.size()); i++) {
+                aggregatedSpan.setAttribute("x-request-id-" + (i + 1), requestIds.get(i));
+            }
+            aggregatedSpan.setAttribute("x-request-id.all", String.join(",", requestIds));
+        }
+
+        String masterTraceId = aggregatedSpan.getSpanContext().getTraceId();
+        logger.info(
+                "Action triggered. Master Trace ID: {}, Linked spans count: {}, First linked Trace IDs: {}, First x-request-id(s): {}, Aggregation key: {}, Reason: {}, Timestamp: {}",
+                masterTraceId,
+                spanContexts.size(),
+                linkedTraceIds.subList(0, Math.min(LISTED_IDS, linkedTraceIds.size())),
+                requestIds.subList(0, Math.min(LISTED_IDS, requestIds.size())),
+                batch.getAggregationKey(),
+                reason,
+                Instant.now()
+        );
+        if (debug) {
+            logger.debug("Action triggered. Master Trace ID: {}, Linked Trace IDs: {}, x-request-id(s): {}",
+                    masterTraceId, linkedTraceIds, requestIds);
+        }
+        return aggregatedSpan;
     }
 }
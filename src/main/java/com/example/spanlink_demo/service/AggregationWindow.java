@@ -0,0 +1,164 @@
+package com.example.spanlink_demo.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * One open aggregation window per aggregation key, with its own count and interval trigger.
+ * The interval trigger is a timing wheel timeout armed by the first request of each window
+ * and cancelled when the window is sealed by count.
+ *
+ * <p>Once a window is sealed, an idle check is armed on the same wheel; a window that took no
+ * request for a whole interval after that is reported to {@code onIdle}, so its key can be
+ * dropped. A request that still reaches the window afterwards arms its interval trigger as
+ * usual and is flushed with it.
+ */
+class AggregationWindow {
+
+    private final String key;
+    private final IntSupplier triggerCount;
+    private final LongSupplier intervalMillis;
+    private final TimingWheelTimer timer;
+    private final Consumer<AggregatedBatch> onTimeSealed;
+    private final Consumer<AggregationWindow> onIdle; // null = never idle (the default window)
+    private final AggregationBuffer buffer;
+    private final AtomicBoolean idleCheckArmed = new AtomicBoolean();
+
+    AggregationWindow(String key,
+                      IntSupplier triggerCount,
+                      LongSupplier intervalMillis,
+                      TimingWheelTimer timer,
+                      Consumer<AggregatedBatch> onTimeSealed) {
+        this(key, triggerCount, intervalMillis, timer, onTimeSealed, null);
+    }
+
+    AggregationWindow(String key,
+                      IntSupplier triggerCount,
+                      LongSupplier intervalMillis,
+                      TimingWheelTimer timer,
+                      Consumer<AggregatedBatch> onTimeSealed,
+                      Consumer<AggregationWindow> onIdle) {
+        this.key = key;
+        this.triggerCount = triggerCount;
+        this.intervalMillis = intervalMillis;
+        this.timer = timer;
+        this.onTimeSealed = onTimeSealed;
+        this.onIdle = onIdle;
+        this.buffer = new AggregationBuffer(key, triggerCount, this::armTimer);
+    }
+
+    /**
+     * @return the sealed batch if this request hit the count threshold, otherwise {@code null}
+     */
+    AggregatedBatch add(SpanContext spanContext, String requestId) {
+        return sealedByCount(buffer.add(spanContext, requestId));
+    }
+
+    AggregatedBatch add(SpanContext spanContext, String requestId, long journalSequence) {
+        return sealedByCount(buffer.add(spanContext, requestId, journalSequence));
+    }
+
+    /**
+     * @return the batches sealed because this chunk hit the count threshold
+     */
+    List<AggregatedBatch> addAll(List<SpanContext> spanContexts, List<String> requestIds, long[] journalSequences) {
+        List<AggregatedBatch> sealed = buffer.addAll(spanContexts, requestIds, journalSequences);
+        if (!sealed.isEmpty()) {
+            armIdleCheck();
+        }
+        return sealed;
+    }
+
+    /**
+     * @return the open window sealed with {@code reason}, or {@code null} if it was empty
+     */
+    AggregatedBatch sealPending(String reason) {
+        return buffer.sealPending(reason);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    int pendingCount() {
+        return buffer.pendingCount();
+    }
+
+    AggregationBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Count threshold for the next batch of this window.
+     */
+    int triggerCount() {
+        return triggerCount.getAsInt();
+    }
+
+    long intervalMillis() {
+        return intervalMillis.getAsLong();
+    }
+
+    private Runnable armTimer(long generation) {
+        TimingWheelTimer.Timeout timeout = timer.schedule(() -> onTimer(generation), intervalMillis.getAsLong());
+        return timeout::cancel;
+    }
+
+    private AggregatedBatch sealedByCount(AggregatedBatch sealed) {
+        if (sealed != null) {
+            // The interval trigger of the sealed window is cancelled, the idle check takes over
+            armIdleCheck();
+        }
+        return sealed;
+    }
+
+    private void onTimer(long generation) {
+        if (buffer.currentGeneration() != generation) {
+            // Sealed by count in the meantime
+            return;
+        }
+        long interval = intervalMillis.getAsLong();
+        long remaining = buffer.firstArrivalMillis() + interval - System.currentTimeMillis();
+        if (remaining > 0) {
+            // The wheel fires on tick boundaries; wait out the rest of the interval
+            timer.schedule(() -> onTimer(generation), remaining);
+            return;
+        }
+        AggregatedBatch sealed = buffer.sealIfExpired(System.currentTimeMillis(), interval);
+        if (sealed != null) {
+            onTimeSealed.accept(sealed);
+        }
+        armIdleCheck();
+    }
+
+    /*
+     *  -- NOTE --
+     *  At most one idle check per window is on the wheel. A request in between either is still
+     *  pending or sealed its window, so the generation tells whether the window stayed idle
+     */
+    private void armIdleCheck() {
+        if (onIdle == null || !idleCheckArmed.compareAndSet(false, true)) {
+            return;
+        }
+        long generation = buffer.currentGeneration();
+        timer.schedule(() -> checkIdle(generation), intervalMillis.getAsLong());
+    }
+
+    private void checkIdle(long generation) {
+        idleCheckArmed.set(false);
+        if (buffer.pendingCount() > 0) {
+            // The interval trigger or a count seal of the open window arms the next check
+            return;
+        }
+        if (buffer.currentGeneration() == generation) {
+            onIdle.accept(this);
+        } else {
+            armIdleCheck();
+        }
+    }
+}
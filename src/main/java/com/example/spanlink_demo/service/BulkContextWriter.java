@@ -0,0 +1,288 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.mongodb.WriteConcern;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Write-behind MongoDB writer for {@code aggregated_contexts}.
+ *
+ * <p>Documents are queued by the flush workers and a single writer thread coalesces them
+ * into one unordered bulk insert, sent when {@code max-size} documents are queued or
+ * {@code linger.millis} after the first document of the bulk, whichever comes first.
+ * Documents rejected by the bulk are retried one by one, and so are all documents of a bulk that
+ * fails as a whole (e.g. a network error or a timeout). Every document gets its {@code _id}
+ * before the first attempt, so a retry of a document that did make it fails with a duplicate
+ * key, which counts as written.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.mongo.write-mode", havingValue = "bulk")
+public class BulkContextWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkContextWriter.class);
+
+    private final MongoTemplate bulkTemplate;
+    private final BlockingQueue<QueuedDocument> queue;
+    private final int maxBulkSize;
+    private final long lingerNanos;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Sizing statistics
+    private final AtomicLong bulkCount = new AtomicLong();
+    private final AtomicLong documentCount = new AtomicLong();
+    private final AtomicLong retriedDocuments = new AtomicLong();
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final AtomicLong totalBulkNanos = new AtomicLong();
+    private final LongAccumulator maxBulkNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAccumulator maxBulkSizeSeen = new LongAccumulator(Math::max, 0L);
+
+    @Autowired
+    public BulkContextWriter(MongoDatabaseFactory databaseFactory,
+                             MongoConverter converter,
+                             @Value("${aggregation.mongo.bulk.max-size:500}") int maxBulkSize,
+                             @Value("${aggregation.mongo.bulk.linger.millis:50}") long lingerMillis,
+                             @Value("${aggregation.mongo.bulk.queue.capacity:10000}") int queueCapacity,
+                             @Value("${aggregation.mongo.write-concern:acknowledged}") String writeConcern,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this(writeTemplate(databaseFactory, converter, writeConcern), maxBulkSize, lingerMillis, queueCapacity, virtualThreads);
+        logger.info("MongoDB bulk writer started. Max bulk size: {}, Linger: {}ms, Queue capacity: {}, Write concern: {}",
+                maxBulkSize, lingerMillis, queueCapacity, writeConcern);
+    }
+
+    BulkContextWriter(MongoTemplate bulkTemplate, int maxBulkSize, long lingerMillis, int queueCapacity, boolean virtualThreads) {
+        this.bulkTemplate = bulkTemplate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBulkSize = maxBulkSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.writerThread = WorkerThreads.newThread("mongo-bulk-writer", virtualThreads, this::run);
+        this.writerThread.start();
+    }
+
+    // Dedicated template so the write concern only applies to bulk writes
+    private static MongoTemplate writeTemplate(MongoDatabaseFactory databaseFactory, MongoConverter converter, String writeConcern) {
+        MongoTemplate template = new MongoTemplate(databaseFactory, converter);
+        template.setWriteConcern(parseWriteConcern(writeConcern));
+        return template;
+    }
+
+    /**
+     * Queues a document for the next bulk. Blocks while the queue is full.
+     */
+    public void enqueue(AggregatedContextDocument document) throws InterruptedException {
+        enqueue(document, null);
+    }
+
+    /**
+     * Queues a document for the next bulk; {@code onPersisted} runs on the writer thread once
+     * MongoDB has acknowledged the document. Blocks while the queue is full.
+     */
+    public void enqueue(AggregatedContextDocument document, Runnable onPersisted) throws InterruptedException {
+        queue.put(new QueuedDocument(document, onPersisted));
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBulkCount() {
+        return bulkCount.get();
+    }
+
+    public long getDocumentCount() {
+        return documentCount.get();
+    }
+
+    public long getRetriedDocuments() {
+        return retriedDocuments.get();
+    }
+
+    public long getFailedDocuments() {
+        return failedDocuments.get();
+    }
+
+    public long getTotalBulkNanos() {
+        return totalBulkNanos.get();
+    }
+
+    public long getMaxBulkNanos() {
+        return maxBulkNanos.get();
+    }
+
+    public long getMaxBulkSizeSeen() {
+        return maxBulkSizeSeen.get();
+    }
+
+    /**
+     * Writes whatever is still queued before the application context goes away.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("MongoDB bulk writer stopped with {} unwritten document(s)", queue.size());
+        }
+    }
+
+    private void run() {
+        List<QueuedDocument> bulk = new ArrayList<>(maxBulkSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                QueuedDocument first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                bulk.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (bulk.size() < maxBulkSize) {
+                    queue.drainTo(bulk, maxBulkSize - bulk.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (bulk.size() >= maxBulkSize || remaining <= 0) {
+                        break;
+                    }
+                    QueuedDocument next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    bulk.add(next);
+                }
+                write(bulk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("MongoDB bulk writer failed", e);
+            } finally {
+                bulk.clear();
+            }
+        }
+    }
+
+    private void write(List<QueuedDocument> bulk) {
+        List<AggregatedContextDocument> documents = new ArrayList<>(bulk.size());
+        for (QueuedDocument queued : bulk) {
+            if (queued.document.getId() == null) {
+                // Assigned here rather than by the driver, so a retry inserts the same document
+                queued.document.setId(new ObjectId().toHexString());
+            }
+            documents.add(queued.document);
+        }
+        long start = System.nanoTime();
+        List<QueuedDocument> failed;
+        try {
+            bulkTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AggregatedContextDocument.class)
+                    .insert(documents)
+                    .execute();
+            failed = List.of();
+        } catch (BulkOperationException e) {
+            failed = new ArrayList<>(e.getErrors().size());
+            for (BulkWriteError error : e.getErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    failed.add(bulk.get(error.getIndex()));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Which documents made it is unknown: all are retried, those written fail with a duplicate key
+            logger.warn("MongoDB bulk insert of {} document(s) failed, retrying them one by one", bulk.size(), e);
+            failed = bulk;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        bulkCount.incrementAndGet();
+        documentCount.addAndGet(bulk.size());
+        totalBulkNanos.addAndGet(elapsed);
+        maxBulkNanos.accumulate(elapsed);
+        maxBulkSizeSeen.accumulate(bulk.size());
+        logger.debug("MongoDB bulk insert. Documents: {}, Failed: {}, Latency: {}us",
+                bulk.size(), failed.size(), TimeUnit.NANOSECONDS.toMicros(elapsed));
+
+        Set<QueuedDocument> rejected = Collections.newSetFromMap(new IdentityHashMap<>(failed.size()));
+        rejected.addAll(failed);
+        for (QueuedDocument queued : bulk) {
+            // Rejected documents are confirmed by their retry
+            if (!rejected.contains(queued)) {
+                queued.persisted();
+            }
+        }
+        for (QueuedDocument queued : failed) {
+            retry(queued);
+        }
+    }
+
+    private void retry(QueuedDocument queued) {
+        retriedDocuments.incrementAndGet();
+        try {
+            bulkTemplate.insert(queued.document);
+        } catch (DuplicateKeyException e) {
+            // Written by an earlier attempt
+        } catch (RuntimeException e) {
+            failedDocuments.incrementAndGet();
+            logger.error("Failed to write aggregated context to MongoDB. Master Trace ID: {}, Request IDs: {}",
+                    queued.document.getMasterTraceId(), queued.document.getPendingRequestIds(), e);
+            return;
+        }
+        queued.persisted();
+    }
+
+    private static WriteConcern parseWriteConcern(String value) {
+        WriteConcern writeConcern = WriteConcern.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        if (writeConcern == null) {
+            throw new IllegalArgumentException("Unknown aggregation.mongo.write-concern: " + value);
+        }
+        return writeConcern;
+    }
+
+    private static final class QueuedDocument {
+
+        private final AggregatedContextDocument document;
+        private final Runnable onPersisted;
+
+        private QueuedDocument(AggregatedContextDocument document, Runnable onPersisted) {
+            this.document = document;
+            this.onPersisted = onPersisted;
+        }
+
+        private void persisted() {
+            if (onPersisted == null) {
+                return;
+            }
+            try {
+                onPersisted.run();
+            } catch (RuntimeException e) {
+                logger.error("Persisted callback failed. Master Trace ID: {}", document.getMasterTraceId(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.spanlink_demo.service;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoOperationTimeoutException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketOpenException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Cluster-wide aggregation ({@code aggregation.distributed.enabled=true}): every instance
+ * contributes its locally sealed batches to one shared open batch per aggregation key in the
+ * {@link SharedBatchStore}, so N instances behind a load balancer write batches as large as a
+ * single instance would, instead of N times smaller ones.
+ *
+ * <p>Protocol:
+ * <ul>
+ *   <li>A local batch (the per-instance {@code aggregation.trigger.*} still decides how often an
+ *       instance contributes) is appended to the open shared batch of its key with one atomic
+ *       update, as long as it fits within {@code aggregation.distributed.batch.max-size}.</li>
+ *   <li>The contribution that fills a shared batch seals it and persists it like a local batch
+ *       (aggregated-action span linked to every request, one {@code aggregated_contexts} document).
+ *       A contribution that does not fit seals the open batch first, then opens the next one.</li>
+ *   <li>The instance holding the sealing lease seals shared batches open for longer than
+ *       {@code aggregation.distributed.batch.interval.millis}, and takes over batches whose
+ *       sealer stopped before persisting them. The lease expires if its holder stops renewing it.
+ *       Both happen on a flush worker, so a batch the full flush queue turns away is still open
+ *       (or still abandoned) and is found again by a later sweep.</li>
+ * </ul>
+ * Sealing is a compare-and-set from open to sealed, so exactly one instance persists each shared
+ * batch; the shared batch is deleted once its document is written. A local batch that cannot be
+ * contributed is persisted on its own only when the failure proves the contribution was not
+ * applied (no server reachable, or the server rejected the update); after a failure with an
+ * unknown outcome, such as a connection lost before the reply, the requests may well be in the
+ * shared batch, so they are left in the journal instead of being persisted twice.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.distributed.enabled", havingValue = "true")
+public class DistributedAggregation {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistributedAggregation.class);
+
+    public static final String SHARED_COUNT_THRESHOLD = "shared_count_threshold";
+    public static final String SHARED_TIME_INTERVAL = "shared_time_interval";
+    public static final String SHARED_ABANDONED = "shared_abandoned";
+
+    /** Open batches sealed per sweep at most. */
+    private static final int SWEEP_LIMIT = 100;
+    /** Key of the takeover task in {@link #submitted}; batch IDs are never empty. */
+    private static final String TAKEOVER = "";
+
+    private final SharedBatchStore store;
+    private final FlushPipeline flushPipeline;
+    private final int maxBatchSize;
+    private final long batchIntervalMillis;
+    private final long leaseTtlMillis;
+    private final long sweepIntervalMillis;
+    private final long abandonedAfterMillis;
+    private final String instanceId;
+
+    private final AtomicLong contributions = new AtomicLong();
+    private final AtomicLong contributedRequests = new AtomicLong();
+    private final AtomicLong sealedBatches = new AtomicLong();
+    private final AtomicLong localFallbacks = new AtomicLong();
+    private final AtomicLong unknownOutcomes = new AtomicLong();
+    // Batch IDs handed to the flush workers to seal, with the submission time; removed by the task
+    private final Map<String, Long> submitted = new ConcurrentHashMap<>();
+
+    private BiConsumer<AggregatedBatch, Runnable> persist;
+    private ScheduledExecutorService sweeper;
+    private volatile boolean leader;
+
+    public DistributedAggregation(SharedBatchStore store,
+                                  FlushPipeline flushPipeline,
+                                  @Value("${aggregation.distributed.batch.max-size:500}") int maxBatchSize,
+                                  @Value("${aggregation.distributed.batch.interval.millis:1000}") long batchIntervalMillis,
+                                  @Value("${aggregation.distributed.lease.ttl.millis:5000}") long leaseTtlMillis,
+                                  @Value("${aggregation.distributed.sweep-interval.millis:200}") long sweepIntervalMillis,
+                                  @Value("${aggregation.distributed.abandoned-after.millis:30000}") long abandonedAfterMillis,
+                                  @Value("${aggregation.distributed.instance-id:}") String instanceId) {
+        this.store = store;
+        this.flushPipeline = flushPipeline;
+        this.maxBatchSize = maxBatchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.leaseTtlMillis = leaseTtlMillis;
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        this.abandonedAfterMillis = abandonedAfterMillis;
+        this.instanceId = instanceId.isBlank() ? UUID.randomUUID().toString() : instanceId;
+    }
+
+    /**
+     * Starts the sealing sweeps.
+     *
+     * @param persist persists a sealed shared batch, running the given action once MongoDB has it
+     */
+    void start(BiConsumer<AggregatedBatch, Runnable> persist) {
+        this.persist = persist;
+        sweeper = Executors.newSingleThreadScheduledExecutor(WorkerThreads.factory("distributed-sealer-", false));
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Distributed aggregation started. Instance: {}, Max batch size: {}, Interval: {}ms, Lease TTL: {}ms",
+                instanceId, maxBatchSize, batchIntervalMillis, leaseTtlMillis);
+    }
+
+    /**
+     * Stops the sweeps and hands the lease over; open shared batches are left to the other instances.
+     */
+    void stop() {
+        if (sweeper == null) {
+            return;
+        }
+        sweeper.shutdownNow();
+        try {
+            sweeper.awaitTermination(leaseTtlMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (leader) {
+            try {
+                store.releaseLease(instanceId);
+            } catch (Exception e) {
+                logger.warn("Failed to release the distributed sealing lease, it expires in {}ms", leaseTtlMillis, e);
+            }
+        }
+    }
+
+    /**
+     * Adds a locally sealed batch to the shared batch of its key. Runs on a flush worker thread.
+     *
+     * @param onContributed run once the requests are in the shared batch (journal release), may be {@code null}
+     */
+    void contribute(AggregatedBatch batch, Runnable onContributed) {
+        SharedBatchStore.Contribution contribution;
+        try {
+            contribution = store.contribute(batch.getAggregationKey(), batch.getSpanContexts(), batch.getRequestIds(),
+                    batch.getFirstRequestTimestamp(), maxBatchSize);
+            while (contribution.isBlocked()) {
+                // The open batch has no room for this contribution: seal it and open the next one
+                sealAndPersist(contribution.getBatchId(), SHARED_COUNT_THRESHOLD);
+                contribution = store.contribute(batch.getAggregationKey(), batch.getSpanContexts(), batch.getRequestIds(),
+                        batch.getFirstRequestTimestamp(), maxBatchSize);
+            }
+        } catch (RuntimeException e) {
+            if (!notApplied(e)) {
+                unknownOutcomes.incrementAndGet();
+                logger.error("Contribution to the shared batch failed with an unknown outcome, not persisting the local batch "
+                                + "on its own to avoid a duplicate; its requests stay in the journal. Aggregation key: {}, Linked spans count: {}",
+                        batch.getAggregationKey(), batch.size(), e);
+                return;
+            }
+            localFallbacks.incrementAndGet();
+            logger.warn("Failed to contribute to the shared batch, persisting the local batch on its own. Aggregation key: {}, Linked spans count: {}",
+                    batch.getAggregationKey(), batch.size(), e);
+            persist.accept(batch, onContributed);
+            return;
+        }
+        contributions.incrementAndGet();
+        contributedRequests.addAndGet(batch.size());
+        if (onContributed != null) {
+            onContributed.run();
+        }
+        if (contribution.getSize() >= maxBatchSize) {
+            sealAndPersist(contribution.getBatchId(), SHARED_COUNT_THRESHOLD);
+        }
+    }
+
+    /**
+     * @return true if {@code failure} proves the store did not apply the update: no server could be
+     * reached, the connection could not be opened, or the server answered with an error other than
+     * a write concern error (which comes after the update was applied)
+     */
+    static boolean notApplied(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoOperationTimeoutException || cause instanceof MongoWriteConcernException) {
+                // The client-side operation timeout may expire after the update was sent
+                return false;
+            }
+            if (cause instanceof MongoTimeoutException || cause instanceof MongoSocketOpenException) {
+                return true;
+            }
+            if (cause instanceof MongoServerException) {
+                return !(cause instanceof MongoCommandException command && command.getResponse().containsKey("writeConcernError"));
+            }
+        }
+        return false;
+    }
+
+    private void sealAndPersist(String batchId, String reason) {
+        SharedBatchStore.SharedBatch sealed = store.seal(batchId, instanceId);
+        if (sealed != null) {
+            // Sealed by another instance otherwise
+            persistShared(toBatch(sealed, reason), sealed.getBatchId());
+        }
+    }
+
+    private void persistShared(AggregatedBatch batch, String sharedBatchId) {
+        sealedBatches.incrementAndGet();
+        persist.accept(batch, () -> store.delete(sharedBatchId));
+    }
+
+    /*
+     *  -- NOTE --
+     *  Runs every sweep-interval.millis on every instance; only the lease holder seals anything.
+     *  The seal (or takeover) runs in the flush task, not here: a task dropped or refused by a
+     *  full flush queue leaves the batch as it was, and it is submitted again once the last
+     *  submission is older than batch.interval.millis. Tasks still queued are not submitted twice
+     */
+    private void sweep() {
+        try {
+            leader = store.acquireLease(instanceId, leaseTtlMillis);
+            if (!leader) {
+                return;
+            }
+            long nowNanos = System.nanoTime();
+            long resubmitNanos = TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis);
+            submitted.values().removeIf(since -> nowNanos - since > resubmitNanos);
+            Instant now = Instant.now();
+            for (String batchId : store.findOpenBatches(now.minusMillis(batchIntervalMillis), SWEEP_LIMIT)) {
+                if (submitted.putIfAbsent(batchId, nowNanos) == null) {
+                    submitSealTask(batchId, () -> sealAndPersist(batchId, SHARED_TIME_INTERVAL));
+                }
+            }
+            if (submitted.putIfAbsent(TAKEOVER, nowNanos) == null) {
+                Instant sealedBefore = now.minusMillis(abandonedAfterMillis);
+                submitSealTask(TAKEOVER, () -> takeOverAbandoned(sealedBefore));
+            }
+        } catch (Exception e) {
+            logger.warn("Distributed aggregation sweep failed", e);
+        }
+    }
+
+    private void submitSealTask(String id, Runnable task) {
+        // Placeholder: the contents are only known once the task has sealed the batch
+        AggregatedBatch placeholder = new AggregatedBatch(SHARED_TIME_INTERVAL, Collections.emptyList(), Collections.emptyList(), null);
+        try {
+            flushPipeline.submit(placeholder, ignored -> {
+                submitted.remove(id);
+                task.run();
+            });
+        } catch (RuntimeException e) {
+            // Nothing was sealed; the next sweep tries again
+            submitted.remove(id);
+            throw e;
+        }
+    }
+
+    private void takeOverAbandoned(Instant sealedBefore) {
+        SharedBatchStore.SharedBatch abandoned;
+        while ((abandoned = store.claimAbandoned(sealedBefore, instanceId)) != null) {
+            logger.warn("Taking over an abandoned shared batch. Batch ID: {}, Linked spans count: {}",
+                    abandoned.getBatchId(), abandoned.getSpanContexts().size());
+            persistShared(toBatch(abandoned, SHARED_ABANDONED), abandoned.getBatchId());
+        }
+    }
+
+    private static AggregatedBatch toBatch(SharedBatchStore.SharedBatch sealed, String reason) {
+        return new AggregatedBatch(sealed.getAggregationKey(), reason,
+                sealed.getSpanContexts(), sealed.getRequestIds(), sealed.getFirstRequestTimestamp());
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return whether this instance held the sealing lease at its last sweep
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Local batches added to shared batches.
+     */
+    public long getContributions() {
+        return contributions.get();
+    }
+
+    public long getContributedRequests() {
+        return contributedRequests.get();
+    }
+
+    /**
+     * Shared batches sealed and persisted by this instance.
+     */
+    public long getSealedBatches() {
+        return sealedBatches.get();
+    }
+
+    /**
+     * Local batches persisted on their own because contributing failed.
+     */
+    public long getLocalFallbacks() {
+        return localFallbacks.get();
+    }
+
+    /**
+     * Local batches neither contributed nor persisted, because contributing failed in a way that
+     * leaves open whether the shared batch has them.
+     */
+    public long getUnknownOutcomes() {
+        return unknownOutcomes.get();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.spanlink_demo.service;
+
+/**
+ * Count and interval trigger currently applied to one aggregation window.
+ */
+public class EffectiveTrigger {
+
+    private final String aggregationKey;
+    private final int count;
+    private final long intervalMillis;
+    private final double arrivalRate;
+    private final int pendingCount;
+
+    public EffectiveTrigger(String aggregationKey, int count, long intervalMillis, double arrivalRate, int pendingCount) {
+        this.aggregationKey = aggregationKey;
+        this.count = count;
+        this.intervalMillis = intervalMillis;
+        this.arrivalRate = arrivalRate;
+        this.pendingCount = pendingCount;
+    }
+
+    public String getAggregationKey() {
+        return aggregationKey;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Requests per second over the last adjustment period, -1 with static triggers.
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+}
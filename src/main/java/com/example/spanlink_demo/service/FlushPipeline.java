@@ -0,0 +1,215 @@
+package com.example.spanlink_demo.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Flush stage between the aggregation buffer and the outgoing action.
+ * Sealed batches are queued on a bounded queue and a pool of flush workers
+ * builds the linked span and writes to MongoDB, so the request thread that
+ * sealed the batch never waits on MongoDB.
+ *
+ * <p>With virtual threads enabled the workers are virtual threads and
+ * {@code aggregation.flush.workers} only bounds the number of concurrent MongoDB writes,
+ * so it can be set well above the number of cores.
+ *
+ * <p>The aggregation timer hands its batches over with {@link #trySubmit}, which never blocks
+ * and never runs the flush on the timer thread, whatever {@code aggregation.flush.queue-full-policy}
+ * says: one slow MongoDB write must not hold up every other window's interval trigger.
+ */
+@Component
+public class FlushPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlushPipeline.class);
+
+    private final ThreadPoolExecutor executor;
+    private final FlushQueueFullPolicy queueFullPolicy;
+    private final long shutdownTimeoutSeconds;
+
+    private final AtomicLong submittedBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong droppedSpanContexts = new AtomicLong();
+    private final AtomicLong overflowedBatches = new AtomicLong();
+
+    public FlushPipeline(@Value("${aggregation.flush.workers:2}") int workers,
+                         @Value("${aggregation.flush.queue.capacity:1024}") int queueCapacity,
+                         @Value("${aggregation.flush.queue-full-policy:block}") String queueFullPolicy,
+                         @Value("${aggregation.flush.shutdown-timeout.seconds:10}") long shutdownTimeoutSeconds,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.queueFullPolicy = FlushQueueFullPolicy.fromProperty(queueFullPolicy);
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+        this.executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                WorkerThreads.factory("flush-worker-", virtualThreads),
+                rejectionHandler(this.queueFullPolicy));
+        // trySubmit queues directly, so the workers must exist before the first execute
+        this.executor.prestartAllCoreThreads();
+        logger.info("Flush pipeline started. Workers: {}, Queue capacity: {}, Queue-full policy: {}, Threads: {}",
+                workers, queueCapacity, this.queueFullPolicy,
+                WorkerThreads.useVirtualThreads(virtualThreads) ? "virtual" : "platform");
+    }
+
+    /**
+     * Hands a sealed batch to the flush workers.
+     *
+     * @param batch       sealed batch, must not be modified by the caller afterwards
+     * @param flushAction action run on a flush worker (span creation and MongoDB write)
+     */
+    public void submit(AggregatedBatch batch, Consumer<AggregatedBatch> flushAction) {
+        submittedBatches.incrementAndGet();
+        executor.execute(new FlushTask(batch, flushAction));
+    }
+
+    /**
+     * Like {@link #submit}, but never blocks and never runs the flush on the calling thread, for
+     * the aggregation timer. With the {@code block} and {@code caller-runs} policies a batch that
+     * finds the queue full is dropped and counted as an overflow; its requests stay in the journal,
+     * if enabled. {@code drop-newest} and {@code drop-oldest} behave as in {@link #submit}.
+     */
+    public void trySubmit(AggregatedBatch batch, Consumer<AggregatedBatch> flushAction) {
+        if (queueFullPolicy == FlushQueueFullPolicy.DROP_NEWEST || queueFullPolicy == FlushQueueFullPolicy.DROP_OLDEST) {
+            submit(batch, flushAction);
+            return;
+        }
+        submittedBatches.incrementAndGet();
+        FlushTask task = new FlushTask(batch, flushAction);
+        if (executor.isShutdown() || !executor.getQueue().offer(task)) {
+            overflowedBatches.incrementAndGet();
+            drop(task);
+        } else if (executor.isShutdown() && executor.remove(task)) {
+            // Shut down between the check and the offer, no worker may be left to take it
+            overflowedBatches.incrementAndGet();
+            drop(task);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedBatches() {
+        return submittedBatches.get();
+    }
+
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    public long getDroppedSpanContexts() {
+        return droppedSpanContexts.get();
+    }
+
+    /**
+     * Batches {@link #trySubmit} dropped with the {@code block} or {@code caller-runs} policy,
+     * also counted in {@link #getDroppedBatches()}.
+     */
+    public long getOverflowedBatches() {
+        return overflowedBatches.get();
+    }
+
+    public FlushQueueFullPolicy getQueueFullPolicy() {
+        return queueFullPolicy;
+    }
+
+    /**
+     * Drains already queued batches before the application context goes away.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                int abandoned = executor.shutdownNow().size();
+                logger.warn("Flush pipeline did not drain in {}s, {} queued batch(es) abandoned",
+                        shutdownTimeoutSeconds, abandoned);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler(FlushQueueFullPolicy policy) {
+        switch (policy) {
+            case CALLER_RUNS:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case DROP_NEWEST:
+                return (task, pool) -> drop(task);
+            case DROP_OLDEST:
+                return (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        drop(task);
+                        return;
+                    }
+                    Runnable oldest = pool.getQueue().poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                    pool.execute(task);
+                };
+            case BLOCK:
+            default:
+                return (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        drop(task);
+                        return;
+                    }
+                    try {
+                        pool.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop(task);
+                        throw new RejectedExecutionException("Interrupted while waiting for flush queue", e);
+                    }
+                };
+        }
+    }
+
+    private void drop(Runnable task) {
+        droppedBatches.incrementAndGet();
+        if (task instanceof FlushTask) {
+            AggregatedBatch batch = ((FlushTask) task).batch;
+            droppedSpanContexts.addAndGet(batch.size());
+            logger.warn("Flush queue full, dropped batch. Reason: {}, Linked spans count: {}, x-request-id(s): {}",
+                    batch.getTriggerReason(), batch.size(), batch.getRequestIds());
+        }
+    }
+
+    private static final class FlushTask implements Runnable {
+
+        private final AggregatedBatch batch;
+        private final Consumer<AggregatedBatch> flushAction;
+
+        private FlushTask(AggregatedBatch batch, Consumer<AggregatedBatch> flushAction) {
+            this.batch = batch;
+            this.flushAction = flushAction;
+        }
+
+        @Override
+        public void run() {
+            try {
+                flushAction.accept(batch);
+            } catch (RuntimeException e) {
+                // Keep the worker alive; the flush action reports its own MongoDB failures
+                logger.error("Flush of aggregated batch failed. Reason: {}", batch.getTriggerReason(), e);
+            }
+        }
+    }
+}
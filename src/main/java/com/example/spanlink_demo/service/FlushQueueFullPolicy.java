@@ -0,0 +1,28 @@
+package com.example.spanlink_demo.service;
+
+import java.util.Locale;
+
+/**
+ * What the flush pipeline does with a sealed batch when its queue is full.
+ */
+public enum FlushQueueFullPolicy {
+
+    /** Block the sealing thread until a queue slot frees up (backpressure). */
+    BLOCK,
+
+    /** Run the flush on the sealing thread, like the pre-pipeline behaviour. */
+    CALLER_RUNS,
+
+    /** Drop the batch that could not be queued. */
+    DROP_NEWEST,
+
+    /** Evict the oldest queued batch to make room for the new one. */
+    DROP_OLDEST;
+
+    /**
+     * Parses a property value such as {@code block} or {@code caller-runs}.
+     */
+    public static FlushQueueFullPolicy fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument.FanInSpanData;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links of batches larger than one span can carry. The SDK keeps at most
+ * {@code tracing.span-limits.max-links} links per span and silently drops the rest, and a span
+ * with thousands of links is expensive to export. Up to {@code aggregation.fan-in.max-links-per-span}
+ * requests the {@code aggregated-action} span links them itself; above that the links are spread
+ * over {@code aggregated-fan-in} child spans of at most that many links each:
+ * <pre>
+ * aggregated-action
+ *   aggregated-fan-in [0, 8192)            grouping span
+ *     aggregated-fan-in [0, 128)           links to requests 0..127
+ *     aggregated-fan-in [128, 256)         links to requests 128..255
+ *     ...                                  at most max-children per span
+ *   aggregated-fan-in [8192, 10000)
+ *     ...
+ * </pre>
+ * Grouping levels are only added when there are more than {@code aggregation.fan-in.max-children}
+ * linked spans: the batch of 10,000 above, with the defaults of 128 links and 64 children, gets
+ * 79 linked spans under 2 grouping spans. The document records every fan-in span with the range
+ * of requests it covers.
+ */
+final class LinkFanIn {
+
+    static final String SPAN_NAME = "aggregated-fan-in";
+
+    private final int maxLinksPerSpan;
+    private final int maxChildren;
+
+    /**
+     * @param maxLinksPerSpan links per span, 0 or less to always link from the master span
+     * @param maxChildren     fan-in spans under one span, at least 2
+     */
+    LinkFanIn(int maxLinksPerSpan, int maxChildren) {
+        this.maxLinksPerSpan = maxLinksPerSpan;
+        this.maxChildren = Math.max(2, maxChildren);
+    }
+
+    /**
+     * @return whether a batch of {@code requests} is linked from the master span itself
+     */
+    boolean linksDirectly(int requests) {
+        return maxLinksPerSpan <= 0 || requests <= maxLinksPerSpan;
+    }
+
+    /**
+     * Creates and ends the fan-in spans of {@code batch} under {@code master}, unless the batch is
+     * {@linkplain #linksDirectly linked directly}.
+     *
+     * @return every fan-in span created, in creation order; empty if the batch is linked directly
+     */
+    List<FanInSpanData> fanIn(Tracer tracer, Span master, AggregatedBatch batch) {
+        if (linksDirectly(batch.size())) {
+            return Collections.emptyList();
+        }
+        List<FanInSpanData> spans = new ArrayList<>();
+        fanIn(tracer, master, batch, 0, batch.size(), spans);
+        return spans;
+    }
+
+    private void fanIn(Tracer tracer, Span parent, AggregatedBatch batch, int from, int to, List<FanInSpanData> spans) {
+        int linkedSpans = ceilDiv(to - from, maxLinksPerSpan);
+        if (linkedSpans <= maxChildren) {
+            for (int offset = from; offset < to; offset += maxLinksPerSpan) {
+                linkedSpan(tracer, parent, batch, offset, Math.min(offset + maxLinksPerSpan, to), spans);
+            }
+            return;
+        }
+        // Groups are full subtrees (max-links-per-span x max-children^k requests) but the last
+        long perGroup = maxLinksPerSpan;
+        while ((to - from + perGroup - 1) / perGroup > maxChildren) {
+            perGroup *= maxChildren;
+        }
+        int offset = from;
+        while (offset < to) {
+            int end = (int) Math.min(offset + perGroup, to);
+            Span group = start(tracer, parent, offset, end);
+            spans.add(data(group, parent, offset, end, false));
+            fanIn(tracer, group, batch, offset, end, spans);
+            group.end();
+            offset = end;
+        }
+    }
+
+    private static void linkedSpan(Tracer tracer, Span parent, AggregatedBatch batch, int from, int to,
+                                   List<FanInSpanData> spans) {
+        List<SpanContext> spanContexts = batch.getSpanContexts();
+        SpanBuilder builder = tracer.spanBuilder(SPAN_NAME)
+                .setParent(Context.current().with(parent))
+                .setSpanKind(SpanKind.INTERNAL);
+        for (int i = from; i < to; i++) {
+            builder.addLink(spanContexts.get(i));
+        }
+        Span span = builder.startSpan();
+        span.setAttribute("fan-in.offset", from);
+        span.setAttribute("fan-in.count", to - from);
+        List<String> requestIds = batch.getRequestIds().subList(from, to);
+        span.setAttribute("x-request-id.count", requestIds.size());
+        span.setAttribute("x-request-id.all", String.join(",", requestIds));
+        spans.add(data(span, parent, from, to, true));
+        span.end();
+    }
+
+    private static Span start(Tracer tracer, Span parent, int from, int to) {
+        Span span = tracer.spanBuilder(SPAN_NAME)
+                .setParent(Context.current().with(parent))
+                .setSpanKind(SpanKind.INTERNAL)
+                .startSpan();
+        span.setAttribute("fan-in.offset", from);
+        span.setAttribute("fan-in.count", to - from);
+        return span;
+    }
+
+    private static FanInSpanData data(Span span, Span parent, int from, int to, boolean linked) {
+        return new FanInSpanData(span.getSpanContext().getSpanId(), parent.getSpanContext().getSpanId(),
+                from, to - from, linked);
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -1,45 +1,92 @@
 package com.example.spanlink_demo.service;
 
 import com.example.spanlink_demo.model.AggregatedContextDocument;
-import com.example.spanlink_demo.repository.AggregatedContextRepository;
-import io.opentelemetry.api.GlobalOpenTelemetry;
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.sink.ContextSinks;
 import io.opentelemetry.api.trace.SpanContext;
-import io.opentelemetry.context.Context;
-import io.opentelemetry.context.propagation.TextMapSetter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Builds the {@code aggregated_contexts} document of a sealed batch and writes it to the enabled
+ * {@link com.example.spanlink_demo.sink.ContextSink}s: MongoDB by default, see {@link ContextSinks}.
+ */
 @Service
 public class MongoContextService {
 
-    private static final Logger logger = LoggerFactory.getLogger(MongoContextService.class);
+    @Value("${aggregation.mongo.span-context-encoding:string}")
+    private String spanContextEncoding;
 
-    private final AggregatedContextRepository repository;
+    private final ContextSinks sinks;
 
     @Autowired
-    public MongoContextService(AggregatedContextRepository repository) {
-        this.repository = repository;
+    public MongoContextService(ContextSinks sinks) {
+        this.sinks = sinks;
     }
 
     /**
-     * Saves aggregated context data to MongoDB for downstream context propagation
+     * @return true if documents are queued (for a bulk insert, or for several sinks) instead of written one by one
+     */
+    public boolean isWriteBehind() {
+        return sinks.isWriteBehind();
+    }
+
+    /**
+     * Saves aggregated context data to the context sinks (MongoDB by default) for downstream context propagation
      *
+     * @param aggregationKey       key of the aggregation window the batch was sealed in
      * @param triggerReason        reason for the trigger (e.g., "count_threshold", "time_interval")
      * @param spanContexts         list of span contexts to be propagated
      * @param requestIds           list of request IDs
      * @param masterTraceId        the master trace ID from the aggregated span
      * @param firstRequestTimestamp timestamp of the first request in the batch (for end-to-end time measurement)
-     * @return the saved document
+     * @return the saved document, or the queued document (without ID yet) in write-behind mode
      */
     public AggregatedContextDocument saveAggregatedContext(
+            String aggregationKey,
+            String triggerReason,
+            List<SpanContext> spanContexts,
+            List<String> requestIds,
+            String masterTraceId,
+            Instant firstRequestTimestamp) {
+        return saveAggregatedContext(aggregationKey, triggerReason, spanContexts, requestIds,
+                masterTraceId, firstRequestTimestamp, null, null);
+    }
+
+    /**
+     * Same as {@link #saveAggregatedContext(String, String, List, List, String, Instant)}, running
+     * {@code onPersisted} once every sink has acknowledged the document: before returning when
+     * written directly, on a sink thread in write-behind mode. It does not run if a write fails.
+     *
+     * @param fanInSpans fan-in spans the links of a large batch were spread over, {@code null} if linked directly
+     */
+    public AggregatedContextDocument saveAggregatedContext(
+            String aggregationKey,
+            String triggerReason,
+            List<SpanContext> spanContexts,
+            List<String> requestIds,
+            String masterTraceId,
+            Instant firstRequestTimestamp,
+            List<AggregatedContextDocument.FanInSpanData> fanInSpans,
+            Runnable onPersisted) {
+        AggregatedContextDocument document = toDocument(
+                aggregationKey, triggerReason, spanContexts, requestIds, masterTraceId, firstRequestTimestamp);
+        document.setFanInSpans(fanInSpans);
+        sinks.write(document, onPersisted);
+        return document;
+    }
+
+    /**
+     * Builds the {@code aggregated_contexts} document for a batch in the configured span context
+     * encoding, without writing it. Used by {@link #saveAggregatedContext} and the reactive pipeline.
+     */
+    public AggregatedContextDocument toDocument(
+            String aggregationKey,
             String triggerReason,
             List<SpanContext> spanContexts,
             List<String> requestIds,
@@ -51,55 +98,59 @@ public class MongoContextService {
         *  Process SpanContext before sending to MongoDB
         */
         // Convert SpanContext objects to SpanContextData with traceparent headers
-        List<AggregatedContextDocument.SpanContextData> spanContextDataList = new ArrayList<>();
-        TextMapSetter<Map<String, String>> mapSetter = Map::put;
-
-        for (SpanContext spanContext : spanContexts) {
-            // Create a context with the span context for propagation purpose
-            Context context = Context.current().with(io.opentelemetry.api.trace.Span.wrap(spanContext));
-            
-            // Inject trace context into a carrier map to get traceparent
-            Map<String, String> carrier = new HashMap<>();
-            GlobalOpenTelemetry.getPropagators()
-                    .getTextMapPropagator()
-                    .inject(context, carrier, mapSetter);
-
-            String traceparent = carrier.get("traceparent");
-
-            // Create SpanContextData with all relevant information
-            AggregatedContextDocument.SpanContextData spanContextData =
-                    new AggregatedContextDocument.SpanContextData(
-                            spanContext.getTraceId(),
-                            spanContext.getSpanId(),
-                            String.valueOf(spanContext.getTraceFlags().asByte()),
-                            spanContext.getTraceState().isEmpty() ? null : spanContext.getTraceState().toString(),
-                            traceparent
-                    );
-
-            spanContextDataList.add(spanContextData);
+        List<AggregatedContextDocument.SpanContextData> spanContextDataList = new ArrayList<>(spanContexts.size());
+
+        boolean compact = "compact".equalsIgnoreCase(spanContextEncoding);
+
+        if (spanContexts instanceof SpanContextArray columns) {
+            // Span contexts of a sealed window: encoded straight from the primitive columns
+            for (int i = 0; i < columns.size(); i++) {
+                spanContextDataList.add(compact
+                        ? AggregatedContextDocument.SpanContextData.compact(columns.traceIdBytes(i), columns.spanIdBytes(i),
+                                columns.traceFlags(i), TraceContextCodec.formatTracestate(columns.traceState(i)))
+                        : new AggregatedContextDocument.SpanContextData(
+                                columns.traceId(i),
+                                columns.spanId(i),
+                                String.valueOf(columns.traceFlags(i)),
+                                TraceContextCodec.formatTracestate(columns.traceState(i)),
+                                columns.traceparent(i)));
+            }
+        } else {
+            for (SpanContext spanContext : spanContexts) {
+                if (compact) {
+                    // BinData IDs and a flags value; traceparent is rebuilt on read
+                    spanContextDataList.add(AggregatedContextDocument.SpanContextData.compact(spanContext));
+                    continue;
+                }
+
+                // Format the W3C traceparent straight from the span context (no Context or carrier map)
+                String traceparent = TraceContextCodec.formatTraceparent(spanContext);
+
+                // Create SpanContextData with all relevant information
+                AggregatedContextDocument.SpanContextData spanContextData =
+                        new AggregatedContextDocument.SpanContextData(
+                                spanContext.getTraceId(),
+                                spanContext.getSpanId(),
+                                String.valueOf(spanContext.getTraceFlags().asByte()),
+                                TraceContextCodec.formatTracestate(spanContext.getTraceState()),
+                                traceparent
+                        );
+
+                spanContextDataList.add(spanContextData);
+            }
         }
 
-        // Create and save the document
-        AggregatedContextDocument document = new AggregatedContextDocument(
+        /*
+        *  -- NOTE --
+        *  The request ID list of a sealed batch is not modified afterwards, so the document takes it as is
+        */
+        return new AggregatedContextDocument(
+                aggregationKey,
                 triggerReason,
-                new ArrayList<>(requestIds),
+                requestIds,
                 spanContextDataList,
                 masterTraceId,
                 firstRequestTimestamp
         );
-
-        AggregatedContextDocument saved = repository.save(document);
-        logger.info("Saved aggregated context to MongoDB. Document ID: {}, Master Trace ID: {}, Request IDs: {}, Database: spanlink-demo, Collection: aggregated_contexts",
-                saved.getId(), masterTraceId, requestIds);
-        
-        // Verify the document was actually saved
-        if (saved.getId() == null) {
-            logger.error("WARNING: Document saved but ID is null - document may not have been persisted!");
-        } else {
-            logger.debug("Document verification: ID={}, Timestamp={}", saved.getId(), saved.getTimestamp());
-        }
-
-        return saved;
     }
 }
-
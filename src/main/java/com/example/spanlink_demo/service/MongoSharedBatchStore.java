@@ -0,0 +1,185 @@
+package com.example.spanlink_demo.service;
+
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shared open batches in {@code aggregation.distributed.collection}, one document per batch:
+ * <pre>
+ * { _id: ObjectId(...), aggregationKey: "default", state: "open", size: 42, openedAt: ISODate(...),
+ *   firstRequestTimestamp: ISODate(...), spanContexts: [ { t: "...", s: "...", f: "01" }, ... ],
+ *   requestIds: [ ... ] }
+ * </pre>
+ * A unique partial index on {@code aggregationKey} over open batches keeps one open batch per key:
+ * a contribution that finds no open batch with room upserts a new one, and that upsert fails with
+ * a duplicate key error while a batch without room is still open. The sealing lease is a single
+ * document in {@code aggregation.distributed.lease-collection}.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.distributed.enabled", havingValue = "true")
+public class MongoSharedBatchStore implements SharedBatchStore {
+
+    private static final String OPEN = "open";
+    private static final String SEALED = "sealed";
+    private static final String LEASE_ID = "aggregation-sealer";
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoCollection<Document> batches;
+    private final MongoCollection<Document> leases;
+
+    public MongoSharedBatchStore(MongoTemplate mongoTemplate,
+                                 @Value("${aggregation.distributed.collection:shared_open_batches}") String collection,
+                                 @Value("${aggregation.distributed.lease-collection:aggregation_leases}") String leaseCollection) {
+        this.batches = mongoTemplate.getDb().getCollection(collection);
+        this.leases = mongoTemplate.getDb().getCollection(leaseCollection);
+        batches.createIndex(Indexes.ascending("aggregationKey"), new IndexOptions()
+                .name("aggregationKey_open")
+                .unique(true)
+                .partialFilterExpression(Filters.eq("state", OPEN)));
+        batches.createIndex(Indexes.ascending("state", "openedAt"));
+    }
+
+    @Override
+    public Contribution contribute(String aggregationKey, List<SpanContext> spanContexts, List<String> requestIds,
+                                   Instant firstRequestTimestamp, int maxBatchSize) {
+        int size = spanContexts.size();
+        List<Document> encoded = new ArrayList<>(size);
+        for (SpanContext spanContext : spanContexts) {
+            encoded.add(new Document("t", spanContext.getTraceId())
+                    .append("s", spanContext.getSpanId())
+                    .append("f", spanContext.getTraceFlags().asHex()));
+        }
+        List<Bson> updates = new ArrayList<>(6);
+        updates.add(Updates.pushEach("spanContexts", encoded));
+        updates.add(Updates.pushEach("requestIds", requestIds));
+        updates.add(Updates.inc("size", size));
+        updates.add(Updates.setOnInsert("openedAt", new Date()));
+        if (firstRequestTimestamp != null) {
+            updates.add(Updates.min("firstRequestTimestamp", Date.from(firstRequestTimestamp)));
+        }
+        // aggregationKey and state of an upserted batch come from the equality conditions
+        Bson openWithRoom = Filters.and(
+                Filters.eq("aggregationKey", aggregationKey),
+                Filters.eq("state", OPEN),
+                Filters.lte("size", maxBatchSize - size));
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(true)
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(Projections.include("size"));
+
+        while (true) {
+            try {
+                Document batch = batches.findOneAndUpdate(openWithRoom, Updates.combine(updates), options);
+                return Contribution.added(batch.getObjectId("_id").toHexString(), batch.getInteger("size"));
+            } catch (MongoServerException e) {
+                if (e.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            Document open = batches.find(Filters.and(Filters.eq("aggregationKey", aggregationKey), Filters.eq("state", OPEN)))
+                    .projection(Projections.include("_id"))
+                    .first();
+            if (open != null) {
+                return Contribution.blocked(open.getObjectId("_id").toHexString());
+            }
+            // Sealed in the meantime: the next upsert opens a new batch
+        }
+    }
+
+    @Override
+    public SharedBatch seal(String batchId, String owner) {
+        Document batch = batches.findOneAndUpdate(
+                Filters.and(Filters.eq("_id", new ObjectId(batchId)), Filters.eq("state", OPEN)),
+                Updates.combine(Updates.set("state", SEALED), Updates.set("sealedAt", new Date()), Updates.set("sealedBy", owner)),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        return batch != null ? toSharedBatch(batch) : null;
+    }
+
+    @Override
+    public List<String> findOpenBatches(Instant openedBefore, int limit) {
+        List<String> ids = new ArrayList<>();
+        for (Document batch : batches.find(Filters.and(Filters.eq("state", OPEN), Filters.lte("openedAt", Date.from(openedBefore))))
+                .projection(Projections.include("_id"))
+                .limit(limit)) {
+            ids.add(batch.getObjectId("_id").toHexString());
+        }
+        return ids;
+    }
+
+    @Override
+    public SharedBatch claimAbandoned(Instant sealedBefore, String owner) {
+        Document batch = batches.findOneAndUpdate(
+                Filters.and(Filters.eq("state", SEALED), Filters.lte("sealedAt", Date.from(sealedBefore))),
+                Updates.combine(Updates.set("sealedAt", new Date()), Updates.set("sealedBy", owner)),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        return batch != null ? toSharedBatch(batch) : null;
+    }
+
+    @Override
+    public void delete(String batchId) {
+        batches.deleteOne(Filters.eq("_id", new ObjectId(batchId)));
+    }
+
+    @Override
+    public boolean acquireLease(String owner, long ttlMillis) {
+        Date now = new Date();
+        try {
+            leases.findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", LEASE_ID),
+                            Filters.or(Filters.eq("owner", owner), Filters.lt("expiresAt", now))),
+                    Updates.combine(Updates.set("owner", owner), Updates.set("expiresAt", new Date(now.getTime() + ttlMillis))),
+                    new FindOneAndUpdateOptions().upsert(true));
+            return true;
+        } catch (MongoServerException e) {
+            if (e.getCode() == DUPLICATE_KEY) {
+                // Held by another instance and not expired
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void releaseLease(String owner) {
+        leases.deleteOne(Filters.and(Filters.eq("_id", LEASE_ID), Filters.eq("owner", owner)));
+    }
+
+    private static SharedBatch toSharedBatch(Document batch) {
+        List<Document> encoded = batch.getList("spanContexts", Document.class);
+        List<SpanContext> spanContexts = new ArrayList<>(encoded.size());
+        for (Document spanContext : encoded) {
+            spanContexts.add(SpanContext.createFromRemoteParent(
+                    spanContext.getString("t"), spanContext.getString("s"),
+                    TraceFlags.fromHex(spanContext.getString("f"), 0), TraceState.getDefault()));
+        }
+        Date firstRequestTimestamp = batch.getDate("firstRequestTimestamp");
+        return new SharedBatch(
+                batch.getObjectId("_id").toHexString(),
+                batch.getString("aggregationKey"),
+                spanContexts,
+                batch.getList("requestIds", String.class),
+                firstRequestTimestamp != null ? firstRequestTimestamp.toInstant() : null);
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.ReactiveAggregatedContextRepository;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.Tracer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregation for the reactive stack: a backpressured stream of incoming requests, windowed by
+ * {@code aggregation.trigger.count} and {@code aggregation.trigger.interval.seconds}, with every
+ * sealed window written by a non-blocking insert.
+ *
+ * <p>Requests enter through a bounded buffer; when it is full {@link #offer} returns
+ * {@code false} and the caller rejects the request instead of queueing without limit.
+ * At most {@code aggregation.reactive.max-in-flight-inserts} inserts run at once; while they are
+ * all pending, demand stops and the buffer absorbs the burst.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAggregationPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveAggregationPipeline.class);
+
+    @Value("${aggregation.trigger.count:3}")
+    private int triggerCount;
+
+    @Value("${aggregation.trigger.interval.seconds:10}")
+    private long triggerIntervalSeconds;
+
+    @Value("${aggregation.reactive.buffer.capacity:8192}")
+    private int bufferCapacity;
+
+    @Value("${aggregation.reactive.max-in-flight-inserts:16}")
+    private int maxInFlightInserts;
+
+    @Value("${aggregation.flush.shutdown-timeout.seconds:10}")
+    private long shutdownTimeoutSeconds;
+
+    @Value("${aggregation.fan-in.max-links-per-span:128}")
+    private int fanInMaxLinksPerSpan;
+
+    @Value("${aggregation.fan-in.max-children:64}")
+    private int fanInMaxChildren;
+
+    private final Tracer tracer;
+    private final MongoContextService mongoContextService;
+    private final ReactiveAggregatedContextRepository repository;
+
+    private Sinks.Many<PendingRequest> sink;
+    private Disposable subscription;
+    private LinkFanIn linkFanIn;
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private final AtomicLong acceptedRequests = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong insertedDocuments = new AtomicLong();
+    private final AtomicLong failedInserts = new AtomicLong();
+
+    public ReactiveAggregationPipeline(Tracer tracer,
+                                       MongoContextService mongoContextService,
+                                       ReactiveAggregatedContextRepository repository) {
+        this.tracer = tracer;
+        this.mongoContextService = mongoContextService;
+        this.repository = repository;
+    }
+
+    @PostConstruct
+    public void init() {
+        linkFanIn = new LinkFanIn(fanInMaxLinksPerSpan, fanInMaxChildren);
+        sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<PendingRequest>get(bufferCapacity).get());
+        /*
+         *  -- NOTE --
+         *  bufferTimeout emits a window when it holds trigger.count requests or interval.seconds after
+         *  its first request; fair backpressure keeps it from requesting more than it can emit
+         */
+        subscription = sink.asFlux()
+                .bufferTimeout(triggerCount, Duration.ofSeconds(triggerIntervalSeconds), true)
+                .map(this::toBatch)
+                .flatMap(this::persist, maxInFlightInserts)
+                .subscribe(
+                        document -> { },
+                        error -> logger.error("Reactive aggregation pipeline terminated", error),
+                        drained::countDown);
+        logger.info("Reactive aggregation pipeline started. Trigger count: {}, Interval: {}s, Buffer capacity: {}, Max in-flight inserts: {}",
+                triggerCount, triggerIntervalSeconds, bufferCapacity, maxInFlightInserts);
+    }
+
+    /**
+     * Completes the stream so buffered requests are flushed before the application context goes away.
+     */
+    @PreDestroy
+    public void shutdown() {
+        sink.emitComplete(Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+        try {
+            if (!drained.await(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                logger.warn("Reactive aggregation pipeline did not drain in {}s", shutdownTimeoutSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * Adds a request to the open window.
+     *
+     * @return {@code false} if the buffer is full (or the pipeline is shut down) and the request was not accepted
+     */
+    public boolean offer(SpanContext spanContext, String requestId) {
+        PendingRequest request = new PendingRequest(spanContext, requestId, Instant.now());
+        while (true) {
+            Sinks.EmitResult result = sink.tryEmitNext(request);
+            if (result.isSuccess()) {
+                acceptedRequests.incrementAndGet();
+                return true;
+            }
+            if (result != Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+                // FAIL_OVERFLOW, or the stream has been completed
+                rejectedRequests.incrementAndGet();
+                return false;
+            }
+            // Another thread is emitting; the sink only accepts one emitter at a time
+            Thread.onSpinWait();
+        }
+    }
+
+    public long getAcceptedRequests() {
+        return acceptedRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    public long getInsertedDocuments() {
+        return insertedDocuments.get();
+    }
+
+    public long getFailedInserts() {
+        return failedInserts.get();
+    }
+
+    /**
+     * @return requests buffered but not yet taken into a window
+     */
+    public int getBufferedRequests() {
+        Integer buffered = Scannable.from(sink).scan(Scannable.Attr.BUFFERED);
+        return buffered != null ? buffered : 0;
+    }
+
+    private AggregatedBatch toBatch(List<PendingRequest> window) {
+        List<SpanContext> spanContexts = new ArrayList<>(window.size());
+        List<String> requestIds = new ArrayList<>(window.size());
+        for (PendingRequest request : window) {
+            spanContexts.add(request.spanContext);
+            requestIds.add(request.requestId);
+        }
+        // A full window was emitted by count, a partial one by the interval (or on shutdown)
+        String reason = window.size() >= triggerCount ? AggregationBuffer.COUNT_THRESHOLD : AggregationBuffer.TIME_INTERVAL;
+        return new AggregatedBatch(AggregationService.DEFAULT_AGGREGATION_KEY, reason,
+                spanContexts, requestIds, window.get(0).arrival);
+    }
+
+    private Mono<AggregatedContextDocument> persist(AggregatedBatch batch) {
+        Span aggregatedSpan = AggregationService.startAggregatedActionSpan(tracer, batch, linkFanIn);
+        List<AggregatedContextDocument.FanInSpanData> fanInSpans = linkFanIn.fanIn(tracer, aggregatedSpan, batch);
+        String masterTraceId = aggregatedSpan.getSpanContext().getTraceId();
+        AggregatedContextDocument document = mongoContextService.toDocument(
+                batch.getAggregationKey(),
+                batch.getTriggerReason(),
+                batch.getSpanContexts(),
+                batch.getRequestIds(),
+                masterTraceId,
+                batch.getFirstRequestTimestamp());
+        if (!fanInSpans.isEmpty()) {
+            document.setFanInSpans(fanInSpans);
+        }
+        aggregatedSpan.setAttribute("mongo.write.mode", "reactive");
+
+        return repository.insert(document)
+                .doOnNext(saved -> {
+                    insertedDocuments.incrementAndGet();
+                    aggregatedSpan.setAttribute("mongo.write.success", true);
+                    logger.info("Inserted aggregated context to MongoDB. Document ID: {}, Master Trace ID: {}, Request IDs: {}",
+                            saved.getId(), masterTraceId, batch.getRequestIds());
+                })
+                .onErrorResume(e -> {
+                    // Keep the stream alive; one failed insert must not stop aggregation
+                    failedInserts.incrementAndGet();
+                    aggregatedSpan.setAttribute("mongo.write.success", false);
+                    aggregatedSpan.setAttribute("mongo.write.error", String.valueOf(e.getMessage()));
+                    logger.error("Failed to write aggregated context to MongoDB. Master Trace ID: {}, Request IDs: {}",
+                            masterTraceId, batch.getRequestIds(), e);
+                    return Mono.empty();
+                })
+                .doFinally(signal -> aggregatedSpan.end());
+    }
+
+    private static final class PendingRequest {
+
+        private final SpanContext spanContext;
+        private final String requestId;
+        private final Instant arrival;
+
+        private PendingRequest(SpanContext spanContext, String requestId, Instant arrival) {
+            this.spanContext = spanContext;
+            this.requestId = requestId;
+            this.arrival = arrival;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.spanlink_demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Near-cache of x-request-id → batch for recently flushed batches, filled by
+ * {@link AggregationService#triggerAction} and checked by the lookup API before MongoDB.
+ *
+ * <p>Bounded by size ({@code max-entries}) and time ({@code ttl.seconds}). Entries live in two
+ * generations, each an open-addressing table for half of {@code max-entries}. New entries go
+ * into the current generation; when it is full or older than half the TTL, the previous
+ * generation is evicted as a whole and its arrays are reused for the next current one.
+ * A lookup checks the current generation, then the previous one, and ignores entries older
+ * than the TTL.
+ *
+ * <p>Memory is allocated up front, with no object per entry:
+ * <ul>
+ *   <li>per request: a 64-bit fingerprint of the x-request-id and the index of its batch,
+ *       12 bytes per table slot, 16 to 32 bytes per entry as the tables are powers of two
+ *       filled to at most 75%</li>
+ *   <li>per batch: master trace ID as two longs, flush and first-request times, and references
+ *       to the (shared) aggregation key and trigger reason, about 40 bytes</li>
+ * </ul>
+ * With 3 requests per batch that is 25 to 45 bytes per entry, about 40 MB for the default
+ * million entries. The x-request-id itself is not stored: two IDs with the same 64-bit
+ * fingerprint would share an entry, which for a million entries has a probability around 10^-8.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.lookup.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class RecentBatchCache {
+
+    private static final float MAX_LOAD = 0.75f;
+
+    private final int generationCapacity;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    private Generation current;
+    private Generation previous;
+
+    // Statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    @Autowired
+    public RecentBatchCache(@Value("${aggregation.lookup.cache.max-entries:1000000}") int maxEntries,
+                            @Value("${aggregation.lookup.cache.ttl.seconds:300}") long ttlSeconds) {
+        this(maxEntries, ttlSeconds * 1000, System::currentTimeMillis);
+    }
+
+    RecentBatchCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.generationCapacity = Math.max(1, maxEntries / 2);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.current = new Generation(generationCapacity, now);
+        this.previous = new Generation(generationCapacity, now);
+    }
+
+    /**
+     * Records every request of a flushed batch as mapping to {@code masterTraceId}.
+     */
+    public synchronized void put(AggregatedBatch batch, String masterTraceId) {
+        List<String> requestIds = batch.getRequestIds();
+        long now = clock.getAsLong();
+        if (now - current.createdMillis >= ttlMillis / 2) {
+            rotate(now);
+        }
+        Instant first = batch.getFirstRequestTimestamp();
+        int batchIndex = current.addBatch(
+                Long.parseUnsignedLong(masterTraceId, 0, 16, 16),
+                Long.parseUnsignedLong(masterTraceId, 16, 32, 16),
+                now,
+                first != null ? first.toEpochMilli() : Long.MIN_VALUE,
+                batch.getAggregationKey(),
+                batch.getTriggerReason());
+        for (String requestId : requestIds) {
+            if (current.size >= generationCapacity) {
+                rotate(now);
+                batchIndex = current.copyBatch(previous, batchIndex);
+            }
+            current.put(fingerprint(requestId), batchIndex);
+        }
+    }
+
+    /**
+     * @return the latest flushed batch containing {@code requestId}, or {@code null} if it is not cached
+     */
+    public synchronized Entry get(String requestId) {
+        long fingerprint = fingerprint(requestId);
+        long oldest = clock.getAsLong() - ttlMillis;
+        Entry entry = current.get(fingerprint, oldest);
+        if (entry == null) {
+            entry = previous.get(fingerprint, oldest);
+        }
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Entries dropped with their generation, to bound size or age.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Entries currently held, including entries past the TTL not evicted yet.
+     */
+    public synchronized int getSize() {
+        return current.size + previous.size;
+    }
+
+    public int getMaxEntries() {
+        return generationCapacity * 2;
+    }
+
+    private void rotate(long now) {
+        evictions += previous.size;
+        Generation reused = previous;
+        previous = current;
+        current = reused.reset(now);
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars, with a MurmurHash3 finalizer to spread the low bits used for
+     * the table slot; never 0, which marks an empty slot.
+     */
+    static long fingerprint(String requestId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < requestId.length(); i++) {
+            h ^= requestId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * A cached batch.
+     */
+    public static final class Entry {
+
+        private final String masterTraceId;
+        private final String aggregationKey;
+        private final String triggerReason;
+        private final Instant flushedAt;
+        private final Instant firstRequestTimestamp;
+
+        Entry(String masterTraceId, String aggregationKey, String triggerReason,
+              Instant flushedAt, Instant firstRequestTimestamp) {
+            this.masterTraceId = masterTraceId;
+            this.aggregationKey = aggregationKey;
+            this.triggerReason = triggerReason;
+            this.flushedAt = flushedAt;
+            this.firstRequestTimestamp = firstRequestTimestamp;
+        }
+
+        public String getMasterTraceId() {
+            return masterTraceId;
+        }
+
+        public String getAggregationKey() {
+            return aggregationKey;
+        }
+
+        public String getTriggerReason() {
+            return triggerReason;
+        }
+
+        /**
+         * When the batch was flushed, close to the timestamp of its MongoDB document.
+         */
+        public Instant getFlushedAt() {
+            return flushedAt;
+        }
+
+        public Instant getFirstRequestTimestamp() {
+            return firstRequestTimestamp;
+        }
+    }
+
+    private static final class Generation {
+
+        private final long[] fingerprints; // 0 = empty slot
+        private final int[] batchIndexes;
+        private final int mask;
+        private long createdMillis;
+        private int size;
+
+        // One slot per batch, grown on demand
+        private long[] traceIdHigh = new long[16];
+        private long[] traceIdLow = new long[16];
+        private long[] flushedAtMillis = new long[16];
+        private long[] firstRequestMillis = new long[16];
+        private String[] aggregationKeys = new String[16];
+        private String[] triggerReasons = new String[16];
+        private int batchCount;
+
+        private Generation(int capacity, long createdMillis) {
+            int slots = Integer.highestOneBit(Math.max(2, (int) Math.ceil(capacity / MAX_LOAD)) - 1) << 1;
+            this.fingerprints = new long[slots];
+            this.batchIndexes = new int[slots];
+            this.mask = slots - 1;
+            this.createdMillis = createdMillis;
+        }
+
+        private Generation reset(long now) {
+            Arrays.fill(fingerprints, 0L);
+            Arrays.fill(aggregationKeys, 0, batchCount, null);
+            Arrays.fill(triggerReasons, 0, batchCount, null);
+            size = 0;
+            batchCount = 0;
+            createdMillis = now;
+            return this;
+        }
+
+        private int addBatch(long high, long low, long flushedAt, long firstRequest, String aggregationKey, String triggerReason) {
+            if (batchCount == traceIdHigh.length) {
+                int length = batchCount * 2;
+                traceIdHigh = Arrays.copyOf(traceIdHigh, length);
+                traceIdLow = Arrays.copyOf(traceIdLow, length);
+                flushedAtMillis = Arrays.copyOf(flushedAtMillis, length);
+                firstRequestMillis = Arrays.copyOf(firstRequestMillis, length);
+                aggregationKeys = Arrays.copyOf(aggregationKeys, length);
+                triggerReasons = Arrays.copyOf(triggerReasons, length);
+            }
+            int index = batchCount++;
+            traceIdHigh[index] = high;
+            traceIdLow[index] = low;
+            flushedAtMillis[index] = flushedAt;
+            firstRequestMillis[index] = firstRequest;
+            aggregationKeys[index] = aggregationKey;
+            triggerReasons[index] = triggerReason;
+            return index;
+        }
+
+        /**
+         * Copies a batch of {@code other}, for a batch whose requests span a rotation.
+         */
+        private int copyBatch(Generation other, int index) {
+            return addBatch(other.traceIdHigh[index], other.traceIdLow[index], other.flushedAtMillis[index],
+                    other.firstRequestMillis[index], other.aggregationKeys[index], other.triggerReasons[index]);
+        }
+
+        private void put(long fingerprint, int batchIndex) {
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != 0 && fingerprints[slot] != fingerprint) {
+                slot = (slot + 1) & mask;
+            }
+            if (fingerprints[slot] == 0) {
+                fingerprints[slot] = fingerprint;
+                size++;
+            }
+            // A repeated x-request-id maps to its latest batch
+            batchIndexes[slot] = batchIndex;
+        }
+
+        private Entry get(long fingerprint, long oldestMillis) {
+            int slot = (int) fingerprint & mask;
+            while (fingerprints[slot] != 0) {
+                if (fingerprints[slot] == fingerprint) {
+                    int index = batchIndexes[slot];
+                    if (flushedAtMillis[index] < oldestMillis) {
+                        return null;
+                    }
+                    long first = firstRequestMillis[index];
+                    return new Entry(
+                            String.format("%016x%016x", traceIdHigh[index], traceIdLow[index]),
+                            aggregationKeys[index],
+                            triggerReasons[index],
+                            Instant.ofEpochMilli(flushedAtMillis[index]),
+                            first != Long.MIN_VALUE ? Instant.ofEpochMilli(first) : null);
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+    }
+}
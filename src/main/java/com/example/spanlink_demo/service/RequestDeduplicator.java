@@ -0,0 +1,227 @@
+package com.example.spanlink_demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Drops gateway retries: an x-request-id seen within the last {@code aggregation.dedup.window.seconds}
+ * is acknowledged by the controllers without a SERVER span, a window slot or a link.
+ *
+ * <p>Two generations of Bloom filters, each sized for {@code aggregation.dedup.expected-requests}
+ * at {@code aggregation.dedup.false-positive-rate}. New IDs go into the current generation; when it
+ * is older than the window or holds the expected number of IDs, the previous generation is dropped
+ * and a fresh one becomes current. A lookup checks both, so an ID is remembered for one to two
+ * windows; a burst beyond {@code expected-requests} per window shortens that instead of raising the
+ * false-positive rate.
+ *
+ * <p>A false positive acknowledges a first request as a duplicate, so the request is not linked.
+ * The configured rate is the budget for that; {@link #getEstimatedFalsePositiveRate()} reports the
+ * rate of the filters as currently filled, computed from the bits set. Memory is
+ * {@code -n ln(p) / ln(2)^2} bits per generation, rounded up to a power of two: 2 MB for a million IDs at 0.1%.
+ *
+ * <p>Checks are lock-free: bits are set with compare-and-set, and an ID is new if it set any bit.
+ * Two concurrent retries of the same ID may therefore both count as new. Only the rotation takes
+ * a {@link ReentrantLock}, not a monitor, so a virtual request thread waiting on it is not pinned.
+ */
+@Component
+@ConditionalOnProperty(name = "aggregation.dedup.enabled", havingValue = "true")
+public class RequestDeduplicator {
+
+    private final long windowMillis;
+    private final int expectedRequests;
+    private final double falsePositiveRate;
+    private final int bits;
+    private final int hashes;
+    private final LongSupplier clock;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+    private final ReentrantLock rotationLock = new ReentrantLock();
+
+    // Statistics
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+
+    @Autowired
+    public RequestDeduplicator(@Value("${aggregation.dedup.window.seconds:60}") long windowSeconds,
+                               @Value("${aggregation.dedup.expected-requests:1000000}") int expectedRequests,
+                               @Value("${aggregation.dedup.false-positive-rate:0.001}") double falsePositiveRate) {
+        this(windowSeconds * 1000, expectedRequests, falsePositiveRate, System::currentTimeMillis);
+    }
+
+    RequestDeduplicator(long windowMillis, int expectedRequests, double falsePositiveRate, LongSupplier clock) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("aggregation.dedup.false-positive-rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        this.windowMillis = windowMillis;
+        this.expectedRequests = Math.max(1, expectedRequests);
+        this.falsePositiveRate = falsePositiveRate;
+        // Optimal Bloom filter: m = -n ln(p) / ln(2)^2 bits and k = m/n ln(2) hash functions;
+        // bits rounded up to a power of two so a slot is a mask, which only lowers the rate
+        double optimalBits = -this.expectedRequests * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bits = (int) Math.min(1L << 30, Math.max(64, Long.highestOneBit((long) Math.ceil(optimalBits) - 1) << 1));
+        this.hashes = Math.max(1, (int) Math.round(optimalBits / this.expectedRequests * Math.log(2)));
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.current = new Generation(bits, now);
+        this.previous = new Generation(bits, now);
+    }
+
+    /**
+     * Records {@code requestId} as seen.
+     *
+     * @return {@code true} for the first request with this ID in the window, {@code false} for a
+     * (probable) retry
+     */
+    public boolean firstSeen(String requestId) {
+        checked.increment();
+        long h1 = RecentBatchCache.fingerprint(requestId);
+        // Double hashing: slot i is h1 + i * h2; h2 is odd so it cycles through every slot
+        long h2 = Long.rotateLeft(h1, 32) * 0x9e3779b97f4a7c15L | 1;
+        Generation generation = currentGeneration();
+        Generation older = previous;
+        boolean inOlder = older != generation && older.mightContain(h1, h2, hashes);
+        boolean added = generation.add(h1, h2, hashes);
+        if (!added || inOlder) {
+            duplicates.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private Generation currentGeneration() {
+        Generation generation = current;
+        if (clock.getAsLong() - generation.createdMillis < windowMillis && generation.size.get() < expectedRequests) {
+            return generation;
+        }
+        rotationLock.lock();
+        try {
+            generation = current;
+            long now = clock.getAsLong();
+            if (now - generation.createdMillis >= windowMillis || generation.size.get() >= expectedRequests) {
+                // The previous generation is dropped as a whole
+                previous = generation;
+                current = generation = new Generation(bits, now);
+                rotations.increment();
+            }
+            return generation;
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    /**
+     * Requests acknowledged as duplicates, false positives included.
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    public double getConfiguredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Probability that a new ID is taken for a duplicate right now: the chance that all its
+     * bits are set in the current generation or in the previous one.
+     */
+    public double getEstimatedFalsePositiveRate() {
+        double inCurrent = current.falsePositiveRate(hashes);
+        double inPrevious = previous.falsePositiveRate(hashes);
+        return 1 - (1 - inCurrent) * (1 - inPrevious);
+    }
+
+    /**
+     * Bits per generation, a power of two.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private static final class Generation {
+
+        private final AtomicLongArray words;
+        private final int mask;
+        private final long createdMillis;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Generation(int bits, long createdMillis) {
+            this.words = new AtomicLongArray(Math.max(1, bits >>> 6));
+            this.mask = bits - 1;
+            this.createdMillis = createdMillis;
+        }
+
+        private boolean mightContain(long h1, long h2, int hashes) {
+            long h = h1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) h & mask;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+                h += h2;
+            }
+            return true;
+        }
+
+        /**
+         * @return whether any bit was newly set, i.e. the ID was not in this generation
+         */
+        private boolean add(long h1, long h2, int hashes) {
+            boolean added = false;
+            long h = h1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (int) h & mask;
+                int word = bit >>> 6;
+                long bitMask = 1L << bit;
+                long value;
+                while (((value = words.get(word)) & bitMask) == 0) {
+                    if (words.compareAndSet(word, value, value | bitMask)) {
+                        added = true;
+                        break;
+                    }
+                }
+                h += h2;
+            }
+            if (added) {
+                size.incrementAndGet();
+            }
+            return added;
+        }
+
+        /**
+         * (set bits / bits)^k
+         */
+        private double falsePositiveRate(int hashes) {
+            long set = 0;
+            for (int i = 0; i < words.length(); i++) {
+                set += Long.bitCount(words.get(i));
+            }
+            return Math.pow((double) set / (mask + 1L), hashes);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.spanlink_demo.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Open batches shared by all instances of the service in distributed aggregation mode
+ * ({@code aggregation.distributed.enabled=true}): MongoDB in the application, an in-memory
+ * stand-in in tests. See {@link DistributedAggregation} for the protocol.
+ *
+ * <p>At most one batch per aggregation key is open at a time. An open batch only takes a
+ * contribution that fits within the maximum size; a sealed batch takes none.
+ */
+public interface SharedBatchStore {
+
+    /**
+     * Appends the contexts to the open batch of {@code aggregationKey} if they fit within
+     * {@code maxBatchSize}, opening a new batch if the key has none. A contribution larger than
+     * {@code maxBatchSize} on its own opens a batch of its own.
+     *
+     * @return the batch the contexts went into, or {@link Contribution#blocked} if the open batch has no room
+     */
+    Contribution contribute(String aggregationKey, List<SpanContext> spanContexts, List<String> requestIds,
+                            Instant firstRequestTimestamp, int maxBatchSize);
+
+    /**
+     * Seals the batch if it is still open.
+     *
+     * @return the batch contents if this call sealed it, {@code null} if it was already sealed
+     */
+    SharedBatch seal(String batchId, String owner);
+
+    /**
+     * IDs of open batches opened at or before {@code openedBefore}, up to {@code limit}.
+     */
+    List<String> findOpenBatches(Instant openedBefore, int limit);
+
+    /**
+     * Takes over a batch sealed at or before {@code sealedBefore} and never deleted, i.e. whose
+     * sealer stopped before persisting it.
+     *
+     * @return the batch contents, or {@code null} if there is none
+     */
+    SharedBatch claimAbandoned(Instant sealedBefore, String owner);
+
+    /**
+     * Removes a batch once its aggregated context is persisted.
+     */
+    void delete(String batchId);
+
+    /**
+     * Takes or renews the sealing lease; only the holder seals batches on time.
+     *
+     * @return whether {@code owner} holds the lease for the next {@code ttlMillis}
+     */
+    boolean acquireLease(String owner, long ttlMillis);
+
+    void releaseLease(String owner);
+
+    final class Contribution {
+
+        private final String batchId;
+        private final int size;
+        private final boolean blocked;
+
+        private Contribution(String batchId, int size, boolean blocked) {
+            this.batchId = batchId;
+            this.size = size;
+            this.blocked = blocked;
+        }
+
+        public static Contribution added(String batchId, int size) {
+            return new Contribution(batchId, size, false);
+        }
+
+        /**
+         * @param openBatchId the open batch without room for the contribution
+         */
+        public static Contribution blocked(String openBatchId) {
+            return new Contribution(openBatchId, -1, true);
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        /**
+         * Size of the batch after the contribution, -1 if blocked.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isBlocked() {
+            return blocked;
+        }
+    }
+
+    final class SharedBatch {
+
+        private final String batchId;
+        private final String aggregationKey;
+        private final List<SpanContext> spanContexts;
+        private final List<String> requestIds;
+        private final Instant firstRequestTimestamp;
+
+        public SharedBatch(String batchId, String aggregationKey, List<SpanContext> spanContexts,
+                           List<String> requestIds, Instant firstRequestTimestamp) {
+            this.batchId = batchId;
+            this.aggregationKey = aggregationKey;
+            this.spanContexts = spanContexts;
+            this.requestIds = requestIds;
+            this.firstRequestTimestamp = firstRequestTimestamp;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public String getAggregationKey() {
+            return aggregationKey;
+        }
+
+        public List<SpanContext> getSpanContexts() {
+            return spanContexts;
+        }
+
+        public List<String> getRequestIds() {
+            return requestIds;
+        }
+
+        public Instant getFirstRequestTimestamp() {
+            return firstRequestTimestamp;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * Span contexts of an aggregation window held as primitive columns: the trace ID as two longs,
+ * the span ID as a long, a flags byte and a remote bit, so a pending request keeps no
+ * {@link SpanContext} (and its two hex ID strings) alive until its batch is flushed. A non-empty
+ * trace state is the only per-request reference kept.
+ *
+ * <p>The columns are preallocated for a window and written by the producers that claimed the
+ * slots; once the window is sealed the same instance is the batch's span context list, without
+ * a copy. The list view creates a {@link SpanContext} on every {@link #get}, for span links; the
+ * document encoding reads the columns directly. After the batch is persisted, {@link #release()}
+ * hands the columns back to their {@link AggregationBuffer} for a later window.
+ */
+public final class SpanContextArray extends AbstractList<SpanContext> implements RandomAccess {
+
+    private final long[] traceIdHigh;
+    private final long[] traceIdLow;
+    private final long[] spanIds;
+    private final byte[] traceFlags;
+    private final boolean[] remote;
+    private final TraceState[] traceStates; // null for the (usual) empty trace state
+    private int size;
+    private Consumer<SpanContextArray> recycler;
+
+    SpanContextArray(int capacity) {
+        this.traceIdHigh = new long[capacity];
+        this.traceIdLow = new long[capacity];
+        this.spanIds = new long[capacity];
+        this.traceFlags = new byte[capacity];
+        this.remote = new boolean[capacity];
+        this.traceStates = new TraceState[capacity];
+    }
+
+    /**
+     * Writes the span context of slot {@code index}; slots are written by different producers
+     * and published by the window's counters.
+     */
+    void store(int index, SpanContext spanContext) {
+        String traceId = spanContext.getTraceId();
+        traceIdHigh[index] = TraceContextCodec.parseHexLong(traceId, 0);
+        traceIdLow[index] = TraceContextCodec.parseHexLong(traceId, 16);
+        spanIds[index] = TraceContextCodec.parseHexLong(spanContext.getSpanId(), 0);
+        traceFlags[index] = spanContext.getTraceFlags().asByte();
+        remote[index] = spanContext.isRemote();
+        TraceState traceState = spanContext.getTraceState();
+        traceStates[index] = traceState.isEmpty() ? null : traceState;
+    }
+
+    /**
+     * Fixes the number of span contexts, once the window is sealed.
+     *
+     * @param recycler takes the columns back on {@link #release()}, may be {@code null}
+     */
+    void seal(int size, Consumer<SpanContextArray> recycler) {
+        this.size = size;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Hands the columns back for reuse. Nothing may read this list afterwards; called once the
+     * batch's document and span links have been built.
+     */
+    void release() {
+        Consumer<SpanContextArray> r = recycler;
+        if (r != null) {
+            recycler = null;
+            size = 0;
+            r.accept(this);
+        }
+    }
+
+    int capacity() {
+        return spanIds.length;
+    }
+
+    @Override
+    public SpanContext get(int index) {
+        checkIndex(index);
+        String traceId = traceId(index);
+        String spanId = spanId(index);
+        TraceFlags flags = TraceFlags.fromByte(traceFlags[index]);
+        TraceState traceState = traceState(index);
+        return remote[index]
+                ? SpanContext.createFromRemoteParent(traceId, spanId, flags, traceState)
+                : SpanContext.create(traceId, spanId, flags, traceState);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public String traceId(int index) {
+        checkIndex(index);
+        return TraceContextCodec.formatTraceId(traceIdHigh[index], traceIdLow[index]);
+    }
+
+    public String spanId(int index) {
+        checkIndex(index);
+        return TraceContextCodec.formatSpanId(spanIds[index]);
+    }
+
+    public byte traceFlags(int index) {
+        checkIndex(index);
+        return traceFlags[index];
+    }
+
+    public TraceState traceState(int index) {
+        checkIndex(index);
+        TraceState traceState = traceStates[index];
+        return traceState != null ? traceState : TraceState.getDefault();
+    }
+
+    public String traceparent(int index) {
+        checkIndex(index);
+        return TraceContextCodec.formatTraceparent(traceIdHigh[index], traceIdLow[index], spanIds[index], traceFlags[index]);
+    }
+
+    /**
+     * @return the 16 byte trace ID, big-endian as in {@link SpanContext#getTraceIdBytes()}
+     */
+    public byte[] traceIdBytes(int index) {
+        checkIndex(index);
+        byte[] bytes = new byte[16];
+        writeBytes(traceIdHigh[index], bytes, 0);
+        writeBytes(traceIdLow[index], bytes, 8);
+        return bytes;
+    }
+
+    /**
+     * @return the 8 byte span ID, big-endian as in {@link SpanContext#getSpanIdBytes()}
+     */
+    public byte[] spanIdBytes(int index) {
+        checkIndex(index);
+        byte[] bytes = new byte[8];
+        writeBytes(spanIds[index], bytes, 0);
+        return bytes;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static void writeBytes(long value, byte[] dest, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            dest[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.spanlink_demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel used to expire aggregation windows.
+ *
+ * <p>Scheduling and cancelling are O(1): a timeout is linked into the bucket of the
+ * lowest wheel whose span covers its deadline. Only buckets (not timeouts) go into a
+ * {@link DelayQueue}, so the single reaper thread sleeps until the next non-empty bucket
+ * is due instead of ticking. When an overflow wheel's bucket comes due, its timeouts
+ * cascade down into finer wheels until they fire with {@code tickMillis} precision.
+ *
+ * <p>Request threads schedule and cancel timeouts, so all locking uses {@code java.util.concurrent}
+ * locks rather than monitors, which would pin a virtual thread to its carrier.
+ */
+public class TimingWheelTimer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelTimer.class);
+
+    private final DelayQueue<Bucket> delayQueue = new DelayQueue<>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+    // Scheduling takes the read lock, advancing the clock takes the write lock
+    private final ReentrantReadWriteLock clockLock = new ReentrantReadWriteLock();
+    private final Wheel wheel;
+    private final Thread reaper;
+    private volatile boolean running = true;
+
+    public TimingWheelTimer(String name, long tickMillis, int wheelSize) {
+        this.wheel = new Wheel(tickMillis, wheelSize, nowMillis());
+        this.reaper = new Thread(this::reap, name);
+        this.reaper.setDaemon(true);
+        this.reaper.start();
+    }
+
+    /**
+     * Runs {@code task} on the timer thread once {@code delayMillis} have elapsed.
+     * Tasks must be short; anything slow belongs on another executor.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, nowMillis() + Math.max(0L, delayMillis));
+        clockLock.readLock().lock();
+        try {
+            if (wheel.add(timeout)) {
+                return timeout;
+            }
+        } finally {
+            clockLock.readLock().unlock();
+        }
+        // Already due
+        timeout.run();
+        return timeout;
+    }
+
+    /**
+     * Number of scheduled, not yet fired or cancelled timeouts.
+     */
+    public int pendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        reaper.interrupt();
+    }
+
+    private void reap() {
+        List<Timeout> expired = new ArrayList<>();
+        while (running) {
+            try {
+                Bucket bucket = delayQueue.poll(200, TimeUnit.MILLISECONDS);
+                if (bucket == null) {
+                    continue;
+                }
+                clockLock.writeLock().lock();
+                try {
+                    while (bucket != null) {
+                        wheel.advanceClock(bucket.getExpiration());
+                        bucket.flush(timeout -> {
+                            // Re-inserting cascades the timeout to a finer wheel, or it is due
+                            if (!wheel.add(timeout)) {
+                                expired.add(timeout);
+                            }
+                        });
+                        bucket = delayQueue.poll();
+                    }
+                } finally {
+                    clockLock.writeLock().unlock();
+                }
+                // Run outside the lock so a slow task never blocks scheduling
+                for (Timeout timeout : expired) {
+                    timeout.run();
+                }
+                expired.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Timing wheel task failed", e);
+                expired.clear();
+            }
+        }
+    }
+
+    private static long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineMillis;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        // Guarded by the owning bucket's monitor
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineMillis) {
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /**
+         * Cancels the task if it has not run yet. O(1).
+         */
+        public void cancel() {
+            cancelled = true;
+            Bucket owner = bucket;
+            if (owner != null) {
+                owner.remove(this);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void run() {
+            if (cancelled || done) {
+                return;
+            }
+            done = true;
+            task.run();
+        }
+    }
+
+    private final class Wheel {
+
+        private final long tickMillis;
+        private final int wheelSize;
+        private final long spanMillis;
+        private final Bucket[] buckets;
+        private long currentTime;
+        private volatile Wheel overflow;
+        private final ReentrantLock overflowLock = new ReentrantLock();
+
+        private Wheel(long tickMillis, int wheelSize, long startMillis) {
+            this.tickMillis = tickMillis;
+            this.wheelSize = wheelSize;
+            this.spanMillis = tickMillis * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startMillis - (startMillis % tickMillis);
+        }
+
+        /**
+         * @return false if the timeout is cancelled or already due
+         */
+        private boolean add(Timeout timeout) {
+            long deadline = timeout.deadlineMillis;
+            if (timeout.cancelled) {
+                return false;
+            }
+            if (deadline < currentTime + tickMillis) {
+                return false;
+            }
+            if (deadline < currentTime + spanMillis) {
+                long virtualId = deadline / tickMillis;
+                Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(timeout);
+                // A recycled bucket gets a new expiration and must be re-queued
+                if (bucket.setExpiration(virtualId * tickMillis)) {
+                    delayQueue.offer(bucket);
+                }
+                return true;
+            }
+            return overflowWheel().add(timeout);
+        }
+
+        private void advanceClock(long timeMillis) {
+            if (timeMillis >= currentTime + tickMillis) {
+                currentTime = timeMillis - (timeMillis % tickMillis);
+                Wheel next = overflow;
+                if (next != null) {
+                    next.advanceClock(currentTime);
+                }
+            }
+        }
+
+        private Wheel overflowWheel() {
+            Wheel next = overflow;
+            if (next == null) {
+                overflowLock.lock();
+                try {
+                    next = overflow;
+                    if (next == null) {
+                        next = new Wheel(spanMillis, wheelSize, currentTime);
+                        overflow = next;
+                    }
+                } finally {
+                    overflowLock.unlock();
+                }
+            }
+            return next;
+        }
+    }
+
+    private final class Bucket implements Delayed {
+
+        private final AtomicLong expiration = new AtomicLong(-1L);
+        private final Timeout head = new Timeout(null, -1L);
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Bucket() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private void add(Timeout timeout) {
+            lock.lock();
+            try {
+                Timeout tail = head.prev;
+                timeout.next = head;
+                timeout.prev = tail;
+                tail.next = timeout;
+                head.prev = timeout;
+                timeout.bucket = this;
+                pendingTimeouts.incrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            lock.lock();
+            try {
+                if (timeout.bucket != this) {
+                    return;
+                }
+                timeout.prev.next = timeout.next;
+                timeout.next.prev = timeout.prev;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.bucket = null;
+                pendingTimeouts.decrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void flush(Consumer<Timeout> sink) {
+            lock.lock();
+            try {
+                Timeout timeout = head.next;
+                while (timeout != head) {
+                    Timeout next = timeout.next;
+                    remove(timeout);
+                    sink.accept(timeout);
+                    timeout = next;
+                }
+                expiration.set(-1L);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean setExpiration(long expirationMillis) {
+            return expiration.getAndSet(expirationMillis) != expirationMillis;
+        }
+
+        private long getExpiration() {
+            return expiration.get();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(0L, expiration.get() - nowMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiration.get(), ((Bucket) other).expiration.get());
+        }
+    }
+}
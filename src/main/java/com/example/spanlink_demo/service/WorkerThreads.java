@@ -0,0 +1,73 @@
+package com.example.spanlink_demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the background workers (flush workers, MongoDB bulk writer, change
+ * stream workers).
+ *
+ * <p>With {@code spring.threads.virtual.enabled=true} on Java 21+ the workers are virtual
+ * threads, the same switch that moves the Tomcat request threads to virtual threads.
+ * On older JVMs the setting is ignored and platform daemon threads are used.
+ */
+public final class WorkerThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerThreads.class);
+
+    private static final int VIRTUAL_THREADS_MIN_FEATURE_VERSION = 21;
+
+    private static final AtomicBoolean unsupportedWarningLogged = new AtomicBoolean();
+
+    private WorkerThreads() {
+    }
+
+    /**
+     * @return whether threads from {@link #factory} will be virtual for this setting on this JVM
+     */
+    public static boolean useVirtualThreads(boolean virtualThreadsEnabled) {
+        if (!virtualThreadsEnabled) {
+            return false;
+        }
+        if (Runtime.version().feature() < VIRTUAL_THREADS_MIN_FEATURE_VERSION) {
+            if (unsupportedWarningLogged.compareAndSet(false, true)) {
+                logger.warn("spring.threads.virtual.enabled is set but Java {} has no virtual threads, using platform threads",
+                        Runtime.version().feature());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Threads named {@code <namePrefix><n>}, starting at 1.
+     */
+    public static ThreadFactory factory(String namePrefix, boolean virtualThreadsEnabled) {
+        boolean virtual = useVirtualThreads(virtualThreadsEnabled);
+        ThreadFactory delegate = virtual ? new VirtualThreadTaskExecutor().getVirtualThreadFactory() : Thread::new;
+        AtomicInteger sequence = new AtomicInteger();
+        return runnable -> {
+            Thread thread = delegate.newThread(runnable);
+            thread.setName(namePrefix + sequence.incrementAndGet());
+            if (!virtual) {
+                // Virtual threads are always daemon threads
+                thread.setDaemon(true);
+            }
+            return thread;
+        };
+    }
+
+    /**
+     * A single, not yet started worker thread named {@code name}.
+     */
+    public static Thread newThread(String name, boolean virtualThreadsEnabled, Runnable runnable) {
+        Thread thread = factory(name, virtualThreadsEnabled).newThread(runnable);
+        thread.setName(name);
+        return thread;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+
+/**
+ * Destination of the {@code aggregated_contexts} documents built from sealed batches.
+ *
+ * <p>Every enabled sink is a bean picked up by {@link ContextSinks}: MongoDB
+ * ({@code aggregation.sink.mongo.enabled}, on by default), an in-memory ring
+ * ({@code aggregation.sink.memory.enabled}) and segmented local files
+ * ({@code aggregation.sink.file.enabled}). Another destination only needs to implement this
+ * interface as a bean.
+ *
+ * <p>{@link #write} is called by one thread at a time per sink when several sinks are enabled
+ * (each has its own queue and writer thread), and by the flush workers concurrently when a
+ * single sink is enabled.
+ */
+public interface ContextSink {
+
+    /**
+     * Short name used in logs and as the {@code sink} tag of the {@code aggregation.sink.*} metrics.
+     */
+    String getName();
+
+    /**
+     * Writes one document. {@code onPersisted} runs once the sink holds the document: before
+     * returning, or later on a thread of the sink if it {@linkplain #isWriteBehind() writes behind}.
+     * It does not run if the write fails.
+     *
+     * @param onPersisted may be {@code null}
+     * @throws RuntimeException if the document could not be written (or queued)
+     */
+    void write(AggregatedContextDocument document, Runnable onPersisted);
+
+    /**
+     * @return true if {@link #write} only queues the document
+     */
+    default boolean isWriteBehind() {
+        return false;
+    }
+}
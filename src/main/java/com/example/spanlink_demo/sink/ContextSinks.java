@@ -0,0 +1,352 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.service.WorkerThreads;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The enabled {@link ContextSink}s, as one destination for the documents of sealed batches.
+ *
+ * <p>With a single sink a document is written on the calling flush worker, as before sinks
+ * existed. With several, every sink gets its own bounded queue
+ * ({@code aggregation.sink.queue.capacity}) and writer thread, so a slow or failing sink does not
+ * hold up the others; {@link #write} then only queues the document for each sink. A sink whose
+ * queue stays full for {@code aggregation.sink.queue.offer-timeout.millis} misses the document,
+ * which is logged and counted as an overflow, instead of holding up the flush worker. The batch
+ * counts as persisted (journal entries released, end-to-end latency recorded) once every sink has
+ * it; a batch a sink failed to write or missed stays in the journal and is replayed to all sinks
+ * after a restart.
+ *
+ * <p>With {@code startup.lazy.enabled=true} the sinks (and with them the MongoDB client) are
+ * created on a background thread once the application is ready, so {@code /incoming} fills the
+ * aggregation windows meanwhile; flush workers wait in {@link #write} until the sinks exist.
+ */
+@Component
+public class ContextSinks {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContextSinks.class);
+
+    private final int queueCapacity;
+    private final long offerTimeoutMillis;
+    private final boolean virtualThreads;
+    private final ObjectProvider<ContextSink> deferredSinks; // null when created up front
+    private final CompletableFuture<List<Channel>> ready;
+
+    @Autowired
+    public ContextSinks(ObjectProvider<ContextSink> sinks,
+                        @Value("${aggregation.sink.queue.capacity:1024}") int queueCapacity,
+                        @Value("${aggregation.sink.queue.offer-timeout.millis:1000}") long offerTimeoutMillis,
+                        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                        @Value("${startup.lazy.enabled:false}") boolean lazyStartup) {
+        this.queueCapacity = queueCapacity;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.virtualThreads = virtualThreads;
+        if (lazyStartup) {
+            this.deferredSinks = sinks;
+            this.ready = new CompletableFuture<>();
+            logger.info("Context sinks are created once the application is ready");
+        } else {
+            this.deferredSinks = null;
+            this.ready = CompletableFuture.completedFuture(newChannels(sinks.orderedStream().toList()));
+        }
+    }
+
+    public ContextSinks(List<ContextSink> sinks, int queueCapacity, boolean virtualThreads) {
+        this(sinks, queueCapacity, 1000, virtualThreads);
+    }
+
+    public ContextSinks(List<ContextSink> sinks, int queueCapacity, long offerTimeoutMillis, boolean virtualThreads) {
+        this.queueCapacity = queueCapacity;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.virtualThreads = virtualThreads;
+        this.deferredSinks = null;
+        this.ready = CompletableFuture.completedFuture(newChannels(sinks));
+    }
+
+    private List<Channel> newChannels(List<ContextSink> sinks) {
+        if (sinks.isEmpty()) {
+            throw new IllegalStateException("No context sink enabled, set one of aggregation.sink.mongo.enabled, "
+                    + "aggregation.sink.memory.enabled or aggregation.sink.file.enabled");
+        }
+        List<Channel> created = new ArrayList<>(sinks.size());
+        for (ContextSink sink : sinks) {
+            created.add(sinks.size() == 1
+                    ? new Channel(sink, null, false)
+                    : new Channel(sink, new ArrayBlockingQueue<>(queueCapacity), virtualThreads));
+        }
+        logger.info("Context sinks: {}{}", sinks.stream().map(ContextSink::getName).toList(),
+                sinks.size() > 1 ? ", queue capacity per sink: " + queueCapacity : "");
+        return created;
+    }
+
+    /**
+     * With {@code startup.lazy.enabled=true}, creates the sinks off the startup path. First among
+     * the ready listeners, as the journal replay may wait for the sinks.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        if (deferredSinks == null || ready.isDone()) {
+            return;
+        }
+        WorkerThreads.newThread("context-sink-init", virtualThreads, () -> {
+            long startNanos = System.nanoTime();
+            try {
+                ready.complete(newChannels(deferredSinks.orderedStream().toList()));
+                logger.info("Context sinks ready after {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            } catch (RuntimeException e) {
+                logger.error("Failed to create the context sinks, aggregated contexts are not written", e);
+                ready.completeExceptionally(e);
+            }
+        }).start();
+    }
+
+    /**
+     * Runs {@code action} once the sinks exist: right away, unless they are created after startup.
+     */
+    public void onReady(Runnable action) {
+        ready.thenRun(action);
+    }
+
+    /**
+     * A single sink written on the calling thread, for tests and benchmarks.
+     */
+    public static ContextSinks of(ContextSink sink) {
+        return new ContextSinks(List.of(sink), 1, false);
+    }
+
+    /**
+     * Writes {@code document} to every sink; {@code onPersisted} runs once all of them hold it,
+     * on the thread of the last one. With a single sink a failed write throws; with several a
+     * failure or a queue overflow is logged and counted, and {@code onPersisted} does not run.
+     *
+     * @param onPersisted may be {@code null}
+     */
+    public void write(AggregatedContextDocument document, Runnable onPersisted) {
+        List<Channel> channels = channels();
+        if (channels.size() == 1) {
+            channels.get(0).writeNow(document, onPersisted);
+            return;
+        }
+        /* -- NOTE -- */
+        // The sinks share the document; the ID is assigned here, before any of them sees it, and
+        // not by the MongoDB sink while the others serialize it
+        if (document.getId() == null) {
+            document.setId(new ObjectId().toHexString());
+        }
+        Runnable allPersisted = onPersisted != null ? countDown(channels.size(), onPersisted) : null;
+        for (Channel channel : channels) {
+            channel.enqueue(document, allPersisted, offerTimeoutMillis);
+        }
+    }
+
+    /**
+     * @return true if {@link #write} returns before the document is written
+     */
+    public boolean isWriteBehind() {
+        List<Channel> channels = channels();
+        return channels.size() > 1 || channels.get(0).sink.isWriteBehind();
+    }
+
+    public List<ContextSink> getSinks() {
+        return channels().stream().map(channel -> channel.sink).toList();
+    }
+
+    /**
+     * Documents the sink has acknowledged.
+     */
+    public long getWritten(ContextSink sink) {
+        return channel(sink).written.get();
+    }
+
+    /**
+     * Documents the sink failed to write.
+     */
+    public long getFailed(ContextSink sink) {
+        return channel(sink).failed.get();
+    }
+
+    /**
+     * Documents the sink missed because its queue stayed full, always 0 with a single sink.
+     */
+    public long getOverflowed(ContextSink sink) {
+        return channel(sink).overflowed.get();
+    }
+
+    /**
+     * Documents waiting in the queue of the sink, always 0 with a single sink.
+     */
+    public int getQueueDepth(ContextSink sink) {
+        BlockingQueue<Queued> queue = channel(sink).queue;
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Writes whatever is still queued, after the flush pipeline has been drained.
+     */
+    @PreDestroy
+    public void shutdown() {
+        // Flush workers still waiting for sinks that were never created give up
+        if (ready.completeExceptionally(new IllegalStateException("Stopped before the context sinks were created"))
+                || ready.isCompletedExceptionally()) {
+            return;
+        }
+        List<Channel> channels = ready.join();
+        for (Channel channel : channels) {
+            channel.running = false;
+        }
+        for (Channel channel : channels) {
+            channel.stop();
+        }
+    }
+
+    /**
+     * The channels of the sinks, waiting for them to be created after startup.
+     */
+    private List<Channel> channels() {
+        try {
+            return ready.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the context sinks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Context sinks failed to start", e.getCause());
+        }
+    }
+
+    private Channel channel(ContextSink sink) {
+        for (Channel channel : channels()) {
+            if (channel.sink == sink) {
+                return channel;
+            }
+        }
+        throw new IllegalArgumentException("Unknown context sink " + sink.getName());
+    }
+
+    private static Runnable countDown(int sinks, Runnable onPersisted) {
+        AtomicInteger remaining = new AtomicInteger(sinks);
+        return () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onPersisted.run();
+            }
+        };
+    }
+
+    private static final class Queued {
+
+        private final AggregatedContextDocument document;
+        private final Runnable onPersisted;
+
+        private Queued(AggregatedContextDocument document, Runnable onPersisted) {
+            this.document = document;
+            this.onPersisted = onPersisted;
+        }
+    }
+
+    private static final class Channel {
+
+        private final ContextSink sink;
+        private final BlockingQueue<Queued> queue; // null with a single sink
+        private final Thread writerThread;
+        private volatile boolean running = true;
+
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong overflowed = new AtomicLong();
+
+        private Channel(ContextSink sink, BlockingQueue<Queued> queue, boolean virtualThreads) {
+            this.sink = sink;
+            this.queue = queue;
+            if (queue != null) {
+                this.writerThread = WorkerThreads.newThread("context-sink-" + sink.getName(), virtualThreads, this::run);
+                this.writerThread.start();
+            } else {
+                this.writerThread = null;
+            }
+        }
+
+        private void writeNow(AggregatedContextDocument document, Runnable onPersisted) {
+            try {
+                sink.write(document, () -> {
+                    written.incrementAndGet();
+                    if (onPersisted != null) {
+                        onPersisted.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                throw e;
+            }
+        }
+
+        private void enqueue(AggregatedContextDocument document, Runnable onPersisted, long timeoutMillis) {
+            try {
+                if (!queue.offer(new Queued(document, onPersisted), timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    overflowed.incrementAndGet();
+                    logger.warn("Queue of context sink {} full for {}ms, document not written (kept in the journal). "
+                                    + "Master Trace ID: {}, requests: {}", sink.getName(), timeoutMillis,
+                            document.getMasterTraceId(), document.getPendingRequestIds().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing aggregated context for sink " + sink.getName(), e);
+            }
+        }
+
+        private void run() {
+            while (running || !queue.isEmpty()) {
+                Queued queued;
+                try {
+                    queued = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (queued == null) {
+                    continue;
+                }
+                try {
+                    writeNow(queued.document, queued.onPersisted);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to write aggregated context to sink {}. Master Trace ID: {}, Request IDs: {}",
+                            sink.getName(), queued.document.getMasterTraceId(), queued.document.getPendingRequestIds(), e);
+                }
+            }
+        }
+
+        private void stop() {
+            if (writerThread == null) {
+                return;
+            }
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!queue.isEmpty()) {
+                logger.warn("Context sink {} stopped with {} unwritten document(s)", sink.getName(), queue.size());
+            }
+        }
+    }
+}
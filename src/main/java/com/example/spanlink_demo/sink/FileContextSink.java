@@ -0,0 +1,439 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.FanInSpanData;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Appends documents to segment files in {@code aggregation.sink.file.dir}, for edge deployments
+ * without MongoDB and for load tests that want the output on disk:
+ * <ul>
+ *   <li>{@code ndjson}: one JSON object per line, span contexts in the string schema whatever
+ *       {@code aggregation.mongo.span-context-encoding} is, read by any JSON tool</li>
+ *   <li>{@code binary}: records as in the aggregation journal, {@code [int length][int crc32c][payload]}
+ *       with raw trace and span IDs; {@link #readBinarySegment} decodes them</li>
+ * </ul>
+ * A new segment is started once the current one holds {@code segment-size.mb}, and on every
+ * start; with {@code max-segments} set the oldest segments are deleted beyond that many. The
+ * document ID is not written (it is MongoDB's, when the MongoDB sink is enabled as well).
+ *
+ * <p>Every document is flushed to the page cache before it counts as persisted, so it survives
+ * a process crash but not a power loss.
+ */
+@Component
+@Order(2)
+@ConditionalOnProperty(name = "aggregation.sink.file.enabled", havingValue = "true")
+public class FileContextSink implements ContextSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileContextSink.class);
+
+    private static final String SEGMENT_PREFIX = "contexts-";
+    private static final int HEADER_LENGTH = 8;
+    private static final byte BINARY_VERSION = 1;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final boolean binary;
+    private final String suffix;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream binaryOut = new DataOutputStream(buffer);
+    private final JsonGenerator generator;
+
+    // Guarded by this
+    private long segmentIndex;
+    private OutputStream out;
+    private long segmentWritten;
+
+    private final AtomicLong writtenDocuments = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+
+    @Autowired
+    public FileContextSink(@Value("${aggregation.sink.file.dir:contexts}") String directory,
+                           @Value("${aggregation.sink.file.format:ndjson}") String format,
+                           @Value("${aggregation.sink.file.segment-size.mb:64}") long segmentSizeMb,
+                           @Value("${aggregation.sink.file.max-segments:0}") int maxSegments) {
+        this(Path.of(directory), format, segmentSizeMb * 1024 * 1024, maxSegments);
+    }
+
+    public FileContextSink(Path directory, String format, long segmentSize, int maxSegments) {
+        String normalized = format.trim().toLowerCase(Locale.ROOT);
+        if (!normalized.equals("ndjson") && !normalized.equals("binary")) {
+            throw new IllegalArgumentException("Unknown aggregation.sink.file.format: " + format);
+        }
+        this.directory = directory;
+        this.binary = normalized.equals("binary");
+        this.suffix = binary ? ".bin" : ".ndjson";
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        try {
+            Files.createDirectories(directory);
+            this.generator = new JsonFactory().createGenerator(buffer);
+            // Lines are separated explicitly after each document
+            this.generator.setRootValueSeparator(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create context sink directory " + directory, e);
+        }
+        // Segments of a previous run are kept as they are
+        List<Long> existing = existingSegmentIndexes();
+        this.segmentIndex = existing.isEmpty() ? -1 : existing.get(existing.size() - 1);
+        logger.info("File context sink opened. Directory: {}, Format: {}, Segment size: {} bytes, Max segments: {}",
+                directory.toAbsolutePath(), normalized, segmentSize, maxSegments > 0 ? maxSegments : "unlimited");
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public void write(AggregatedContextDocument document, Runnable onPersisted) {
+        synchronized (this) {
+            try {
+                buffer.reset();
+                if (binary) {
+                    encodeBinary(document);
+                } else {
+                    encodeJson(document);
+                }
+                if (out == null || segmentWritten >= segmentSize) {
+                    roll();
+                }
+                if (binary) {
+                    CRC32C crc = new CRC32C();
+                    crc.update(buffer.array(), 0, buffer.size());
+                    writeInt(out, HEADER_LENGTH + buffer.size());
+                    writeInt(out, (int) crc.getValue());
+                    segmentWritten += HEADER_LENGTH;
+                    writtenBytes.addAndGet(HEADER_LENGTH);
+                }
+                buffer.writeTo(out);
+                out.flush();
+                segmentWritten += buffer.size();
+                writtenBytes.addAndGet(buffer.size());
+            } catch (IOException e) {
+                // The segment may end in a partial record now: the next document starts a new one
+                close();
+                throw new UncheckedIOException("Failed to write aggregated context to " + segmentPath(segmentIndex), e);
+            }
+        }
+        writtenDocuments.incrementAndGet();
+        if (onPersisted != null) {
+            onPersisted.run();
+        }
+    }
+
+    public long getWrittenDocuments() {
+        return writtenDocuments.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public long getDeletedSegments() {
+        return deletedSegments.get();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close context sink segment {}", segmentPath(segmentIndex), e);
+        }
+        out = null;
+    }
+
+    /**
+     * Decodes a segment written in the {@code binary} format, stopping at a record torn by a crash.
+     * Span contexts come back in the compact schema.
+     */
+    public static List<AggregatedContextDocument> readBinarySegment(Path segment) {
+        List<AggregatedContextDocument> documents = new ArrayList<>();
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read context sink segment " + segment, e);
+        }
+        while (buffer.remaining() >= HEADER_LENGTH) {
+            int length = buffer.getInt(buffer.position());
+            int checksum = buffer.getInt(buffer.position() + Integer.BYTES);
+            if (length < HEADER_LENGTH + 1 || length > buffer.remaining()) {
+                logger.warn("Truncated record in context sink segment {} at offset {}", segment, buffer.position());
+                break;
+            }
+            ByteBuffer payload = buffer.slice(buffer.position() + HEADER_LENGTH, length - HEADER_LENGTH);
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("Torn record in context sink segment {} at offset {}", segment, buffer.position());
+                break;
+            }
+            documents.add(decodeBinary(payload));
+            buffer.position(buffer.position() + length);
+        }
+        return documents;
+    }
+
+    private void roll() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        segmentIndex++;
+        out = new BufferedOutputStream(Files.newOutputStream(segmentPath(segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024);
+        segmentWritten = 0;
+        if (maxSegments > 0) {
+            List<Long> existing = existingSegmentIndexes();
+            for (int i = 0; i < existing.size() - maxSegments; i++) {
+                Files.deleteIfExists(directory.resolve(segmentName(existing.get(i))));
+                deletedSegments.incrementAndGet();
+            }
+        }
+    }
+
+    private void encodeJson(AggregatedContextDocument document) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("aggregationKey", document.getAggregationKey());
+        generator.writeStringField("triggerReason", document.getTriggerReason());
+        generator.writeStringField("masterTraceId", document.getMasterTraceId());
+        writeTimestamp("timestamp", document.getTimestamp());
+        writeTimestamp("firstRequestTimestamp", document.getFirstRequestTimestamp());
+        generator.writeArrayFieldStart("pendingRequestIds");
+        for (String requestId : document.getPendingRequestIds()) {
+            generator.writeString(requestId);
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("pendingSpanContexts");
+        for (SpanContextData spanContext : document.getPendingSpanContexts()) {
+            generator.writeStartObject();
+            generator.writeStringField("traceId", spanContext.getTraceId());
+            generator.writeStringField("spanId", spanContext.getSpanId());
+            generator.writeStringField("traceFlags", spanContext.getTraceFlags());
+            if (spanContext.getTraceState() != null) {
+                generator.writeStringField("traceState", spanContext.getTraceState());
+            }
+            generator.writeStringField("traceparent", spanContext.getTraceparent());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        if (document.getFanInSpans() != null) {
+            generator.writeArrayFieldStart("fanInSpans");
+            for (FanInSpanData fanIn : document.getFanInSpans()) {
+                generator.writeStartObject();
+                generator.writeStringField("spanId", fanIn.getSpanId());
+                generator.writeStringField("parentSpanId", fanIn.getParentSpanId());
+                generator.writeNumberField("offset", fanIn.getOffset());
+                generator.writeNumberField("count", fanIn.getCount());
+                generator.writeBooleanField("linked", fanIn.isLinked());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private void writeTimestamp(String fieldName, Instant timestamp) throws IOException {
+        if (timestamp != null) {
+            generator.writeStringField(fieldName, timestamp.toString());
+        }
+    }
+
+    private void encodeBinary(AggregatedContextDocument document) throws IOException {
+        DataOutputStream data = binaryOut;
+        data.writeByte(BINARY_VERSION);
+        writeString(data, document.getAggregationKey());
+        writeString(data, document.getTriggerReason());
+        writeString(data, document.getMasterTraceId());
+        data.writeLong(epochMillis(document.getTimestamp()));
+        data.writeLong(epochMillis(document.getFirstRequestTimestamp()));
+        List<String> requestIds = document.getPendingRequestIds();
+        data.writeInt(requestIds.size());
+        for (String requestId : requestIds) {
+            writeString(data, requestId);
+        }
+        List<SpanContextData> spanContexts = document.getPendingSpanContexts();
+        data.writeInt(spanContexts.size());
+        for (SpanContextData spanContext : spanContexts) {
+            if (spanContext.isCompact()) {
+                data.write(spanContext.getTraceIdBytes());
+                data.write(spanContext.getSpanIdBytes());
+                data.writeByte(spanContext.getFlags());
+            } else {
+                // Hex IDs go in as the longs they encode
+                String traceId = spanContext.getTraceId();
+                String spanId = spanContext.getSpanId();
+                data.writeLong(hexLong(traceId, 0, 32));
+                data.writeLong(hexLong(traceId, 16, 32));
+                data.writeLong(hexLong(spanId, 0, 16));
+                String traceFlags = spanContext.getTraceFlags();
+                data.writeByte(traceFlags != null ? Byte.parseByte(traceFlags) : 0);
+            }
+            writeString(data, spanContext.getTraceState());
+        }
+        List<FanInSpanData> fanInSpans = document.getFanInSpans();
+        data.writeInt(fanInSpans != null ? fanInSpans.size() : -1);
+        if (fanInSpans != null) {
+            for (FanInSpanData fanIn : fanInSpans) {
+                writeString(data, fanIn.getSpanId());
+                writeString(data, fanIn.getParentSpanId());
+                data.writeInt(fanIn.getOffset());
+                data.writeInt(fanIn.getCount());
+                data.writeBoolean(fanIn.isLinked());
+            }
+        }
+        data.flush();
+    }
+
+    private static AggregatedContextDocument decodeBinary(ByteBuffer payload) {
+        byte version = payload.get();
+        if (version != BINARY_VERSION) {
+            throw new IllegalStateException("Unknown context sink record version " + version);
+        }
+        String aggregationKey = getString(payload);
+        String triggerReason = getString(payload);
+        String masterTraceId = getString(payload);
+        Instant timestamp = instant(payload.getLong());
+        Instant firstRequestTimestamp = instant(payload.getLong());
+        int requestCount = payload.getInt();
+        List<String> requestIds = new ArrayList<>(requestCount);
+        for (int i = 0; i < requestCount; i++) {
+            requestIds.add(getString(payload));
+        }
+        int spanContextCount = payload.getInt();
+        List<SpanContextData> spanContexts = new ArrayList<>(spanContextCount);
+        for (int i = 0; i < spanContextCount; i++) {
+            byte[] traceId = new byte[16];
+            byte[] spanId = new byte[8];
+            payload.get(traceId).get(spanId);
+            byte flags = payload.get();
+            spanContexts.add(SpanContextData.compact(traceId, spanId, flags, getString(payload)));
+        }
+        AggregatedContextDocument document = new AggregatedContextDocument(
+                aggregationKey, triggerReason, requestIds, spanContexts, masterTraceId, firstRequestTimestamp);
+        document.setTimestamp(timestamp);
+        int fanInCount = payload.getInt();
+        if (fanInCount >= 0) {
+            List<FanInSpanData> fanInSpans = new ArrayList<>(fanInCount);
+            for (int i = 0; i < fanInCount; i++) {
+                fanInSpans.add(new FanInSpanData(getString(payload), getString(payload),
+                        payload.getInt(), payload.getInt(), payload.get() != 0));
+            }
+            document.setFanInSpans(fanInSpans);
+        }
+        return document;
+    }
+
+    private static long hexLong(String id, int offset, int length) {
+        // Malformed IDs are stored as the invalid (all zero) ID
+        return id != null && id.length() == length ? TraceContextCodec.parseHexLong(id, offset) : 0;
+    }
+
+    private static long epochMillis(Instant instant) {
+        return instant != null ? instant.toEpochMilli() : NO_TIMESTAMP;
+    }
+
+    private static Instant instant(long epochMillis) {
+        return epochMillis != NO_TIMESTAMP ? Instant.ofEpochMilli(epochMillis) : null;
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(segmentName(index));
+    }
+
+    private String segmentName(long index) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, index, suffix);
+    }
+
+    private List<Long> existingSegmentIndexes() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list context sink directory " + directory, e);
+        }
+    }
+
+    /**
+     * Reusable record buffer whose bytes can be checksummed in place.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        private RecordBuffer() {
+            super(4096);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the last {@code aggregation.sink.memory.capacity} documents in a ring, overwriting the
+ * oldest. A write is one slot store, so the sink costs next to nothing: for load tests and
+ * benchmarks of the aggregation path without MongoDB, and for deployments that only need the
+ * recent batches (e.g. together with the file sink).
+ */
+@Component
+@Order(1)
+@ConditionalOnProperty(name = "aggregation.sink.memory.enabled", havingValue = "true")
+public class InMemoryContextSink implements ContextSink {
+
+    private final AtomicReferenceArray<AggregatedContextDocument> ring;
+    private final AtomicLong written = new AtomicLong();
+
+    public InMemoryContextSink(@Value("${aggregation.sink.memory.capacity:10000}") int capacity) {
+        this.ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public void write(AggregatedContextDocument document, Runnable onPersisted) {
+        long sequence = written.getAndIncrement();
+        ring.set((int) (sequence % ring.length()), document);
+        if (onPersisted != null) {
+            onPersisted.run();
+        }
+    }
+
+    /**
+     * @return up to {@code limit} of the documents in the ring, newest first; a write racing with
+     * this call may or may not be included
+     */
+    public List<AggregatedContextDocument> recent(int limit) {
+        long end = written.get();
+        long start = Math.max(0, end - ring.length());
+        List<AggregatedContextDocument> documents = new ArrayList<>((int) Math.min(limit, end - start));
+        for (long sequence = end - 1; sequence >= start && documents.size() < limit; sequence--) {
+            AggregatedContextDocument document = ring.get((int) (sequence % ring.length()));
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        return documents;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Documents overwritten by newer ones.
+     */
+    public long getEvicted() {
+        return Math.max(0, written.get() - ring.length());
+    }
+
+    public int getCapacity() {
+        return ring.length();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.service.BulkContextWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes documents to the {@code aggregated_contexts} collection: one save per batch, or queued
+ * for the {@link BulkContextWriter} with {@code aggregation.mongo.write-mode=bulk}.
+ */
+@Component
+@Order(0)
+@ConditionalOnProperty(name = "aggregation.sink.mongo.enabled", havingValue = "true", matchIfMissing = true)
+public class MongoContextSink implements ContextSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoContextSink.class);
+
+    private final AggregatedContextRepository repository;
+    private final BulkContextWriter bulkWriter; // null unless aggregation.mongo.write-mode=bulk
+
+    @Autowired
+    public MongoContextSink(AggregatedContextRepository repository,
+                            ObjectProvider<BulkContextWriter> bulkWriter) {
+        this.repository = repository;
+        this.bulkWriter = bulkWriter.getIfAvailable();
+    }
+
+    @Override
+    public String getName() {
+        return "mongo";
+    }
+
+    @Override
+    public boolean isWriteBehind() {
+        return bulkWriter != null;
+    }
+
+    @Override
+    public void write(AggregatedContextDocument document, Runnable onPersisted) {
+        /*
+        *  -- NOTE --
+        *  In write-behind mode the document is coalesced with others into one unordered bulk insert
+        */
+        if (bulkWriter != null) {
+            try {
+                bulkWriter.enqueue(document, onPersisted);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing aggregated context for bulk write", e);
+            }
+            logger.info("Queued aggregated context for MongoDB bulk write. Master Trace ID: {}, Request IDs: {}",
+                    document.getMasterTraceId(), document.getPendingRequestIds());
+            return;
+        }
+
+        AggregatedContextDocument saved = repository.save(document);
+        logger.info("Saved aggregated context to MongoDB. Document ID: {}, Master Trace ID: {}, Request IDs: {}, Database: spanlink-demo, Collection: aggregated_contexts",
+                saved.getId(), document.getMasterTraceId(), document.getPendingRequestIds());
+
+        // Verify the document was actually saved
+        if (saved.getId() == null) {
+            logger.error("WARNING: Document saved but ID is null - document may not have been persisted!");
+        } else {
+            logger.debug("Document verification: ID={}, Timestamp={}", saved.getId(), saved.getTimestamp());
+        }
+        if (onPersisted != null) {
+            onPersisted.run();
+        }
+    }
+}
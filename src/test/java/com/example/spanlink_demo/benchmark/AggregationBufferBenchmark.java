@@ -0,0 +1,119 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.service.AggregatedBatch;
+import com.example.spanlink_demo.service.AggregationBuffer;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multithreaded ingest throughput of the lock-free {@link AggregationBuffer} against the
+ * original single {@code ReentrantLock} + {@code ArrayList} buffer.
+ *
+ * <p>Run with a thread count, e.g. {@code -t 1}, {@code -t 4} or {@code -t 16}
+ * (defaults to all available processors).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class AggregationBufferBenchmark {
+
+    @Param({"3", "100"})
+    int triggerCount;
+
+    private static final SpanContext SPAN_CONTEXT = SpanContext.create(
+            "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+            TraceFlags.getSampled(), TraceState.getDefault());
+
+    private AggregationBuffer lockFree;
+    private LockingBuffer locking;
+
+    @Setup
+    public void setUp() {
+        lockFree = new AggregationBuffer(() -> triggerCount);
+        locking = new LockingBuffer(triggerCount);
+    }
+
+    @Benchmark
+    public AggregatedBatch lockFreeBuffer() {
+        return lockFree.add(SPAN_CONTEXT, "req");
+    }
+
+    @Benchmark
+    public AggregatedBatch lockingBuffer() {
+        return locking.add(SPAN_CONTEXT, "req");
+    }
+
+    /**
+     * The pre-{@link AggregationBuffer} implementation, minus logging.
+     */
+    static final class LockingBuffer {
+
+        private final int triggerCount;
+        private final AtomicInteger requestCount = new AtomicInteger(0);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<SpanContext> pendingSpanContexts = new ArrayList<>();
+        private final List<String> pendingRequestIds = new ArrayList<>();
+        private volatile Long lastResetTime = null;
+        private volatile Instant firstRequestTimestamp = null;
+
+        LockingBuffer(int triggerCount) {
+            this.triggerCount = triggerCount;
+        }
+
+        AggregatedBatch add(SpanContext spanContext, String requestId) {
+            lock.lock();
+            try {
+                int count = requestCount.incrementAndGet();
+                pendingSpanContexts.add(spanContext);
+                pendingRequestIds.add(requestId);
+                if (pendingRequestIds.size() > triggerCount) {
+                    pendingRequestIds.remove(0);
+                }
+                if (lastResetTime == null) {
+                    lastResetTime = System.currentTimeMillis();
+                    firstRequestTimestamp = Instant.now();
+                }
+                if (count >= triggerCount) {
+                    AggregatedBatch batch = new AggregatedBatch(
+                            AggregationBuffer.COUNT_THRESHOLD,
+                            new ArrayList<>(pendingSpanContexts),
+                            new ArrayList<>(pendingRequestIds),
+                            firstRequestTimestamp);
+                    requestCount.set(0);
+                    pendingSpanContexts.clear();
+                    pendingRequestIds.clear();
+                    lastResetTime = null;
+                    firstRequestTimestamp = null;
+                    return batch;
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
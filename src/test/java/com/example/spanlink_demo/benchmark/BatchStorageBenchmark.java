@@ -0,0 +1,108 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.service.AggregatedBatch;
+import com.example.spanlink_demo.service.AggregationBuffer;
+import com.example.spanlink_demo.service.MongoContextService;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One aggregation window end to end, from the requests' span contexts to the unsaved document:
+ * the primitive columns of {@link AggregationBuffer}, recycled after every batch, against the
+ * previous storage of one {@link SpanContext} per slot copied into per-batch lists. Both sides
+ * create the span contexts of the requests, as the SERVER spans would. Run with the GC profiler
+ * for the allocation rate per window:
+ * <pre>
+ * mvn -Pbenchmark -DskipTests test -Djmh.includes=BatchStorageBenchmark -Djmh.args="-prof gc"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchStorageBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int batchSize;
+
+    @Param({"string", "compact"})
+    String encoding;
+
+    private String[] traceIds;
+    private String[] spanIds;
+    private String[] requestIds;
+    private MongoContextService mongoContextService;
+    private AggregationBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogging();
+        traceIds = new String[batchSize];
+        spanIds = new String[batchSize];
+        requestIds = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            traceIds[i] = String.format("%032x", i + 1);
+            spanIds[i] = String.format("%016x", i + 1);
+            requestIds[i] = "req-" + i;
+        }
+        mongoContextService = BenchmarkFixtures.mongoContextService(null, encoding);
+        buffer = new AggregationBuffer(() -> batchSize);
+    }
+
+    @Benchmark
+    public AggregatedContextDocument primitiveColumns() {
+        AggregatedBatch batch = null;
+        for (int i = 0; i < batchSize; i++) {
+            batch = buffer.add(requestSpanContext(i), requestIds[i]);
+        }
+        try {
+            return mongoContextService.toDocument(batch.getAggregationKey(), batch.getTriggerReason(),
+                    batch.getSpanContexts(), batch.getRequestIds(), "master", batch.getFirstRequestTimestamp());
+        } finally {
+            batch.release();
+        }
+    }
+
+    /**
+     * The previous storage: a window of span context and request ID slots, copied into new lists
+     * when sealed and once more for the document's request IDs.
+     */
+    @Benchmark
+    public AggregatedContextDocument spanContextObjects() {
+        SpanContext[] slots = new SpanContext[batchSize];
+        String[] ids = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            slots[i] = requestSpanContext(i);
+            ids[i] = requestIds[i];
+        }
+        List<SpanContext> spanContexts = new ArrayList<>(Arrays.asList(slots));
+        List<String> batchRequestIds = new ArrayList<>(Arrays.asList(ids));
+        return mongoContextService.toDocument("default", AggregationBuffer.COUNT_THRESHOLD,
+                spanContexts, new ArrayList<>(batchRequestIds), "master", Instant.now());
+    }
+
+    private SpanContext requestSpanContext(int i) {
+        return SpanContext.create(traceIds[i], spanIds[i], TraceFlags.getSampled(), TraceState.getDefault());
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.spanlink_demo.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.example.spanlink_demo.journal.AggregationJournal;
+import com.example.spanlink_demo.logging.RequestLogSampler;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.service.AggregationMetrics;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.BulkContextWriter;
+import com.example.spanlink_demo.service.DistributedAggregation;
+import com.example.spanlink_demo.service.FlushPipeline;
+import com.example.spanlink_demo.service.MongoContextService;
+import com.example.spanlink_demo.service.RecentBatchCache;
+import com.example.spanlink_demo.sink.ContextSink;
+import com.example.spanlink_demo.sink.ContextSinks;
+import com.example.spanlink_demo.sink.MongoContextSink;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the services of the ingest → aggregate → persist path without Spring or MongoDB.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Keeps console logging from dominating the measurements.
+     */
+    static void quietLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(Level.WARN);
+    }
+
+    /**
+     * SDK tracer that records spans but exports nothing.
+     */
+    static Tracer tracer() {
+        return SdkTracerProvider.builder().build().get("spanlink-demo-benchmark");
+    }
+
+    static SpanContext spanContext(long n) {
+        return SpanContext.create(
+                String.format("%032x", n + 1), String.format("%016x", n + 1),
+                TraceFlags.getSampled(), TraceState.getDefault());
+    }
+
+    static MongoContextService mongoContextService(AggregatedContextRepository repository, String encoding) {
+        return mongoContextServiceWithSink(new MongoContextSink(
+                repository, new StaticListableBeanFactory().getBeanProvider(BulkContextWriter.class)), encoding);
+    }
+
+    static MongoContextService mongoContextServiceWithSink(ContextSink sink, String encoding) {
+        MongoContextService service = new MongoContextService(ContextSinks.of(sink));
+        ReflectionTestUtils.setField(service, "spanContextEncoding", encoding);
+        return service;
+    }
+
+    static AggregationService aggregationService(MongoContextService mongoContextService,
+                                                 FlushPipeline flushPipeline,
+                                                 int triggerCount) {
+        return aggregationService(mongoContextService, flushPipeline, triggerCount, null);
+    }
+
+    /**
+     * @param requestLog sampler of the per-request log lines, {@code null} to log every request
+     */
+    static AggregationService aggregationService(MongoContextService mongoContextService,
+                                                 FlushPipeline flushPipeline,
+                                                 int triggerCount,
+                                                 RequestLogSampler requestLog) {
+        StaticListableBeanFactory requestLogBeans = new StaticListableBeanFactory();
+        if (requestLog != null) {
+            requestLogBeans.addBean("requestLogSampler", requestLog);
+        }
+        AggregationService service = new AggregationService(
+                tracer(), mongoContextService, flushPipeline, new StandardEnvironment(),
+                new StaticListableBeanFactory().getBeanProvider(AggregationJournal.class),
+                new StaticListableBeanFactory().getBeanProvider(RecentBatchCache.class),
+                new StaticListableBeanFactory().getBeanProvider(AggregationMetrics.class),
+                requestLogBeans.getBeanProvider(RequestLogSampler.class),
+                new StaticListableBeanFactory().getBeanProvider(DistributedAggregation.class));
+        ReflectionTestUtils.setField(service, "triggerCount", triggerCount);
+        ReflectionTestUtils.setField(service, "triggerIntervalSeconds", 10L);
+        ReflectionTestUtils.setField(service, "maxWindows", 10_000);
+        ReflectionTestUtils.setField(service, "timerTickMillis", 1L);
+        ReflectionTestUtils.setField(service, "timerWheelSize", 512);
+        service.init();
+        return service;
+    }
+
+    /**
+     * In-memory stand-in for {@link AggregatedContextRepository}: {@code save} assigns an ID and
+     * counts the document, everything else is unsupported. An optional latency makes {@code save}
+     * block like a MongoDB round trip.
+     */
+    static final class InMemoryRepository {
+
+        private final AtomicLong saved = new AtomicLong();
+        private final long saveLatencyMillis;
+
+        InMemoryRepository() {
+            this(0);
+        }
+
+        InMemoryRepository(long saveLatencyMillis) {
+            this.saveLatencyMillis = saveLatencyMillis;
+        }
+
+        private final AggregatedContextRepository proxy = (AggregatedContextRepository) Proxy.newProxyInstance(
+                AggregatedContextRepository.class.getClassLoader(),
+                new Class<?>[]{AggregatedContextRepository.class},
+                (target, method, args) -> {
+                    if ("save".equals(method.getName()) && args.length == 1) {
+                        long latency = InMemoryRepository.this.saveLatencyMillis;
+                        if (latency > 0) {
+                            Thread.sleep(latency);
+                        }
+                        AggregatedContextDocument document = (AggregatedContextDocument) args[0];
+                        document.setId(Long.toHexString(saved.incrementAndGet()));
+                        return document;
+                    }
+                    if ("toString".equals(method.getName())) {
+                        return "InMemoryRepository";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        AggregatedContextRepository repository() {
+            return proxy;
+        }
+
+        long savedCount() {
+            return saved.get();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.controller.IncomingController;
+import com.example.spanlink_demo.logging.RequestLogSampler;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.FlushPipeline;
+import com.example.spanlink_demo.service.RequestDeduplicator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * End-to-end {@code IncomingController.handleIncoming}: once as a plain method call and once
+ * dispatched through Spring MVC (argument resolution, JSON response writing) via MockMvc.
+ * The MVC path needs a long warmup before C2 has compiled it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 8, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControllerDispatchBenchmark {
+
+    private FlushPipeline flushPipeline;
+    private AggregationService aggregationService;
+    private IncomingController controller;
+    private MockMvc mockMvc;
+    private final HttpHeaders headers = new HttpHeaders();
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogging();
+        flushPipeline = new FlushPipeline(2, 1024, "caller-runs", 10, false);
+        aggregationService = BenchmarkFixtures.aggregationService(
+                BenchmarkFixtures.mongoContextService(new BenchmarkFixtures.InMemoryRepository().repository(), "string"),
+                flushPipeline,
+                3);
+        controller = new IncomingController(BenchmarkFixtures.tracer(), aggregationService, "", 500, 10_000,
+                new StaticListableBeanFactory().getBeanProvider(RequestLogSampler.class),
+                new StaticListableBeanFactory().getBeanProvider(RequestDeduplicator.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+        headers.add("x-request-id", "req-1");
+    }
+
+    @TearDown
+    public void tearDown() {
+        aggregationService.shutdown();
+        flushPipeline.shutdown();
+    }
+
+    @Benchmark
+    public ResponseEntity<?> handleIncoming() {
+        return controller.handleIncoming("req-1", headers, null);
+    }
+
+    @Benchmark
+    public MvcResult handleIncomingDispatched() throws Exception {
+        return mockMvc.perform(post("/incoming").header("x-request-id", "req-1")).andReturn();
+    }
+}
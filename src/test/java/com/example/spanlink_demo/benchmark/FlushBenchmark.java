@@ -0,0 +1,73 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.service.AggregatedBatch;
+import com.example.spanlink_demo.service.AggregationBuffer;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.FlushPipeline;
+import io.opentelemetry.api.trace.SpanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code AggregationService.triggerAction}: builds the linked aggregated-action span for a
+ * sealed batch and converts/saves it through the in-memory repository stand-in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlushBenchmark {
+
+    @Param({"3", "100"})
+    int links;
+
+    private FlushPipeline flushPipeline;
+    private AggregationService aggregationService;
+    private AggregatedBatch batch;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogging();
+        BenchmarkFixtures.InMemoryRepository repository = new BenchmarkFixtures.InMemoryRepository();
+        flushPipeline = new FlushPipeline(1, 16, "caller-runs", 10, false);
+        aggregationService = BenchmarkFixtures.aggregationService(
+                BenchmarkFixtures.mongoContextService(repository.repository(), "string"),
+                flushPipeline,
+                links);
+        List<SpanContext> spanContexts = new ArrayList<>(links);
+        List<String> requestIds = new ArrayList<>(links);
+        for (int i = 0; i < links; i++) {
+            spanContexts.add(BenchmarkFixtures.spanContext(i));
+            requestIds.add("req-" + i);
+        }
+        batch = new AggregatedBatch("default", AggregationBuffer.COUNT_THRESHOLD, spanContexts, requestIds, Instant.now());
+    }
+
+    @TearDown
+    public void tearDown() {
+        aggregationService.shutdown();
+        flushPipeline.shutdown();
+    }
+
+    @Benchmark
+    public void triggerAction() {
+        aggregationService.triggerAction(batch);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.FlushPipeline;
+import io.opentelemetry.api.trace.SpanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code AggregationService.recordIncomingRequest} under 1, 4 and all-processor contending
+ * threads. Sealed batches go through a real {@link FlushPipeline} into the in-memory
+ * repository stand-in; the flush pipeline runs caller-runs so nothing is dropped.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+    @Param({"3", "100"})
+    int triggerCount;
+
+    private FlushPipeline flushPipeline;
+    private AggregationService aggregationService;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.quietLogging();
+        BenchmarkFixtures.InMemoryRepository repository = new BenchmarkFixtures.InMemoryRepository();
+        flushPipeline = new FlushPipeline(2, 1024, "caller-runs", 10, false);
+        aggregationService = BenchmarkFixtures.aggregationService(
+                BenchmarkFixtures.mongoContextService(repository.repository(), "string"),
+                flushPipeline,
+                triggerCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        aggregationService.shutdown();
+        flushPipeline.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        private static final AtomicLong THREADS = new AtomicLong();
+
+        final SpanContext spanContext = BenchmarkFixtures.spanContext(THREADS.incrementAndGet());
+        final String requestId = "req-" + spanContext.getSpanId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordOneThread(Request request) {
+        aggregationService.recordIncomingRequest(request.spanContext, request.requestId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordFourThreads(Request request) {
+        aggregationService.recordIncomingRequest(request.spanContext, request.requestId);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordMaxThreads(Request request) {
+        aggregationService.recordIncomingRequest(request.spanContext, request.requestId);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.journal.AggregationJournal;
+import io.opentelemetry.api.trace.SpanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of the aggregation journal: appending a batch of requests and confirming its flush, and
+ * recovering a journal left by a crash.
+ *
+ * <p>{@code recover} reads a journal of {@code entries} requests, of which {@code flushedPercent}
+ * were confirmed in batches of 3 before the crash, and re-journals the rest. It runs single shot,
+ * as a restart would.
+ */
+@Fork(1)
+public class JournalBenchmark {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int BATCH_SIZE = 3;
+
+    @State(Scope.Thread)
+    public static class AppendState {
+
+        Path directory;
+        AggregationJournal journal;
+        SpanContext[] spanContexts;
+        long[] sequences = new long[BATCH_SIZE];
+        long n;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            BenchmarkFixtures.quietLogging();
+            directory = Files.createTempDirectory("journal-append");
+            journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+            spanContexts = new SpanContext[1024];
+            for (int i = 0; i < spanContexts.length; i++) {
+                spanContexts[i] = BenchmarkFixtures.spanContext(i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            journal.close();
+            deleteRecursively(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RecoveryState {
+
+        @Param({"100000", "1000000"})
+        int entries;
+
+        @Param({"0", "90"})
+        int flushedPercent;
+
+        Path directory;
+
+        @Setup(Level.Iteration)
+        public void writeCrashedJournal() throws IOException {
+            BenchmarkFixtures.quietLogging();
+            directory = Files.createTempDirectory("journal-recovery");
+            AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+            long flushed = (long) entries * flushedPercent / 100;
+            long[] batch = new long[BATCH_SIZE];
+            for (int i = 0; i < entries; i++) {
+                batch[i % BATCH_SIZE] = journal.append("key-" + (i % 16), BenchmarkFixtures.spanContext(i), "req-" + i);
+                if (i % BATCH_SIZE == BATCH_SIZE - 1 && i < flushed) {
+                    journal.markFlushed(batch);
+                }
+            }
+            journal.close();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * One batch: journal {@value #BATCH_SIZE} requests, then record the batch as flushed.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public long[] appendAndFlushBatch(AppendState state) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int slot = (int) (state.n++ & 1023);
+            state.sequences[i] = state.journal.append(null, state.spanContexts[slot], "req-" + slot);
+        }
+        state.journal.markFlushed(state.sequences);
+        return state.sequences;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public List<AggregationJournal.Entry> recover(RecoveryState state) {
+        AggregationJournal journal = new AggregationJournal(state.directory, SEGMENT_SIZE, 0);
+        List<AggregationJournal.Entry> recovered = journal.recover();
+        journal.close();
+        return recovered;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
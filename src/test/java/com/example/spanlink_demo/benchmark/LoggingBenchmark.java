@@ -0,0 +1,133 @@
+package com.example.spanlink_demo.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import com.example.spanlink_demo.logging.RequestLogSampler;
+import com.example.spanlink_demo.logging.RingBufferAppender;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.FlushPipeline;
+import io.opentelemetry.api.trace.SpanContext;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code AggregationService.recordIncomingRequest} with INFO logging on, JSON-encoded into a
+ * file the way {@code logback-spring.xml} encodes to the console:
+ * <ul>
+ *   <li>{@code sync}: every request logged on the request thread (the default configuration)</li>
+ *   <li>{@code async}: every request logged through the {@link RingBufferAppender}; the
+ *       throughput includes requests whose log line was dropped, which is printed on teardown</li>
+ *   <li>{@code async-sampled}: {@code logging.request.mode=sampled} with the default
+ *       one-in-100, 100-per-second sampling, through the ring buffer</li>
+ * </ul>
+ * Compare with {@code IngestBenchmark}, which runs the same path with logging at WARN.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    @Param({"sync", "async", "async-sampled"})
+    String logging;
+
+    private Path logFile;
+    private RingBufferAppender appender;
+    private FlushPipeline flushPipeline;
+    private AggregationService aggregationService;
+
+    @Setup
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("logging-benchmark", ".json");
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        LogstashEncoder encoder = new LogstashEncoder();
+        encoder.setContext(context);
+        encoder.start();
+        FileAppender<ILoggingEvent> file = new FileAppender<>();
+        file.setContext(context);
+        file.setName("FILE");
+        file.setFile(logFile.toString());
+        file.setAppend(false);
+        file.setEncoder(encoder);
+        file.start();
+
+        appender = new RingBufferAppender();
+        appender.setContext(context);
+        appender.setName("RING_BUFFER");
+        appender.setAsync(!"sync".equals(logging));
+        appender.addAppender(file);
+        appender.start();
+
+        Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        root.detachAndStopAllAppenders();
+        root.addAppender(appender);
+        root.setLevel(Level.INFO);
+
+        RequestLogSampler requestLog = new RequestLogSampler(
+                "async-sampled".equals(logging) ? "sampled" : "all", 100, 100);
+        flushPipeline = new FlushPipeline(2, 1024, "caller-runs", 10, false);
+        aggregationService = BenchmarkFixtures.aggregationService(
+                BenchmarkFixtures.mongoContextService(new BenchmarkFixtures.InMemoryRepository().repository(), "string"),
+                flushPipeline,
+                100,
+                requestLog);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        aggregationService.shutdown();
+        flushPipeline.shutdown();
+        Logger root = ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger(Logger.ROOT_LOGGER_NAME);
+        root.detachAppender(appender);
+        appender.stop();
+        System.out.printf("%nLogging: %s, Log events dropped: %d, Log file size: %d bytes%n",
+                logging, appender.getDropped(), Files.size(logFile));
+        Files.deleteIfExists(logFile);
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+
+        private static final AtomicLong THREADS = new AtomicLong();
+
+        final SpanContext spanContext = BenchmarkFixtures.spanContext(THREADS.incrementAndGet());
+        final String requestId = "req-" + spanContext.getSpanId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void recordOneThread(Request request) {
+        aggregationService.recordIncomingRequest(request.spanContext, request.requestId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordFourThreads(Request request) {
+        aggregationService.recordIncomingRequest(request.spanContext, request.requestId);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.service.MongoContextService;
+import com.example.spanlink_demo.sink.FileContextSink;
+import com.example.spanlink_demo.sink.InMemoryContextSink;
+import io.opentelemetry.api.trace.SpanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code MongoContextService.saveAggregatedContext}: SpanContext to document conversion and the
+ * write to one context sink, for both span context encodings. {@code mongo} is the MongoDB sink
+ * against the in-memory repository stand-in; the file sinks write to a temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistBenchmark {
+
+    @Param({"3", "100"})
+    int links;
+
+    @Param({"string", "compact"})
+    String encoding;
+
+    @Param({"mongo", "memory", "ndjson", "binary"})
+    String sink;
+
+    private FileContextSink fileSink;
+    private MongoContextService mongoContextService;
+    private List<SpanContext> spanContexts;
+    private List<String> requestIds;
+    private Instant firstRequestTimestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkFixtures.quietLogging();
+        switch (sink) {
+            case "memory" -> mongoContextService = BenchmarkFixtures.mongoContextServiceWithSink(
+                    new InMemoryContextSink(10_000), encoding);
+            case "ndjson", "binary" -> {
+                fileSink = new FileContextSink(Files.createTempDirectory("context-sink-benchmark"), sink,
+                        64L * 1024 * 1024, 4);
+                mongoContextService = BenchmarkFixtures.mongoContextServiceWithSink(fileSink, encoding);
+            }
+            default -> mongoContextService = BenchmarkFixtures.mongoContextService(
+                    new BenchmarkFixtures.InMemoryRepository().repository(), encoding);
+        }
+        spanContexts = new ArrayList<>(links);
+        requestIds = new ArrayList<>(links);
+        for (int i = 0; i < links; i++) {
+            spanContexts.add(BenchmarkFixtures.spanContext(i));
+            requestIds.add("req-" + i);
+        }
+        firstRequestTimestamp = Instant.now();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (fileSink != null) {
+            fileSink.close();
+        }
+    }
+
+    @Benchmark
+    public AggregatedContextDocument saveAggregatedContext() {
+        return mongoContextService.saveAggregatedContext(
+                "default", "count_threshold", spanContexts, requestIds,
+                "0af7651916cd43dd8448eb211c80319c", firstRequestTimestamp);
+    }
+}
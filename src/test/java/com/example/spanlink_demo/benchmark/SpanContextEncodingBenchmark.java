@@ -0,0 +1,131 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode throughput and BSON size of the string and compact span context schemas,
+ * through the same {@link MappingMongoConverter} path the repository uses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanContextEncodingBenchmark {
+
+    @Param({"3", "100"})
+    int links;
+
+    private MappingMongoConverter converter;
+    private List<SpanContext> spanContexts;
+    private Document stringDocument;
+    private Document compactDocument;
+
+    @Setup
+    public void setUp() {
+        converter = converter();
+        spanContexts = new ArrayList<>(links);
+        for (int i = 0; i < links; i++) {
+            spanContexts.add(SpanContext.create(
+                    String.format("%032x", i + 1), String.format("%016x", i + 1),
+                    TraceFlags.getSampled(), TraceState.getDefault()));
+        }
+        stringDocument = encodeString();
+        compactDocument = encodeCompact();
+        int stringBytes = bsonSize(stringDocument);
+        int compactBytes = bsonSize(compactDocument);
+        System.out.printf("%nBSON size for %d links: string=%d bytes, compact=%d bytes (%.2fx)%n",
+                links, stringBytes, compactBytes, (double) stringBytes / compactBytes);
+    }
+
+    @Benchmark
+    public Document encodeString() {
+        List<AggregatedContextDocument.SpanContextData> entries = new ArrayList<>(links);
+        for (SpanContext spanContext : spanContexts) {
+            entries.add(new AggregatedContextDocument.SpanContextData(
+                    spanContext.getTraceId(),
+                    spanContext.getSpanId(),
+                    String.valueOf(spanContext.getTraceFlags().asByte()),
+                    null,
+                    "00-" + spanContext.getTraceId() + "-" + spanContext.getSpanId() + "-"
+                            + spanContext.getTraceFlags().asHex()));
+        }
+        return write(entries);
+    }
+
+    @Benchmark
+    public Document encodeCompact() {
+        List<AggregatedContextDocument.SpanContextData> entries = new ArrayList<>(links);
+        for (SpanContext spanContext : spanContexts) {
+            entries.add(AggregatedContextDocument.SpanContextData.compact(spanContext));
+        }
+        return write(entries);
+    }
+
+    @Benchmark
+    public void decodeString(Blackhole blackhole) {
+        read(stringDocument, blackhole);
+    }
+
+    @Benchmark
+    public void decodeCompact(Blackhole blackhole) {
+        read(compactDocument, blackhole);
+    }
+
+    private Document write(List<AggregatedContextDocument.SpanContextData> entries) {
+        Document bson = new Document();
+        converter.write(new AggregatedContextDocument(
+                "default", "count_threshold", List.of(), entries, "master", Instant.EPOCH), bson);
+        return bson;
+    }
+
+    private void read(Document bson, Blackhole blackhole) {
+        AggregatedContextDocument document = converter.read(AggregatedContextDocument.class, bson);
+        for (AggregatedContextDocument.SpanContextData entry : document.getPendingSpanContexts()) {
+            blackhole.consume(entry.getTraceparent());
+        }
+    }
+
+    private static int bsonSize(Document bson) {
+        return new RawBsonDocument(bson, new DocumentCodec()).getByteBuffer().remaining();
+    }
+
+    private static MappingMongoConverter converter() {
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.FlushPipeline;
+import io.opentelemetry.api.trace.SpanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sustained concurrent requests on platform threads versus virtual threads.
+ *
+ * <p>One operation is a burst of {@code concurrency} requests, each recording into the
+ * aggregation window and then blocking for {@code requestBlockingMillis} (a stand-in for a
+ * blocking downstream call on the request thread). Flushed batches are saved through a
+ * repository stand-in that blocks for {@code saveLatencyMillis} like a MongoDB round trip.
+ * {@code platform} serves requests from a 200-thread pool (Tomcat's default max threads) with
+ * 2 flush workers; {@code virtual} uses a virtual thread per request and 64 virtual flush
+ * workers, as in {@code application-virtual.properties}.
+ *
+ * <p>The footprint (peak live threads and process RSS) is printed after each trial; add
+ * {@code -prof gc} for allocation rates. The {@code virtual} model needs Java 21
+ * ({@code -Pjava21}) and fails its setup on older JVMs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModelBenchmark {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    String threadModel;
+
+    @Param({"200", "2000"})
+    int concurrency;
+
+    @Param({"5"})
+    long requestBlockingMillis;
+
+    @Param({"2"})
+    long saveLatencyMillis;
+
+    private ExecutorService platformRequestPool;
+    private Executor requestExecutor;
+    private FlushPipeline flushPipeline;
+    private AggregationService aggregationService;
+    private SpanContext[] spanContexts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFixtures.quietLogging();
+        boolean virtual = "virtual".equals(threadModel);
+        if (virtual && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("The virtual thread model needs Java 21, this is Java " + Runtime.version().feature());
+        }
+        if (virtual) {
+            ThreadFactory virtualThreads = new VirtualThreadTaskExecutor("request-").getVirtualThreadFactory();
+            requestExecutor = task -> virtualThreads.newThread(task).start();
+        } else {
+            platformRequestPool = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+            requestExecutor = platformRequestPool;
+        }
+        flushPipeline = new FlushPipeline(virtual ? 64 : 2, 1024, "block", 10, virtual);
+        aggregationService = BenchmarkFixtures.aggregationService(
+                BenchmarkFixtures.mongoContextService(
+                        new BenchmarkFixtures.InMemoryRepository(saveLatencyMillis).repository(), "string"),
+                flushPipeline,
+                3);
+        spanContexts = new SpanContext[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            spanContexts[i] = BenchmarkFixtures.spanContext(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (platformRequestPool != null) {
+            platformRequestPool.shutdown();
+            platformRequestPool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        aggregationService.shutdown();
+        flushPipeline.shutdown();
+        System.out.printf("%n%s, concurrency %d: peak live threads=%d, RSS=%s%n",
+                threadModel, concurrency, ManagementFactory.getThreadMXBean().getPeakThreadCount(), residentSetSize());
+    }
+
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            SpanContext spanContext = spanContexts[i];
+            requestExecutor.execute(() -> {
+                try {
+                    aggregationService.recordIncomingRequest(spanContext, spanContext.getSpanId());
+                    Thread.sleep(requestBlockingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private static String residentSetSize() {
+        try {
+            return Files.readAllLines(Path.of("/proc/self/status")).stream()
+                    .filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.substring("VmRSS:".length()).trim())
+                    .findFirst()
+                    .orElse("n/a");
+        } catch (IOException e) {
+            return "n/a";
+        }
+    }
+}
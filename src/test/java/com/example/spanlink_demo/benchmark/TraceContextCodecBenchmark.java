@@ -0,0 +1,88 @@
+package com.example.spanlink_demo.benchmark;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TraceContextCodec} against the propagator-based conversion previously used in
+ * {@code MongoContextService}. Run with {@code -prof gc} for allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TraceContextCodecBenchmark {
+
+    private static final TextMapSetter<Map<String, String>> MAP_SETTER = Map::put;
+    private static final TextMapGetter<Map<String, String>> MAP_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> carrier) {
+            return carrier.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> carrier, String key) {
+            return carrier.get(key);
+        }
+    };
+
+    private final TextMapPropagator propagator = W3CTraceContextPropagator.getInstance();
+    private final SpanContext spanContext = SpanContext.create(
+            "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+            TraceFlags.getSampled(), TraceState.getDefault());
+    private final String traceparent = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+    private final Map<String, String> extractCarrier = Map.of("traceparent", traceparent);
+    private final char[] buffer = new char[TraceContextCodec.TRACEPARENT_LENGTH];
+
+    @Benchmark
+    public String formatWithPropagator() {
+        Context context = Context.current().with(Span.wrap(spanContext));
+        Map<String, String> carrier = new HashMap<>();
+        propagator.inject(context, carrier, MAP_SETTER);
+        return carrier.get("traceparent");
+    }
+
+    @Benchmark
+    public String formatWithCodec() {
+        return TraceContextCodec.formatTraceparent(spanContext);
+    }
+
+    @Benchmark
+    public char[] formatWithCodecIntoBuffer() {
+        TraceContextCodec.formatTraceparent(spanContext, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public SpanContext parseWithPropagator() {
+        return Span.fromContext(propagator.extract(Context.root(), extractCarrier, MAP_GETTER)).getSpanContext();
+    }
+
+    @Benchmark
+    public SpanContext parseWithCodec() {
+        return TraceContextCodec.parse(traceparent, null);
+    }
+}
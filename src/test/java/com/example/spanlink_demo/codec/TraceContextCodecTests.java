@@ -0,0 +1,115 @@
+package com.example.spanlink_demo.codec;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraceContextCodecTests {
+
+    private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    private static final TextMapGetter<Map<String, String>> MAP_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> carrier) {
+            return carrier.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> carrier, String key) {
+            return carrier.get(key);
+        }
+    };
+
+    @Test
+    void formatMatchesPropagator() {
+        SpanContext spanContext = SpanContext.create(
+                "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+                TraceFlags.getSampled(),
+                TraceState.builder().put("rojo", "00f067aa0ba902b7").put("congo", "t61rcWkgMzE").build());
+        Map<String, String> carrier = new HashMap<>();
+        W3CTraceContextPropagator.getInstance().inject(
+                Context.root().with(io.opentelemetry.api.trace.Span.wrap(spanContext)), carrier, Map::put);
+
+        assertThat(TraceContextCodec.formatTraceparent(spanContext)).isEqualTo(carrier.get("traceparent"));
+        assertThat(TraceContextCodec.formatTracestate(spanContext.getTraceState())).isEqualTo(carrier.get("tracestate"));
+
+        char[] buffer = new char[60];
+        assertThat(TraceContextCodec.formatTraceparent(spanContext, buffer, 5)).isEqualTo(55);
+        assertThat(new String(buffer, 5, 55)).isEqualTo(TRACEPARENT);
+    }
+
+    @Test
+    void formatsIdsHeldAsLongs() {
+        String traceId = "0af7651916cd43dd8448eb211c80319c";
+        long high = TraceContextCodec.parseHexLong(traceId, 0);
+        long low = TraceContextCodec.parseHexLong(traceId, 16);
+        long spanId = TraceContextCodec.parseHexLong("b7ad6b7169203331", 0);
+
+        assertThat(high).isEqualTo(0x0af7651916cd43ddL);
+        assertThat(TraceContextCodec.formatTraceId(high, low)).isEqualTo(traceId);
+        assertThat(TraceContextCodec.formatSpanId(spanId)).isEqualTo("b7ad6b7169203331");
+        assertThat(TraceContextCodec.formatTraceparent(high, low, spanId, (byte) 1)).isEqualTo(TRACEPARENT);
+        assertThat(TraceContextCodec.formatTraceId(-1L, -1L)).isEqualTo("f".repeat(32));
+    }
+
+    @Test
+    void parseMatchesPropagator() {
+        Map<String, String> carrier = Map.of("traceparent", TRACEPARENT, "tracestate", "congo=t61rcWkgMzE, rojo=00f067aa0ba902b7");
+        SpanContext expected = io.opentelemetry.api.trace.Span.fromContext(
+                W3CTraceContextPropagator.getInstance().extract(Context.root(), carrier, MAP_GETTER)).getSpanContext();
+
+        SpanContext parsed = TraceContextCodec.parse(carrier.get("traceparent"), carrier.get("tracestate"));
+
+        assertThat(parsed).isEqualTo(expected);
+        assertThat(parsed.isRemote()).isTrue();
+        assertThat(TraceContextCodec.formatTracestate(parsed.getTraceState()))
+                .isEqualTo("congo=t61rcWkgMzE,rojo=00f067aa0ba902b7");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331",
+            "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01-extra",
+            "ff-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01",
+            "00-00000000000000000000000000000000-b7ad6b7169203331-01",
+            "00-0af7651916cd43dd8448eb211c80319c-0000000000000000-01",
+            "00-0AF7651916CD43DD8448EB211C80319C-b7ad6b7169203331-01",
+            "00_0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01",
+            "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-0g",
+            "01-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01x"
+    })
+    void rejectsMalformedTraceparent(String traceparent) {
+        assertThat(TraceContextCodec.isValidTraceparent(traceparent)).isFalse();
+        assertThat(TraceContextCodec.parse(traceparent, null).isValid()).isFalse();
+    }
+
+    @Test
+    void acceptsFutureVersionWithExtraFields() {
+        SpanContext parsed = TraceContextCodec.parse(
+                "cc-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01-what-the-future-will-be-like", null);
+
+        assertThat(parsed.isValid()).isTrue();
+        assertThat(parsed.getSpanId()).isEqualTo("b7ad6b7169203331");
+    }
+
+    @Test
+    void dropsInvalidTracestateButKeepsTraceparent() {
+        SpanContext parsed = TraceContextCodec.parse(TRACEPARENT, "Invalid-Key=1,rojo=2");
+
+        assertThat(parsed.isValid()).isTrue();
+        assertThat(parsed.getTraceState().isEmpty()).isTrue();
+        assertThat(TraceContextCodec.parseTracestate("tenant@vendor=v1,,  b=2 ").size()).isEqualTo(2);
+    }
+}
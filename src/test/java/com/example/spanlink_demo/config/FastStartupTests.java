@@ -0,0 +1,82 @@
+package com.example.spanlink_demo.config;
+
+import com.example.spanlink_demo.controller.IncomingController;
+import com.example.spanlink_demo.controller.LookupController;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.sink.ContextSinks;
+import com.example.spanlink_demo.sink.InMemoryContextSink;
+import com.example.spanlink_demo.sink.MongoContextSink;
+import com.mongodb.client.MongoClient;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactoryBean;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FastStartupTests {
+
+    @Test
+    void onlyMongoBeansAreDeferred() {
+        assertThat(FastStartupConfig.isDeferred(MongoClient.class)).isTrue();
+        assertThat(FastStartupConfig.isDeferred(MongoTemplate.class)).isTrue();
+        assertThat(FastStartupConfig.isDeferred(MongoRepositoryFactoryBean.class)).isTrue();
+        assertThat(FastStartupConfig.isDeferred(MongoContextSink.class)).isTrue();
+        assertThat(FastStartupConfig.isDeferred(LookupController.class)).isTrue();
+
+        assertThat(FastStartupConfig.isDeferred(IncomingController.class)).isFalse();
+        assertThat(FastStartupConfig.isDeferred(AggregationService.class)).isFalse();
+        assertThat(FastStartupConfig.isDeferred(ContextSinks.class)).isFalse();
+        assertThat(FastStartupConfig.isDeferred(InMemoryContextSink.class)).isFalse();
+    }
+
+    @Test
+    void mongoBeansOptingOutOfLazyInitAreDeferred() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("mongoContextSink", eager(MongoContextSink.class));
+        beanFactory.registerBeanDefinition("inMemoryContextSink", eager(InMemoryContextSink.class));
+
+        FastStartupConfig.deferMongoRepositories().postProcessBeanFactory(beanFactory);
+
+        assertThat(beanFactory.getBeanDefinition("mongoContextSink").isLazyInit()).isTrue();
+        assertThat(beanFactory.getBeanDefinition("inMemoryContextSink").isLazyInit()).isFalse();
+    }
+
+    @Test
+    void exporterIsCreatedOnTheFirstExport() {
+        AtomicInteger created = new AtomicInteger();
+        LazySpanExporter exporter = new LazySpanExporter(() -> {
+            created.incrementAndGet();
+            return SpanExporter.composite();
+        });
+
+        assertThat(exporter.flush().isSuccess()).isTrue();
+        assertThat(exporter.isCreated()).isFalse();
+
+        exporter.export(List.of());
+        exporter.export(List.of());
+        assertThat(exporter.isCreated()).isTrue();
+        assertThat(created).hasValue(1);
+    }
+
+    @Test
+    void exporterNeverUsedIsNotCreatedOnShutdown() {
+        LazySpanExporter exporter = new LazySpanExporter(() -> {
+            throw new AssertionError("created");
+        });
+
+        assertThat(exporter.shutdown().isSuccess()).isTrue();
+        assertThat(exporter.isCreated()).isFalse();
+    }
+
+    private static RootBeanDefinition eager(Class<?> beanClass) {
+        RootBeanDefinition definition = new RootBeanDefinition(beanClass);
+        definition.setLazyInit(false);
+        return definition;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.spanlink_demo.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NdjsonSpanExporterTests {
+
+    @Test
+    void writesOneJsonLinePerSpanWithLinks(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("spans.ndjson");
+        NdjsonSpanExporter exporter = new NdjsonSpanExporter(file, 16);
+        SdkTracerProvider provider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                .build();
+        Tracer tracer = provider.get("test");
+        SpanContext linked = SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+                TraceFlags.getSampled(), TraceState.getDefault());
+
+        tracer.spanBuilder("first").setAttribute("aggregation.batch_size", 1L).startSpan().end();
+        tracer.spanBuilder("second").addLink(linked).startSpan().end();
+        assertThat(exporter.flush().join(5, TimeUnit.SECONDS).isSuccess()).isTrue();
+        provider.shutdown().join(5, TimeUnit.SECONDS);
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode first = mapper.readTree(lines.get(0));
+        assertThat(first.get("name").asText()).isEqualTo("first");
+        assertThat(first.get("attributes").get("aggregation.batch_size").asLong()).isEqualTo(1L);
+        JsonNode second = mapper.readTree(lines.get(1));
+        assertThat(second.get("links").get(0).get("traceId").asText()).isEqualTo(linked.getTraceId());
+        assertThat(second.get("links").get(0).get("spanId").asText()).isEqualTo(linked.getSpanId());
+        assertThat(exporter.getWrittenSpans()).isEqualTo(2);
+        assertThat(exporter.getDroppedSpans()).isZero();
+    }
+
+    @Test
+    void countsSpansDroppedByAFullBatchProcessorQueue() throws Exception {
+        CountDownLatch exporting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SpanExporter stalledExporter = new SpanExporter() {
+            @Override
+            public CompletableResultCode export(Collection<SpanData> spans) {
+                exporting.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return CompletableResultCode.ofSuccess();
+            }
+        };
+        SpanExportStats stats = new SpanExportStats();
+        SdkTracerProvider provider = SdkTracerProvider.builder()
+                .addSpanProcessor(BatchSpanProcessor.builder(stalledExporter)
+                        .setMaxQueueSize(1)
+                        .setMaxExportBatchSize(1)
+                        .setScheduleDelay(Duration.ofMillis(1))
+                        .setMeterProvider(stats.getMeterProvider())
+                        .build())
+                .build();
+        Tracer tracer = provider.get("test");
+
+        // The first span stalls the export thread, the second fills the queue
+        tracer.spanBuilder("exporting").startSpan().end();
+        assertThat(exporting.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 5; i++) {
+            Span span = tracer.spanBuilder("span-" + i).startSpan();
+            span.end();
+        }
+
+        assertThat(stats.getDroppedSpans()).isEqualTo(4);
+        release.countDown();
+        provider.shutdown().join(5, TimeUnit.SECONDS);
+        assertThat(stats.getExportedSpans()).isEqualTo(2);
+    }
+}
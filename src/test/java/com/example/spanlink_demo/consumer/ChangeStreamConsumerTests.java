@@ -0,0 +1,241 @@
+package com.example.spanlink_demo.consumer;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeStreamConsumerTests {
+
+    private final ConcurrentLinkedQueue<SpanData> endedSpans = new ConcurrentLinkedQueue<>();
+    private final InProcessChangeStream stream = new InProcessChangeStream();
+    private final InMemoryTokenStore tokenStore = new InMemoryTokenStore();
+    private ChangeStreamConsumer consumer;
+
+    @AfterEach
+    void tearDown() {
+        if (consumer != null) {
+            consumer.shutdown();
+        }
+    }
+
+    @Test
+    void startsDownstreamSpansLinkedToStoredSpanContexts() throws Exception {
+        stream.insert(document("orders", List.of(
+                SpanContextData.compact(spanContext(1)),
+                stringSchema(spanContext(2)),
+                new SpanContextData(null, null, null, null, "not-a-traceparent"))));
+        stream.insert(document(null, List.of(stringSchema(spanContext(3)))));
+
+        consumer = consumer(2);
+        awaitTrue(() -> tokenStore.saved.size() > 0 && consumer.getConsumedDocuments() == 2);
+
+        assertThat(endedSpans).hasSize(2);
+        SpanData orders = endedSpans.stream()
+                .filter(span -> "orders".equals(span.getAttributes().get(AttributeKey.stringKey("aggregation.key"))))
+                .findFirst().orElseThrow();
+        assertThat(orders.getName()).isEqualTo("downstream-process");
+        assertThat(orders.getLinks()).extracting(LinkData::getSpanContext)
+                .containsExactly(spanContext(1), spanContext(2));
+        assertThat(orders.getAttributes().get(AttributeKey.longKey("linked.spans.count"))).isEqualTo(2L);
+        assertThat(orders.getAttributes().get(AttributeKey.stringKey("x-request-id.all"))).isEqualTo("req-0,req-1,req-2");
+
+        assertThat(consumer.getLinkedSpanContexts()).isEqualTo(3);
+        assertThat(consumer.getInvalidSpanContexts()).isEqualTo(1);
+        assertThat(consumer.getMaxLagMillis()).isGreaterThanOrEqualTo(250);
+        assertThat(consumer.getLastEndToEndMillis()).isGreaterThanOrEqualTo(consumer.getLastLagMillis());
+        assertThat(tokenStore.last()).isEqualTo(InProcessChangeStream.token(1));
+    }
+
+    @Test
+    void restartResumesAfterTheSavedToken() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            stream.insert(document("k" + i, List.of(stringSchema(spanContext(i)))));
+        }
+        tokenStore.save(InProcessChangeStream.token(5));
+
+        consumer = consumer(3);
+        awaitTrue(() -> InProcessChangeStream.token(9).equals(tokenStore.last()));
+
+        assertThat(endedSpans).extracting(span -> span.getAttributes().get(AttributeKey.stringKey("aggregation.key")))
+                .containsExactlyInAnyOrder("k6", "k7", "k8", "k9");
+    }
+
+    @Test
+    void reopensTheStreamAfterAFailureWithoutLosingOrRepeatingChanges() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            stream.insert(document("k" + i, List.of(stringSchema(spanContext(i)))));
+        }
+        stream.failAfterBatches.set(2);
+
+        consumer = consumer(4);
+        awaitTrue(() -> InProcessChangeStream.token(19).equals(tokenStore.last()));
+
+        assertThat(consumer.getReconnects()).isEqualTo(1);
+        assertThat(consumer.getConsumedDocuments()).isEqualTo(20);
+        assertThat(endedSpans).hasSize(20);
+        // Tokens are saved in stream order whatever order the batches finished in
+        assertThat(tokenStore.saved).isSortedAccordingTo((a, b) -> Long.compare(
+                a.getInt64("seq").getValue(), b.getInt64("seq").getValue()));
+    }
+
+    private ChangeStreamConsumer consumer(int batchSize) {
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new CollectingSpanProcessor())
+                .build();
+        ChangeStreamConsumer consumer = new ChangeStreamConsumer(
+                tracerProvider.get("test"), stream, tokenStore, batchSize, 3, 2, 10, false);
+        consumer.start();
+        return consumer;
+    }
+
+    static SpanContext spanContext(long n) {
+        return SpanContext.createFromRemoteParent(
+                String.format("%032x", n + 1),
+                String.format("%016x", n + 1),
+                TraceFlags.getSampled(),
+                TraceState.getDefault());
+    }
+
+    private static SpanContextData stringSchema(SpanContext spanContext) {
+        return new SpanContextData(spanContext.getTraceId(), spanContext.getSpanId(), "1", "",
+                TraceContextCodec.formatTraceparent(spanContext));
+    }
+
+    private static AggregatedContextDocument document(String key, List<SpanContextData> spanContexts) {
+        List<String> requestIds = new ArrayList<>();
+        for (int i = 0; i < spanContexts.size(); i++) {
+            requestIds.add("req-" + i);
+        }
+        AggregatedContextDocument document = new AggregatedContextDocument(key, "count_threshold", requestIds,
+                spanContexts, String.format("%032x", 99), Instant.now().minusMillis(500));
+        document.setTimestamp(Instant.now().minusMillis(250));
+        return document;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private final class CollectingSpanProcessor implements SpanProcessor {
+
+        @Override
+        public void onStart(Context parentContext, ReadWriteSpan span) {
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return false;
+        }
+
+        @Override
+        public void onEnd(ReadableSpan span) {
+            endedSpans.add(span.toSpanData());
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return true;
+        }
+    }
+
+    /**
+     * In-process stand-in for the change stream: an append-only list of inserts whose resume
+     * token is {@code {seq: <index>}}.
+     */
+    static final class InProcessChangeStream implements ChangeStreamSource {
+
+        private final List<AggregatedContextDocument> inserts = new ArrayList<>();
+        final AtomicInteger failAfterBatches = new AtomicInteger(-1);
+
+        static BsonDocument token(long seq) {
+            return new BsonDocument("seq", new BsonInt64(seq));
+        }
+
+        synchronized void insert(AggregatedContextDocument document) {
+            document.setId("doc-" + inserts.size());
+            inserts.add(document);
+        }
+
+        @Override
+        public Cursor open(BsonDocument resumeToken) {
+            int[] next = {resumeToken != null ? (int) resumeToken.getInt64("seq").getValue() + 1 : 0};
+            return new Cursor() {
+                @Override
+                public List<ContextChange> nextBatch(int maxBatch) {
+                    if (failAfterBatches.getAndDecrement() == 0) {
+                        throw new IllegalStateException("connection reset");
+                    }
+                    List<ContextChange> batch = new ArrayList<>();
+                    synchronized (InProcessChangeStream.this) {
+                        while (batch.size() < maxBatch && next[0] < inserts.size()) {
+                            batch.add(new ContextChange(token(next[0]), inserts.get(next[0])));
+                            next[0]++;
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    return batch;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    static final class InMemoryTokenStore implements ResumeTokenStore {
+
+        final List<BsonDocument> saved = new CopyOnWriteArrayList<>();
+
+        @Override
+        public BsonDocument load() {
+            return last();
+        }
+
+        @Override
+        public void save(BsonDocument resumeToken) {
+            saved.add(resumeToken);
+        }
+
+        BsonDocument last() {
+            return saved.isEmpty() ? null : saved.get(saved.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.spanlink_demo.consumer;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.spanlink_demo.consumer.ChangeStreamConsumerTests.spanContext;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against a real replica set, e.g. the single-node {@code rs0} of the docker setup:
+ * <pre>
+ * mvn test -Dtest=MongoChangeStreamSourceTests -Dspanlink.it.mongodb.uri=mongodb://localhost:27017/?replicaSet=rs0
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "spanlink.it.mongodb.uri", matches = ".+")
+class MongoChangeStreamSourceTests {
+
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        client = MongoClients.create(System.getProperty("spanlink.it.mongodb.uri"));
+        mongoTemplate = new MongoTemplate(client, "spanlink-it");
+        mongoTemplate.dropCollection(AggregatedContextDocument.class);
+        mongoTemplate.dropCollection("change_stream_resume_tokens");
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void readsInsertsAndResumesAfterTheSavedToken() {
+        MongoChangeStreamSource source = new MongoChangeStreamSource(mongoTemplate, "aggregated_contexts", 100, 200);
+        MongoResumeTokenStore tokenStore = new MongoResumeTokenStore(mongoTemplate, "change_stream_resume_tokens", "it");
+        assertThat(tokenStore.load()).isNull();
+
+        List<ContextChange> first;
+        try (ChangeStreamSource.Cursor cursor = source.open(null)) {
+            mongoTemplate.insert(document("first"));
+            first = awaitChanges(cursor, 1);
+        }
+        assertThat(first.get(0).getDocument().getAggregationKey()).isEqualTo("first");
+        assertThat(first.get(0).getDocument().getPendingSpanContexts().get(0).toSpanContext()).isEqualTo(spanContext(1));
+        tokenStore.save(first.get(0).getResumeToken());
+
+        // Inserted while no cursor is open: picked up from the saved token
+        mongoTemplate.insert(document("second"));
+        try (ChangeStreamSource.Cursor cursor = source.open(tokenStore.load())) {
+            List<ContextChange> second = awaitChanges(cursor, 1);
+            assertThat(second).extracting(change -> change.getDocument().getAggregationKey()).containsExactly("second");
+        }
+    }
+
+    private static List<ContextChange> awaitChanges(ChangeStreamSource.Cursor cursor, int count) {
+        List<ContextChange> changes = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (changes.size() < count && System.nanoTime() < deadline) {
+            changes.addAll(cursor.nextBatch(count - changes.size()));
+        }
+        assertThat(changes).hasSize(count);
+        return changes;
+    }
+
+    private static AggregatedContextDocument document(String key) {
+        return new AggregatedContextDocument(key, "count_threshold", List.of("req-1"),
+                List.of(SpanContextData.compact(spanContext(1))), String.format("%032x", 99), Instant.now());
+    }
+}
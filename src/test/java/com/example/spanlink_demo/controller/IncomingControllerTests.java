@@ -0,0 +1,158 @@
+package com.example.spanlink_demo.controller;
+
+import com.example.spanlink_demo.logging.RequestLogSampler;
+import com.example.spanlink_demo.service.AggregationService;
+import com.example.spanlink_demo.service.RequestDeduplicator;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class IncomingControllerTests {
+
+    private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    private final AggregationService aggregationService = mock(AggregationService.class);
+    private final List<List<String>> recordedChunks = new ArrayList<>();
+    private final List<SpanContext> recordedContexts = new ArrayList<>();
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        // Copy the chunks, the controller reuses its lists
+        doAnswer(invocation -> {
+            List<SpanContext> contexts = invocation.getArgument(0);
+            List<String> ids = invocation.getArgument(1);
+            if (!ids.isEmpty()) {
+                recordedChunks.add(List.copyOf(ids));
+                recordedContexts.addAll(contexts);
+            }
+            return null;
+        }).when(aggregationService).recordIncomingRequests(any(), any(), isNull());
+
+        IncomingController controller = new IncomingController(
+                SdkTracerProvider.builder().build().get("test"), aggregationService, "", 2, 4,
+                new StaticListableBeanFactory().getBeanProvider(RequestLogSampler.class),
+                new StaticListableBeanFactory().getBeanProvider(RequestDeduplicator.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void jsonArrayReportsAcceptanceForEveryItem() throws Exception {
+        String body = """
+                [
+                  {"requestId": "req-1", "traceparent": "%s"},
+                  {"traceparent": "%s"},
+                  {"requestId": "req-3", "traceparent": "00-zz-bad-01"},
+                  {"x-request-id": "req-4", "extra": {"ignored": [1, 2]}}
+                ]
+                """.formatted(TRACEPARENT, TRACEPARENT);
+
+        mockMvc.perform(post("/incoming/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(2))
+                .andExpect(jsonPath("$.items[0].status").value("accepted"))
+                .andExpect(jsonPath("$.items[1].error").value("Missing requestId"))
+                .andExpect(jsonPath("$.items[2].error").value("Invalid traceparent"))
+                .andExpect(jsonPath("$.items[3].x-request-id").value("req-4"));
+
+        assertThat(recordedChunks).containsExactly(List.of("req-1", "req-4"));
+        // The item with a traceparent is linked to the upstream span, the other to the batch span
+        assertThat(recordedContexts.get(0).getSpanId()).isEqualTo("b7ad6b7169203331");
+        assertThat(recordedContexts.get(0).isRemote()).isTrue();
+        assertThat(recordedContexts.get(1).isRemote()).isFalse();
+    }
+
+    @Test
+    void ndjsonIsRecordedInChunksAndCappedAtMaxItems() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            body.append("{\"requestId\": \"req-").append(i).append("\"}\n");
+        }
+        // Not read: past the limit
+        body.append("{\"requestId\": ");
+
+        mockMvc.perform(post("/incoming/batch").contentType("application/x-ndjson").content(body.toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("partially_received"))
+                .andExpect(jsonPath("$.accepted").value(4))
+                .andExpect(jsonPath("$.error").value("Batch exceeds 4 items, the rest of the body was not read"))
+                .andExpect(jsonPath("$.resume-from-index").value(4))
+                .andExpect(jsonPath("$.items.length()").value(4));
+
+        assertThat(recordedChunks).containsExactly(List.of("req-0", "req-1"), List.of("req-2", "req-3"));
+    }
+
+    @Test
+    void malformedBodyKeepsItemsReadSoFar() throws Exception {
+        mockMvc.perform(post("/incoming/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"requestId\": \"req-0\"}, {\"requestId\": "))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("partially_received"))
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.resume-from-index").value(1));
+
+        assertThat(recordedChunks).containsExactly(List.of("req-0"));
+    }
+
+    @Test
+    void malformedBodyWithNothingRecordedIsABadRequest() throws Exception {
+        mockMvc.perform(post("/incoming/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"traceparent\": \"00-zz-bad-01\"}, {\"requestId\": "))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.accepted").value(0))
+                .andExpect(jsonPath("$.rejected").value(1))
+                .andExpect(jsonPath("$.resume-from-index").value(1));
+
+        assertThat(recordedChunks).isEmpty();
+    }
+
+    @Test
+    void retriedRequestIdsAreAcknowledgedWithoutBeingRecorded() throws Exception {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("requestDeduplicator", new RequestDeduplicator(60, 1_000, 0.001));
+        IncomingController controller = new IncomingController(
+                SdkTracerProvider.builder().build().get("test"), aggregationService, "", 2, 4,
+                new StaticListableBeanFactory().getBeanProvider(RequestLogSampler.class),
+                beans.getBeanProvider(RequestDeduplicator.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        mockMvc.perform(post("/incoming").header("x-request-id", "req-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("received"));
+        mockMvc.perform(post("/incoming").header("x-request-id", "req-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("duplicate"));
+        mockMvc.perform(post("/incoming/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"requestId\": \"req-1\"}, {\"requestId\": \"req-2\"}, {\"requestId\": \"req-2\"}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.rejected").value(0))
+                .andExpect(jsonPath("$.duplicates").value(2))
+                .andExpect(jsonPath("$.items[0].status").value("duplicate"))
+                .andExpect(jsonPath("$.items[1].status").value("accepted"));
+
+        verify(aggregationService, times(1)).recordIncomingRequest(any(), eq("req-1"), isNull());
+        assertThat(recordedChunks).containsExactly(List.of("req-2"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.spanlink_demo.controller;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.service.AggregatedBatch;
+import com.example.spanlink_demo.service.RecentBatchCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class LookupControllerTests {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+
+    private final AggregatedContextRepository repository = mock(AggregatedContextRepository.class);
+    private final RecentBatchCache recentBatches = new RecentBatchCache(1_000, 300);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new LookupController(repository, cacheProvider(), 10)).build();
+    }
+
+    @Test
+    void requestIdLookupReturnsBatchSummaries() throws Exception {
+        AggregatedContextDocument document = new AggregatedContextDocument("orders", "count_threshold", null, null,
+                TRACE_ID, Instant.parse("2026-01-01T00:00:00Z"));
+        document.setId("doc-1");
+        when(repository.findSummariesByRequestId(eq("req-1"), any())).thenReturn(List.of(document));
+
+        mockMvc.perform(get("/aggregated-contexts").param("requestId", "req-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(1))
+                .andExpect(jsonPath("$.results[0].id").value("doc-1"))
+                .andExpect(jsonPath("$.results[0].aggregationKey").value("orders"))
+                .andExpect(jsonPath("$.results[0].masterTraceId").value(TRACE_ID))
+                .andExpect(jsonPath("$.results[0].firstRequestTimestamp").value("2026-01-01T00:00:00Z"))
+                .andExpect(jsonPath("$.results[0].pendingRequestIds").doesNotExist());
+
+        verify(repository).findSummariesByRequestId("req-1", Limit.of(10));
+    }
+
+    @Test
+    void recentlyFlushedRequestIdIsServedFromTheCache() throws Exception {
+        recentBatches.put(new AggregatedBatch("orders", "time_interval", List.of(), List.of("req-1", "req-2"),
+                Instant.parse("2026-01-01T00:00:00Z")), TRACE_ID);
+
+        mockMvc.perform(get("/aggregated-contexts").param("requestId", "req-2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.source").value("cache"))
+                .andExpect(jsonPath("$.results[0].masterTraceId").value(TRACE_ID))
+                .andExpect(jsonPath("$.results[0].triggerReason").value("time_interval"));
+        mockMvc.perform(get("/aggregated-contexts").param("requestId", "req-3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.source").value("mongodb"));
+        mockMvc.perform(get("/aggregated-contexts/cache"))
+                .andExpect(jsonPath("$.hits").value(1))
+                .andExpect(jsonPath("$.misses").value(1))
+                .andExpect(jsonPath("$.size").value(2));
+
+        verify(repository).findSummariesByRequestId("req-3", Limit.of(10));
+    }
+
+    @Test
+    void traceIdLookupMatchesBothSchemasAndCapsTheLimit() throws Exception {
+        when(repository.findSummariesByTraceId(any(), any(), any())).thenReturn(List.of());
+
+        mockMvc.perform(get("/aggregated-contexts").param("traceId", TRACE_ID.toUpperCase()).param("limit", "500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(0));
+
+        verify(repository).findSummariesByTraceId(eq(TRACE_ID), aryEq(HexFormat.of().parseHex(TRACE_ID)), eq(Limit.of(10)));
+    }
+
+    @Test
+    void rejectsAmbiguousOrInvalidQueries() throws Exception {
+        mockMvc.perform(get("/aggregated-contexts"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/aggregated-contexts").param("requestId", "req-1").param("traceId", TRACE_ID))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/aggregated-contexts").param("traceId", "not-a-trace-id"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Invalid traceId"));
+        mockMvc.perform(get("/aggregated-contexts").param("requestId", "req-1").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(repository);
+    }
+
+    private ObjectProvider<RecentBatchCache> cacheProvider() {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("recentBatchCache", recentBatches);
+        return beanFactory.getBeanProvider(RecentBatchCache.class);
+    }
+}
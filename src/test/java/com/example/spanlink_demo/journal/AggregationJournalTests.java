@@ -0,0 +1,164 @@
+package com.example.spanlink_demo.journal;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregationJournalTests {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    static SpanContext spanContext(long n) {
+        return SpanContext.createFromRemoteParent(
+                String.format("%032x", n + 1),
+                String.format("%016x", n + 1),
+                TraceFlags.getSampled(),
+                TraceState.builder().put("vendor", "v" + n).build());
+    }
+
+    @Test
+    void recoversOnlyUnflushedRequests() {
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        long[] sequences = new long[5];
+        for (int i = 0; i < 5; i++) {
+            sequences[i] = journal.append(i % 2 == 0 ? "orders" : null, spanContext(i), "req-" + i);
+        }
+        journal.markFlushed(new long[]{sequences[0], sequences[1], sequences[3]});
+        journal.close();
+
+        AggregationJournal restarted = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        List<AggregationJournal.Entry> recovered = restarted.recover();
+
+        assertThat(recovered).extracting(AggregationJournal.Entry::getRequestId).containsExactly("req-2", "req-4");
+        AggregationJournal.Entry entry = recovered.get(0);
+        assertThat(entry.getAggregationKey()).isEqualTo("orders");
+        assertThat(entry.getSpanContext()).isEqualTo(spanContext(2));
+        assertThat(entry.getSpanContext().isRemote()).isTrue();
+        assertThat(restarted.getUnflushedEntries()).isEqualTo(2);
+
+        // Recovered requests are journaled again until they are flushed
+        restarted.markFlushed(new long[]{recovered.get(0).getSequence()});
+        restarted.close();
+        List<AggregationJournal.Entry> again = new AggregationJournal(directory, SEGMENT_SIZE, 0).recover();
+        assertThat(again).extracting(AggregationJournal.Entry::getRequestId).containsExactly("req-4");
+    }
+
+    @Test
+    void flushedSegmentsAreDeletedFromTheHead() throws Exception {
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        long[] sequences = new long[200];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = journal.append(null, spanContext(i), "req-" + i);
+        }
+        int segments = journal.getSegmentCount();
+        assertThat(segments).isGreaterThan(5);
+
+        // Flushing a later segment first must not delete anything before the head is flushed
+        journal.markFlushed(new long[]{sequences[199]});
+        assertThat(journal.getDeletedSegments()).isZero();
+
+        for (int i = 0; i < 199; i++) {
+            journal.markFlushed(new long[]{sequences[i]});
+        }
+        assertThat(journal.getUnflushedEntries()).isZero();
+        assertThat(journal.getDeletedSegments()).isGreaterThanOrEqualTo(segments - 1);
+        assertThat(segmentFiles()).hasSize(journal.getSegmentCount());
+        journal.close();
+
+        assertThat(new AggregationJournal(directory, SEGMENT_SIZE, 0).recover()).isEmpty();
+    }
+
+    @Test
+    void tornRecordIsSkipped() throws Exception {
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        journal.append(null, spanContext(0), "req-0");
+        long torn = journal.append(null, spanContext(1), "req-1");
+        journal.append(null, spanContext(2), "req-2");
+        journal.close();
+
+        // Simulate a crash in the middle of the second record: payload written, checksum not
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(torn % SEGMENT_SIZE + 4);
+            file.writeInt(0);
+        }
+
+        List<AggregationJournal.Entry> recovered = new AggregationJournal(directory, SEGMENT_SIZE, 0).recover();
+        assertThat(recovered).extracting(AggregationJournal.Entry::getRequestId).containsExactly("req-0", "req-2");
+    }
+
+    @Test
+    void longTracestateIsJournaled() {
+        TraceState traceState = TraceState.builder()
+                .put("vendor-a", "a".repeat(240))
+                .put("vendor-b", "b".repeat(240))
+                .build();
+        SpanContext spanContext = SpanContext.createFromRemoteParent(
+                String.format("%032x", 1), String.format("%016x", 1), TraceFlags.getSampled(), traceState);
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        journal.append(null, spanContext, "req-0");
+        journal.close();
+
+        List<AggregationJournal.Entry> recovered = new AggregationJournal(directory, SEGMENT_SIZE, 0).recover();
+        assertThat(recovered).extracting(AggregationJournal.Entry::getSpanContext).containsExactly(spanContext);
+    }
+
+    @Test
+    void recordsAfterAnUnwrittenSlotAreRecovered() throws Exception {
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        journal.append(null, spanContext(0), "req-0");
+        long unwritten = journal.append(null, spanContext(1), "req-1");
+        long next = journal.append(null, spanContext(2), "req-2");
+        journal.close();
+
+        // Simulate a writer that reserved its slot but crashed before writing anything into it
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(unwritten % SEGMENT_SIZE);
+            file.write(new byte[(int) (next - unwritten)]);
+        }
+
+        List<AggregationJournal.Entry> recovered = new AggregationJournal(directory, SEGMENT_SIZE, 0).recover();
+        assertThat(recovered).extracting(AggregationJournal.Entry::getRequestId).containsExactly("req-0", "req-2");
+    }
+
+    @Test
+    void unflushedBatchOnlyPinsItsOwnSegment() throws Exception {
+        AggregationJournal journal = new AggregationJournal(directory, SEGMENT_SIZE, 0);
+        long[] sequences = new long[200];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = journal.append(null, spanContext(i), "req-" + i);
+        }
+        int segments = journal.getSegmentCount();
+
+        // Everything but the first request, which is never released
+        for (int i = 1; i < sequences.length; i++) {
+            journal.markFlushed(new long[]{sequences[i]});
+        }
+        assertThat(journal.getUnflushedEntries()).isEqualTo(1);
+        assertThat(journal.getDeletedSegments()).isGreaterThan(segments / 2);
+        assertThat(segmentFiles()).hasSize(journal.getSegmentCount());
+        journal.close();
+
+        // The FLUSHED records kept for the head still cover its other requests
+        List<AggregationJournal.Entry> recovered = new AggregationJournal(directory, SEGMENT_SIZE, 0).recover();
+        assertThat(recovered).extracting(AggregationJournal.Entry::getRequestId).containsExactly("req-0");
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
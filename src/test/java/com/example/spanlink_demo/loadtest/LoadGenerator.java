@@ -0,0 +1,266 @@
+package com.example.spanlink_demo.loadtest;
+
+import com.example.spanlink_demo.SpanlinkDemoApplication;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Open-loop load generator for {@code POST /incoming}. Starts the application in-process with the
+ * {@code nomongo} and {@code loadtest} profiles, a {@link RecordingContextSink} standing in for
+ * MongoDB, and reports client latency next to the batch sizes, flush delays and throughput the
+ * server saw, so {@code aggregation.trigger.*} settings can be compared run against run.
+ *
+ * <p>Requests are sent at the times a {@link LoadSchedule} fixes up front, whether or not earlier
+ * responses have arrived, and latency is measured from that intended time. A stall of the server
+ * (or of the sender) then counts against every request due during the stall, instead of delaying
+ * their sending so that the stall is measured once (coordinated omission). The latency from the
+ * actual send is reported as well; the gap between the two is the queueing a stall caused.
+ *
+ * <p>All arguments are Spring properties, the load options ({@code load.*}) are described in
+ * {@code application-loadtest.properties}:
+ * <pre>
+ * mvn -Ploadtest -DskipTests test -Dloadtest.args="--load.rate=5000 --aggregation.trigger.count=200"
+ * mvn -Ploadtest -DskipTests test -Dloadtest.args="--load.mode=burst --load.burst.size=2000 --load.duplicate-ratio=0.1 --aggregation.dedup.enabled=true"
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+    private final Environment environment;
+    private final RecordingContextSink sink;
+    private final LoadSchedule schedule;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final URI uri;
+    private final String keyHeader;
+    private final int keys;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    private final Recorder latencyMicros = new Recorder(3);           // from the intended send time
+    private final Recorder uncorrectedLatencyMicros = new Recorder(3); // from the actual send time
+    private final AtomicLong accepted = new AtomicLong();              // warm-up included, for draining
+    private final LongAdder warmUpAccepted = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAccumulator lastResponse = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    private LoadGenerator(ConfigurableApplicationContext context) {
+        this.environment = context.getEnvironment();
+        this.sink = context.getBean(RecordingContextSink.class);
+        double duplicateRatio = environment.getProperty("load.duplicate-ratio", Double.class, 0.0);
+        String idPrefix = "load-" + Long.toHexString(System.currentTimeMillis()) + "-";
+        this.schedule = "burst".equals(environment.getProperty("load.mode", "fixed"))
+                ? LoadSchedule.bursts(environment.getProperty("load.burst.size", Integer.class, 500),
+                        environment.getProperty("load.burst.interval.millis", Long.class, 500L), duplicateRatio, idPrefix)
+                : LoadSchedule.fixedRate(environment.getProperty("load.rate", Double.class, 1000.0), duplicateRatio, idPrefix);
+        this.uri = URI.create("http://localhost:" + environment.getRequiredProperty("local.server.port") + "/incoming");
+        this.keyHeader = environment.getProperty("aggregation.key.header", "");
+        this.keys = Math.max(1, environment.getProperty("load.keys", Integer.class, 1));
+        this.maxInFlight = environment.getProperty("load.max-in-flight", Integer.class, 10_000);
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(SpanlinkDemoApplication.class)
+                .profiles("nomongo", "loadtest")
+                .initializers(LoadGenerator::registerSink)
+                .run(args);
+        try {
+            new LoadGenerator(context).run();
+        } finally {
+            context.close();
+        }
+        // The HTTP client's threads would keep the JVM alive
+        System.exit(0);
+    }
+
+    /**
+     * Registers the recording sink before the context is refreshed, so {@code ContextSinks} picks
+     * it up as the only sink.
+     */
+    private static void registerSink(ConfigurableApplicationContext context) {
+        long latencyMillis = context.getEnvironment().getProperty("load.sink.latency.millis", Long.class, 0L);
+        context.getBeanFactory().registerSingleton("recordingContextSink", new RecordingContextSink(latencyMillis));
+    }
+
+    private void run() throws InterruptedException, IOException {
+        long warmUpNanos = TimeUnit.SECONDS.toNanos(environment.getProperty("load.warm-up.seconds", Long.class, 5L));
+        long durationNanos = TimeUnit.SECONDS.toNanos(environment.getProperty("load.duration.seconds", Long.class, 30L));
+        System.out.printf("Load test: %s against %s for %ds after %ds warm-up, %.1f%% duplicate x-request-id%n",
+                schedule.describe(), uri, TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+                TimeUnit.NANOSECONDS.toSeconds(warmUpNanos), environment.getProperty("load.duplicate-ratio", Double.class, 0.0) * 100);
+        System.out.printf("Triggers: mode=%s count=%s interval=%ss, flush workers=%s, dedup=%s, sink latency=%sms%n",
+                environment.getProperty("aggregation.trigger.mode"), environment.getProperty("aggregation.trigger.count"),
+                environment.getProperty("aggregation.trigger.interval.seconds"), environment.getProperty("aggregation.flush.workers"),
+                environment.getProperty("aggregation.dedup.enabled"), environment.getProperty("load.sink.latency.millis"));
+
+        long runStart = System.nanoTime();
+        long measureStart = runStart + warmUpNanos;
+        long end = measureStart + durationNanos;
+        boolean measuring = false;
+        for (long n = 0; ; n++) {
+            long intended = runStart + schedule.intendedOffsetNanos(n);
+            if (intended >= end) {
+                break;
+            }
+            boolean measured = intended >= measureStart;
+            if (measured && !measuring) {
+                sink.reset();
+                measuring = true;
+            }
+            waitUntil(intended);
+            send(n, intended, measured);
+        }
+
+        long drainTimeoutSeconds = environment.getProperty("load.drain.timeout.seconds", Long.class, 0L);
+        if (drainTimeoutSeconds <= 0) {
+            drainTimeoutSeconds = environment.getProperty("aggregation.trigger.interval.seconds", Long.class, 10L) + 10;
+        }
+        if (!inFlight.tryAcquire(maxInFlight, drainTimeoutSeconds, TimeUnit.SECONDS)) {
+            System.out.printf("%d request(s) still unanswered after %ds%n",
+                    maxInFlight - inFlight.availablePermits(), drainTimeoutSeconds);
+        }
+        if (!waitFor(() -> sink.getRequests() >= accepted.get(), TimeUnit.SECONDS.toNanos(drainTimeoutSeconds))) {
+            System.out.printf("%d accepted request(s) not in a written batch after %ds%n",
+                    accepted.get() - sink.getRequests(), drainTimeoutSeconds);
+        }
+
+        double measuredSeconds = durationNanos / 1e9;
+        long lastResponseNanos = lastResponse.get();
+        double responseSeconds = lastResponseNanos == Long.MIN_VALUE
+                ? measuredSeconds
+                : Math.max(1, lastResponseNanos - measureStart) / 1e9;
+        Histogram latency = latencyMicros.getIntervalHistogram();
+        Histogram uncorrectedLatency = uncorrectedLatencyMicros.getIntervalHistogram();
+        Histogram batchSizes = sink.takeBatchSizes();
+        Histogram flushDelays = sink.takeFlushDelays();
+        /*
+         *  -- NOTE --
+         *  Warm-up requests still queued when measuring starts are persisted after it: the sink
+         *  count at that point would include them, the warm-up requests accepted do not
+         */
+        long persisted = Math.max(0, sink.getRequests() - warmUpAccepted.sum());
+
+        System.out.println();
+        System.out.printf("Requests: %d sent, %d received, %d duplicate, %d failed; %.0f responses/s%n",
+                sent.sum(), received.sum(), duplicates.sum(), errors.sum(), (received.sum() + duplicates.sum()) / responseSeconds);
+        System.out.println("Latency (ms)      corrected   uncorrected");
+        for (double percentile : PERCENTILES) {
+            System.out.printf("  %-14s %10.3f %13.3f%n", label(percentile),
+                    latency.getValueAtPercentile(percentile) / 1000.0, uncorrectedLatency.getValueAtPercentile(percentile) / 1000.0);
+        }
+        System.out.printf("Batches: %d written %s, %d requests persisted; %.0f requests/s%n",
+                batchSizes.getTotalCount(), sink.getTriggerReasons(),
+                persisted, persisted / measuredSeconds);
+        System.out.println("                  batch size   flush delay (ms)");
+        for (double percentile : PERCENTILES) {
+            System.out.printf("  %-14s %10d %13.3f%n", label(percentile),
+                    batchSizes.getValueAtPercentile(percentile), flushDelays.getValueAtPercentile(percentile) / 1000.0);
+        }
+        System.out.printf("  %-14s %10.1f %13.3f%n", "mean", batchSizes.getMean(), flushDelays.getMean() / 1000.0);
+
+        writeDistribution("latency", latency, 1000.0);
+        writeDistribution("latency-uncorrected", uncorrectedLatency, 1000.0);
+        writeDistribution("batch-size", batchSizes, 1.0);
+        writeDistribution("flush-delay", flushDelays, 1000.0);
+    }
+
+    private void send(long n, long intended, boolean measured) throws InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header("x-request-id", schedule.nextRequestId())
+                .POST(HttpRequest.BodyPublishers.noBody());
+        if (!keyHeader.isEmpty()) {
+            request.header(keyHeader, "key-" + (n % keys));
+        }
+        inFlight.acquire();
+        long sentAt = System.nanoTime();
+        if (measured) {
+            sent.increment();
+        }
+        client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long now = System.nanoTime();
+            inFlight.release();
+            boolean ok = error == null && response.statusCode() == 200;
+            boolean duplicate = ok && response.body().contains("\"duplicate\"");
+            if (ok && !duplicate) {
+                accepted.incrementAndGet();
+            }
+            if (!measured) {
+                if (ok && !duplicate) {
+                    warmUpAccepted.increment();
+                }
+                return;
+            }
+            lastResponse.accumulate(now);
+            if (!ok) {
+                errors.increment();
+                return;
+            }
+            (duplicate ? duplicates : received).increment();
+            latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intended));
+            uncorrectedLatencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+        });
+    }
+
+    private void writeDistribution(String name, Histogram histogram, double outputScale) throws IOException {
+        String reportDir = environment.getProperty("load.report.dir", "");
+        if (reportDir.isEmpty()) {
+            return;
+        }
+        Path file = Path.of(reportDir, environment.getProperty("load.label", "run") + "-" + name + ".hgrm");
+        Files.createDirectories(file.getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+            histogram.outputPercentileDistribution(out, outputScale);
+        }
+        System.out.println("Wrote " + file);
+    }
+
+    private static String label(double percentile) {
+        return percentile == 100 ? "max" : "p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile));
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
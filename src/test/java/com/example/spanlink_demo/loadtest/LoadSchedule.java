@@ -0,0 +1,81 @@
+package com.example.spanlink_demo.loadtest;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When each request of an open-loop run is due, fixed before the run, and which
+ * {@code x-request-id} it carries. Not thread-safe: used by the sending thread only.
+ */
+final class LoadSchedule {
+
+    private static final int RECENT_IDS = 1024;
+
+    private final double nanosPerRequest; // fixed rate
+    private final int burstSize;          // 0 = fixed rate
+    private final long burstIntervalNanos;
+    private final double duplicateRatio;
+    private final String idPrefix;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final String[] recentIds = new String[RECENT_IDS];
+    private long uniqueIds;
+
+    private LoadSchedule(double nanosPerRequest, int burstSize, long burstIntervalNanos,
+                         double duplicateRatio, String idPrefix) {
+        this.nanosPerRequest = nanosPerRequest;
+        this.burstSize = burstSize;
+        this.burstIntervalNanos = burstIntervalNanos;
+        this.duplicateRatio = duplicateRatio;
+        this.idPrefix = idPrefix;
+    }
+
+    static LoadSchedule fixedRate(double requestsPerSecond, double duplicateRatio, String idPrefix) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("load.rate must be positive: " + requestsPerSecond);
+        }
+        return new LoadSchedule(TimeUnit.SECONDS.toNanos(1) / requestsPerSecond, 0, 0, duplicateRatio, idPrefix);
+    }
+
+    static LoadSchedule bursts(int burstSize, long burstIntervalMillis, double duplicateRatio, String idPrefix) {
+        if (burstSize <= 0 || burstIntervalMillis <= 0) {
+            throw new IllegalArgumentException("load.burst.size and load.burst.interval.millis must be positive");
+        }
+        return new LoadSchedule(0, burstSize, TimeUnit.MILLISECONDS.toNanos(burstIntervalMillis), duplicateRatio, idPrefix);
+    }
+
+    /**
+     * @return offset from the start of the run at which request {@code n} is due; all requests of
+     * a burst are due at once
+     */
+    long intendedOffsetNanos(long n) {
+        return burstSize > 0 ? (n / burstSize) * burstIntervalNanos : (long) (n * nanosPerRequest);
+    }
+
+    /**
+     * @return a new ID, or with probability {@code duplicateRatio} one of the last
+     * {@value #RECENT_IDS} new IDs again
+     */
+    String nextRequestId() {
+        if (uniqueIds > 0 && duplicateRatio > 0 && random.nextDouble() < duplicateRatio) {
+            int window = (int) Math.min(uniqueIds, RECENT_IDS);
+            return recentIds[(int) ((uniqueIds - 1 - random.nextInt(window)) % RECENT_IDS)];
+        }
+        String requestId = idPrefix + uniqueIds;
+        recentIds[(int) (uniqueIds % RECENT_IDS)] = requestId;
+        uniqueIds++;
+        return requestId;
+    }
+
+    double requestsPerSecond() {
+        return burstSize > 0
+                ? burstSize * (double) TimeUnit.SECONDS.toNanos(1) / burstIntervalNanos
+                : TimeUnit.SECONDS.toNanos(1) / nanosPerRequest;
+    }
+
+    String describe() {
+        String rate = String.format("%.0f/s", requestsPerSecond());
+        return burstSize > 0
+                ? "bursts of " + burstSize + " every " + TimeUnit.NANOSECONDS.toMillis(burstIntervalNanos) + "ms (" + rate + ")"
+                : "fixed rate " + rate;
+    }
+}
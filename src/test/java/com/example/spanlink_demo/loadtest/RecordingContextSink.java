@@ -0,0 +1,97 @@
+package com.example.spanlink_demo.loadtest;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.sink.ContextSink;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Context sink of a load test run, standing in for MongoDB: records the size of every batch and
+ * its flush delay (first request of the batch to the sink holding it), and optionally blocks each
+ * write like a database round trip.
+ */
+final class RecordingContextSink implements ContextSink {
+
+    private final long latencyMillis;
+    private final Recorder batchSizes = new Recorder(3);
+    private final Recorder flushDelayMicros = new Recorder(3);
+    private final Map<String, LongAdder> triggerReasons = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    RecordingContextSink(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public String getName() {
+        return "load-test";
+    }
+
+    @Override
+    public void write(AggregatedContextDocument document, Runnable onPersisted) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while writing aggregated context", e);
+            }
+        }
+        int size = document.getPendingRequestIds().size();
+        batchSizes.recordValue(size);
+        Instant firstRequest = document.getFirstRequestTimestamp();
+        if (firstRequest != null) {
+            flushDelayMicros.recordValue(Math.max(0, ChronoUnit.MICROS.between(firstRequest, Instant.now())));
+        }
+        triggerReasons.computeIfAbsent(document.getTriggerReason(), reason -> new LongAdder()).increment();
+        requests.addAndGet(size);
+        if (onPersisted != null) {
+            onPersisted.run();
+        }
+    }
+
+    /**
+     * Drops the batches recorded so far, at the end of the warm-up. {@link #getRequests()} keeps
+     * counting.
+     */
+    void reset() {
+        batchSizes.reset();
+        flushDelayMicros.reset();
+        triggerReasons.clear();
+    }
+
+    /**
+     * Batch sizes since the last call or {@link #reset()}.
+     */
+    Histogram takeBatchSizes() {
+        return batchSizes.getIntervalHistogram();
+    }
+
+    /**
+     * Flush delays in microseconds since the last call or {@link #reset()}.
+     */
+    Histogram takeFlushDelays() {
+        return flushDelayMicros.getIntervalHistogram();
+    }
+
+    Map<String, Long> getTriggerReasons() {
+        Map<String, Long> counts = new TreeMap<>();
+        triggerReasons.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Requests in all batches written, warm-up included.
+     */
+    long getRequests() {
+        return requests.get();
+    }
+}
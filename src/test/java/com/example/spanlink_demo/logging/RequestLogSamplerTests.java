@@ -0,0 +1,63 @@
+package com.example.spanlink_demo.logging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RequestLogSamplerTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void allAndOffModes() {
+        RequestLogSampler all = new RequestLogSampler("all", 100, 1);
+        RequestLogSampler off = new RequestLogSampler("off", 100, 1);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(all.shouldLog()).isTrue();
+            assertThat(off.shouldLog()).isFalse();
+        }
+        assertThat(all.getSuppressed()).isZero();
+        assertThat(off.getSuppressed()).isEqualTo(1_000);
+    }
+
+    @Test
+    void sampledModeCapsLinesPerSecond() {
+        RequestLogSampler sampler = new RequestLogSampler("sampled", 1, 10);
+        long now = 0;
+
+        assertThat(logged(sampler, now, 100)).isEqualTo(10);
+        assertThat(logged(sampler, now + SECOND, 100)).isEqualTo(10);
+        assertThat(sampler.getSuppressed()).isEqualTo(180);
+    }
+
+    @Test
+    void sampledModeLogsRoughlyOneInN() {
+        RequestLogSampler sampler = new RequestLogSampler("sampled", 100, 0);
+
+        int logged = logged(sampler, 0, 100_000);
+
+        assertThat(logged).isBetween(800, 1_200);
+        assertThat(sampler.getSuppressed()).isEqualTo(100_000 - logged);
+    }
+
+    @Test
+    void unknownModeIsRejected() {
+        assertThatThrownBy(() -> new RequestLogSampler("sometimes", 100, 100))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("logging.request.mode");
+    }
+
+    private static int logged(RequestLogSampler sampler, long nowNanos, int requests) {
+        int logged = 0;
+        for (int i = 0; i < requests; i++) {
+            if (sampler.shouldLog(nowNanos)) {
+                logged++;
+            }
+        }
+        return logged;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.spanlink_demo.logging;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferAppenderTests {
+
+    private final LoggerContext context = new LoggerContext();
+    private final Logger logger = context.getLogger("test");
+    private final RecordingAppender recording = new RecordingAppender();
+
+    @Test
+    void fullBufferDropsAndCountsInsteadOfBlocking() throws Exception {
+        RingBufferAppender appender = start(true, 2);
+        recording.block();
+
+        logger.info("event {}", 0);
+        assertThat(recording.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        // The writer thread is stuck on event 0: two events fit in the buffer, two are dropped
+        for (int i = 1; i <= 4; i++) {
+            logger.info("event {}", i);
+        }
+        assertThat(appender.getDropped()).isEqualTo(2);
+        assertThat(appender.getQueueDepth()).isEqualTo(2);
+
+        recording.release();
+        appender.stop();
+        assertThat(recording.events).extracting(ILoggingEvent::getFormattedMessage)
+                .containsExactly("event 0", "event 1", "event 2");
+    }
+
+    @Test
+    void callerThreadIsCapturedAndEventsAreFlushedOnStop() {
+        RingBufferAppender appender = start(true, 64);
+
+        for (int i = 0; i < 50; i++) {
+            logger.info("event {}", i);
+        }
+        appender.stop();
+
+        assertThat(recording.events).hasSize(50);
+        assertThat(recording.events).extracting(ILoggingEvent::getThreadName)
+                .containsOnly(Thread.currentThread().getName());
+        assertThat(recording.threads).doesNotContain(Thread.currentThread().getName());
+        assertThat(appender.getDropped()).isZero();
+    }
+
+    @Test
+    void synchronousModeWritesOnTheLoggingThread() {
+        RingBufferAppender appender = start(false, 2);
+
+        for (int i = 0; i < 5; i++) {
+            logger.info("event {}", i);
+        }
+
+        assertThat(recording.events).hasSize(5);
+        assertThat(recording.threads).containsOnly(Thread.currentThread().getName());
+        assertThat(appender.getQueueDepth()).isZero();
+        appender.stop();
+    }
+
+    private RingBufferAppender start(boolean async, int queueSize) {
+        // A context outside of logback's initialization has no MDC adapter of its own
+        context.setMDCAdapter(new LogbackMDCAdapter());
+        recording.setContext(context);
+        recording.start();
+        RingBufferAppender appender = new RingBufferAppender();
+        appender.setContext(context);
+        appender.setName("RING_BUFFER");
+        appender.setAsync(async);
+        appender.setQueueSize(queueSize);
+        appender.addAppender(recording);
+        appender.start();
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        return appender;
+    }
+
+    private static final class RecordingAppender extends AppenderBase<ILoggingEvent> {
+
+        final List<ILoggingEvent> events = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch gate;
+
+        void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            entered.countDown();
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event);
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+}
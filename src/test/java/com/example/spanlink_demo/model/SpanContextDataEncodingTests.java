@@ -0,0 +1,111 @@
+package com.example.spanlink_demo.model;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpanContextDataEncodingTests {
+
+    private static final SpanContext SPAN_CONTEXT = SpanContext.create(
+            "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+            TraceFlags.getSampled(), TraceState.getDefault());
+    private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    static MappingMongoConverter converter() {
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    static AggregatedContextDocument.SpanContextData stringEntry(SpanContext spanContext) {
+        return new AggregatedContextDocument.SpanContextData(
+                spanContext.getTraceId(), spanContext.getSpanId(),
+                String.valueOf(spanContext.getTraceFlags().asByte()), null,
+                "00-" + spanContext.getTraceId() + "-" + spanContext.getSpanId() + "-" + spanContext.getTraceFlags().asHex());
+    }
+
+    @Test
+    void compactEntryRebuildsStringViewOnRead() {
+        MappingMongoConverter converter = converter();
+        Document stored = new Document();
+        converter.write(AggregatedContextDocument.SpanContextData.compact(SPAN_CONTEXT), stored);
+
+        assertThat(stored).containsKeys("tid", "sid", "f")
+                .doesNotContainKeys("traceId", "spanId", "traceFlags", "traceparent");
+
+        AggregatedContextDocument.SpanContextData read =
+                converter.read(AggregatedContextDocument.SpanContextData.class, stored);
+        assertThat(read.isCompact()).isTrue();
+        assertThat(read.getTraceId()).isEqualTo(SPAN_CONTEXT.getTraceId());
+        assertThat(read.getSpanId()).isEqualTo(SPAN_CONTEXT.getSpanId());
+        assertThat(read.getTraceFlags()).isEqualTo("1");
+        assertThat(read.getTraceparent()).isEqualTo(TRACEPARENT);
+    }
+
+    @Test
+    void stringAndCompactEntriesCoexistInOneDocument() {
+        MappingMongoConverter converter = converter();
+        Document legacyEntry = new Document("traceId", SPAN_CONTEXT.getTraceId())
+                .append("spanId", SPAN_CONTEXT.getSpanId())
+                .append("traceFlags", "1")
+                .append("traceparent", TRACEPARENT);
+        Document compactEntry = new Document();
+        converter.write(AggregatedContextDocument.SpanContextData.compact(SPAN_CONTEXT), compactEntry);
+        Document stored = new Document("masterTraceId", "m")
+                .append("pendingSpanContexts", List.of(legacyEntry, compactEntry));
+
+        AggregatedContextDocument read = converter.read(AggregatedContextDocument.class, stored);
+
+        assertThat(read.getPendingSpanContexts()).hasSize(2);
+        assertThat(read.getPendingSpanContexts())
+                .extracting(AggregatedContextDocument.SpanContextData::getTraceparent)
+                .containsOnly(TRACEPARENT);
+    }
+
+    @Test
+    void compactSchemaIsAtLeastTwiceAsSmall() {
+        MappingMongoConverter converter = converter();
+        List<AggregatedContextDocument.SpanContextData> strings = new ArrayList<>();
+        List<AggregatedContextDocument.SpanContextData> compacts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            SpanContext spanContext = SpanContext.create(
+                    String.format("%032x", i + 1), String.format("%016x", i + 1),
+                    TraceFlags.getSampled(), TraceState.getDefault());
+            strings.add(stringEntry(spanContext));
+            compacts.add(AggregatedContextDocument.SpanContextData.compact(spanContext));
+        }
+
+        int stringBytes = bsonSize(converter, strings);
+        int compactBytes = bsonSize(converter, compacts);
+
+        // ~175 vs ~60 bytes per link
+        assertThat(compactBytes * 2).isLessThan(stringBytes);
+    }
+
+    private static int bsonSize(MappingMongoConverter converter, List<AggregatedContextDocument.SpanContextData> entries) {
+        AggregatedContextDocument document = new AggregatedContextDocument(
+                "default", "count_threshold", List.of(), entries, "m", Instant.EPOCH);
+        Document bson = new Document();
+        converter.write(document, bson);
+        return new RawBsonDocument(bson, new DocumentCodec()).getByteBuffer().remaining();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.spanlink_demo.repository;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lookup queries and their latency against a real MongoDB, on a collection of
+ * {@code spanlink.it.lookup.documents} batches (default 1,000,000) of 10 requests each,
+ * half of them in the compact schema:
+ * <pre>
+ * mvn test -Dtest=AggregatedContextLookupTests -Dspanlink.it.mongodb.uri=mongodb://localhost:27017/?replicaSet=rs0
+ * </pre>
+ * The collection is seeded once and kept between runs; latency percentiles are logged per lookup at
+ * debug level.
+ */
+@EnabledIfSystemProperty(named = "spanlink.it.mongodb.uri", matches = ".+")
+class AggregatedContextLookupTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregatedContextLookupTests.class);
+
+    private static final int REQUESTS_PER_BATCH = 10;
+    private static final int SAMPLES = 1_000;
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+    private static AggregatedContextRepository repository;
+    private static int documents;
+
+    @BeforeAll
+    static void setUp() {
+        client = MongoClients.create(System.getProperty("spanlink.it.mongodb.uri"));
+        mongoTemplate = new MongoTemplate(client, "spanlink-lookup-it");
+        repository = new MongoRepositoryFactory(mongoTemplate).getRepository(AggregatedContextRepository.class);
+        documents = Integer.getInteger("spanlink.it.lookup.documents", 1_000_000);
+
+        if (mongoTemplate.estimatedCount(AggregatedContextDocument.class) != documents) {
+            mongoTemplate.dropCollection(AggregatedContextDocument.class);
+            List<AggregatedContextDocument> chunk = new ArrayList<>(10_000);
+            for (int i = 0; i < documents; i++) {
+                chunk.add(document(i));
+                if (chunk.size() == 10_000) {
+                    mongoTemplate.insertAll(chunk);
+                    chunk.clear();
+                }
+            }
+            mongoTemplate.insertAll(chunk);
+        }
+        new AggregatedContextIndexes(mongoTemplate, 0, false).ensureIndexes();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void requestIdLookupUsesTheIndex() {
+        int batch = documents / 2;
+        List<AggregatedContextDocument> found = repository.findSummariesByRequestId(requestId(batch, 3), Limit.of(10));
+
+        assertThat(found).singleElement().satisfies(document -> {
+            assertThat(document.getAggregationKey()).isEqualTo("key-" + batch);
+            assertThat(document.getPendingRequestIds()).isNull();
+        });
+        assertIndexScan(new Document("pendingRequestIds", requestId(batch, 3)));
+
+        measure("requestId", i -> repository.findSummariesByRequestId(requestId(random(i), 0), Limit.of(10)));
+    }
+
+    @Test
+    void traceIdLookupFindsBothSchemasAndUsesTheIndexes() {
+        for (int batch : new int[]{documents / 2, documents / 2 + 1}) {
+            String traceId = spanContext(batch, 7).getTraceId();
+            List<AggregatedContextDocument> found =
+                    repository.findSummariesByTraceId(traceId, HexFormat.of().parseHex(traceId), Limit.of(10));
+            assertThat(found).extracting(AggregatedContextDocument::getAggregationKey).containsExactly("key-" + batch);
+        }
+        String masterTraceId = masterTraceId(documents / 3);
+        assertThat(repository.findSummariesByTraceId(masterTraceId, HexFormat.of().parseHex(masterTraceId), Limit.of(10)))
+                .extracting(AggregatedContextDocument::getAggregationKey).containsExactly("key-" + documents / 3);
+
+        String traceId = spanContext(documents / 2, 7).getTraceId();
+        assertIndexScan(new Document("$or", List.of(
+                new Document("masterTraceId", traceId),
+                new Document("pendingSpanContexts.traceId", traceId),
+                new Document("pendingSpanContexts.tid", HexFormat.of().parseHex(traceId)))));
+
+        measure("traceId", i -> {
+            String id = spanContext(random(i), 0).getTraceId();
+            return repository.findSummariesByTraceId(id, HexFormat.of().parseHex(id), Limit.of(10));
+        });
+    }
+
+    private static void assertIndexScan(Document filter) {
+        Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                new Document("find", "aggregated_contexts").append("filter", filter)));
+        assertThat(explain.toJson()).contains("IXSCAN").doesNotContain("COLLSCAN");
+    }
+
+    private static void measure(String lookup, IntFunction<List<?>> query) {
+        for (int i = 0; i < SAMPLES / 10; i++) {
+            query.apply(i);
+        }
+        long[] micros = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            assertThat(query.apply(i)).isNotEmpty();
+            micros[i] = (System.nanoTime() - start) / 1_000;
+        }
+        Arrays.sort(micros);
+        logger.debug("{} lookup on {} documents: p50={}us p99={}us max={}us", lookup, documents,
+                micros[SAMPLES / 2], micros[SAMPLES * 99 / 100], micros[SAMPLES - 1]);
+    }
+
+    /**
+     * Spreads the samples over the collection, so they do not all hit the same pages.
+     */
+    private static int random(int sample) {
+        return (int) Math.floorMod(sample * 2_654_435_761L, (long) documents);
+    }
+
+    private static AggregatedContextDocument document(int batch) {
+        List<String> requestIds = new ArrayList<>(REQUESTS_PER_BATCH);
+        List<SpanContextData> spanContexts = new ArrayList<>(REQUESTS_PER_BATCH);
+        for (int r = 0; r < REQUESTS_PER_BATCH; r++) {
+            SpanContext spanContext = spanContext(batch, r);
+            requestIds.add(requestId(batch, r));
+            spanContexts.add(batch % 2 == 0
+                    ? new SpanContextData(spanContext.getTraceId(), spanContext.getSpanId(), "1", "", null)
+                    : SpanContextData.compact(spanContext));
+        }
+        return new AggregatedContextDocument("key-" + batch, "count_threshold", requestIds, spanContexts,
+                masterTraceId(batch), Instant.now());
+    }
+
+    private static String requestId(int batch, int request) {
+        return "req-" + batch + "-" + request;
+    }
+
+    private static String masterTraceId(int batch) {
+        return String.format("f%031x", batch);
+    }
+
+    private static SpanContext spanContext(int batch, int request) {
+        long n = (long) batch * REQUESTS_PER_BATCH + request + 1;
+        return SpanContext.createFromRemoteParent(String.format("%032x", n), String.format("%016x", n),
+                TraceFlags.getSampled(), TraceState.getDefault());
+    }
+}
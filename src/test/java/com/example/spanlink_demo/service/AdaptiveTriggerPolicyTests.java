@@ -0,0 +1,77 @@
+package com.example.spanlink_demo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveTriggerPolicyTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AdaptiveTriggerPolicy policy = new AdaptiveTriggerPolicy(3, 500, 50, 10_000, 100, 1_000);
+    private long now = System.nanoTime();
+
+    @BeforeEach
+    void setUp() {
+        // Start the first adjustment period at a known time, so rates come out exact
+        policy.adjust(now);
+    }
+
+    @Test
+    void slowPersistsGrowBatchesAndFastOnesShrinkThemBack() {
+        AdaptiveTriggerPolicy.Trigger trigger = policy.newTrigger("orders", 3, 10_000);
+
+        // 1,000 requests/s while MongoDB takes 300ms per batch
+        policy.recordPersistLatency(TimeUnit.MILLISECONDS.toNanos(300));
+        for (int i = 0; i < 10; i++) {
+            adjustAfterOneSecond(trigger, 1_000);
+        }
+        assertThat(trigger.getCount()).isEqualTo(500);
+        assertThat(trigger.getIntervalMillis()).isEqualTo(10_000);
+        assertThat(trigger.getArrivalRate()).isEqualTo(1_000.0);
+
+        // MongoDB recovers: the count comes down one step per adjustment, the interval halves
+        for (int i = 0; i < 20; i++) {
+            policy.recordPersistLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        assertThat(policy.getPersistLatencyMillis()).isLessThan(100);
+        adjustAfterOneSecond(trigger, 1_000);
+        adjustAfterOneSecond(trigger, 1_000);
+        assertThat(trigger.getCount()).isEqualTo(498);
+        assertThat(trigger.getIntervalMillis()).isEqualTo(2_500);
+        for (int i = 0; i < 10; i++) {
+            adjustAfterOneSecond(trigger, 1_000);
+        }
+        assertThat(trigger.getIntervalMillis()).isEqualTo(50);
+    }
+
+    @Test
+    void quietWindowFlushesSmallBatchesQuickly() {
+        AdaptiveTriggerPolicy.Trigger trigger = policy.newTrigger("quiet", 50, 10_000);
+
+        // 0.2 requests/s: a batch of 3 would take 15s to fill
+        for (int i = 0; i < 8; i++) {
+            adjustAfterOneSecond(trigger, i % 5 == 0 ? 1 : 0);
+        }
+        assertThat(trigger.getCount()).isEqualTo(3);
+        assertThat(trigger.getIntervalMillis()).isEqualTo(50);
+    }
+
+    @Test
+    void initialValuesAreBroughtWithinTheBounds() {
+        AdaptiveTriggerPolicy.Trigger trigger = policy.newTrigger("k", 1, 60_000);
+
+        assertThat(trigger.getCount()).isEqualTo(3);
+        assertThat(trigger.getIntervalMillis()).isEqualTo(10_000);
+        assertThat(policy.getTriggers()).extracting(AdaptiveTriggerPolicy.Trigger::getKey).containsExactly("k");
+    }
+
+    private void adjustAfterOneSecond(AdaptiveTriggerPolicy.Trigger trigger, int arrivals) {
+        trigger.recordArrivals(arrivals);
+        now += SECOND;
+        policy.adjust(now);
+    }
+}
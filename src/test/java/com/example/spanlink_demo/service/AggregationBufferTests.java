@@ -0,0 +1,188 @@
+package com.example.spanlink_demo.service;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregationBufferTests {
+
+    static SpanContext spanContext(long n) {
+        return SpanContext.create(
+                String.format("%032x", n + 1),
+                String.format("%016x", n + 1),
+                TraceFlags.getSampled(),
+                TraceState.getDefault());
+    }
+
+    @Test
+    void sealsExactlyAtCountThreshold() {
+        AggregationBuffer buffer = new AggregationBuffer(() -> 3);
+
+        assertThat(buffer.add(spanContext(0), "req-0")).isNull();
+        assertThat(buffer.add(spanContext(1), "req-1")).isNull();
+        AggregatedBatch batch = buffer.add(spanContext(2), "req-2");
+
+        assertThat(batch).isNotNull();
+        assertThat(batch.getTriggerReason()).isEqualTo(AggregationBuffer.COUNT_THRESHOLD);
+        assertThat(batch.getRequestIds()).containsExactly("req-0", "req-1", "req-2");
+        assertThat(batch.getSpanContexts()).hasSize(3);
+        assertThat(batch.getFirstRequestTimestamp()).isNotNull();
+        assertThat(buffer.pendingCount()).isZero();
+        assertThat(buffer.firstArrivalMillis()).isZero();
+        assertThat(buffer.getSeals()).isEqualTo(1);
+        assertThat(buffer.getClaimWaits()).isZero();
+    }
+
+    @Test
+    void sealsPartialWindowOnlyAfterInterval() {
+        AggregationBuffer buffer = new AggregationBuffer(() -> 10);
+        assertThat(buffer.sealIfExpired(System.currentTimeMillis(), 0)).isNull();
+
+        buffer.add(spanContext(0), "req-0");
+        buffer.add(spanContext(1), "req-1");
+        long first = buffer.firstArrivalMillis();
+
+        assertThat(buffer.sealIfExpired(first + 999, 1000)).isNull();
+        AggregatedBatch batch = buffer.sealIfExpired(first + 1000, 1000);
+
+        assertThat(batch).isNotNull();
+        assertThat(batch.getTriggerReason()).isEqualTo(AggregationBuffer.TIME_INTERVAL);
+        assertThat(batch.getRequestIds()).containsExactly("req-0", "req-1");
+        assertThat(buffer.pendingCount()).isZero();
+    }
+
+    @Test
+    void addAllSealsEveryWindowTheChunkFillsAndKeepsTheRest() {
+        AggregationBuffer buffer = new AggregationBuffer(() -> 3);
+        buffer.add(spanContext(0), "req-0");
+
+        List<SpanContext> contexts = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            contexts.add(spanContext(i));
+            ids.add("req-" + i);
+        }
+        List<AggregatedBatch> sealed = buffer.addAll(contexts, ids);
+
+        assertThat(sealed).hasSize(2);
+        assertThat(sealed.get(0).getRequestIds()).containsExactly("req-0", "req-1", "req-2");
+        assertThat(sealed.get(1).getRequestIds()).containsExactly("req-3", "req-4", "req-5");
+        assertThat(sealed).allSatisfy(batch ->
+                assertThat(batch.getTriggerReason()).isEqualTo(AggregationBuffer.COUNT_THRESHOLD));
+        assertThat(buffer.pendingCount()).isEqualTo(2);
+        assertThat(buffer.sealIfExpired(Long.MAX_VALUE, 0).getRequestIds()).containsExactly("req-6", "req-7");
+    }
+
+    @Test
+    void releasedSpanContextColumnsAreReusedByALaterWindow() {
+        AggregationBuffer buffer = new AggregationBuffer(() -> 2);
+        buffer.add(spanContext(0), "req-0");
+        AggregatedBatch first = buffer.add(spanContext(1), "req-1");
+        List<SpanContext> firstColumns = first.getSpanContexts();
+
+        first.release();
+        // The window opened by the first seal was already allocated; the next one reuses the columns
+        buffer.add(spanContext(2), "req-2");
+        AggregatedBatch second = buffer.add(spanContext(3), "req-3");
+        buffer.add(spanContext(4), "req-4");
+        AggregatedBatch third = buffer.add(spanContext(5), "req-5");
+
+        assertThat(second.getSpanContexts()).isNotSameAs(firstColumns);
+        assertThat(third.getSpanContexts()).isSameAs(firstColumns)
+                .containsExactly(spanContext(4), spanContext(5));
+        assertThat(third.getRequestIds()).containsExactly("req-4", "req-5");
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndNeverOverfillABatch() throws Exception {
+        int threads = 8;
+        int perThread = 20_000;
+        int triggerCount = 7;
+        AggregationBuffer buffer = new AggregationBuffer(() -> triggerCount);
+        ConcurrentLinkedQueue<AggregatedBatch> sealed = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            boolean chunked = t % 2 == 1;
+            pool.execute(() -> {
+                await(start);
+                if (chunked) {
+                    // Chunks of 5, so runs of slots straddle window boundaries
+                    for (int i = 0; i < perThread; i += 5) {
+                        List<SpanContext> contexts = new ArrayList<>(5);
+                        List<String> ids = new ArrayList<>(5);
+                        for (int j = i; j < i + 5; j++) {
+                            contexts.add(spanContext(base + j));
+                            ids.add("req-" + (base + j));
+                        }
+                        sealed.addAll(buffer.addAll(contexts, ids));
+                    }
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    AggregatedBatch batch = buffer.add(spanContext(base + i), "req-" + (base + i));
+                    if (batch != null) {
+                        sealed.add(batch);
+                    }
+                }
+            });
+        }
+        // A time sealer racing the count trigger
+        pool.execute(() -> {
+            await(start);
+            for (int i = 0; i < 2_000; i++) {
+                AggregatedBatch batch = buffer.sealIfExpired(Long.MAX_VALUE, 0);
+                if (batch != null) {
+                    sealed.add(batch);
+                }
+            }
+        });
+        start.countDown();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        AggregatedBatch rest = buffer.sealIfExpired(Long.MAX_VALUE, 0);
+        if (rest != null) {
+            sealed.add(rest);
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (AggregatedBatch batch : sealed) {
+            assertThat(batch.size()).isBetween(1, triggerCount);
+            if (AggregationBuffer.COUNT_THRESHOLD.equals(batch.getTriggerReason())) {
+                assertThat(batch.size()).isEqualTo(triggerCount);
+            }
+            List<String> ids = batch.getRequestIds();
+            assertThat(ids).hasSize(batch.size());
+            for (String id : ids) {
+                assertThat(seen.add(id)).as("duplicate %s", id).isTrue();
+            }
+        }
+        assertThat(seen).hasSize(threads * perThread);
+        assertThat(buffer.getSeals()).isEqualTo(sealed.size());
+        assertThat(buffer.getSealNanos()).isPositive();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
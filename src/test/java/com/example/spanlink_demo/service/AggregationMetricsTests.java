@@ -0,0 +1,169 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.config.SpanExportStats;
+import com.example.spanlink_demo.consumer.ChangeStreamConsumer;
+import com.example.spanlink_demo.journal.AggregationJournal;
+import com.example.spanlink_demo.sink.ContextSinks;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AggregationMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FlushPipeline flushPipeline = new FlushPipeline(1, 16, "block", 1, false);
+    private final AggregationMetrics metrics = new AggregationMetrics(registry, flushPipeline,
+            new StaticListableBeanFactory().getBeanProvider(BulkContextWriter.class),
+            new StaticListableBeanFactory().getBeanProvider(RequestDeduplicator.class),
+            new StaticListableBeanFactory().getBeanProvider(ContextSinks.class),
+            new StaticListableBeanFactory().getBeanProvider(AggregationJournal.class),
+            new StaticListableBeanFactory().getBeanProvider(ChangeStreamConsumer.class),
+            new StaticListableBeanFactory().getBeanProvider(SpanExportStats.class));
+
+    @AfterEach
+    void tearDown() {
+        flushPipeline.shutdown();
+    }
+
+    @Test
+    void batchSizesAreSplitByTriggerReason() {
+        metrics.recordBatch(batch(AggregationBuffer.COUNT_THRESHOLD, 3, null));
+        metrics.recordBatch(batch(AggregationBuffer.COUNT_THRESHOLD, 3, null));
+        metrics.recordBatch(batch(AggregationBuffer.TIME_INTERVAL, 1, null));
+
+        DistributionSummary count = registry.get("aggregation.batch.size")
+                .tag("trigger.reason", AggregationBuffer.COUNT_THRESHOLD).summary();
+        assertThat(count.count()).isEqualTo(2);
+        assertThat(count.totalAmount()).isEqualTo(6);
+        assertThat(registry.get("aggregation.batch.size")
+                .tag("trigger.reason", AggregationBuffer.TIME_INTERVAL).summary().count()).isEqualTo(1);
+        assertThat(registry.get("aggregation.batch.size")
+                .tag("trigger.reason", AggregationBuffer.SHUTDOWN).summary().count()).isZero();
+    }
+
+    @Test
+    void timersFailuresAndEndToEndDelay() {
+        metrics.recordTriggerAction(TimeUnit.MILLISECONDS.toNanos(4));
+        metrics.recordSave(TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.recordSaveFailure();
+        metrics.recordPersisted(batch(AggregationBuffer.COUNT_THRESHOLD, 3, Instant.now().minusMillis(250)));
+
+        assertThat(registry.get("aggregation.trigger.action").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(4);
+        assertThat(registry.get("aggregation.mongo.save").tag("mode", "direct").timer().count()).isEqualTo(1);
+        assertThat(registry.get("aggregation.mongo.write.failures").tag("stage", "save").counter().count()).isEqualTo(1);
+        assertThat(registry.get("aggregation.end.to.end").timer().max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(250);
+    }
+
+    @Test
+    void aggregationGaugesAreReadAtScrapeTime() {
+        AggregationService aggregationService = mock(AggregationService.class);
+        when(aggregationService.getPendingCount()).thenReturn(7);
+        when(aggregationService.getOpenWindowCount()).thenReturn(2);
+        when(aggregationService.getOverflowedKeyCount()).thenReturn(3L);
+        when(aggregationService.getSeals()).thenReturn(5L);
+        when(aggregationService.getSealNanos()).thenReturn(TimeUnit.MICROSECONDS.toNanos(50));
+        metrics.bind(aggregationService);
+
+        assertThat(registry.get("aggregation.pending.requests").gauge().value()).isEqualTo(7);
+        assertThat(registry.get("aggregation.windows.open").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("aggregation.windows.overflowed").functionCounter().count()).isEqualTo(3);
+        assertThat(registry.get("aggregation.windows.evicted").functionCounter().count()).isZero();
+        assertThat(registry.get("aggregation.buffer.seal").functionTimer().count()).isEqualTo(5);
+        assertThat(registry.get("aggregation.buffer.seal").functionTimer().totalTime(TimeUnit.MICROSECONDS)).isEqualTo(50);
+        assertThat(registry.get("aggregation.buffer.claim.wait").functionTimer().count()).isZero();
+        assertThat(registry.get("aggregation.flush.queue.depth").gauge().value()).isZero();
+    }
+
+    @Test
+    void bulkWriterStatisticsAreExported() {
+        BulkContextWriter writer = mock(BulkContextWriter.class);
+        when(writer.getBulkCount()).thenReturn(4L);
+        when(writer.getTotalBulkNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(20));
+        when(writer.getDocumentCount()).thenReturn(900L);
+        when(writer.getRetriedDocuments()).thenReturn(3L);
+        when(writer.getMaxBulkSizeSeen()).thenReturn(500L);
+        when(writer.getMaxBulkNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(9));
+        when(writer.getQueueDepth()).thenReturn(12);
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("bulkContextWriter", writer);
+        SimpleMeterRegistry bulkRegistry = new SimpleMeterRegistry();
+        new AggregationMetrics(bulkRegistry, flushPipeline,
+                beans.getBeanProvider(BulkContextWriter.class),
+                beans.getBeanProvider(RequestDeduplicator.class),
+                beans.getBeanProvider(ContextSinks.class),
+                beans.getBeanProvider(AggregationJournal.class),
+                beans.getBeanProvider(ChangeStreamConsumer.class),
+                beans.getBeanProvider(SpanExportStats.class));
+
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk").functionTimer().count()).isEqualTo(4);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk").functionTimer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(20);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk.documents").functionCounter().count()).isEqualTo(900);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk.retried").functionCounter().count()).isEqualTo(3);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk.max").tag("stat", "size").gauge().value()).isEqualTo(500);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk.max").tag("stat", "latency").gauge().value()).isEqualTo(9);
+        assertThat(bulkRegistry.get("aggregation.mongo.bulk.queue.depth").gauge().value()).isEqualTo(12);
+    }
+
+    @Test
+    void changeStreamConsumerLagIsExported() {
+        ChangeStreamConsumer consumer = mock(ChangeStreamConsumer.class);
+        when(consumer.getLastLagMillis()).thenReturn(120L);
+        when(consumer.getMaxLagMillis()).thenReturn(800L);
+        when(consumer.getConsumedDocuments()).thenReturn(10L);
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("changeStreamConsumer", consumer);
+        SimpleMeterRegistry consumerRegistry = new SimpleMeterRegistry();
+        new AggregationMetrics(consumerRegistry, flushPipeline,
+                beans.getBeanProvider(BulkContextWriter.class),
+                beans.getBeanProvider(RequestDeduplicator.class),
+                beans.getBeanProvider(ContextSinks.class),
+                beans.getBeanProvider(AggregationJournal.class),
+                beans.getBeanProvider(ChangeStreamConsumer.class),
+                beans.getBeanProvider(SpanExportStats.class));
+
+        assertThat(consumerRegistry.get("changestream.consumer.lag").gauge().value()).isEqualTo(120);
+        assertThat(consumerRegistry.get("changestream.consumer.lag.max").gauge().value()).isEqualTo(800);
+        assertThat(consumerRegistry.get("changestream.consumer.documents").tag("outcome", "processed").functionCounter().count()).isEqualTo(10);
+        assertThat(consumerRegistry.get("changestream.consumer.documents").tag("outcome", "failed").functionCounter().count()).isZero();
+    }
+
+    @Test
+    void spanExportCountersAreExported() {
+        SpanExportStats stats = mock(SpanExportStats.class);
+        when(stats.getExportedSpans()).thenReturn(40L);
+        when(stats.getDroppedSpans()).thenReturn(3L);
+        when(stats.getExporterDroppedSpans()).thenReturn(2L);
+        when(stats.getQueueSize()).thenReturn(7L);
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("spanExportStats", stats);
+        SimpleMeterRegistry exportRegistry = new SimpleMeterRegistry();
+        new AggregationMetrics(exportRegistry, flushPipeline,
+                beans.getBeanProvider(BulkContextWriter.class),
+                beans.getBeanProvider(RequestDeduplicator.class),
+                beans.getBeanProvider(ContextSinks.class),
+                beans.getBeanProvider(AggregationJournal.class),
+                beans.getBeanProvider(ChangeStreamConsumer.class),
+                beans.getBeanProvider(SpanExportStats.class));
+
+        assertThat(exportRegistry.get("tracing.export.spans.exported").gauge().value()).isEqualTo(40);
+        assertThat(exportRegistry.get("tracing.export.spans.dropped").tag("stage", "processor").gauge().value()).isEqualTo(3);
+        assertThat(exportRegistry.get("tracing.export.spans.dropped").tag("stage", "exporter").gauge().value()).isEqualTo(2);
+        assertThat(exportRegistry.get("tracing.export.queue.size").gauge().value()).isEqualTo(7);
+    }
+
+    private static AggregatedBatch batch(String reason, int size, Instant firstRequestTimestamp) {
+        return new AggregatedBatch("default", reason, Collections.nCopies(size, null),
+                Collections.nCopies(size, "req"), firstRequestTimestamp);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkContextWriterTests {
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int DOCUMENT_VALIDATION_FAILURE = 121;
+
+    private final MongoTemplate template = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final Set<String> persisted = ConcurrentHashMap.newKeySet();
+    private BulkContextWriter writer;
+
+    @Test
+    void documentsRejectedByTheBulkAreRetriedOneByOne() throws InterruptedException {
+        // doc-1 rejected, doc-2 already written (duplicate key)
+        bulkFails(new BulkOperationException("bulk", new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                List.of(error(1, DOCUMENT_VALIDATION_FAILURE), error(2, DUPLICATE_KEY)), null, new ServerAddress(), Set.of())));
+
+        List<AggregatedContextDocument> documents = write(3);
+
+        assertThat(persisted).containsExactlyInAnyOrder("trace-0", "trace-1", "trace-2");
+        verify(template).insert(documents.get(1));
+        verify(template, never()).insert(documents.get(0));
+        verify(template, never()).insert(documents.get(2));
+        assertThat(writer.getRetriedDocuments()).isEqualTo(1);
+        assertThat(writer.getFailedDocuments()).isZero();
+    }
+
+    @Test
+    void duplicateKeyOnRetryCountsAsWritten() throws InterruptedException {
+        bulkFails(new DataAccessResourceFailureException("timeout", new MongoSocketReadException("timeout", new ServerAddress())));
+        when(template.insert(any(AggregatedContextDocument.class))).thenThrow(new DuplicateKeyException("written by the bulk"));
+
+        write(2);
+
+        assertThat(persisted).containsExactlyInAnyOrder("trace-0", "trace-1");
+        assertThat(writer.getRetriedDocuments()).isEqualTo(2);
+        assertThat(writer.getFailedDocuments()).isZero();
+    }
+
+    @Test
+    void bulkFailingAsAWholeIsRetriedWithTheSameIds() throws InterruptedException {
+        bulkFails(new DataAccessResourceFailureException("connection reset"));
+        List<String> retriedIds = new ArrayList<>();
+        when(template.insert(any(AggregatedContextDocument.class))).thenAnswer(invocation -> {
+            AggregatedContextDocument document = invocation.getArgument(0);
+            retriedIds.add(document.getId());
+            if (document.getMasterTraceId().equals("trace-2")) {
+                throw new DataAccessResourceFailureException("still down");
+            }
+            return document;
+        });
+
+        List<AggregatedContextDocument> documents = write(3, 2);
+
+        assertThat(persisted).containsExactlyInAnyOrder("trace-0", "trace-1");
+        verify(template, times(3)).insert(any(AggregatedContextDocument.class));
+        // The IDs assigned before the bulk, so a document the bulk did write is not inserted twice
+        assertThat(retriedIds).containsExactlyElementsOf(documents.stream().map(AggregatedContextDocument::getId).toList());
+        assertThat(writer.getRetriedDocuments()).isEqualTo(3);
+        assertThat(writer.getFailedDocuments()).isEqualTo(1);
+    }
+
+    private void bulkFails(RuntimeException failure) {
+        when(template.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(AggregatedContextDocument.class))).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenThrow(failure);
+    }
+
+    private List<AggregatedContextDocument> write(int count) throws InterruptedException {
+        return write(count, count);
+    }
+
+    /**
+     * Queues {@code count} documents as one bulk and waits until {@code expectedPersisted} are confirmed.
+     */
+    private List<AggregatedContextDocument> write(int count, int expectedPersisted) throws InterruptedException {
+        writer = new BulkContextWriter(template, count, 1000, 16, false);
+        CountDownLatch done = new CountDownLatch(expectedPersisted);
+        List<AggregatedContextDocument> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AggregatedContextDocument document = new AggregatedContextDocument();
+            document.setMasterTraceId("trace-" + i);
+            documents.add(document);
+            writer.enqueue(document, () -> {
+                persisted.add(document.getMasterTraceId());
+                done.countDown();
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        // Waits for the writer thread, so every retry is counted
+        writer.shutdown();
+        return documents;
+    }
+
+    private static BulkWriteError error(int index, int code) {
+        return new BulkWriteError(code, "error " + code, new BsonDocument(), index);
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.AggregatedContextRepository;
+import com.example.spanlink_demo.sink.ContextSinks;
+import com.example.spanlink_demo.sink.MongoContextSink;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Per-instance against distributed aggregation on a real MongoDB, with
+ * {@value #INSTANCES} instances in one JVM, each flushing local batches of
+ * {@value #LOCAL_BATCH_SIZE} requests from its own thread:
+ * <pre>
+ * mvn test -Dtest=DistributedAggregationMongoTests -Dspanlink.it.mongodb.uri=mongodb://localhost:27017/?replicaSet=rs0
+ * </pre>
+ * {@code spanlink.it.distributed.requests} sets the requests per run (default 200,000). Each mode
+ * asserts its {@code aggregated_contexts} document count; throughput and MongoDB writes per request
+ * are logged at debug level.
+ */
+@EnabledIfSystemProperty(named = "spanlink.it.mongodb.uri", matches = ".+")
+class DistributedAggregationMongoTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistributedAggregationMongoTests.class);
+
+    private static final int INSTANCES = 4;
+    private static final int LOCAL_BATCH_SIZE = 10;
+    private static final int SHARED_BATCH_SIZE = 500;
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+    private static MongoContextService mongoContextService;
+    private static int requests;
+
+    @BeforeAll
+    static void setUp() {
+        client = MongoClients.create(System.getProperty("spanlink.it.mongodb.uri"));
+        mongoTemplate = new MongoTemplate(client, "spanlink-distributed-it");
+        AggregatedContextRepository repository =
+                new MongoRepositoryFactory(mongoTemplate).getRepository(AggregatedContextRepository.class);
+        mongoContextService = new MongoContextService(ContextSinks.of(new MongoContextSink(
+                repository, new StaticListableBeanFactory().getBeanProvider(BulkContextWriter.class))));
+        ReflectionTestUtils.setField(mongoContextService, "spanContextEncoding", "string");
+        requests = Integer.getInteger("spanlink.it.distributed.requests", 200_000);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        client.close();
+    }
+
+    @BeforeEach
+    void cleanUp() {
+        mongoTemplate.dropCollection(AggregatedContextDocument.class);
+        mongoTemplate.dropCollection("shared_open_batches");
+        mongoTemplate.dropCollection("aggregation_leases");
+    }
+
+    @Test
+    void perInstanceAggregation() throws Exception {
+        long nanos = run(instance -> this::save);
+
+        // One document per local batch
+        assertThat(report("per-instance", nanos, requests / LOCAL_BATCH_SIZE)).isEqualTo(requests / LOCAL_BATCH_SIZE);
+    }
+
+    @Test
+    void distributedAggregation() throws Exception {
+        CountingStore store = new CountingStore(new MongoSharedBatchStore(mongoTemplate, "shared_open_batches", "aggregation_leases"));
+        List<FlushPipeline> flushPipelines = new ArrayList<>();
+        List<DistributedAggregation> instances = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            FlushPipeline flushPipeline = new FlushPipeline(1, 64, "block", 10, false);
+            DistributedAggregation instance = new DistributedAggregation(store, flushPipeline,
+                    SHARED_BATCH_SIZE, 200, 2_000, 50, 30_000, "instance-" + i);
+            instance.start((batch, onPersisted) -> {
+                save(batch);
+                if (onPersisted != null) {
+                    onPersisted.run();
+                }
+            });
+            flushPipelines.add(flushPipeline);
+            instances.add(instance);
+        }
+
+        long nanos = run(i -> batch -> instances.get(i).contribute(batch, null));
+        // The lease holder seals the last, partly filled shared batch
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (persistedRequests() < requests && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        instances.forEach(DistributedAggregation::stop);
+        flushPipelines.forEach(FlushPipeline::shutdown);
+
+        assertThat(mongoTemplate.getCollection("shared_open_batches").countDocuments()).isZero();
+        long documents = report("distributed", nanos,
+                store.writes.get() + mongoTemplate.count(new Query(), AggregatedContextDocument.class));
+        // Shared batches of up to SHARED_BATCH_SIZE requests; those sealed on time by the lease holder
+        // may be partly filled, so at least ten times fewer documents rather than exactly fifty
+        assertThat(documents).isGreaterThanOrEqualTo(requests / SHARED_BATCH_SIZE);
+        assertThat(documents * 10).isLessThanOrEqualTo(requests / LOCAL_BATCH_SIZE);
+    }
+
+    /**
+     * Flushes {@code requests} requests as local batches from one thread per instance.
+     *
+     * @return elapsed nanoseconds
+     */
+    private long run(IntFunction<Consumer<AggregatedBatch>> flushOfInstance) throws InterruptedException {
+        ExecutorService threads = Executors.newFixedThreadPool(INSTANCES);
+        CountDownLatch done = new CountDownLatch(INSTANCES);
+        AtomicLong nextRequest = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < INSTANCES; i++) {
+            Consumer<AggregatedBatch> flush = flushOfInstance.apply(i);
+            threads.execute(() -> {
+                long first;
+                while ((first = nextRequest.getAndAdd(LOCAL_BATCH_SIZE)) < requests) {
+                    flush.accept(localBatch(first));
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.MINUTES)).isTrue();
+        long nanos = System.nanoTime() - start;
+        threads.shutdown();
+        return nanos;
+    }
+
+    private void save(AggregatedBatch batch) {
+        mongoContextService.saveAggregatedContext(batch.getAggregationKey(), batch.getTriggerReason(),
+                batch.getSpanContexts(), batch.getRequestIds(), "00000000000000000000000000000001",
+                batch.getFirstRequestTimestamp());
+    }
+
+    /**
+     * @return the {@code aggregated_contexts} documents written
+     */
+    private long report(String mode, long nanos, long mongoWrites) {
+        long documents = mongoTemplate.count(new Query(), AggregatedContextDocument.class);
+        assertThat(persistedRequests()).isEqualTo(requests);
+        logger.debug("{} aggregation, {} instances: {} requests in {}ms, {} aggregated_contexts documents, {} MongoDB writes",
+                mode, INSTANCES, requests, TimeUnit.NANOSECONDS.toMillis(nanos), documents, mongoWrites);
+        return documents;
+    }
+
+    private static long persistedRequests() {
+        Document total = mongoTemplate.getCollection("aggregated_contexts").aggregate(List.of(
+                new Document("$group", new Document("_id", null)
+                        .append("n", new Document("$sum", new Document("$size", "$pendingRequestIds")))))).first();
+        return total != null ? ((Number) total.get("n")).longValue() : 0;
+    }
+
+    private static AggregatedBatch localBatch(long first) {
+        List<SpanContext> spanContexts = new ArrayList<>(LOCAL_BATCH_SIZE);
+        List<String> requestIds = new ArrayList<>(LOCAL_BATCH_SIZE);
+        for (long n = first; n < first + LOCAL_BATCH_SIZE; n++) {
+            spanContexts.add(SpanContext.create(String.format("%032x", n + 1), String.format("%016x", n + 1),
+                    TraceFlags.getSampled(), TraceState.getDefault()));
+            requestIds.add("req-" + n);
+        }
+        return new AggregatedBatch(AggregationService.DEFAULT_AGGREGATION_KEY, AggregationBuffer.COUNT_THRESHOLD,
+                spanContexts, requestIds, Instant.now());
+    }
+
+    /**
+     * Counts the writes of the shared batch store, lease renewals excluded.
+     */
+    private static final class CountingStore implements SharedBatchStore {
+
+        final AtomicLong writes = new AtomicLong();
+        private final SharedBatchStore delegate;
+
+        CountingStore(SharedBatchStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Contribution contribute(String aggregationKey, List<SpanContext> spanContexts, List<String> requestIds,
+                                       Instant firstRequestTimestamp, int maxBatchSize) {
+            writes.incrementAndGet();
+            return delegate.contribute(aggregationKey, spanContexts, requestIds, firstRequestTimestamp, maxBatchSize);
+        }
+
+        @Override
+        public SharedBatch seal(String batchId, String owner) {
+            writes.incrementAndGet();
+            return delegate.seal(batchId, owner);
+        }
+
+        @Override
+        public List<String> findOpenBatches(Instant openedBefore, int limit) {
+            return delegate.findOpenBatches(openedBefore, limit);
+        }
+
+        @Override
+        public SharedBatch claimAbandoned(Instant sealedBefore, String owner) {
+            return delegate.claimAbandoned(sealedBefore, owner);
+        }
+
+        @Override
+        public void delete(String batchId) {
+            writes.incrementAndGet();
+            delegate.delete(batchId);
+        }
+
+        @Override
+        public boolean acquireLease(String owner, long ttlMillis) {
+            return delegate.acquireLease(owner, ttlMillis);
+        }
+
+        @Override
+        public void releaseLease(String owner) {
+            delegate.releaseLease(owner);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.spanlink_demo.service;
+
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ServerAddress;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link DistributedAggregation} with several instances in one JVM sharing an in-memory
+ * stand-in for the MongoDB shared batch store.
+ */
+class DistributedAggregationTests {
+
+    private final InMemorySharedBatchStore store = new InMemorySharedBatchStore();
+    private final ConcurrentLinkedQueue<AggregatedBatch> persisted = new ConcurrentLinkedQueue<>();
+    private final List<FlushPipeline> flushPipelines = new ArrayList<>();
+    private final List<DistributedAggregation> instances = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        instances.forEach(DistributedAggregation::stop);
+        flushPipelines.forEach(FlushPipeline::shutdown);
+    }
+
+    @Test
+    void fourInstancesFillSharedBatchesInsteadOfWritingTheirOwn() throws Exception {
+        int localBatches = 250;
+        int localBatchSize = 3;
+        for (int i = 0; i < 4; i++) {
+            start("instance-" + i, 30, 60_000);
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+        AtomicLong requestIds = new AtomicLong();
+        for (DistributedAggregation instance : instances) {
+            threads.execute(() -> {
+                for (int b = 0; b < localBatches; b++) {
+                    instance.contribute(localBatch(requestIds, localBatchSize), null);
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+        threads.shutdown();
+
+        int requests = 4 * localBatches * localBatchSize;
+        Set<String> persistedIds = new HashSet<>();
+        for (AggregatedBatch batch : persisted) {
+            assertThat(batch.size()).isEqualTo(30);
+            assertThat(batch.getTriggerReason()).isEqualTo(DistributedAggregation.SHARED_COUNT_THRESHOLD);
+            persistedIds.addAll(batch.getRequestIds());
+        }
+        assertThat(persistedIds).hasSize(requests);
+        assertThat(persisted).hasSize(requests / 30);
+        assertThat(store.openBatches()).isZero();
+
+        // Per-instance mode writes one document per local batch of 3, distributed mode one per 30 requests
+        long localDocuments = 4L * localBatches;
+        assertThat((long) persisted.size()).isEqualTo(localDocuments / 10);
+    }
+
+    @Test
+    void onlyTheLeaseHolderSealsOnTime() throws Exception {
+        DistributedAggregation first = start("instance-0", 100, 50);
+        DistributedAggregation second = start("instance-1", 100, 50);
+
+        first.contribute(localBatch(new AtomicLong(), 2), null);
+        second.contribute(localBatch(new AtomicLong(2), 3), null);
+        awaitPersisted(1);
+        Thread.sleep(200);
+
+        assertThat(persisted).singleElement().satisfies(batch -> {
+            assertThat(batch.getTriggerReason()).isEqualTo(DistributedAggregation.SHARED_TIME_INTERVAL);
+            assertThat(batch.getRequestIds()).containsExactly("req-0", "req-1", "req-2", "req-3", "req-4");
+        });
+        assertThat(first.isLeader() ^ second.isLeader()).isTrue();
+        assertThat(store.openBatches()).isZero();
+    }
+
+    @Test
+    void batchTurnedAwayByAFullFlushQueueStaysOpen() throws Exception {
+        FlushPipeline flushPipeline = new FlushPipeline(1, 1, "drop-newest", 1, false);
+        DistributedAggregation instance = start("instance-0", 100, 50, flushPipeline);
+        // Keep the only worker busy and the queue full, so every seal task is dropped
+        CountDownLatch release = new CountDownLatch(1);
+        AggregatedBatch filler = localBatch(new AtomicLong(1_000), 1);
+        flushPipeline.submit(filler, batch -> awaitQuietly(release));
+        flushPipeline.submit(filler, batch -> { });
+
+        instance.contribute(localBatch(new AtomicLong(), 2), null);
+        Thread.sleep(300);
+        assertThat(flushPipeline.getDroppedBatches()).isPositive();
+        assertThat(store.openBatches()).isEqualTo(1);
+        assertThat(persisted).isEmpty();
+
+        release.countDown();
+        awaitPersisted(1);
+        assertThat(persisted).singleElement().satisfies(batch -> {
+            assertThat(batch.getTriggerReason()).isEqualTo(DistributedAggregation.SHARED_TIME_INTERVAL);
+            assertThat(batch.getRequestIds()).containsExactly("req-0", "req-1");
+        });
+        assertThat(store.openBatches()).isZero();
+    }
+
+    @Test
+    void contributionWithoutRoomSealsTheOpenBatch() {
+        DistributedAggregation instance = start("instance-0", 10, 60_000);
+        AtomicLong requestIds = new AtomicLong();
+
+        instance.contribute(localBatch(requestIds, 7), null);
+        instance.contribute(localBatch(requestIds, 7), null);
+
+        assertThat(persisted).singleElement().satisfies(batch -> {
+            assertThat(batch.size()).isEqualTo(7);
+            assertThat(batch.getTriggerReason()).isEqualTo(DistributedAggregation.SHARED_COUNT_THRESHOLD);
+        });
+        assertThat(store.openBatches()).isEqualTo(1);
+        assertThat(instance.getContributions()).isEqualTo(2);
+    }
+
+    @Test
+    void localBatchIsPersistedOnItsOwnWhenTheStoreFails() {
+        DistributedAggregation instance = start("instance-0", 10, 60_000);
+        store.failure = new MongoTimeoutException("MongoDB unavailable");
+        List<String> released = new ArrayList<>();
+
+        instance.contribute(localBatch(new AtomicLong(), 3), () -> released.add("journal"));
+
+        assertThat(persisted).singleElement().satisfies(batch -> assertThat(batch.size()).isEqualTo(3));
+        assertThat(released).containsExactly("journal");
+        assertThat(instance.getLocalFallbacks()).isEqualTo(1);
+    }
+
+    @Test
+    void localBatchIsNotPersistedWhenTheContributionMayHaveBeenApplied() {
+        DistributedAggregation instance = start("instance-0", 10, 60_000);
+        // The update may have reached the server before the connection was lost
+        store.failure = new MongoSocketReadException("Connection reset", new ServerAddress());
+        List<String> released = new ArrayList<>();
+
+        instance.contribute(localBatch(new AtomicLong(), 3), () -> released.add("journal"));
+
+        assertThat(persisted).isEmpty();
+        // Left in the journal
+        assertThat(released).isEmpty();
+        assertThat(instance.getLocalFallbacks()).isZero();
+        assertThat(instance.getUnknownOutcomes()).isEqualTo(1);
+    }
+
+    private DistributedAggregation start(String instanceId, int maxBatchSize, long intervalMillis) {
+        return start(instanceId, maxBatchSize, intervalMillis, new FlushPipeline(1, 64, "block", 1, false));
+    }
+
+    private DistributedAggregation start(String instanceId, int maxBatchSize, long intervalMillis, FlushPipeline flushPipeline) {
+        flushPipelines.add(flushPipeline);
+        DistributedAggregation instance = new DistributedAggregation(store, flushPipeline,
+                maxBatchSize, intervalMillis, 1_000, 10, 30_000, instanceId);
+        instance.start((batch, onPersisted) -> {
+            persisted.add(batch);
+            if (onPersisted != null) {
+                onPersisted.run();
+            }
+        });
+        instances.add(instance);
+        return instance;
+    }
+
+    private void awaitPersisted(int batches) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (persisted.size() < batches && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(persisted).hasSizeGreaterThanOrEqualTo(batches);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static AggregatedBatch localBatch(AtomicLong requestIds, int size) {
+        List<SpanContext> spanContexts = new ArrayList<>(size);
+        List<String> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long n = requestIds.getAndIncrement();
+            spanContexts.add(SpanContext.create(String.format("%032x", n + 1), String.format("%016x", n + 1),
+                    TraceFlags.getSampled(), TraceState.getDefault()));
+            ids.add("req-" + n);
+        }
+        return new AggregatedBatch(AggregationService.DEFAULT_AGGREGATION_KEY, AggregationBuffer.COUNT_THRESHOLD,
+                spanContexts, ids, Instant.now());
+    }
+
+    /**
+     * Same semantics as {@link MongoSharedBatchStore}, one lock around everything; counts the
+     * writes MongoDB would do per batch (lease renewals are per sweep and not counted).
+     */
+    static final class InMemorySharedBatchStore implements SharedBatchStore {
+
+        final AtomicLong writes = new AtomicLong();
+        volatile RuntimeException failure; // thrown by contribute if set
+
+        private final Map<String, Batch> batches = new LinkedHashMap<>();
+        private long nextId;
+        private String leaseOwner;
+        private long leaseExpiresAtMillis;
+
+        @Override
+        public synchronized Contribution contribute(String aggregationKey, List<SpanContext> spanContexts,
+                                                    List<String> requestIds, Instant firstRequestTimestamp,
+                                                    int maxBatchSize) {
+            if (failure != null) {
+                throw failure;
+            }
+            writes.incrementAndGet();
+            Batch open = null;
+            for (Batch batch : batches.values()) {
+                if (batch.open && batch.aggregationKey.equals(aggregationKey)) {
+                    open = batch;
+                }
+            }
+            if (open != null && open.requestIds.size() + requestIds.size() > maxBatchSize) {
+                return Contribution.blocked(open.id);
+            }
+            if (open == null) {
+                open = new Batch(Long.toString(nextId++), aggregationKey);
+                batches.put(open.id, open);
+            }
+            open.spanContexts.addAll(spanContexts);
+            open.requestIds.addAll(requestIds);
+            if (open.firstRequestTimestamp == null || firstRequestTimestamp.isBefore(open.firstRequestTimestamp)) {
+                open.firstRequestTimestamp = firstRequestTimestamp;
+            }
+            return Contribution.added(open.id, open.requestIds.size());
+        }
+
+        @Override
+        public synchronized SharedBatch seal(String batchId, String owner) {
+            writes.incrementAndGet();
+            Batch batch = batches.get(batchId);
+            if (batch == null || !batch.open) {
+                return null;
+            }
+            batch.open = false;
+            return batch.toSharedBatch();
+        }
+
+        @Override
+        public synchronized List<String> findOpenBatches(Instant openedBefore, int limit) {
+            List<String> ids = new ArrayList<>();
+            for (Batch batch : batches.values()) {
+                if (batch.open && !batch.openedAt.isAfter(openedBefore) && ids.size() < limit) {
+                    ids.add(batch.id);
+                }
+            }
+            return ids;
+        }
+
+        @Override
+        public synchronized SharedBatch claimAbandoned(Instant sealedBefore, String owner) {
+            return null;
+        }
+
+        @Override
+        public synchronized void delete(String batchId) {
+            writes.incrementAndGet();
+            batches.remove(batchId);
+        }
+
+        @Override
+        public synchronized boolean acquireLease(String owner, long ttlMillis) {
+            long now = System.currentTimeMillis();
+            if (leaseOwner != null && !leaseOwner.equals(owner) && leaseExpiresAtMillis >= now) {
+                return false;
+            }
+            leaseOwner = owner;
+            leaseExpiresAtMillis = now + ttlMillis;
+            return true;
+        }
+
+        @Override
+        public synchronized void releaseLease(String owner) {
+            if (owner.equals(leaseOwner)) {
+                leaseOwner = null;
+            }
+        }
+
+        synchronized int openBatches() {
+            int open = 0;
+            for (Batch batch : batches.values()) {
+                if (batch.open) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        private static final class Batch {
+
+            final String id;
+            final String aggregationKey;
+            final Instant openedAt = Instant.now();
+            final List<SpanContext> spanContexts = new ArrayList<>();
+            final List<String> requestIds = new ArrayList<>();
+            Instant firstRequestTimestamp;
+            boolean open = true;
+
+            Batch(String id, String aggregationKey) {
+                this.id = id;
+                this.aggregationKey = aggregationKey;
+            }
+
+            SharedBatch toSharedBatch() {
+                return new SharedBatch(id, aggregationKey, List.copyOf(spanContexts), List.copyOf(requestIds),
+                        firstRequestTimestamp);
+            }
+        }
+    }
+}
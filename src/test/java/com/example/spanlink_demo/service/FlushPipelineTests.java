@@ -0,0 +1,163 @@
+package com.example.spanlink_demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The queue-full policies on a pipeline of one worker and a queue of one batch: the worker is held
+ * on the first batch and the second fills the queue, so the third finds it full.
+ */
+class FlushPipelineTests {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> flushed = new CopyOnWriteArrayList<>();
+    private final List<String> flushThreads = new CopyOnWriteArrayList<>();
+    private FlushPipeline flushPipeline;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        flushPipeline.shutdown();
+    }
+
+    @Test
+    void blockWaitsForAFreeQueueSlot() throws InterruptedException {
+        fill("block");
+
+        Thread sealing = new Thread(() -> flushPipeline.submit(batch("third", 1), record("third")));
+        sealing.start();
+        sealing.join(200);
+        assertThat(sealing.isAlive()).isTrue();
+
+        release.countDown();
+        sealing.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(sealing.isAlive()).isFalse();
+        assertThat(awaitFlushed(3)).containsExactly("first", "second", "third");
+        assertThat(flushPipeline.getDroppedBatches()).isZero();
+    }
+
+    @Test
+    void callerRunsFlushesOnTheSealingThread() {
+        fill("caller-runs");
+
+        flushPipeline.submit(batch("third", 1), record("third"));
+
+        assertThat(flushed).containsExactly("third");
+        assertThat(flushThreads).containsExactly(Thread.currentThread().getName());
+        release.countDown();
+        assertThat(awaitFlushed(3)).containsExactlyInAnyOrder("first", "second", "third");
+        assertThat(flushPipeline.getDroppedBatches()).isZero();
+    }
+
+    @Test
+    void dropNewestDropsTheBatchThatFoundTheQueueFull() {
+        fill("drop-newest");
+
+        flushPipeline.submit(batch("third", 4), record("third"));
+
+        assertThat(flushPipeline.getDroppedBatches()).isEqualTo(1);
+        assertThat(flushPipeline.getDroppedSpanContexts()).isEqualTo(4);
+        release.countDown();
+        assertThat(awaitFlushed(2)).containsExactly("first", "second");
+    }
+
+    @Test
+    void dropOldestEvictsTheQueuedBatch() {
+        fill("drop-oldest");
+
+        flushPipeline.submit(batch("third", 1), record("third"));
+
+        assertThat(flushPipeline.getDroppedBatches()).isEqualTo(1);
+        assertThat(flushPipeline.getDroppedSpanContexts()).isEqualTo(2);
+        release.countDown();
+        assertThat(awaitFlushed(2)).containsExactly("first", "third");
+    }
+
+    @Test
+    void trySubmitNeitherBlocksNorRunsTheFlushWithBlock() {
+        fill("block");
+
+        flushPipeline.trySubmit(batch("third", 1), record("third"));
+
+        assertThat(flushPipeline.getOverflowedBatches()).isEqualTo(1);
+        assertThat(flushPipeline.getDroppedBatches()).isEqualTo(1);
+        release.countDown();
+        assertThat(awaitFlushed(2)).containsExactly("first", "second");
+    }
+
+    @Test
+    void trySubmitNeitherBlocksNorRunsTheFlushWithCallerRuns() {
+        fill("caller-runs");
+
+        flushPipeline.trySubmit(batch("third", 1), record("third"));
+
+        assertThat(flushed).isEmpty();
+        assertThat(flushPipeline.getOverflowedBatches()).isEqualTo(1);
+        release.countDown();
+        assertThat(awaitFlushed(2)).containsExactly("first", "second");
+    }
+
+    @Test
+    void trySubmitQueuesWhileThereIsRoom() {
+        flushPipeline = new FlushPipeline(1, 1, "block", 1, false);
+
+        flushPipeline.trySubmit(batch("first", 1), record("first"));
+
+        assertThat(awaitFlushed(1)).containsExactly("first");
+        assertThat(flushPipeline.getOverflowedBatches()).isZero();
+    }
+
+    /**
+     * Holds the only worker on {@code first} and queues {@code second}.
+     */
+    private void fill(String policy) {
+        flushPipeline = new FlushPipeline(1, 1, policy, 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        flushPipeline.submit(batch("first", 1), batch -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record("first").accept(batch);
+        });
+        try {
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        flushPipeline.submit(batch("second", 2), record("second"));
+        assertThat(flushPipeline.getQueueDepth()).isEqualTo(1);
+    }
+
+    private Consumer<AggregatedBatch> record(String name) {
+        return batch -> {
+            flushThreads.add(Thread.currentThread().getName());
+            flushed.add(name);
+        };
+    }
+
+    private List<String> awaitFlushed(int count) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flushed.size() < count && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        return flushed;
+    }
+
+    private static AggregatedBatch batch(String name, int size) {
+        return new AggregatedBatch("default", name, Collections.nCopies(size, null),
+                Collections.nCopies(size, "req"), null);
+    }
+}
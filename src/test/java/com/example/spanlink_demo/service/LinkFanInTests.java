@@ -0,0 +1,198 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument.FanInSpanData;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.example.spanlink_demo.service.AggregationBufferTests.spanContext;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link LinkFanIn} on an SDK tracer with the default limit of 128 links per span: every request
+ * span of a batch must be linked exactly once, by a span that kept all of its links.
+ */
+class LinkFanInTests {
+
+    private static final int MAX_LINKS = 128;
+
+    private final ConcurrentLinkedQueue<SpanData> endedSpans = new ConcurrentLinkedQueue<>();
+    private final Tracer tracer = SdkTracerProvider.builder()
+            .setSpanLimits(SpanLimits.builder().setMaxNumberOfLinks(MAX_LINKS).build())
+            .addSpanProcessor(new CollectingSpanProcessor())
+            .build()
+            .get("test");
+
+    @Test
+    void smallBatchIsLinkedByTheMasterSpan() {
+        LinkFanIn fanIn = new LinkFanIn(MAX_LINKS, 64);
+        AggregatedBatch batch = batch(MAX_LINKS);
+
+        Span master = AggregationService.startAggregatedActionSpan(tracer, batch, fanIn);
+        List<FanInSpanData> mapping = fanIn.fanIn(tracer, master, batch);
+        master.end();
+
+        assertThat(mapping).isEmpty();
+        assertThat(endedSpans).singleElement().satisfies(span -> {
+            assertThat(span.getName()).isEqualTo("aggregated-action");
+            assertThat(span.getLinks()).extracting(LinkData::getSpanContext).containsExactlyElementsOf(batch.getSpanContexts());
+            assertThat(span.getTotalRecordedLinks()).isEqualTo(MAX_LINKS);
+            // Only the first few requests get an attribute of their own, all are in x-request-id.all
+            assertThat(span.getAttributes().get(AttributeKey.stringKey("x-request-id-3"))).isEqualTo("req-2");
+            assertThat(span.getAttributes().get(AttributeKey.stringKey("x-request-id-4"))).isNull();
+            assertThat(span.getAttributes().get(AttributeKey.stringKey("x-request-id.all"))).endsWith(",req-127");
+            assertThat(span.getTotalAttributeCount()).isEqualTo(span.getAttributes().size());
+        });
+    }
+
+    @Test
+    void tenThousandContextsAreLinkedOnceThroughFanInSpans() {
+        LinkFanIn fanIn = new LinkFanIn(MAX_LINKS, 64);
+        AggregatedBatch batch = batch(10_000);
+
+        Span master = AggregationService.startAggregatedActionSpan(tracer, batch, fanIn);
+        List<FanInSpanData> mapping = fanIn.fanIn(tracer, master, batch);
+        master.end();
+
+        assertNoLinkLost(batch, master, mapping);
+        // 79 linked spans under 2 grouping spans, see LinkFanIn
+        assertThat(mapping).filteredOn(FanInSpanData::isLinked).hasSize(79);
+        assertThat(mapping).filteredOn(data -> !data.isLinked()).hasSize(2);
+        SpanData masterData = spanData(master.getSpanContext().getSpanId());
+        assertThat(masterData.getLinks()).isEmpty();
+        assertThat(masterData.getAttributes().get(AttributeKey.booleanKey("fan-in"))).isTrue();
+        assertThat(masterData.getAttributes().get(AttributeKey.longKey("x-request-id.count"))).isEqualTo(10_000L);
+    }
+
+    @Test
+    void deepTreesKeepEverySpanWithinTheLimits() {
+        // 3 links and 4 children per span: 1,000 contexts need 334 linked spans over 4 levels of grouping
+        LinkFanIn fanIn = new LinkFanIn(3, 4);
+        AggregatedBatch batch = batch(1_000);
+
+        Span master = AggregationService.startAggregatedActionSpan(tracer, batch, fanIn);
+        List<FanInSpanData> mapping = fanIn.fanIn(tracer, master, batch);
+        master.end();
+
+        assertNoLinkLost(batch, master, mapping);
+        Map<String, Integer> children = new HashMap<>();
+        for (FanInSpanData data : mapping) {
+            children.merge(data.getParentSpanId(), 1, Integer::sum);
+            if (data.isLinked()) {
+                assertThat(data.getCount()).isLessThanOrEqualTo(3);
+            }
+        }
+        assertThat(children.values()).allSatisfy(count -> assertThat(count).isLessThanOrEqualTo(4));
+    }
+
+    @Test
+    void zeroLinksPerSpanAlwaysLinksDirectly() {
+        LinkFanIn fanIn = new LinkFanIn(0, 64);
+
+        assertThat(fanIn.linksDirectly(1_000_000)).isTrue();
+        assertThat(fanIn.fanIn(tracer, Span.getInvalid(), batch(1_000))).isEmpty();
+    }
+
+    private void assertNoLinkLost(AggregatedBatch batch, Span master, List<FanInSpanData> mapping) {
+        String traceId = master.getSpanContext().getTraceId();
+        Map<String, SpanData> spans = new HashMap<>();
+        for (SpanData span : endedSpans) {
+            spans.put(span.getSpanId(), span);
+            assertThat(span.getTraceId()).isEqualTo(traceId);
+            assertThat(span.getTotalRecordedLinks()).isEqualTo(span.getLinks().size());
+            assertThat(span.getLinks()).hasSizeLessThanOrEqualTo(MAX_LINKS);
+        }
+        assertThat(spans).hasSize(mapping.size() + 1);
+
+        List<SpanContext> linked = new ArrayList<>();
+        int nextOffset = 0;
+        for (FanInSpanData data : mapping) {
+            SpanData span = spans.get(data.getSpanId());
+            assertThat(span).isNotNull();
+            assertThat(span.getName()).isEqualTo(LinkFanIn.SPAN_NAME);
+            assertThat(span.getParentSpanId()).isEqualTo(data.getParentSpanId());
+            assertThat(chainsUpTo(span, master.getSpanContext().getSpanId(), spans)).isTrue();
+            if (data.isLinked()) {
+                // Linked spans come in request order and cover the batch without gaps
+                assertThat(data.getOffset()).isEqualTo(nextOffset);
+                assertThat(span.getLinks()).extracting(LinkData::getSpanContext)
+                        .containsExactlyElementsOf(batch.getSpanContexts().subList(data.getOffset(), data.getOffset() + data.getCount()));
+                linked.addAll(span.getLinks().stream().map(LinkData::getSpanContext).toList());
+                nextOffset += data.getCount();
+            } else {
+                assertThat(span.getLinks()).isEmpty();
+            }
+        }
+        assertThat(nextOffset).isEqualTo(batch.size());
+        assertThat(linked).containsExactlyElementsOf(batch.getSpanContexts());
+        Set<SpanContext> unique = new HashSet<>(linked);
+        assertThat(unique).hasSize(batch.size());
+    }
+
+    private static boolean chainsUpTo(SpanData span, String masterSpanId, Map<String, SpanData> spans) {
+        SpanData current = span;
+        while (current != null) {
+            if (current.getParentSpanId().equals(masterSpanId)) {
+                return true;
+            }
+            current = spans.get(current.getParentSpanId());
+        }
+        return false;
+    }
+
+    private SpanData spanData(String spanId) {
+        return endedSpans.stream().filter(span -> span.getSpanId().equals(spanId)).findFirst().orElseThrow();
+    }
+
+    private static AggregatedBatch batch(int size) {
+        List<SpanContext> spanContexts = new ArrayList<>(size);
+        List<String> requestIds = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            spanContexts.add(spanContext(i));
+            requestIds.add("req-" + i);
+        }
+        return new AggregatedBatch(AggregationService.DEFAULT_AGGREGATION_KEY, AggregationBuffer.COUNT_THRESHOLD,
+                spanContexts, requestIds, Instant.now());
+    }
+
+    private final class CollectingSpanProcessor implements SpanProcessor {
+
+        @Override
+        public void onStart(Context parentContext, ReadWriteSpan span) {
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return false;
+        }
+
+        @Override
+        public void onEnd(ReadableSpan span) {
+            endedSpans.add(span.toSpanData());
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.repository.ReactiveAggregatedContextRepository;
+import com.example.spanlink_demo.sink.ContextSinks;
+import com.example.spanlink_demo.sink.InMemoryContextSink;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.example.spanlink_demo.service.AggregationBufferTests.spanContext;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactiveAggregationPipelineTests {
+
+    private final BlockingQueue<AggregatedContextDocument> inserted = new ArrayBlockingQueue<>(16);
+    private ReactiveAggregationPipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    void windowIsInsertedWhenCountIsReached() throws Exception {
+        pipeline = pipeline(3, 10, 1024, 4, document -> {
+            inserted.add(document);
+            return Mono.just(document);
+        });
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(pipeline.offer(spanContext(i), "req-" + i)).isTrue();
+        }
+
+        AggregatedContextDocument document = inserted.poll(5, TimeUnit.SECONDS);
+        assertThat(document).isNotNull();
+        assertThat(document.getTriggerReason()).isEqualTo(AggregationBuffer.COUNT_THRESHOLD);
+        assertThat(document.getPendingRequestIds()).containsExactly("req-0", "req-1", "req-2");
+        assertThat(document.getPendingSpanContexts()).hasSize(3);
+    }
+
+    @Test
+    void partialWindowIsInsertedAfterTheInterval() throws Exception {
+        pipeline = pipeline(100, 1, 1024, 4, document -> {
+            inserted.add(document);
+            return Mono.just(document);
+        });
+
+        long start = System.currentTimeMillis();
+        pipeline.offer(spanContext(0), "req-0");
+        pipeline.offer(spanContext(1), "req-1");
+
+        AggregatedContextDocument document = inserted.poll(5, TimeUnit.SECONDS);
+        assertThat(document).isNotNull();
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(900);
+        assertThat(document.getTriggerReason()).isEqualTo(AggregationBuffer.TIME_INTERVAL);
+        assertThat(document.getPendingRequestIds()).containsExactly("req-0", "req-1");
+    }
+
+    @Test
+    void rejectsRequestsOnceStalledInsertsFillTheBuffer() {
+        // Inserts never complete, so demand stops after the first window and the buffer fills up
+        pipeline = pipeline(1, 10, 16, 1, document -> Mono.never());
+
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (pipeline.offer(spanContext(i), "req-" + i)) {
+                accepted++;
+            }
+        }
+
+        assertThat(accepted).isLessThan(1000);
+        assertThat(pipeline.getRejectedRequests()).isEqualTo(1000 - accepted);
+        assertThat(pipeline.getAcceptedRequests()).isEqualTo(accepted);
+    }
+
+    private ReactiveAggregationPipeline pipeline(int triggerCount, long intervalSeconds, int bufferCapacity,
+                                                 int maxInFlightInserts,
+                                                 Function<AggregatedContextDocument, Mono<AggregatedContextDocument>> insert) {
+        ReactiveAggregatedContextRepository repository = (ReactiveAggregatedContextRepository) Proxy.newProxyInstance(
+                ReactiveAggregatedContextRepository.class.getClassLoader(),
+                new Class<?>[]{ReactiveAggregatedContextRepository.class},
+                (target, method, args) -> {
+                    if ("insert".equals(method.getName()) && args[0] instanceof AggregatedContextDocument document) {
+                        return insert.apply(document);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        MongoContextService mongoContextService = new MongoContextService(ContextSinks.of(new InMemoryContextSink(16)));
+        ReflectionTestUtils.setField(mongoContextService, "spanContextEncoding", "string");
+
+        ReactiveAggregationPipeline pipeline = new ReactiveAggregationPipeline(
+                SdkTracerProvider.builder().build().get("test"), mongoContextService, repository);
+        ReflectionTestUtils.setField(pipeline, "triggerCount", triggerCount);
+        ReflectionTestUtils.setField(pipeline, "triggerIntervalSeconds", intervalSeconds);
+        ReflectionTestUtils.setField(pipeline, "bufferCapacity", bufferCapacity);
+        ReflectionTestUtils.setField(pipeline, "maxInFlightInserts", maxInFlightInserts);
+        ReflectionTestUtils.setField(pipeline, "shutdownTimeoutSeconds", 1L);
+        pipeline.init();
+        return pipeline;
+    }
+}
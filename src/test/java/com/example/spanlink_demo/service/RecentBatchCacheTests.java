@@ -0,0 +1,87 @@
+package com.example.spanlink_demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentBatchCacheTests {
+
+    private static final String MASTER_TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+
+    @Test
+    void mapsEveryRequestOfAFlushedBatchToItsMasterTrace() {
+        RecentBatchCache cache = new RecentBatchCache(100, 60_000, clock::get);
+        Instant first = Instant.ofEpochMilli(999_000);
+        cache.put(new AggregatedBatch("orders", "count_threshold", List.of(), List.of("req-1", "req-2"), first),
+                MASTER_TRACE_ID);
+
+        RecentBatchCache.Entry entry = cache.get("req-2");
+        assertThat(entry.getMasterTraceId()).isEqualTo(MASTER_TRACE_ID);
+        assertThat(entry.getAggregationKey()).isEqualTo("orders");
+        assertThat(entry.getTriggerReason()).isEqualTo("count_threshold");
+        assertThat(entry.getFlushedAt()).isEqualTo(Instant.ofEpochMilli(1_000_000));
+        assertThat(entry.getFirstRequestTimestamp()).isEqualTo(first);
+        assertThat(cache.get("req-3")).isNull();
+
+        // A repeated x-request-id maps to its latest batch
+        cache.put(batch("req-1"), "ffffffffffffffff0000000000000001");
+        assertThat(cache.get("req-1").getMasterTraceId()).isEqualTo("ffffffffffffffff0000000000000001");
+
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    void sizeBoundEvictsTheOldestGeneration() {
+        RecentBatchCache cache = new RecentBatchCache(100, 60_000, clock::get);
+        List<String> requestIds = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            requestIds.add("req-" + i);
+        }
+        // One batch spanning two rotations
+        cache.put(batch(requestIds.toArray(String[]::new)), MASTER_TRACE_ID);
+
+        assertThat(cache.getSize()).isLessThanOrEqualTo(cache.getMaxEntries());
+        assertThat(cache.getEvictions()).isEqualTo(50);
+        assertThat(cache.get("req-0")).isNull();
+        assertThat(cache.get("req-50").getMasterTraceId()).isEqualTo(MASTER_TRACE_ID);
+        assertThat(cache.get("req-149").getMasterTraceId()).isEqualTo(MASTER_TRACE_ID);
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() {
+        RecentBatchCache cache = new RecentBatchCache(100, 60_000, clock::get);
+        cache.put(batch("req-1"), MASTER_TRACE_ID);
+
+        clock.addAndGet(40_000);
+        cache.put(batch("req-2"), MASTER_TRACE_ID);
+        assertThat(cache.get("req-1")).isNotNull();
+
+        clock.addAndGet(30_000);
+        assertThat(cache.get("req-1")).isNull();
+        assertThat(cache.get("req-2")).isNotNull();
+
+        // Half the TTL after the current generation started, the next put evicts the oldest one
+        cache.put(batch("req-3"), MASTER_TRACE_ID);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    void fingerprintsAreNonZeroAndDistinct() {
+        assertThat(RecentBatchCache.fingerprint("")).isNotZero();
+        assertThat(RecentBatchCache.fingerprint("req-1")).isNotEqualTo(RecentBatchCache.fingerprint("req-2"));
+    }
+
+    private static AggregatedBatch batch(String... requestIds) {
+        return new AggregatedBatch("default", "count_threshold", List.of(), List.of(requestIds), null);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.spanlink_demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestDeduplicatorTests {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    void retryWithinTheWindowIsADuplicate() {
+        RequestDeduplicator deduplicator = new RequestDeduplicator(60_000, 1_000, 0.001, now::get);
+
+        assertThat(deduplicator.firstSeen("req-1")).isTrue();
+        assertThat(deduplicator.firstSeen("req-2")).isTrue();
+        assertThat(deduplicator.firstSeen("req-1")).isFalse();
+        assertThat(deduplicator.firstSeen("req-1")).isFalse();
+
+        assertThat(deduplicator.getChecked()).isEqualTo(4);
+        assertThat(deduplicator.getDuplicates()).isEqualTo(2);
+    }
+
+    @Test
+    void idIsRememberedForOneToTwoWindows() {
+        RequestDeduplicator deduplicator = new RequestDeduplicator(60_000, 1_000, 0.001, now::get);
+        deduplicator.firstSeen("req-1");
+
+        now.addAndGet(60_000);
+        deduplicator.firstSeen("other");
+        now.addAndGet(59_000);
+        // Previous generation
+        assertThat(deduplicator.firstSeen("other")).isFalse();
+
+        now.addAndGet(61_000);
+        assertThat(deduplicator.firstSeen("req-1")).isTrue();
+        assertThat(deduplicator.getRotations()).isEqualTo(2);
+    }
+
+    @Test
+    void burstBeyondExpectedRequestsRotatesEarly() {
+        RequestDeduplicator deduplicator = new RequestDeduplicator(60_000, 100, 0.001, now::get);
+
+        for (int i = 0; i < 250; i++) {
+            deduplicator.firstSeen("req-" + i);
+        }
+
+        assertThat(deduplicator.getRotations()).isEqualTo(2);
+        // Still in the previous generation
+        assertThat(deduplicator.firstSeen("req-199")).isFalse();
+        assertThat(deduplicator.firstSeen("req-0")).isTrue();
+    }
+
+    @Test
+    void measuredFalsePositiveRateStaysWithinTheBudget() {
+        int expected = 100_000;
+        double budget = 0.01;
+        RequestDeduplicator deduplicator = new RequestDeduplicator(60_000, expected, budget, now::get);
+        for (int i = 0; i < expected; i++) {
+            deduplicator.firstSeen("req-" + i);
+        }
+        double estimated = deduplicator.getEstimatedFalsePositiveRate();
+
+        // Every probe is a new ID, so every duplicate is a false positive
+        int probes = 20_000;
+        long before = deduplicator.getDuplicates();
+        for (int i = 0; i < probes; i++) {
+            deduplicator.firstSeen("probe-" + i);
+        }
+        double measured = (double) (deduplicator.getDuplicates() - before) / probes;
+
+        // -n ln(p) / ln(2)^2 = 958,506 bits, rounded up to 2^20; m/n ln(2) = 7 hashes
+        assertThat(deduplicator.getBits()).isEqualTo(1 << 20);
+        assertThat(deduplicator.getHashes()).isEqualTo(7);
+        assertThat(estimated).isPositive().isLessThanOrEqualTo(budget);
+        assertThat(measured).isLessThanOrEqualTo(budget * 1.5);
+    }
+}
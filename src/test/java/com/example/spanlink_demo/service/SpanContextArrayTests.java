@@ -0,0 +1,85 @@
+package com.example.spanlink_demo.service;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import com.example.spanlink_demo.sink.ContextSinks;
+import com.example.spanlink_demo.sink.InMemoryContextSink;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpanContextArrayTests {
+
+    private static final List<SpanContext> SPAN_CONTEXTS = List.of(
+            SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+                    TraceFlags.getSampled(), TraceState.getDefault()),
+            SpanContext.createFromRemoteParent("ffffffffffffffff0000000000000001", "8000000000000000",
+                    TraceFlags.getDefault(), TraceContextCodec.parseTracestate("vendor=value,other=1")),
+            SpanContext.getInvalid());
+
+    @Test
+    void spanContextsRoundTripThroughTheColumns() {
+        SpanContextArray columns = columns(SPAN_CONTEXTS);
+
+        assertThat(columns).containsExactlyElementsOf(SPAN_CONTEXTS);
+        assertThat(columns.traceIdBytes(1)).isEqualTo(SPAN_CONTEXTS.get(1).getTraceIdBytes());
+        assertThat(columns.spanIdBytes(1)).isEqualTo(SPAN_CONTEXTS.get(1).getSpanIdBytes());
+        assertThat(columns.traceparent(0)).isEqualTo(TraceContextCodec.formatTraceparent(SPAN_CONTEXTS.get(0)));
+        assertThatThrownBy(() -> columns.get(3)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"string", "compact"})
+    void documentFromTheColumnsMatchesTheDocumentFromSpanContexts(String encoding) {
+        MongoContextService mongoContextService = new MongoContextService(ContextSinks.of(new InMemoryContextSink(16)));
+        ReflectionTestUtils.setField(mongoContextService, "spanContextEncoding", encoding);
+        List<String> requestIds = List.of("req-0", "req-1", "req-2");
+
+        AggregatedContextDocument fromColumns = mongoContextService.toDocument("default", "count_threshold",
+                columns(SPAN_CONTEXTS), requestIds, "0af7651916cd43dd8448eb211c80319c", Instant.EPOCH);
+        AggregatedContextDocument fromSpanContexts = mongoContextService.toDocument("default", "count_threshold",
+                new ArrayList<>(SPAN_CONTEXTS), requestIds, "0af7651916cd43dd8448eb211c80319c", Instant.EPOCH);
+
+        assertThat(fromColumns.getPendingSpanContexts())
+                .usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(fromSpanContexts.getPendingSpanContexts());
+        assertThat(fromColumns.getPendingSpanContexts()).extracting(SpanContextData::toSpanContext)
+                .extracting(SpanContext::getSpanId)
+                .containsExactly("b7ad6b7169203331", "8000000000000000", SpanContext.getInvalid().getSpanId());
+    }
+
+    @Test
+    void releaseHandsTheColumnsBackOnce() {
+        List<SpanContextArray> recycled = new ArrayList<>();
+        SpanContextArray columns = new SpanContextArray(4);
+        columns.store(0, SPAN_CONTEXTS.get(0));
+        columns.seal(1, recycled::add);
+
+        columns.release();
+        columns.release();
+
+        assertThat(recycled).containsExactly(columns);
+        assertThat(columns).isEmpty();
+    }
+
+    private static SpanContextArray columns(List<SpanContext> spanContexts) {
+        SpanContextArray columns = new SpanContextArray(spanContexts.size());
+        for (int i = 0; i < spanContexts.size(); i++) {
+            columns.store(i, spanContexts.get(i));
+        }
+        columns.seal(spanContexts.size(), null);
+        return columns;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.spanlink_demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.spanlink_demo.service.AggregationBufferTests.spanContext;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTimerTests {
+
+    // Small wheel so that most delays cascade through overflow wheels
+    private final TimingWheelTimer timer = new TimingWheelTimer("test-timer", 1, 8);
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void firesShortAndCascadedTimeoutsNoEarlierThanTheirDelay() throws Exception {
+        long[] delays = {3, 20, 150, 700};
+        CountDownLatch fired = new CountDownLatch(delays.length);
+        AtomicInteger early = new AtomicInteger();
+        for (long delay : delays) {
+            long start = System.nanoTime();
+            timer.schedule(() -> {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                // Deadlines are rounded down to the tick, so allow one tick of slack
+                if (elapsed < delay - 1) {
+                    early.incrementAndGet();
+                }
+                fired.countDown();
+            }, delay);
+        }
+
+        assertThat(fired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(early).hasValue(0);
+        assertThat(timer.pendingTimeouts()).isZero();
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheelTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 30);
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 80);
+
+        timeout.cancel();
+
+        assertThat(later.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(runs).hasValue(0);
+        assertThat(timeout.isCancelled()).isTrue();
+    }
+
+    @Test
+    void windowIsSealedByTimerAtItsOwnInterval() throws Exception {
+        BlockingQueue<AggregatedBatch> sealed = new ArrayBlockingQueue<>(4);
+        AggregationWindow window = new AggregationWindow("tenant-a", () -> 100, () -> 50, timer, sealed::add);
+
+        long start = System.currentTimeMillis();
+        window.add(spanContext(0), "req-0");
+        window.add(spanContext(1), "req-1");
+        AggregatedBatch batch = sealed.poll(5, TimeUnit.SECONDS);
+
+        assertThat(batch).isNotNull();
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(50);
+        assertThat(batch.getAggregationKey()).isEqualTo("tenant-a");
+        assertThat(batch.getTriggerReason()).isEqualTo(AggregationBuffer.TIME_INTERVAL);
+        assertThat(batch.getRequestIds()).containsExactly("req-0", "req-1");
+        assertThat(window.pendingCount()).isZero();
+    }
+
+    @Test
+    void windowIdleForAnIntervalAfterItsSealIsReported() throws Exception {
+        BlockingQueue<AggregatedBatch> sealed = new ArrayBlockingQueue<>(4);
+        BlockingQueue<AggregationWindow> idle = new ArrayBlockingQueue<>(4);
+        AggregationWindow window = new AggregationWindow("tenant-a", () -> 2, () -> 50, timer, sealed::add, idle::add);
+
+        // Sealed by count: its interval trigger is cancelled, the idle check still runs
+        long start = System.currentTimeMillis();
+        window.add(spanContext(0), "req-0");
+        assertThat(window.add(spanContext(1), "req-1")).isNotNull();
+
+        assertThat(idle.poll(5, TimeUnit.SECONDS)).isSameAs(window);
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(50);
+        assertThat(sealed).isEmpty();
+    }
+
+    @Test
+    void windowTakingRequestsIsNotReportedIdle() throws Exception {
+        BlockingQueue<AggregatedBatch> sealed = new ArrayBlockingQueue<>(16);
+        BlockingQueue<AggregationWindow> idle = new ArrayBlockingQueue<>(4);
+        AggregationWindow window = new AggregationWindow("tenant-a", () -> 100, () -> 100, timer, sealed::add, idle::add);
+
+        // One request every 20ms: sealed by time every 100ms, never idle for a whole interval
+        for (int i = 0; i < 10; i++) {
+            window.add(spanContext(i), "req-" + i);
+            Thread.sleep(20);
+        }
+        assertThat(idle).isEmpty();
+
+        assertThat(idle.poll(5, TimeUnit.SECONDS)).isSameAs(window);
+        assertThat(sealed.stream().mapToInt(AggregatedBatch::size).sum()).isEqualTo(10);
+    }
+}
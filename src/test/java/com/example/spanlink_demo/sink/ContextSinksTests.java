@@ -0,0 +1,250 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContextSinksTests {
+
+    private final List<ContextSinks> started = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(ContextSinks::shutdown);
+    }
+
+    @Test
+    void singleSinkIsWrittenOnTheCallingThread() {
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        ContextSinks sinks = start(List.of(memory));
+        AtomicInteger persisted = new AtomicInteger();
+        AggregatedContextDocument document = document(0);
+
+        sinks.write(document, persisted::incrementAndGet);
+
+        assertThat(persisted).hasValue(1);
+        assertThat(memory.recent(10)).containsExactly(document);
+        assertThat(sinks.getWritten(memory)).isEqualTo(1);
+        assertThat(sinks.isWriteBehind()).isFalse();
+    }
+
+    @Test
+    void failedWriteOfASingleSinkIsThrown() {
+        ContextSink failing = new FailingSink();
+        ContextSinks sinks = start(List.of(failing));
+        AtomicInteger persisted = new AtomicInteger();
+
+        assertThatThrownBy(() -> sinks.write(document(0), persisted::incrementAndGet))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(persisted).hasValue(0);
+        assertThat(sinks.getFailed(failing)).isEqualTo(1);
+    }
+
+    @Test
+    void slowSinkDoesNotHoldUpTheOthers() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        BlockingSink slow = new BlockingSink(gate);
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        ContextSinks sinks = start(List.of(slow, memory));
+        CountDownLatch persisted = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            sinks.write(document(i), persisted::countDown);
+        }
+
+        // The memory sink has every document while the slow sink is stuck on the first one
+        assertThat(waitFor(() -> memory.getWritten() == 5)).isTrue();
+        assertThat(waitFor(() -> sinks.getQueueDepth(slow) == 4)).isTrue();
+        assertThat(persisted.getCount()).isEqualTo(5);
+        assertThat(sinks.isWriteBehind()).isTrue();
+
+        // A batch is persisted once the last sink has it
+        gate.countDown();
+        assertThat(persisted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(sinks.getWritten(slow)).isEqualTo(5);
+    }
+
+    @Test
+    void fullSinkQueueOverflowsInsteadOfBlocking() {
+        CountDownLatch gate = new CountDownLatch(1);
+        BlockingSink slow = new BlockingSink(gate);
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        ContextSinks sinks = new ContextSinks(List.of(slow, memory), 1, 10, false);
+        started.add(sinks);
+        AtomicInteger persisted = new AtomicInteger();
+
+        // The slow sink is stuck on the first document, the second fills its queue
+        sinks.write(document(0), persisted::incrementAndGet);
+        assertThat(waitFor(() -> sinks.getQueueDepth(slow) == 0)).isTrue();
+        sinks.write(document(1), persisted::incrementAndGet);
+        long startNanos = System.nanoTime();
+        sinks.write(document(2), persisted::incrementAndGet);
+
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos)).isZero();
+        assertThat(sinks.getOverflowed(slow)).isEqualTo(1);
+        assertThat(sinks.getOverflowed(memory)).isZero();
+        assertThat(waitFor(() -> memory.getWritten() == 3)).isTrue();
+
+        // The batch the slow sink missed is not persisted, so it stays in the journal
+        gate.countDown();
+        assertThat(waitFor(() -> sinks.getWritten(slow) == 2)).isTrue();
+        assertThat(persisted).hasValue(2);
+    }
+
+    @Test
+    void documentIdIsAssignedBeforeTheSinksSeeIt() {
+        List<String> seenIds = new CopyOnWriteArrayList<>();
+        ContextSink recording = new ContextSink() {
+            @Override
+            public String getName() {
+                return "recording";
+            }
+
+            @Override
+            public void write(AggregatedContextDocument document, Runnable onPersisted) {
+                seenIds.add(document.getId());
+                onPersisted.run();
+            }
+        };
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        ContextSinks sinks = start(List.of(recording, memory));
+        AggregatedContextDocument document = document(0);
+
+        sinks.write(document, null);
+
+        assertThat(document.getId()).isNotNull();
+        assertThat(waitFor(() -> seenIds.size() == 1 && memory.getWritten() == 1)).isTrue();
+        assertThat(seenIds).containsExactly(document.getId());
+    }
+
+    @Test
+    void batchIsNotPersistedWhenOneOfSeveralSinksFails() {
+        ContextSink failing = new FailingSink();
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        ContextSinks sinks = start(List.of(failing, memory));
+        AtomicInteger persisted = new AtomicInteger();
+
+        sinks.write(document(0), persisted::incrementAndGet);
+
+        assertThat(waitFor(() -> sinks.getFailed(failing) == 1 && memory.getWritten() == 1)).isTrue();
+        assertThat(persisted).hasValue(0);
+    }
+
+    @Test
+    void sinksCreatedAfterStartupAreWaitedFor() throws InterruptedException {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        InMemoryContextSink memory = new InMemoryContextSink(16);
+        beans.addBean("memory", memory);
+        ContextSinks sinks = new ContextSinks(beans.getBeanProvider(ContextSink.class), 16, 1000, false, true);
+        started.add(sinks);
+        AtomicInteger readyCallbacks = new AtomicInteger();
+        sinks.onReady(readyCallbacks::incrementAndGet);
+        CountDownLatch persisted = new CountDownLatch(1);
+
+        // A flush worker writing before the sinks exist waits for them
+        Thread flushWorker = new Thread(() -> sinks.write(document(0), persisted::countDown));
+        flushWorker.start();
+        assertThat(persisted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(readyCallbacks).hasValue(0);
+
+        sinks.start();
+        assertThat(persisted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(memory.getWritten()).isEqualTo(1);
+        assertThat(readyCallbacks).hasValue(1);
+        flushWorker.join();
+    }
+
+    @Test
+    void memoryRingKeepsTheNewestDocuments() {
+        InMemoryContextSink memory = new InMemoryContextSink(3);
+        List<AggregatedContextDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            documents.add(document(i));
+            memory.write(documents.get(i), null);
+        }
+
+        assertThat(memory.recent(10)).containsExactly(documents.get(4), documents.get(3), documents.get(2));
+        assertThat(memory.recent(1)).containsExactly(documents.get(4));
+        assertThat(memory.getEvicted()).isEqualTo(2);
+    }
+
+    @Test
+    void noSinkIsAConfigurationError() {
+        assertThatThrownBy(() -> new ContextSinks(List.of(), 16, false))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("aggregation.sink.mongo.enabled");
+    }
+
+    private ContextSinks start(List<ContextSink> sinks) {
+        ContextSinks contextSinks = new ContextSinks(sinks, 16, false);
+        started.add(contextSinks);
+        return contextSinks;
+    }
+
+    static AggregatedContextDocument document(int n) {
+        return new AggregatedContextDocument("default", "count_threshold", List.of("req-" + n), List.of(),
+                String.format("%032x", n + 1), Instant.EPOCH);
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    private static final class FailingSink implements ContextSink {
+
+        @Override
+        public String getName() {
+            return "failing";
+        }
+
+        @Override
+        public void write(AggregatedContextDocument document, Runnable onPersisted) {
+            throw new IllegalStateException("sink unavailable");
+        }
+    }
+
+    private static final class BlockingSink implements ContextSink {
+
+        private final CountDownLatch gate;
+
+        private BlockingSink(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public String getName() {
+            return "slow";
+        }
+
+        @Override
+        public void write(AggregatedContextDocument document, Runnable onPersisted) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            onPersisted.run();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.spanlink_demo.sink;
+
+import com.example.spanlink_demo.codec.TraceContextCodec;
+import com.example.spanlink_demo.model.AggregatedContextDocument;
+import com.example.spanlink_demo.model.AggregatedContextDocument.FanInSpanData;
+import com.example.spanlink_demo.model.AggregatedContextDocument.SpanContextData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
+
+class FileContextSinkTests {
+
+    private static final SpanContext REQUEST = SpanContext.createFromRemoteParent(
+            "4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7",
+            TraceFlags.getSampled(), TraceState.builder().put("vendor", "v1").build());
+    private static final SpanContext OTHER_REQUEST = SpanContext.create(
+            "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+            TraceFlags.getDefault(), TraceState.getDefault());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void ndjsonLineCarriesTheDocumentInTheStringSchema() throws Exception {
+        FileContextSink sink = new FileContextSink(directory, "ndjson", 1024 * 1024, 0);
+        sink.write(document(), null);
+        sink.close();
+
+        List<String> lines = Files.readAllLines(segments().get(0));
+        assertThat(lines).hasSize(1);
+        JsonNode json = new ObjectMapper().readTree(lines.get(0));
+        assertThat(json.has("id")).isFalse();
+        assertThat(json.get("aggregationKey").asText()).isEqualTo("orders");
+        assertThat(json.get("masterTraceId").asText()).isEqualTo("0123456789abcdef0123456789abcdef");
+        assertThat(json.get("firstRequestTimestamp").asText()).isEqualTo("2024-01-01T00:00:00.123Z");
+        assertThat(json.get("pendingRequestIds")).extracting(JsonNode::asText).containsExactly("req-0", "req-1");
+        // The compact entry is written with hex IDs and its traceparent, like the string one
+        JsonNode spanContexts = json.get("pendingSpanContexts");
+        assertThat(spanContexts).extracting(node -> node.get("traceparent").asText()).containsExactly(
+                TraceContextCodec.formatTraceparent(REQUEST), TraceContextCodec.formatTraceparent(OTHER_REQUEST));
+        assertThat(spanContexts.get(0).get("traceState").asText()).isEqualTo("vendor=v1");
+        assertThat(spanContexts.get(1).has("traceState")).isFalse();
+        assertThat(json.get("fanInSpans").get(0).get("count").asInt()).isEqualTo(2);
+    }
+
+    @Test
+    void binarySegmentReadsBackTheDocument() throws Exception {
+        FileContextSink sink = new FileContextSink(directory, "binary", 1024 * 1024, 0);
+        AggregatedContextDocument written = document();
+        sink.write(written, null);
+        sink.write(ContextSinksTests.document(1), null);
+        sink.close();
+
+        List<AggregatedContextDocument> documents = FileContextSink.readBinarySegment(segments().get(0));
+
+        assertThat(documents).hasSize(2);
+        AggregatedContextDocument read = documents.get(0);
+        assertThat(read.getAggregationKey()).isEqualTo("orders");
+        assertThat(read.getTriggerReason()).isEqualTo("count_threshold");
+        assertThat(read.getMasterTraceId()).isEqualTo(written.getMasterTraceId());
+        assertThat(read.getTimestamp()).isEqualTo(written.getTimestamp().truncatedTo(ChronoUnit.MILLIS));
+        assertThat(read.getFirstRequestTimestamp()).isEqualTo(written.getFirstRequestTimestamp());
+        assertThat(read.getPendingRequestIds()).containsExactly("req-0", "req-1");
+        assertThat(read.getPendingSpanContexts()).extracting(SpanContextData::toSpanContext)
+                .extracting(SpanContext::getTraceId, SpanContext::getSpanId, SpanContext::getTraceFlags, SpanContext::getTraceState)
+                .containsExactly(
+                        tuple(REQUEST.getTraceId(), REQUEST.getSpanId(), REQUEST.getTraceFlags(), REQUEST.getTraceState()),
+                        tuple(OTHER_REQUEST.getTraceId(), OTHER_REQUEST.getSpanId(), OTHER_REQUEST.getTraceFlags(), OTHER_REQUEST.getTraceState()));
+        assertThat(read.getFanInSpans()).singleElement().usingRecursiveComparison().isEqualTo(written.getFanInSpans().get(0));
+        assertThat(documents.get(1).getFanInSpans()).isNull();
+        assertThat(documents.get(1).getPendingRequestIds()).containsExactly("req-1");
+    }
+
+    @Test
+    void tornRecordAtTheEndOfASegmentIsSkipped() throws Exception {
+        FileContextSink sink = new FileContextSink(directory, "binary", 1024 * 1024, 0);
+        sink.write(document(), null);
+        sink.write(document(), null);
+        sink.close();
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertThat(FileContextSink.readBinarySegment(segment)).hasSize(1);
+    }
+
+    @Test
+    void fullSegmentsRollAndTheOldestAreDeleted() throws Exception {
+        // Every document fills a segment
+        FileContextSink sink = new FileContextSink(directory, "ndjson", 1, 2);
+        for (int i = 0; i < 5; i++) {
+            sink.write(ContextSinksTests.document(i), null);
+        }
+        sink.close();
+
+        assertThat(segments()).extracting(path -> path.getFileName().toString())
+                .containsExactly("contexts-00000000000000000003.ndjson", "contexts-00000000000000000004.ndjson");
+        assertThat(sink.getDeletedSegments()).isEqualTo(3);
+        assertThat(sink.getWrittenDocuments()).isEqualTo(5);
+
+        // A restart continues after the last segment
+        FileContextSink restarted = new FileContextSink(directory, "ndjson", 1024 * 1024, 0);
+        restarted.write(ContextSinksTests.document(5), null);
+        restarted.close();
+        assertThat(segments()).last().extracting(path -> path.getFileName().toString())
+                .isEqualTo("contexts-00000000000000000005.ndjson");
+    }
+
+    private static AggregatedContextDocument document() {
+        AggregatedContextDocument document = new AggregatedContextDocument("orders", "count_threshold",
+                List.of("req-0", "req-1"),
+                List.of(SpanContextData.compact(REQUEST),
+                        new SpanContextData(OTHER_REQUEST.getTraceId(), OTHER_REQUEST.getSpanId(),
+                                String.valueOf(OTHER_REQUEST.getTraceFlags().asByte()), null,
+                                TraceContextCodec.formatTraceparent(OTHER_REQUEST))),
+                "0123456789abcdef0123456789abcdef", Instant.parse("2024-01-01T00:00:00.123Z"));
+        document.setFanInSpans(List.of(new FanInSpanData("1111111111111111", "2222222222222222", 0, 2, true)));
+        return document;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}